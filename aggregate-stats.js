@@ -1,5 +1,9 @@
 // MongoDB script to aggregate video stats from events
 // Run with: docker exec streaming-mongodb mongosh streaming_analytics --eval "load('/tmp/aggregate-stats.js')"
+//
+// Suitable for small datasets only: $addToSet keeps every userId per video in memory.
+// For large datasets use the chunked parallel rebuild:
+//   POST /api/v1/analytics/jobs/stats-rebuild
 
 // Connect to the database
 db = db.getSiblingDB('streaming_analytics');
@@ -7,11 +11,10 @@ db = db.getSiblingDB('streaming_analytics');
 print("=== AGGREGATING VIDEO STATISTICS ===");
 print("");
 
-// 1. Drop existing video_stats and rebuild from events
+// 1. Rebuild video_stats from events
+// $out replaces the collection atomically, so the live one is never dropped mid-run
 print("Step 1: Building video_stats from events...");
 
-db.video_stats.drop();
-
 db.events.aggregate([
     {
         $match: { action: "WATCH" }
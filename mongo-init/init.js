@@ -9,6 +9,9 @@ db.createCollection('events');
 db.createCollection('video_stats');
 db.createCollection('user_profiles');
 db.createCollection('videos');
+db.createCollection('watch_history');
+db.createCollection('event_sessions');
+db.createCollection('event_rollups');
 
 // Create indexes for performance
 print('📊 Creating indexes...');
@@ -19,6 +22,11 @@ db.events.createIndex({ "videoId": 1 });
 db.events.createIndex({ "timestamp": -1 });
 db.events.createIndex({ "userId": 1, "timestamp": -1 });
 db.events.createIndex({ "videoId": 1, "timestamp": -1 });
+// Partial index for WATCH-only per-video counts (trending); keep in sync with IndexManager
+db.events.createIndex(
+    { "videoId": 1, "action": 1, "timestamp": 1 },
+    { name: "videoId_1_action_1_timestamp_1_watch", partialFilterExpression: { "action": "WATCH" } }
+);
 
 // Indexes on video_stats
 db.video_stats.createIndex({ "videoId": 1 }, { unique: true });
@@ -27,11 +35,28 @@ db.video_stats.createIndex({ "lastUpdated": -1 });
 
 // Indexes on user_profiles
 db.user_profiles.createIndex({ "userId": 1 }, { unique: true });
+db.user_profiles.createIndex({ "totalWatchTime": -1 });
+
+// Indexes on watch_history (bucketed per user and day)
+db.watch_history.createIndex({ "userId": 1, "bucketStart": -1 });
+db.watch_history.createIndex(
+    { "userId": 1, "bucketStart": 1 },
+    { name: "userId_1_bucketStart_1_open", unique: true, partialFilterExpression: { "count": { "$lt": 200 } } }
+);
+
+// Indexes on event_sessions (compacted raw events)
+db.event_sessions.createIndex({ "start": 1 });
+db.event_sessions.createIndex({ "userId": 1, "start": -1 });
+db.event_sessions.createIndex({ "upTo": 1 });
+
+// Indexes on event_rollups (hourly counters written at ingest)
+db.event_rollups.createIndex({ "_id.d": 1, "_id.h": 1 });
 
 // Indexes on videos
 db.videos.createIndex({ "videoId": 1 }, { unique: true });
 db.videos.createIndex({ "category": 1 });
 db.videos.createIndex({ "views": -1 });
+db.videos.createIndex({ "category": 1, "views": -1 });
 
 print('✅ Indexes created successfully');
 
@@ -1,22 +1,50 @@
 package com.streaming.analytics.api;
 
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
+import com.streaming.analytics.metrics.ConnectionPoolMetrics;
+import com.streaming.analytics.metrics.QueryMetrics;
 import com.streaming.analytics.model.Video;
 import com.streaming.analytics.model.VideoStats;
 import com.streaming.analytics.model.ViewEvent;
+import com.streaming.analytics.repository.CatalogSync;
+import com.streaming.analytics.repository.CatalogSyncResult;
+import com.streaming.analytics.repository.EventFilter;
+import com.streaming.analytics.repository.IndexManager;
+import com.streaming.analytics.repository.VideoRepository;
 import com.streaming.analytics.service.AnalyticsService;
 import com.streaming.analytics.service.EventProcessorService;
+import com.streaming.analytics.service.MaterializedViewJob;
+import com.streaming.analytics.service.SessionCompactionJob;
+import com.streaming.analytics.service.StatsRebuildJob;
+import com.streaming.analytics.service.StatsRebuildService;
+import com.streaming.analytics.state.EventCube;
+import com.streaming.analytics.state.EventCubeService;
+import com.streaming.analytics.state.HeavyHitterService;
+import com.streaming.analytics.state.UniqueViewerService;
+import com.streaming.analytics.state.VideoCounterService;
+import com.streaming.analytics.state.VideoCounterTable;
+import com.streaming.analytics.state.WindowedTopService;
+import com.streaming.analytics.state.WindowedViewCounts;
 import jakarta.enterprise.context.RequestScoped;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * REST API for analytics operations
@@ -36,6 +64,42 @@ public class AnalyticsResource {
     @Inject
     private AnalyticsService analyticsService;
 
+    @Inject
+    private QueryMetrics queryMetrics;
+
+    @Inject
+    private ConnectionPoolMetrics poolMetrics;
+
+    @Inject
+    private IndexManager indexManager;
+
+    @Inject
+    private StatsRebuildService statsRebuildService;
+
+    @Inject
+    private SessionCompactionJob sessionCompactionJob;
+
+    @Inject
+    private VideoCounterService videoCounters;
+
+    @Inject
+    private MaterializedViewJob materializedViews;
+
+    @Inject
+    private VideoRepository videoRepository;
+
+    @Inject
+    private EventCubeService eventCube;
+
+    @Inject
+    private UniqueViewerService uniqueViewers;
+
+    @Inject
+    private HeavyHitterService heavyHitters;
+
+    @Inject
+    private WindowedTopService windowedTop;
+
     /**
      * Health check endpoint
      * GET /api/v1/analytics/health
@@ -138,17 +202,38 @@ public class AnalyticsResource {
     }
 
     /**
-     * Get top videos
-     * GET /api/v1/analytics/videos/top?limit=10
+     * Get top videos: all-time from the stats, since startup from the streaming heavy
+     * hitters (source=stream, with the bounds of each count), or exact views over the last
+     * 5 minutes, hour or 24 hours (window=5m|1h|24h)
+     * GET /api/v1/analytics/videos/top?limit=10&source=stream
+     * GET /api/v1/analytics/videos/top?limit=10&window=1h
      */
     @GET
     @Path("/videos/top")
-    public Response getTopVideos(@QueryParam("limit") @DefaultValue("10") int limit) {
+    public Response getTopVideos(@QueryParam("limit") @DefaultValue("10") int limit,
+            @QueryParam("source") String source,
+            @QueryParam("window") String window) {
         try {
             if (limit < 1 || limit > 100) {
                 limit = 10;
             }
 
+            if (window != null) {
+                return windowedTopVideos(window, limit);
+            }
+            if ("stream".equals(source)) {
+                if (!heavyHitters.isEnabled()) {
+                    return Response.status(Response.Status.NOT_FOUND)
+                            .entity(errorResponse("Heavy hitters are disabled (HEAVY_HITTERS=false)"))
+                            .build();
+                }
+                return Response.ok(rankingResponse(heavyHitters.topVideos(limit), "videos")).build();
+            } else if (source != null && !"stats".equals(source)) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity(errorResponse("Unknown source: " + source + " (stats or stream)"))
+                        .build();
+            }
+
             List<VideoStats> topVideos = eventProcessor.getTopVideos(limit);
 
             Map<String, Object> response = new HashMap<>();
@@ -197,6 +282,46 @@ public class AnalyticsResource {
         }
     }
 
+    /**
+     * Get the realtime counters of a video (views, watch seconds, per action/device/quality)
+     * GET /api/v1/analytics/videos/{videoId}/counters
+     */
+    @GET
+    @Path("/videos/{videoId}/counters")
+    public Response getVideoCounters(@PathParam("videoId") String videoId) {
+        if (!videoCounters.isEnabled()) {
+            return Response.status(Response.Status.NOT_FOUND)
+                    .entity(errorResponse("Video counters are disabled (set VIDEO_COUNTERS_DIR)"))
+                    .build();
+        }
+
+        VideoCounterTable.Counters counters = videoCounters.getCounters(videoId);
+        if (counters == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                    .entity(errorResponse("No counters found for video: " + videoId))
+                    .build();
+        }
+        return Response.ok(counters).build();
+    }
+
+    /**
+     * Get the users with the most events since startup (streaming heavy hitters)
+     * GET /api/v1/analytics/users/top?limit=10
+     */
+    @GET
+    @Path("/users/top")
+    public Response getTopUsers(@QueryParam("limit") @DefaultValue("10") int limit) {
+        if (!heavyHitters.isEnabled() || !heavyHitters.isTrackingUsers()) {
+            return Response.status(Response.Status.NOT_FOUND)
+                    .entity(errorResponse("User heavy hitters are disabled (HEAVY_HITTERS, HEAVY_HITTERS_USERS)"))
+                    .build();
+        }
+        if (limit < 1 || limit > 100) {
+            limit = 10;
+        }
+        return Response.ok(rankingResponse(heavyHitters.topUsers(limit), "users")).build();
+    }
+
     /**
      * Get personalized recommendations
      * GET /api/v1/analytics/users/{userId}/recommendations?limit=5
@@ -235,14 +360,14 @@ public class AnalyticsResource {
     }
 
     /**
-     * Get category statistics
+     * Get category statistics, with watch duration percentiles
      * GET /api/v1/analytics/categories
      */
     @GET
     @Path("/categories")
     public Response getCategoryStats() {
         try {
-            Map<String, AnalyticsService.CategoryStats> categoryStats = analyticsService.aggregateByCategory();
+            Map<String, AnalyticsService.CategoryStats> categoryStats = analyticsService.aggregateByCategory(true);
 
             Map<String, Object> response = new HashMap<>();
             response.put("count", categoryStats.size());
@@ -258,6 +383,38 @@ public class AnalyticsResource {
         }
     }
 
+    /**
+     * Get the estimated unique viewers of all videos, or of the videos of a category
+     * GET /api/v1/analytics/unique-viewers?category=Music
+     */
+    @GET
+    @Path("/unique-viewers")
+    public Response getUniqueViewers(@QueryParam("category") String category) {
+        if (!uniqueViewers.isEnabled()) {
+            return Response.status(Response.Status.NOT_FOUND)
+                    .entity(errorResponse("Unique viewer sketches are disabled (UNIQUE_VIEWERS=false)"))
+                    .build();
+        }
+        try {
+            UniqueViewerService.ViewerCount count = category != null && !category.isEmpty()
+                    ? uniqueViewers.countCategory(category)
+                    : uniqueViewers.countAll();
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("category", category);
+            response.put("uniqueViewers", count.getEstimate());
+            response.put("standardError", count.getStandardError());
+
+            return Response.ok(response).build();
+
+        } catch (Exception e) {
+            logger.error("Error getting unique viewers", e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity(errorResponse("Failed to get unique viewers: " + e.getMessage()))
+                    .build();
+        }
+    }
+
     /**
      * Get trending videos
      * GET /api/v1/analytics/videos/trending?limit=10
@@ -286,6 +443,123 @@ public class AnalyticsResource {
         }
     }
 
+    /**
+     * Get event counts per value of several dimensions (deviceType, quality, action) at once,
+     * optionally in [from, to) (ISO-8601 instants) and for one video or category; approx=true
+     * estimates the counts from a sample of the events, with a 95% interval per value
+     * GET /api/v1/analytics/breakdown?dimensions=deviceType,quality,action&from=2024-03-01T00:00:00Z&category=Drama
+     */
+    @GET
+    @Path("/breakdown")
+    public Response getBreakdown(
+            @QueryParam("dimensions") @DefaultValue("deviceType,quality,action") String dimensions,
+            @QueryParam("from") String from,
+            @QueryParam("to") String to,
+            @QueryParam("videoId") String videoId,
+            @QueryParam("category") String category,
+            @QueryParam("approx") @DefaultValue("false") boolean approx) {
+        try {
+            List<String> requested = new ArrayList<>();
+            for (String dimension : dimensions.split(",")) {
+                if (!dimension.isBlank()) {
+                    requested.add(dimension.trim());
+                }
+            }
+            AnalyticsService.Breakdown breakdown = analyticsService.getBreakdown(requested,
+                    eventFilter(from, to, videoId, category), approx);
+            return Response.ok(breakdown).build();
+
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(errorResponse("Invalid breakdown request: " + e.getMessage()))
+                    .build();
+        }
+    }
+
+    /**
+     * Get event counts and average duration per hour, day or month (newest 24), with the same
+     * from, to, videoId, category and approx parameters as the breakdown (estimates add low and high)
+     * GET /api/v1/analytics/periods?period=day&from=2024-03-01T00:00:00Z&videoId=video_1
+     */
+    @GET
+    @Path("/periods")
+    public Response getPeriods(
+            @QueryParam("period") @DefaultValue("day") String period,
+            @QueryParam("from") String from,
+            @QueryParam("to") String to,
+            @QueryParam("videoId") String videoId,
+            @QueryParam("category") String category,
+            @QueryParam("approx") @DefaultValue("false") boolean approx) {
+        try {
+            List<Document> periods = analyticsService.aggregateByTimePeriod(period,
+                    eventFilter(from, to, videoId, category), approx);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("period", period);
+            response.put("approximate", approx);
+            response.put("count", periods.size());
+            response.put("periods", periods);
+            return Response.ok(response).build();
+
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(errorResponse("Invalid period request: " + e.getMessage()))
+                    .build();
+        }
+    }
+
+    /**
+     * Slice the in-memory event cube: event counts and duration sums grouped by any of
+     * hour, action, deviceType, quality and category
+     * GET /api/v1/analytics/cube?groupBy=deviceType,quality&filter=action:WATCH&filter=category:Drama&hours=24
+     * Repeated filters on one dimension are alternatives; hours limits to the last whole hours
+     */
+    @GET
+    @Path("/cube")
+    public Response queryCube(
+            @QueryParam("groupBy") @DefaultValue("") String groupBy,
+            @QueryParam("filter") List<String> filter,
+            @QueryParam("hours") Integer hours) {
+        if (!eventCube.isReady()) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .entity(errorResponse("The event cube is disabled or still loading"))
+                    .build();
+        }
+        try {
+            List<String> dimensions = new ArrayList<>();
+            for (String dimension : groupBy.split(",")) {
+                if (!dimension.isBlank()) {
+                    dimensions.add(dimension.trim());
+                }
+            }
+            Map<String, Set<String>> filters = new HashMap<>();
+            for (String condition : filter) {
+                int colon = condition.indexOf(':');
+                if (colon < 1) {
+                    throw new IllegalArgumentException("Filter must be dimension:value, got " + condition);
+                }
+                filters.computeIfAbsent(condition.substring(0, colon), k -> new HashSet<>())
+                        .add(condition.substring(colon + 1));
+            }
+            Instant since = hours != null
+                    ? Instant.now().truncatedTo(ChronoUnit.HOURS).minus(Math.max(hours, 1) - 1, ChronoUnit.HOURS)
+                    : null;
+
+            List<EventCube.Row> rows = eventCube.query(dimensions, filters, since);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("complete", eventCube.isComplete());
+            response.put("count", rows.size());
+            response.put("rows", rows);
+            return Response.ok(response).build();
+
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(errorResponse(e.getMessage()))
+                    .build();
+        }
+    }
+
     /**
      * Get dashboard summary
      * GET /api/v1/analytics/dashboard
@@ -305,10 +579,239 @@ public class AnalyticsResource {
         }
     }
 
+    /**
+     * Get per-query read measurements (bytes transferred, decode time)
+     * GET /api/v1/analytics/metrics/queries
+     */
+    @GET
+    @Path("/metrics/queries")
+    public Response getQueryMetrics() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("queries", queryMetrics.snapshot().values());
+        return Response.ok(response).build();
+    }
+
+    /**
+     * Get connection, check-out and wait-time measurements of each MongoDB client pool
+     * GET /api/v1/analytics/metrics/pools
+     */
+    @GET
+    @Path("/metrics/pools")
+    public Response getPoolMetrics() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("pools", poolMetrics.snapshot().values());
+        return Response.ok(response).build();
+    }
+
+    /**
+     * Get the result of the last index reconciliation
+     * GET /api/v1/analytics/metrics/indexes
+     */
+    @GET
+    @Path("/metrics/indexes")
+    public Response getIndexReport() {
+        IndexManager.ReconcileReport report = indexManager.getLastReport();
+        if (report == null) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .entity(errorResponse("Index reconciliation has not completed yet"))
+                    .build();
+        }
+        return Response.ok(report).build();
+    }
+
+    /**
+     * Start a parallel rebuild of video_stats and user_profiles from events
+     * POST /api/v1/analytics/jobs/stats-rebuild?chunks=32&parallelism=4&throttleMs=0&resume=true
+     */
+    @POST
+    @Path("/jobs/stats-rebuild")
+    public Response startStatsRebuild(
+            @QueryParam("chunks") @DefaultValue("32") int chunks,
+            @QueryParam("parallelism") @DefaultValue("4") int parallelism,
+            @QueryParam("throttleMs") @DefaultValue("0") long throttleMs,
+            @QueryParam("resume") @DefaultValue("true") boolean resume,
+            @QueryParam("videoStats") @DefaultValue("true") boolean videoStats,
+            @QueryParam("userProfiles") @DefaultValue("true") boolean userProfiles) {
+        try {
+            StatsRebuildJob.Progress progress = statsRebuildService.start(new StatsRebuildJob.Options()
+                    .chunks(Math.min(chunks, 1024))
+                    .parallelism(Math.min(parallelism, 32))
+                    .throttleMillis(throttleMs)
+                    .resume(resume)
+                    .videoStats(videoStats)
+                    .userProfiles(userProfiles));
+            return Response.status(Response.Status.ACCEPTED).entity(progress).build();
+
+        } catch (IllegalStateException e) {
+            return Response.status(Response.Status.CONFLICT)
+                    .entity(errorResponse(e.getMessage()))
+                    .build();
+        }
+    }
+
+    /**
+     * Get the progress of the current or last stats rebuild
+     * GET /api/v1/analytics/jobs/stats-rebuild
+     */
+    @GET
+    @Path("/jobs/stats-rebuild")
+    public Response getStatsRebuildProgress() {
+        StatsRebuildJob.Progress progress = statsRebuildService.getProgress();
+        if (progress == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                    .entity(errorResponse("No stats rebuild has been started"))
+                    .build();
+        }
+        return Response.ok(progress).build();
+    }
+
+    /**
+     * Cancel the running stats rebuild (completed chunks are kept for resume)
+     * DELETE /api/v1/analytics/jobs/stats-rebuild
+     */
+    @DELETE
+    @Path("/jobs/stats-rebuild")
+    public Response cancelStatsRebuild() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("cancelled", statsRebuildService.cancel());
+        return Response.ok(response).build();
+    }
+
+    /**
+     * Compact raw events older than COMPACTION_MIN_AGE_DAYS into session documents now
+     * POST /api/v1/analytics/jobs/session-compaction
+     */
+    @POST
+    @Path("/jobs/session-compaction")
+    public Response startSessionCompaction() {
+        try {
+            sessionCompactionJob.submit();
+            return Response.status(Response.Status.ACCEPTED).entity(getCompactionStatus()).build();
+
+        } catch (IllegalStateException e) {
+            return Response.status(Response.Status.CONFLICT)
+                    .entity(errorResponse(e.getMessage()))
+                    .build();
+        }
+    }
+
+    /**
+     * Get the compaction watermark (raw events before it live in event_sessions)
+     * GET /api/v1/analytics/jobs/session-compaction
+     */
+    @GET
+    @Path("/jobs/session-compaction")
+    public Response getSessionCompaction() {
+        return Response.ok(getCompactionStatus()).build();
+    }
+
+    private Map<String, Object> getCompactionStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("running", sessionCompactionJob.isRunning());
+        status.put("watermark", sessionCompactionJob.getWatermark());
+        return status;
+    }
+
+    /**
+     * Fold new events into the materialized views now
+     * POST /api/v1/analytics/jobs/materialized-views
+     */
+    @POST
+    @Path("/jobs/materialized-views")
+    public Response refreshMaterializedViews() {
+        try {
+            materializedViews.submit();
+            return Response.status(Response.Status.ACCEPTED).entity(materializedViews.getStatus()).build();
+
+        } catch (IllegalStateException e) {
+            return Response.status(Response.Status.CONFLICT)
+                    .entity(errorResponse(e.getMessage()))
+                    .build();
+        }
+    }
+
+    /**
+     * Get the watermark, refresh lag and last refresh time of each materialized view
+     * GET /api/v1/analytics/jobs/materialized-views
+     */
+    @GET
+    @Path("/jobs/materialized-views")
+    public Response getMaterializedViews() {
+        return Response.ok(materializedViews.getStatus()).build();
+    }
+
+    /**
+     * Sync the video catalog with a full feed (JSON array of videos, as in videos_catalog.json)
+     * Only new, changed and removed videos are written
+     * POST /api/v1/analytics/catalog/sync
+     */
+    @POST
+    @Path("/catalog/sync")
+    public Response syncCatalog(InputStream feed) {
+        try {
+            CatalogSyncResult result = videoRepository.syncCatalog(CatalogSync.readFeed(feed));
+            eventCube.forgetCategories(result.getChangedVideoIds());
+            return Response.ok(result).build();
+
+        } catch (IOException | RuntimeJsonMappingException e) {
+            // Nothing is deleted when the feed cannot be read to the end
+            logger.error("Invalid catalog feed", e);
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(errorResponse("Invalid catalog feed: " + e.getMessage()))
+                    .build();
+        }
+    }
+
     /**
      * Helper method to create error response
      */
-    private Map<String, String> errorResponse(String message) {
+    private EventFilter eventFilter(String from, String to, String videoId, String category) {
+        return analyticsService.eventFilter(
+                from != null ? Instant.parse(from) : null,
+                to != null ? Instant.parse(to) : null,
+                videoId, category);
+    }
+
+    private Response windowedTopVideos(String label, int limit) {
+        if (!windowedTop.isEnabled()) {
+            return Response.status(Response.Status.NOT_FOUND)
+                    .entity(errorResponse("Windowed top videos are disabled (WINDOWED_TOP=false)"))
+                    .build();
+        }
+        WindowedViewCounts.Window window;
+        try {
+            window = WindowedViewCounts.Window.parse(label);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(errorResponse(e.getMessage()))
+                    .build();
+        }
+
+        Instant now = Instant.now();
+        List<WindowedViewCounts.Entry> videos = windowedTop.top(window, limit, now);
+        Map<String, Object> response = new HashMap<>();
+        response.put("window", window.getLabel());
+        response.put("from", window.start(now));
+        // false while the windows are seeded from the stored events
+        response.put("complete", windowedTop.isReady());
+        response.put("count", videos.size());
+        response.put("videos", videos);
+        return Response.ok(response).build();
+    }
+
+    private Map<String, Object> rankingResponse(HeavyHitterService.Ranking ranking, String name) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("source", "stream");
+        response.put("since", heavyHitters.getSince());
+        response.put("total", ranking.getTotal());
+        response.put("errorBound", ranking.getErrorBound());
+        response.put("confidence", ranking.getConfidence());
+        response.put("count", ranking.getItems().size());
+        response.put(name, ranking.getItems());
+        return response;
+    }
+
+        private Map<String, String> errorResponse(String message) {
         Map<String, String> error = new HashMap<>();
         error.put("error", message);
         return error;
@@ -0,0 +1,18 @@
+package com.streaming.analytics.config;
+
+import jakarta.inject.Qualifier;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Selects the MongoDatabase of the analytics reads and maintenance jobs (MONGODB_ANALYTICS_*
+ * settings); it is also the unqualified MongoDatabase
+ */
+@Qualifier
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD, ElementType.METHOD, ElementType.PARAMETER, ElementType.TYPE })
+public @interface AnalyticsDatabase {
+}
@@ -0,0 +1,18 @@
+package com.streaming.analytics.config;
+
+import jakarta.inject.Qualifier;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Selects the MongoDatabase of the ingest path: its own connection pool and a fast
+ * acknowledgement (MONGODB_INGEST_* settings)
+ */
+@Qualifier
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD, ElementType.METHOD, ElementType.PARAMETER, ElementType.TYPE })
+public @interface IngestDatabase {
+}
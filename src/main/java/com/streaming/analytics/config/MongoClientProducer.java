@@ -1,26 +1,40 @@
 package com.streaming.analytics.config;
 
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoDatabase;
+import com.streaming.analytics.metrics.ConnectionPoolMetrics;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.inject.Produces;
+import jakarta.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * CDI Producer for MongoDB client
+ * CDI Producer for MongoDB clients
  * Provides injectable MongoClient and MongoDatabase instances
+ *
+ * The ingest path and the analytics reads/jobs use separate clients, so a slow aggregation
+ * cannot hold the connections event inserts wait for; each client has its own pool size,
+ * timeouts and write/read concern (see MongoProfile). Unqualified injection points get the
+ * analytics client.
  */
 @ApplicationScoped
 public class MongoClientProducer {
 
     private static final Logger logger = LoggerFactory.getLogger(MongoClientProducer.class);
 
+    @Inject
+    private ConnectionPoolMetrics poolMetrics;
+
     private MongoClient mongoClient;
 
+    private MongoClient ingestClient;
+
     // MongoDB connection settings - can be overridden by environment variables
     private static final String MONGODB_HOST = System.getenv("MONGODB_HOST") != null
             ? System.getenv("MONGODB_HOST")
@@ -40,19 +54,33 @@ public class MongoClientProducer {
 
     @PostConstruct
     public void init() {
-        String connectionString = String.format(
+        ConnectionString connectionString = new ConnectionString(String.format(
                 "mongodb://%s:%s@%s:%s/?authSource=admin",
-                MONGODB_USERNAME, MONGODB_PASSWORD, MONGODB_HOST, MONGODB_PORT);
+                MONGODB_USERNAME, MONGODB_PASSWORD, MONGODB_HOST, MONGODB_PORT));
 
         logger.info("Connecting to MongoDB at {}:{}", MONGODB_HOST, MONGODB_PORT);
-        mongoClient = MongoClients.create(connectionString);
+        mongoClient = createClient(connectionString, MongoProfile.analytics());
+        ingestClient = createClient(connectionString, MongoProfile.ingest());
         logger.info("MongoDB connection established");
     }
 
+    private MongoClient createClient(ConnectionString connectionString, MongoProfile profile) {
+        MongoClientSettings.Builder settings = MongoClientSettings.builder()
+                .applyConnectionString(connectionString);
+        profile.applyTo(settings)
+                .applyToConnectionPoolSettings(pool -> pool
+                        .addConnectionPoolListener(poolMetrics.listener(profile.getWorkload())));
+        logger.info("MongoDB client {}", profile);
+        return MongoClients.create(settings.build());
+    }
+
     @PreDestroy
     public void cleanup() {
+        logger.info("Closing MongoDB connections");
+        if (ingestClient != null) {
+            ingestClient.close();
+        }
         if (mongoClient != null) {
-            logger.info("Closing MongoDB connection");
             mongoClient.close();
         }
     }
@@ -68,4 +96,18 @@ public class MongoClientProducer {
     public MongoDatabase getDatabase() {
         return mongoClient.getDatabase(MONGODB_DATABASE);
     }
+
+    @Produces
+    @ApplicationScoped
+    @AnalyticsDatabase
+    public MongoDatabase getAnalyticsDatabase() {
+        return mongoClient.getDatabase(MONGODB_DATABASE);
+    }
+
+    @Produces
+    @ApplicationScoped
+    @IngestDatabase
+    public MongoDatabase getIngestDatabase() {
+        return ingestClient.getDatabase(MONGODB_DATABASE);
+    }
 }
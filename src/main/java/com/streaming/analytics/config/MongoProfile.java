@@ -0,0 +1,210 @@
+package com.streaming.analytics.config;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadConcernLevel;
+import com.mongodb.WriteConcern;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection settings of one workload (ingest or analytics)
+ *
+ * Each setting is read from MONGODB_<WORKLOAD>_<SETTING>, then MONGODB_<SETTING>, as an
+ * environment variable or a system property, else the workload default:
+ * POOL_MIN, POOL_MAX, POOL_WAIT_MS, CONNECT_TIMEOUT_MS, SOCKET_TIMEOUT_MS,
+ * COMPRESSORS (comma-separated: zstd, snappy, zlib; "none" to disable), APP_NAME,
+ * WRITE_CONCERN (a number, "majority" or "unacknowledged") and READ_CONCERN
+ * (local, majority, available, linearizable, snapshot or "default").
+ */
+public final class MongoProfile {
+
+    private final String workload;
+    private final int poolMin;
+    private final int poolMax;
+    private final long poolWaitMs;
+    private final int connectTimeoutMs;
+    private final int socketTimeoutMs;
+    private final List<String> compressors;
+    private final String appName;
+    private final WriteConcern writeConcern;
+    private final ReadConcern readConcern;
+
+    private MongoProfile(String workload, int poolMin, int poolMax, long poolWaitMs, int connectTimeoutMs,
+            int socketTimeoutMs, List<String> compressors, String appName, WriteConcern writeConcern,
+            ReadConcern readConcern) {
+        if (poolMin < 0 || poolMax < 1 || poolMin > poolMax) {
+            throw new IllegalArgumentException("Invalid pool size for " + workload + ": " + poolMin + ".." + poolMax);
+        }
+        this.workload = workload;
+        this.poolMin = poolMin;
+        this.poolMax = poolMax;
+        this.poolWaitMs = poolWaitMs;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.socketTimeoutMs = socketTimeoutMs;
+        this.compressors = compressors;
+        this.appName = appName;
+        this.writeConcern = writeConcern;
+        this.readConcern = readConcern;
+    }
+
+    /**
+     * Ingest: many short inserts, acknowledged by the primary alone, failing fast when the
+     * pool is exhausted
+     */
+    public static MongoProfile ingest() {
+        return load("ingest", 10, 50, 2_000, "1", "local");
+    }
+
+    /**
+     * Analytics: fewer, longer aggregations and maintenance jobs, majority-acknowledged
+     */
+    public static MongoProfile analytics() {
+        return load("analytics", 2, 20, 10_000, "majority", "local");
+    }
+
+    private static MongoProfile load(String workload, int poolMin, int poolMax, long poolWaitMs,
+            String writeConcern, String readConcern) {
+        return new MongoProfile(workload,
+                Integer.parseInt(setting(workload, "POOL_MIN", String.valueOf(poolMin))),
+                Integer.parseInt(setting(workload, "POOL_MAX", String.valueOf(poolMax))),
+                Long.parseLong(setting(workload, "POOL_WAIT_MS", String.valueOf(poolWaitMs))),
+                Integer.parseInt(setting(workload, "CONNECT_TIMEOUT_MS", "10000")),
+                Integer.parseInt(setting(workload, "SOCKET_TIMEOUT_MS", "0")),
+                parseCompressors(setting(workload, "COMPRESSORS", "zstd,snappy")),
+                setting(workload, "APP_NAME", "streaming-analytics-" + workload),
+                parseWriteConcern(setting(workload, "WRITE_CONCERN", writeConcern)),
+                parseReadConcern(setting(workload, "READ_CONCERN", readConcern)));
+    }
+
+    private static String setting(String workload, String name, String defaultValue) {
+        String value = lookup("MONGODB_" + workload.toUpperCase(Locale.ROOT) + "_" + name);
+        if (value == null) {
+            value = lookup("MONGODB_" + name);
+        }
+        return value != null ? value.trim() : defaultValue;
+    }
+
+    private static String lookup(String name) {
+        return System.getenv(name) != null ? System.getenv(name) : System.getProperty(name);
+    }
+
+    static List<String> parseCompressors(String value) {
+        List<String> names = new ArrayList<>();
+        for (String name : value.split(",")) {
+            name = name.trim().toLowerCase(Locale.ROOT);
+            if (name.isEmpty() || name.equals("none")) {
+                continue;
+            }
+            if (!name.equals("zstd") && !name.equals("snappy") && !name.equals("zlib")) {
+                throw new IllegalArgumentException("Unsupported compressor: " + name);
+            }
+            names.add(name);
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    static WriteConcern parseWriteConcern(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "majority":
+                return WriteConcern.MAJORITY;
+            case "unacknowledged":
+                return WriteConcern.UNACKNOWLEDGED;
+            default:
+                return new WriteConcern(Integer.parseInt(value));
+        }
+    }
+
+    static ReadConcern parseReadConcern(String value) {
+        if (value.equalsIgnoreCase("default")) {
+            return ReadConcern.DEFAULT;
+        }
+        return new ReadConcern(ReadConcernLevel.fromString(value.toLowerCase(Locale.ROOT)));
+    }
+
+    /**
+     * Applies the pool, timeout, compression and concern settings to a client builder
+     */
+    public MongoClientSettings.Builder applyTo(MongoClientSettings.Builder builder) {
+        List<MongoCompressor> compressorList = new ArrayList<>();
+        for (String name : compressors) {
+            switch (name) {
+                case "zstd":
+                    compressorList.add(MongoCompressor.createZstdCompressor());
+                    break;
+                case "snappy":
+                    compressorList.add(MongoCompressor.createSnappyCompressor());
+                    break;
+                default:
+                    compressorList.add(MongoCompressor.createZlibCompressor());
+            }
+        }
+        return builder
+                .applicationName(appName)
+                .compressorList(compressorList)
+                .writeConcern(writeConcern)
+                .readConcern(readConcern)
+                .applyToConnectionPoolSettings(pool -> pool
+                        .minSize(poolMin)
+                        .maxSize(poolMax)
+                        .maxWaitTime(poolWaitMs, TimeUnit.MILLISECONDS))
+                .applyToSocketSettings(socket -> socket
+                        .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                        .readTimeout(socketTimeoutMs, TimeUnit.MILLISECONDS));
+    }
+
+    public String getWorkload() {
+        return workload;
+    }
+
+    public int getPoolMin() {
+        return poolMin;
+    }
+
+    public int getPoolMax() {
+        return poolMax;
+    }
+
+    public long getPoolWaitMs() {
+        return poolWaitMs;
+    }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public int getSocketTimeoutMs() {
+        return socketTimeoutMs;
+    }
+
+    public List<String> getCompressors() {
+        return compressors;
+    }
+
+    public String getAppName() {
+        return appName;
+    }
+
+    public WriteConcern getWriteConcern() {
+        return writeConcern;
+    }
+
+    public ReadConcern getReadConcern() {
+        return readConcern;
+    }
+
+    @Override
+    public String toString() {
+        return workload + "{pool=" + poolMin + ".." + poolMax + ", waitMs=" + poolWaitMs
+                + ", connectTimeoutMs=" + connectTimeoutMs + ", socketTimeoutMs=" + socketTimeoutMs
+                + ", compressors=" + compressors + ", appName=" + appName
+                + ", w=" + (writeConcern.getWObject() != null ? writeConcern.getWObject() : "default")
+                + ", readConcern=" + (readConcern.getLevel() != null ? readConcern.getLevel().getValue() : "default")
+                + "}";
+    }
+}
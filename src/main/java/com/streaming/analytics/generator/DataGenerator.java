@@ -9,11 +9,19 @@ import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.streaming.analytics.model.Video;
 import com.streaming.analytics.model.ViewEvent;
+import com.streaming.analytics.repository.CatalogSync;
+import com.streaming.analytics.repository.CatalogSyncResult;
+import com.streaming.analytics.repository.EventWatermarks;
+import com.streaming.analytics.repository.HourlyRollups;
+import com.streaming.analytics.repository.MongoEventRollupRepository;
+import com.streaming.analytics.service.StatsRebuildJob;
 import com.streaming.analytics.tmdb.TmdbClient;
 import com.streaming.analytics.tmdb.TmdbMovie;
 import org.bson.Document;
 
+import java.io.FileInputStream;
 import java.io.FileWriter;
+import java.io.InputStream;
 import java.io.IOException;
 import java.time.Instant;
 import java.time.LocalDate;
@@ -38,6 +46,8 @@ import java.util.concurrent.ThreadLocalRandom;
  * 100000 events)
  * continuous [rate] [sec] - Real-time streaming to MongoDB (default: 10
  * events/sec for 60 sec)
+ * sync [file] - Sync the MongoDB catalog with a JSON catalog feed (default:
+ * videos_catalog.json)
  */
 public class DataGenerator {
 
@@ -250,21 +260,6 @@ public class DataGenerator {
         return doc;
     }
 
-    /**
-     * Converts a Video to a MongoDB Document
-     */
-    private Document videoToDocument(Video video) {
-        Document doc = new Document();
-        doc.append("videoId", video.getVideoId());
-        doc.append("title", video.getTitle());
-        doc.append("category", video.getCategory());
-        doc.append("duration", video.getDuration());
-        doc.append("uploadDate", Date.from(video.getUploadDate()));
-        doc.append("views", video.getViews());
-        doc.append("likes", video.getLikes());
-        return doc;
-    }
-
     /**
      * Generates and loads events directly into MongoDB (bulk mode)
      */
@@ -279,18 +274,17 @@ public class DataGenerator {
             MongoCollection<Document> videosCollection = database.getCollection("videos");
             System.out.println("\n📹 Generating and loading " + NUM_VIDEOS + " videos...");
 
-            List<Document> videoDocs = new ArrayList<>();
+            List<Video> videos = new ArrayList<>();
             for (int i = 1; i <= NUM_VIDEOS; i++) {
-                videoDocs.add(videoToDocument(generateVideo(i)));
+                videos.add(generateVideo(i));
                 if (i % 1000 == 0) {
                     System.out.println("  ✓ " + i + " videos generated");
                 }
             }
 
-            // Clear existing videos and insert new ones
-            videosCollection.drop();
-            videosCollection.insertMany(videoDocs);
-            System.out.println("✅ " + NUM_VIDEOS + " videos loaded into MongoDB");
+            // Apply only the differences to the existing catalog
+            CatalogSyncResult result = new CatalogSync(videosCollection).sync(videos.iterator());
+            System.out.println("✅ " + NUM_VIDEOS + " videos synced into MongoDB " + result);
 
             // Load events in batches
             MongoCollection<Document> eventsCollection = database.getCollection("events");
@@ -321,6 +315,7 @@ public class DataGenerator {
 
             // Run aggregation to compute video_stats
             aggregateVideoStats(database);
+            rebuildRollups(database);
 
             System.out.println("\n🎉 Data generation complete!");
             System.out.println("   Events: " + eventsCollection.countDocuments());
@@ -347,6 +342,8 @@ public class DataGenerator {
             MongoDatabase database = mongoClient.getDatabase(MONGO_DATABASE);
             MongoCollection<Document> eventsCollection = database.getCollection("events");
             MongoCollection<Document> statsCollection = database.getCollection("video_stats");
+            MongoCollection<Document> rollupsCollection = database
+                    .getCollection(MongoEventRollupRepository.COLLECTION_NAME);
 
             int totalEvents = 0;
             long intervalMs = 1000 / eventsPerSecond;
@@ -363,8 +360,10 @@ public class DataGenerator {
                 Document eventDoc = eventToDocument(event);
                 eventsCollection.insertOne(eventDoc);
 
-                // Update video stats incrementally
+                // Update video stats and hourly rollups incrementally
                 updateVideoStatsIncremental(statsCollection, event);
+                rollupsCollection.bulkWrite(MongoEventRollupRepository.toWrites(
+                        HourlyRollups.aggregate(List.of(event))));
 
                 totalEvents++;
 
@@ -399,33 +398,35 @@ public class DataGenerator {
     }
 
     /**
-     * Aggregates video statistics from events collection
+     * Rebuilds video statistics and user profiles from the events collection
+     * Runs the chunked parallel rebuild, which swaps the results in atomically
      */
     private void aggregateVideoStats(MongoDatabase database) {
         System.out.println("\n📊 Computing video statistics...");
 
-        MongoCollection<Document> eventsCollection = database.getCollection("events");
-        MongoCollection<Document> statsCollection = database.getCollection("video_stats");
-
-        // Clear existing stats
-        statsCollection.drop();
-
-        // Aggregation pipeline
-        List<Document> pipeline = Arrays.asList(
-                new Document("$group", new Document("_id", "$videoId")
-                        .append("totalViews", new Document("$sum", 1))
-                        .append("avgDuration", new Document("$avg", "$duration"))
-                        .append("uniqueViewers", new Document("$addToSet", "$userId"))),
-                new Document("$project", new Document("videoId", "$_id")
-                        .append("totalViews", 1)
-                        .append("avgDuration", new Document("$round", Arrays.asList("$avgDuration", 2)))
-                        .append("uniqueViewers", new Document("$size", "$uniqueViewers"))
-                        .append("lastUpdated", new Date())),
-                new Document("$out", "video_stats"));
+        StatsRebuildJob job = new StatsRebuildJob(database, new EventWatermarks(database),
+                new StatsRebuildJob.Options()
+                        .jobId("generator-rebuild")
+                        .resume(false));
+        job.run();
 
-        eventsCollection.aggregate(pipeline).toCollection();
+        StatsRebuildJob.Progress progress = job.getProgress();
+        if ("DONE".equals(progress.getPhase())) {
+            System.out.println("✅ Video statistics computed: " + progress.getVideoStatsWritten() + " videos, "
+                    + progress.getUserProfilesWritten() + " user profiles");
+        } else {
+            System.err.println("❌ Statistics rebuild failed: " + progress.getError());
+        }
+    }
 
-        System.out.println("✅ Video statistics computed: " + statsCollection.countDocuments() + " videos");
+    /**
+     * Recomputes the hourly rollups, which the bulk load bypassed
+     */
+    private void rebuildRollups(MongoDatabase database) {
+        System.out.println("\n📊 Computing hourly rollups...");
+        MongoEventRollupRepository.rebuild(database);
+        System.out.println("✅ Hourly rollups computed: "
+                + database.getCollection(MongoEventRollupRepository.COLLECTION_NAME).countDocuments() + " counters");
     }
 
     /**
@@ -455,10 +456,7 @@ public class DataGenerator {
             MongoCollection<Document> videosCollection = database.getCollection("videos");
             System.out.println("\n📹 Loading movies to MongoDB...");
 
-            // Clear existing videos
-            videosCollection.drop();
-
-            List<Document> videoDocs = new ArrayList<>();
+            List<Video> videos = new ArrayList<>();
             int videoId = 1;
             int totalMovies = 0;
 
@@ -468,14 +466,15 @@ public class DataGenerator {
 
                 for (TmdbMovie tmdbMovie : movies) {
                     Video video = tmdbMovieToVideo(tmdbMovie, videoId, category);
-                    videoDocs.add(videoToDocumentWithTmdb(video));
+                    videos.add(video);
                     videoId++;
                     totalMovies++;
                 }
             }
 
-            if (!videoDocs.isEmpty()) {
-                videosCollection.insertMany(videoDocs);
+            if (!videos.isEmpty()) {
+                CatalogSyncResult result = new CatalogSync(videosCollection).sync(videos.iterator());
+                System.out.println("   " + result);
             }
             System.out.println("✅ " + totalMovies + " real movies loaded from TMDB");
 
@@ -510,6 +509,7 @@ public class DataGenerator {
 
             // Compute video stats
             aggregateVideoStats(database);
+            rebuildRollups(database);
 
             System.out.println("\n🎉 TMDB Data generation complete!");
             System.out.println("   Events: " + eventsCollection.countDocuments());
@@ -561,24 +561,6 @@ public class DataGenerator {
         return video;
     }
 
-    /**
-     * Converts a Video to MongoDB Document (with TMDB fields)
-     */
-    private Document videoToDocumentWithTmdb(Video video) {
-        Document doc = new Document();
-        doc.append("videoId", video.getVideoId());
-        doc.append("title", video.getTitle());
-        doc.append("category", video.getCategory());
-        doc.append("duration", video.getDuration());
-        doc.append("uploadDate", Date.from(video.getUploadDate()));
-        doc.append("views", video.getViews());
-        doc.append("likes", video.getLikes());
-        doc.append("rating", video.getRating());
-        doc.append("posterUrl", video.getPosterUrl());
-        doc.append("overview", video.getOverview());
-        return doc;
-    }
-
     /**
      * Generates an event for a specific video count (for TMDB mode)
      */
@@ -608,6 +590,22 @@ public class DataGenerator {
         return event;
     }
 
+    /**
+     * Syncs the videos collection with a catalog feed file, writing only the differences
+     */
+    public void syncCatalogFromFile(String filename) throws IOException {
+        System.out.println("🔗 Connecting to MongoDB: " + MONGO_URI);
+        System.out.println("📊 Database: " + MONGO_DATABASE);
+
+        try (MongoClient mongoClient = MongoClients.create(MONGO_URI);
+                InputStream feed = new FileInputStream(filename)) {
+            MongoCollection<Document> videosCollection = mongoClient.getDatabase(MONGO_DATABASE)
+                    .getCollection("videos");
+            CatalogSyncResult result = new CatalogSync(videosCollection).sync(CatalogSync.readFeed(feed));
+            System.out.println("✅ Catalog synced from " + filename + ": " + result);
+        }
+    }
+
     /**
      * Main method for standalone execution
      */
@@ -645,6 +643,13 @@ public class DataGenerator {
                     generator.generateWithTmdb(tmdbEventCount, moviesPerCategory);
                     break;
 
+                case "sync":
+                    // Diff-based catalog sync from a JSON feed
+                    String feedFile = args.length > 1 ? args[1] : "videos_catalog.json";
+                    System.out.println("🔄 MODE: Catalog Sync\n");
+                    generator.syncCatalogFromFile(feedFile);
+                    break;
+
                 case "batch":
                 default:
                     // JSON file generation mode (original behavior)
@@ -0,0 +1,152 @@
+package com.streaming.analytics.metrics;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolClearedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-pool MongoDB connection measurements
+ * Counts connections and check-outs, check-out wait time and failures (pool exhausted
+ * after the wait timeout, connection errors) for each named client pool
+ */
+@ApplicationScoped
+public class ConnectionPoolMetrics {
+
+    private final Map<String, PoolStat> stats = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the listener feeding the measurements of a pool
+     */
+    public ConnectionPoolListener listener(String pool) {
+        PoolStat stat = stats.computeIfAbsent(pool, PoolStat::new);
+        return new ConnectionPoolListener() {
+            @Override
+            public void connectionCreated(ConnectionCreatedEvent event) {
+                stat.created.increment();
+                stat.open.incrementAndGet();
+            }
+
+            @Override
+            public void connectionClosed(ConnectionClosedEvent event) {
+                stat.closed.increment();
+                stat.open.decrementAndGet();
+            }
+
+            @Override
+            public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+                stat.checkedOut.increment();
+                stat.waitNanos.add(event.getElapsedTime(TimeUnit.NANOSECONDS));
+                stat.updateMaxInUse(stat.inUse.incrementAndGet());
+            }
+
+            @Override
+            public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+                stat.inUse.decrementAndGet();
+            }
+
+            @Override
+            public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+                stat.waitNanos.add(event.getElapsedTime(TimeUnit.NANOSECONDS));
+                if (event.getReason() == ConnectionCheckOutFailedEvent.Reason.TIMEOUT) {
+                    stat.timeouts.increment();
+                } else {
+                    stat.failures.increment();
+                }
+            }
+
+            @Override
+            public void connectionPoolCleared(ConnectionPoolClearedEvent event) {
+                stat.cleared.increment();
+            }
+        };
+    }
+
+    /**
+     * Gets a snapshot of all pools, sorted by name
+     */
+    public Map<String, PoolStat> snapshot() {
+        return new TreeMap<>(stats);
+    }
+
+    /**
+     * Accumulated measurements for a single pool
+     */
+    public static class PoolStat {
+        private final String pool;
+        private final LongAdder created = new LongAdder();
+        private final LongAdder closed = new LongAdder();
+        private final LongAdder checkedOut = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder cleared = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+        private final AtomicLong open = new AtomicLong();
+        private final AtomicLong inUse = new AtomicLong();
+        private final AtomicLong maxInUse = new AtomicLong();
+
+        PoolStat(String pool) {
+            this.pool = pool;
+        }
+
+        private void updateMaxInUse(long current) {
+            maxInUse.accumulateAndGet(current, Math::max);
+        }
+
+        public String getPool() {
+            return pool;
+        }
+
+        public long getOpen() {
+            return open.get();
+        }
+
+        public long getInUse() {
+            return inUse.get();
+        }
+
+        public long getMaxInUse() {
+            return maxInUse.get();
+        }
+
+        public long getCreated() {
+            return created.sum();
+        }
+
+        public long getClosed() {
+            return closed.sum();
+        }
+
+        public long getCheckedOut() {
+            return checkedOut.sum();
+        }
+
+        public long getTimeouts() {
+            return timeouts.sum();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        public long getCleared() {
+            return cleared.sum();
+        }
+
+        public double getAvgWaitMs() {
+            long n = checkedOut.sum() + timeouts.sum() + failures.sum();
+            return n > 0 ? waitNanos.sum() / (double) n / 1_000_000.0 : 0;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.streaming.analytics.metrics;
+
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-query read measurements
+ * Tracks documents returned, BSON bytes transferred and client-side decode time
+ * for each named repository query
+ */
+@ApplicationScoped
+public class QueryMetrics {
+
+    private final Map<String, QueryStat> stats = new ConcurrentHashMap<>();
+
+    /**
+     * Records one execution of a named query
+     */
+    public void record(String query, int documents, long bytes, long decodeNanos) {
+        QueryStat stat = stats.computeIfAbsent(query, QueryStat::new);
+        stat.calls.increment();
+        stat.documents.add(documents);
+        stat.bytes.add(bytes);
+        stat.decodeNanos.add(decodeNanos);
+    }
+
+    /**
+     * Gets a snapshot of all recorded queries, sorted by name
+     */
+    public Map<String, QueryStat> snapshot() {
+        return new TreeMap<>(stats);
+    }
+
+    /**
+     * Clears all recorded measurements
+     */
+    public void reset() {
+        stats.clear();
+    }
+
+    /**
+     * Accumulated measurements for a single query
+     */
+    public static class QueryStat {
+        private final String query;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder documents = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder decodeNanos = new LongAdder();
+
+        QueryStat(String query) {
+            this.query = query;
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        public long getDocuments() {
+            return documents.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public double getAvgBytesPerCall() {
+            long n = calls.sum();
+            return n > 0 ? bytes.sum() / (double) n : 0;
+        }
+
+        public double getDecodeMillis() {
+            return decodeNanos.sum() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        public double getAvgDecodeMicros() {
+            long n = calls.sum();
+            return n > 0 ? decodeNanos.sum() / (n * 1000.0) : 0;
+        }
+    }
+}
@@ -8,11 +8,17 @@ import java.time.Instant;
 import java.util.*;
 
 /**
- * Entity representing a user profile with watch history and preferences
+ * Entity representing a user profile with recent watch history and preferences
  * Maps to the 'user_profiles' collection in MongoDB
+ * The full history is kept in the bucketed 'watch_history' collection
  */
 public class UserProfile {
 
+    /**
+     * Number of most recent videoIds kept inside the profile document
+     */
+    public static final int RECENT_HISTORY_SIZE = 20;
+
     @BsonId
     private ObjectId id;
 
@@ -20,7 +26,7 @@ public class UserProfile {
     private String userId;
 
     @BsonProperty("watchHistory")
-    private List<String> watchHistory; // List of videoIds watched
+    private List<String> watchHistory; // Most recent videoIds watched, newest first
 
     @BsonProperty("preferences")
     private Map<String, Integer> preferences; // Category -> watch count
@@ -112,10 +118,10 @@ public class UserProfile {
      * Adds a video to watch history and updates preferences
      */
     public void addToHistory(String videoId, String category, int watchDuration) {
-        // Add to history (keep last 100 videos)
+        // Add to recent history (keep last RECENT_HISTORY_SIZE videos)
         this.watchHistory.add(0, videoId);
-        if (this.watchHistory.size() > 100) {
-            this.watchHistory = new ArrayList<>(this.watchHistory.subList(0, 100));
+        if (this.watchHistory.size() > RECENT_HISTORY_SIZE) {
+            this.watchHistory = new ArrayList<>(this.watchHistory.subList(0, RECENT_HISTORY_SIZE));
         }
 
         // Update category preference
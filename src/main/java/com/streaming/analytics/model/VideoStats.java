@@ -6,6 +6,7 @@ import org.bson.codecs.pojo.annotations.BsonIgnore;
 import org.bson.codecs.pojo.annotations.BsonProperty;
 
 import java.time.Instant;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -32,6 +33,14 @@ public class VideoStats {
     @BsonProperty("uniqueViewers")
     private long uniqueViewers;
 
+    // Standard error of the unique viewers estimate (0 when not estimated from a sketch)
+    @BsonIgnore
+    private double uniqueViewersError;
+
+    // Estimated p50/p90/p99 watch durations in seconds (null when not estimated)
+    @BsonIgnore
+    private Map<String, Long> durationPercentiles;
+
     @BsonProperty("lastUpdated")
     private Instant lastUpdated;
 
@@ -89,6 +98,22 @@ public class VideoStats {
         this.uniqueViewers = uniqueViewers;
     }
 
+    public double getUniqueViewersError() {
+        return uniqueViewersError;
+    }
+
+    public void setUniqueViewersError(double uniqueViewersError) {
+        this.uniqueViewersError = uniqueViewersError;
+    }
+
+    public Map<String, Long> getDurationPercentiles() {
+        return durationPercentiles;
+    }
+
+    public void setDurationPercentiles(Map<String, Long> durationPercentiles) {
+        this.durationPercentiles = durationPercentiles;
+    }
+
     public Instant getLastUpdated() {
         return lastUpdated;
     }
@@ -0,0 +1,213 @@
+package com.streaming.analytics.repository;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+import com.streaming.analytics.model.Video;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Diff-based sync of the 'videos' collection with a full catalog feed
+ *
+ * The feed is read in chunks. Each video document carries a hash of its content
+ * ('contentHash'); per chunk, the stored hashes are fetched and only new or changed
+ * videos are written, as ReplaceOneModel upserts in one unordered bulkWrite. Videos
+ * missing from the feed are deleted at the end. The collection and its indexes stay
+ * in place throughout, so readers never see an empty catalog.
+ */
+public class CatalogSync {
+
+    private static final Logger logger = LoggerFactory.getLogger(CatalogSync.class);
+
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+    static final String HASH_FIELD = "contentHash";
+
+    private static final ObjectMapper FEED_MAPPER = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .addMixIn(Video.class, FeedVideo.class);
+
+    // Database ids in a feed are not catalog content
+    @JsonIgnoreProperties({ "id" })
+    private abstract static class FeedVideo {
+    }
+
+    private final MongoCollection<Document> videos;
+    private final int chunkSize;
+
+    public CatalogSync(MongoCollection<Document> videos) {
+        this(videos, DEFAULT_CHUNK_SIZE);
+    }
+
+    public CatalogSync(MongoCollection<Document> videos, int chunkSize) {
+        this.videos = videos;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Streams the videos of a JSON array feed (such as videos_catalog.json) without loading it whole
+     */
+    public static Iterator<Video> readFeed(InputStream json) throws IOException {
+        return FEED_MAPPER.readerFor(Video.class).readValues(json);
+    }
+
+    /**
+     * Applies the feed; the last record wins if a videoId appears twice
+     * A feed without records deletes nothing
+     */
+    public CatalogSyncResult sync(Iterator<Video> feed) {
+        long start = System.currentTimeMillis();
+        CatalogSyncResult result = new CatalogSyncResult();
+        Set<String> seen = new HashSet<>();
+
+        Map<String, Document> chunk = new LinkedHashMap<>();
+        while (feed.hasNext()) {
+            Video video = feed.next();
+            if (video == null || video.getVideoId() == null) {
+                continue;
+            }
+            chunk.put(video.getVideoId(), toDocument(video));
+            seen.add(video.getVideoId());
+            if (chunk.size() >= chunkSize) {
+                applyChunk(chunk, result);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            applyChunk(chunk, result);
+        }
+
+        if (seen.isEmpty()) {
+            logger.warn("Catalog feed had no videos; nothing deleted");
+        } else {
+            deleteMissing(seen, result);
+        }
+
+        result.setDurationMs(System.currentTimeMillis() - start);
+        logger.info("Catalog sync: {}", result);
+        return result;
+    }
+
+    private void applyChunk(Map<String, Document> chunk, CatalogSyncResult result) {
+        Map<String, String> stored = new HashMap<>();
+        for (Document doc : videos.find(Filters.in("videoId", chunk.keySet()))
+                .projection(Projections.fields(Projections.include("videoId", HASH_FIELD), Projections.excludeId()))) {
+            stored.put(doc.getString("videoId"), doc.getString(HASH_FIELD));
+        }
+
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        for (Map.Entry<String, Document> entry : chunk.entrySet()) {
+            Document doc = entry.getValue();
+            if (!stored.containsKey(entry.getKey())) {
+                result.addInserted(1);
+            } else if (!doc.getString(HASH_FIELD).equals(stored.get(entry.getKey()))) {
+                result.addUpdated(1);
+            } else {
+                result.addUnchanged(1);
+                continue;
+            }
+            result.addChanged(entry.getKey());
+            writes.add(new ReplaceOneModel<>(Filters.eq("videoId", entry.getKey()), doc,
+                    new ReplaceOptions().upsert(true)));
+        }
+
+        if (!writes.isEmpty()) {
+            videos.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        }
+        result.addChunk();
+    }
+
+    private void deleteMissing(Set<String> seen, CatalogSyncResult result) {
+        List<String> missing = new ArrayList<>();
+        for (Document doc : videos.find()
+                .projection(Projections.fields(Projections.include("videoId"), Projections.excludeId()))) {
+            String videoId = doc.getString("videoId");
+            if (!seen.contains(videoId)) {
+                missing.add(videoId);
+                result.addChanged(videoId);
+            }
+            if (missing.size() >= chunkSize) {
+                result.addDeleted(videos.deleteMany(Filters.in("videoId", missing)).getDeletedCount());
+                missing.clear();
+            }
+        }
+        if (!missing.isEmpty()) {
+            result.addDeleted(videos.deleteMany(Filters.in("videoId", missing)).getDeletedCount());
+        }
+    }
+
+    /**
+     * Converts a video to its stored document, hash included
+     * TMDB fields are only stored when present
+     */
+    public static Document toDocument(Video video) {
+        Document doc = new Document()
+                .append("videoId", video.getVideoId())
+                .append("title", video.getTitle())
+                .append("category", video.getCategory())
+                .append("duration", video.getDuration())
+                .append("views", video.getViews())
+                .append("likes", video.getLikes())
+                .append("uploadDate", video.getUploadDate() != null ? Date.from(video.getUploadDate()) : null);
+        if (video.getPosterUrl() != null || video.getOverview() != null || video.getRating() != 0) {
+            doc.append("rating", video.getRating())
+                    .append("posterUrl", video.getPosterUrl())
+                    .append("overview", video.getOverview());
+        }
+        return doc.append(HASH_FIELD, hash(doc));
+    }
+
+    /**
+     * The content hash of a video as stored by toDocument
+     */
+    public static String hash(Video video) {
+        return toDocument(video).getString(HASH_FIELD);
+    }
+
+    /**
+     * Hex SHA-256 of the document's BSON bytes (first 128 bits)
+     * Only the encoded bytes are hashed, not the rest of the encoder's buffer
+     */
+    static String hash(Document doc) {
+        RawBsonDocument raw = new RawBsonDocument(doc, new DocumentCodec());
+        byte[] digest;
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(raw.getByteBuffer().asNIO());
+            digest = sha256.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        StringBuilder hex = new StringBuilder(32);
+        for (int i = 0; i < 16; i++) {
+            hex.append(String.format("%02x", digest[i] & 0xff));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,86 @@
+package com.streaming.analytics.repository;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Outcome of a catalog sync: how many videos were inserted, replaced, left untouched and deleted
+ */
+public class CatalogSyncResult {
+
+    private long inserted;
+    private long updated;
+    private long unchanged;
+    private long deleted;
+    private int chunks;
+    private long durationMs;
+    private final Set<String> changedVideoIds = new HashSet<>();
+
+    public void addInserted(long count) {
+        inserted += count;
+    }
+
+    public void addUpdated(long count) {
+        updated += count;
+    }
+
+    public void addUnchanged(long count) {
+        unchanged += count;
+    }
+
+    public void addDeleted(long count) {
+        deleted += count;
+    }
+
+    public void addChanged(String videoId) {
+        changedVideoIds.add(videoId);
+    }
+
+    public void addChunk() {
+        chunks++;
+    }
+
+    public void setDurationMs(long durationMs) {
+        this.durationMs = durationMs;
+    }
+
+    public long getInserted() {
+        return inserted;
+    }
+
+    public long getUpdated() {
+        return updated;
+    }
+
+    public long getUnchanged() {
+        return unchanged;
+    }
+
+    public long getDeleted() {
+        return deleted;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    /**
+     * Gets the videos inserted, replaced or deleted (not part of the response)
+     */
+    @JsonIgnore
+    public Set<String> getChangedVideoIds() {
+        return changedVideoIds;
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogSyncResult{inserted=" + inserted + ", updated=" + updated + ", unchanged=" + unchanged
+                + ", deleted=" + deleted + ", chunks=" + chunks + ", durationMs=" + durationMs + "}";
+    }
+}
@@ -0,0 +1,81 @@
+package com.streaming.analytics.repository;
+
+import com.streaming.analytics.model.ViewEvent;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Restricts event aggregations to [start, end) and to a set of videos; null means unbounded
+ * or any video. Readers match on it first, so the timestamp or videoId/timestamp index
+ * bounds the scan.
+ */
+public final class EventFilter {
+
+    /**
+     * All events
+     */
+    public static final EventFilter ALL = new EventFilter(null, null, null);
+
+    private final Instant start;
+    private final Instant end;
+    private final List<String> videoIds;
+    private final Set<String> videoIdSet;
+
+    public EventFilter(Instant start, Instant end, List<String> videoIds) {
+        if (start != null && end != null && !start.isBefore(end)) {
+            throw new IllegalArgumentException("Empty time range: " + start + " .. " + end);
+        }
+        this.start = start;
+        this.end = end;
+        this.videoIds = videoIds != null ? Collections.unmodifiableList(videoIds) : null;
+        this.videoIdSet = videoIds != null ? new HashSet<>(videoIds) : null;
+    }
+
+    public Instant getStart() {
+        return start;
+    }
+
+    public Instant getEnd() {
+        return end;
+    }
+
+    /**
+     * Gets the allowed videos (null for any video)
+     */
+    public List<String> getVideoIds() {
+        return videoIds;
+    }
+
+    /**
+     * Whether the filter matches every event
+     */
+    public boolean isAll() {
+        return start == null && end == null && videoIds == null;
+    }
+
+    /**
+     * Whether an event passes the filter; events without a timestamp only pass without a time range
+     */
+    public boolean matches(ViewEvent event) {
+        if (videoIdSet != null && !videoIdSet.contains(event.getVideoId())) {
+            return false;
+        }
+        if (start == null && end == null) {
+            return true;
+        }
+        Instant timestamp = event.getTimestamp();
+        return timestamp != null
+                && (start == null || !timestamp.isBefore(start))
+                && (end == null || timestamp.isBefore(end));
+    }
+
+    @Override
+    public String toString() {
+        return "EventFilter{start=" + start + ", end=" + end
+                + (videoIds != null ? ", videos=" + videoIds.size() : "") + "}";
+    }
+}
@@ -1,140 +1,116 @@
 package com.streaming.analytics.repository;
 
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.Filters;
-import com.mongodb.client.model.Indexes;
-import com.mongodb.client.model.Sorts;
 import com.streaming.analytics.model.ViewEvent;
-import jakarta.annotation.PostConstruct;
-import jakarta.enterprise.context.ApplicationScoped;
-import jakarta.inject.Inject;
-import org.bson.codecs.configuration.CodecProvider;
-import org.bson.codecs.configuration.CodecRegistry;
-import org.bson.codecs.pojo.PojoCodecProvider;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.bson.Document;
 
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.List;
-
-import static com.mongodb.MongoClientSettings.getDefaultCodecRegistry;
-import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
-import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+import java.util.Map;
 
 /**
- * CDI Repository for ViewEvent entities
- * Provides data access operations for the 'events' collection
+ * Storage of view events and the aggregations computed over them
+ * MongoEventRepository is the default implementation
  */
-@ApplicationScoped
-public class EventRepository {
+public interface EventRepository {
 
-    private static final Logger logger = LoggerFactory.getLogger(EventRepository.class);
-    private static final String COLLECTION_NAME = "events";
+    /**
+     * Saves a single event
+     */
+    void save(ViewEvent event);
 
-    @Inject
-    private MongoDatabase database;
+    /**
+     * Saves a batch of events
+     */
+    void saveBatch(List<ViewEvent> events);
+
+    /**
+     * Finds all events for a specific user, newest first
+     */
+    List<ViewEvent> findByUserId(String userId);
+
+    /**
+     * Finds the newest events for a specific user
+     */
+    List<ViewEvent> findByUserId(String userId, int limit);
+
+    /**
+     * Finds all events for a specific video, newest first
+     */
+    List<ViewEvent> findByVideoId(String videoId);
 
-    private MongoCollection<ViewEvent> collection;
+    /**
+     * Finds events within a time range (both bounds inclusive), newest first
+     */
+    List<ViewEvent> findByTimeRange(Instant start, Instant end);
 
-    @PostConstruct
-    public void init() {
-        // Configure POJO codec for automatic mapping
-        CodecProvider pojoCodecProvider = PojoCodecProvider.builder()
-                .automatic(true)
-                .build();
-        CodecRegistry pojoCodecRegistry = fromRegistries(
-                getDefaultCodecRegistry(),
-                fromProviders(pojoCodecProvider));
+    /**
+     * Gets the most recently inserted events in chronological order, with only the requested fields
+     */
+    List<Document> findLatest(int limit, String... fields);
 
-        this.collection = database
-                .withCodecRegistry(pojoCodecRegistry)
-                .getCollection(COLLECTION_NAME, ViewEvent.class);
+    /**
+     * Counts the raw events currently stored
+     */
+    long count();
 
-        // Ensure indexes exist
-        ensureIndexes();
-        logger.info("EventRepository initialized with collection: {}", COLLECTION_NAME);
-    }
+    /**
+     * Counts all events ever stored, including events compacted into sessions
+     */
+    long countAll();
 
-    private void ensureIndexes() {
-        collection.createIndex(Indexes.ascending("userId"));
-        collection.createIndex(Indexes.ascending("videoId"));
-        collection.createIndex(Indexes.descending("timestamp"));
-        collection.createIndex(Indexes.compoundIndex(
-                Indexes.ascending("videoId"),
-                Indexes.descending("timestamp")));
-    }
+    /**
+     * Counts events for a specific video
+     */
+    long countByVideoId(String videoId);
 
     /**
-     * Saves a single event to the database
+     * Counts WATCH events of a video in [start, end)
      */
-    public void save(ViewEvent event) {
-        collection.insertOne(event);
-        logger.debug("Saved event: {}", event.getEventId());
-    }
+    long countViews(String videoId, Instant start, Instant end);
 
     /**
-     * Saves a batch of events to the database
+     * Finds the catalog videos whose WATCH count in the 24h before 'now' is more than minScore
+     * times their daily average over [now - 7d, now - 24h) (that count / 7), or, without views
+     * in that range, whose 24h count itself exceeds minScore
+     * Returns {_id: videoId, views24h, trendScore}, highest score first
      */
-    public void saveBatch(List<ViewEvent> events) {
-        if (events != null && !events.isEmpty()) {
-            collection.insertMany(events);
-            logger.info("Saved batch of {} events", events.size());
-        }
-    }
+    List<Document> findTrending(Instant now, double minScore, int limit);
 
     /**
-     * Finds all events for a specific user
+     * Counts events matching the filter per value of each field (deviceType, quality or action)
+     * in a single pass
+     * Returns field -> value -> count, highest count first, in the order of fields
      */
-    public List<ViewEvent> findByUserId(String userId) {
-        return collection.find(Filters.eq("userId", userId))
-                .sort(Sorts.descending("timestamp"))
-                .into(new ArrayList<>());
-    }
+    Map<String, Map<String, Long>> countByFields(List<String> fields, EventFilter filter);
 
     /**
-     * Finds all events for a specific user with limit
+     * Counts events and their average duration per UTC hour, day or month
+     * Returns documents {_id: period label, count, avgDuration}, newest period first
      */
-    public List<ViewEvent> findByUserId(String userId, int limit) {
-        return collection.find(Filters.eq("userId", userId))
-                .sort(Sorts.descending("timestamp"))
-                .limit(limit)
-                .into(new ArrayList<>());
-    }
+    List<Document> countByPeriod(String period, int limit);
 
     /**
-     * Finds all events for a specific video
+     * Counts events matching the filter and their average duration per UTC hour, day or month
+     * Returns documents {_id: period label, count, avgDuration}, newest period first
      */
-    public List<ViewEvent> findByVideoId(String videoId) {
-        return collection.find(Filters.eq("videoId", videoId))
-                .sort(Sorts.descending("timestamp"))
-                .into(new ArrayList<>());
-    }
+    List<Document> countByPeriod(String period, int limit, EventFilter filter);
 
     /**
-     * Finds events within a time range
+     * Totals a uniform random sample of the raw events per value of each field (deviceType,
+     * quality or action), counting the drawn events that match the filter; the draw is sized
+     * so that about sampleSize of them match. Compacted events are totalled exactly. Counts
+     * every matching raw event when the draw would cover more than 5% of the raw events
      */
-    public List<ViewEvent> findByTimeRange(Instant start, Instant end) {
-        return collection.find(
-                Filters.and(
-                        Filters.gte("timestamp", start),
-                        Filters.lte("timestamp", end)))
-                .sort(Sorts.descending("timestamp"))
-                .into(new ArrayList<>());
-    }
+    EventSample sampleByFields(List<String> fields, EventFilter filter, int sampleSize);
 
     /**
-     * Counts total events in the collection
+     * Totals a uniform random sample of the raw events per UTC hour, day or month (group
+     * "period"), like sampleByFields
      */
-    public long count() {
-        return collection.countDocuments();
-    }
+    EventSample sampleByPeriod(String period, EventFilter filter, int sampleSize);
 
     /**
-     * Counts events for a specific video
+     * Counts events since the given instant per UTC hour of day ("HH:00"), in label order
      */
-    public long countByVideoId(String videoId) {
-        return collection.countDocuments(Filters.eq("videoId", videoId));
-    }
+    Map<String, Long> countByHourOfDay(Instant since);
 }
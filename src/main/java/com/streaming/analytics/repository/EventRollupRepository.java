@@ -0,0 +1,47 @@
+package com.streaming.analytics.repository;
+
+import com.streaming.analytics.model.ViewEvent;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hourly rollups of view events, maintained by the ingest path
+ * One counter per (UTC hour, dimension, value) holds the event count and the duration sum;
+ * the ALL dimension holds the hourly totals
+ * MongoEventRollupRepository is the default implementation
+ */
+public interface EventRollupRepository {
+
+    /**
+     * Event fields rolled up per value
+     */
+    List<String> DIMENSIONS = List.of("deviceType", "quality", "action");
+
+    /**
+     * Dimension of the hourly totals (single value "")
+     */
+    String ALL = "all";
+
+    /**
+     * Adds a batch of saved events to the rollups in one write
+     */
+    void record(List<ViewEvent> events);
+
+    /**
+     * Whether the rollups cover every stored event (false while they are backfilled)
+     */
+    boolean isReady();
+
+    /**
+     * Counts events per value of a dimension, highest count first
+     */
+    Map<String, Long> countByValue(String dimension);
+
+    /**
+     * Counts events per UTC hour of day ("HH:00") in the whole hours starting at or after since,
+     * in label order
+     */
+    Map<String, Long> countByHourOfDay(Instant since);
+}
@@ -0,0 +1,55 @@
+package com.streaming.analytics.repository;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Totals of the events matching a filter in a uniform random sample of the raw events, plus the
+ * exact totals of the events that were not sampled (compacted into sessions)
+ * The draw is sized from the events the filter matches, so a narrow filter does not shrink the
+ * useful sample. Totals are group -> value -> [count, duration sum]; AnalyticsService scales
+ * them into estimates
+ */
+public final class EventSample {
+
+    private final long population;
+    private final long size;
+    private final Map<String, Map<String, long[]>> sampled;
+    private final Map<String, Map<String, long[]>> exact;
+
+    public EventSample(long population, long size, Map<String, Map<String, long[]>> sampled,
+            Map<String, Map<String, long[]>> exact) {
+        this.population = population;
+        this.size = size;
+        this.sampled = sampled;
+        this.exact = exact;
+    }
+
+    /**
+     * Gets the number of raw events the sample was drawn from
+     */
+    public long getPopulation() {
+        return population;
+    }
+
+    /**
+     * Gets the number of events drawn (the population when every raw event was counted)
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the totals of the drawn events matching the filter, per value of a group
+     */
+    public Map<String, long[]> getSampled(String group) {
+        return sampled.getOrDefault(group, Collections.emptyMap());
+    }
+
+    /**
+     * Gets the exact totals of the events outside the population, per value of a group
+     */
+    public Map<String, long[]> getExact(String group) {
+        return exact.getOrDefault(group, Collections.emptyMap());
+    }
+}
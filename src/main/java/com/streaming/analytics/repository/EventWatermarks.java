@@ -0,0 +1,166 @@
+package com.streaming.analytics.repository;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Where the 'events' collection is split between raw events, compacted sessions and
+ * materialized views
+ *
+ * The compaction watermark (in 'compaction_state') is the day before which raw events live
+ * only in 'event_sessions', up to the compactedUpTo _id; each materialized view's watermark
+ * (in 'view_state') is the _id up to which it has folded in the events. The service jobs
+ * advance these watermarks; the repositories only read them. Full rebuilds that read both raw events and sessions run
+ * through runExclusive, as does every compaction pass, so they never see a half-moved day.
+ */
+@ApplicationScoped
+public class EventWatermarks {
+
+    public static final String SESSIONS_COLLECTION = "event_sessions";
+    public static final String COMPACTION_STATE_COLLECTION = "compaction_state";
+    public static final String COMPACTION_STATE_ID = "events";
+    public static final String VIEW_STATE_COLLECTION = "view_state";
+
+    // Materialized views of the events (refreshed by MaterializedViewJob)
+    public static final String EVENTS_BY_HOUR = "events_by_hour";
+
+    @Inject
+    private MongoDatabase database;
+
+    private final Set<String> readyViews = ConcurrentHashMap.newKeySet();
+
+    public EventWatermarks() {
+    }
+
+    /**
+     * Creates the watermarks outside the container (data generator)
+     */
+    public EventWatermarks(MongoDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Gets the compaction watermark: raw events before it live only in sessions
+     * Returns null if nothing was compacted yet
+     */
+    public Instant getCompactionWatermark() {
+        Date watermark = compactionState().getDate("watermark");
+        return watermark != null ? watermark.toInstant() : null;
+    }
+
+    /**
+     * Gets the _id up to which raw events before the compaction watermark are folded into
+     * sessions; later ones arrived after their day was compacted and wait for the next run
+     * Returns null if nothing was compacted yet
+     */
+    public ObjectId getCompactedUpTo() {
+        return compactedUpTo(compactionState());
+    }
+
+    private static ObjectId compactedUpTo(Document state) {
+        ObjectId compactedUpTo = state.getObjectId("compactedUpTo");
+        if (compactedUpTo != null || state.getDate("watermark") == null) {
+            return compactedUpTo;
+        }
+        // State written before compactedUpTo was tracked: everything up to the last run
+        Date updatedAt = state.getDate("updatedAt");
+        return upperBound((updatedAt != null ? updatedAt : state.getDate("watermark")).toInstant());
+    }
+
+    /**
+     * Counts all events, raw and compacted, reading the state once so a concurrent
+     * watermark switch cannot count a day twice
+     */
+    public long countAllEvents() {
+        Document state = compactionState();
+        Date watermark = state.getDate("watermark");
+        MongoCollection<Document> events = database.getCollection("events");
+        if (watermark == null) {
+            return events.countDocuments();
+        }
+        Number compacted = (Number) state.get("compactedEvents");
+        // Late events before the watermark are still raw until the next compaction run
+        return events.countDocuments(Filters.or(
+                Filters.gte("timestamp", watermark),
+                Filters.gt("_id", compactedUpTo(state))))
+                + (compacted != null ? compacted.longValue() : 0L);
+    }
+
+    /**
+     * Estimates the count of all events from collection metadata, without a scan
+     * Raw events compacted but not deleted yet are counted twice
+     */
+    public long estimateAllEvents() {
+        Number compacted = (Number) compactionState().get("compactedEvents");
+        return database.getCollection("events").estimatedDocumentCount()
+                + (compacted != null ? compacted.longValue() : 0L);
+    }
+
+    public Document compactionState() {
+        Document state = database.getCollection(COMPACTION_STATE_COLLECTION)
+                .find(Filters.eq("_id", COMPACTION_STATE_ID)).first();
+        return state != null ? state : new Document();
+    }
+
+    /**
+     * Whether the view is built and can replace a scan of 'events'
+     */
+    public boolean isViewReady(String name) {
+        return readyViews.contains(name);
+    }
+
+    public void setViewReady(String name, boolean ready) {
+        if (ready) {
+            readyViews.add(name);
+        } else {
+            readyViews.remove(name);
+        }
+    }
+
+    /**
+     * Gets the lowest watermark of all views, or null if there are none
+     * Raw events above it are not folded into every view yet
+     */
+    public ObjectId lowestViewWatermark() {
+        ObjectId lowest = null;
+        for (Document state : database.getCollection(VIEW_STATE_COLLECTION).find(Filters.exists("watermark"))) {
+            ObjectId watermark = state.getObjectId("watermark");
+            if (lowest == null || watermark.compareTo(lowest) < 0) {
+                lowest = watermark;
+            }
+        }
+        return lowest;
+    }
+
+    /**
+     * Runs the task while no compaction pass is in progress
+     */
+    public void runExclusive(Runnable task) {
+        callExclusive(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    public synchronized <T> T callExclusive(Supplier<T> task) {
+        return task.get();
+    }
+
+    /**
+     * The greatest ObjectId created at or before the given second
+     */
+    public static ObjectId upperBound(Instant instant) {
+        return new ObjectId(String.format("%08xffffffffffffffff", instant.getEpochSecond()));
+    }
+}
@@ -0,0 +1,104 @@
+package com.streaming.analytics.repository;
+
+import com.streaming.analytics.model.ViewEvent;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Folds a batch of events into per-(hour, dimension, value) increments, so a batch
+ * costs one write per distinct counter instead of one per event
+ */
+public final class HourlyRollups {
+
+    private HourlyRollups() {
+    }
+
+    /**
+     * Sums count and duration per counter; events without a timestamp are skipped,
+     * and so are null dimension values
+     * Returns counter -> {count, duration}
+     */
+    public static Map<Key, long[]> aggregate(Iterable<ViewEvent> events) {
+        Map<Key, long[]> increments = new HashMap<>();
+        for (ViewEvent event : events) {
+            if (event.getTimestamp() == null) {
+                continue;
+            }
+            Instant hour = event.getTimestamp().truncatedTo(ChronoUnit.HOURS);
+            add(increments, new Key(hour, EventRollupRepository.ALL, ""), event.getDuration());
+            add(increments, hour, "deviceType", event.getDeviceType(), event.getDuration());
+            add(increments, hour, "quality", event.getQuality(), event.getDuration());
+            add(increments, hour, "action", event.getAction(), event.getDuration());
+        }
+        return increments;
+    }
+
+    /**
+     * The first hour boundary at or after the given instant
+     */
+    public static Instant firstWholeHour(Instant since) {
+        Instant hour = since.truncatedTo(ChronoUnit.HOURS);
+        return hour.isBefore(since) ? hour.plus(1, ChronoUnit.HOURS) : hour;
+    }
+
+    private static void add(Map<Key, long[]> increments, Instant hour, String dimension, String value,
+            int duration) {
+        if (value != null) {
+            add(increments, new Key(hour, dimension, value), duration);
+        }
+    }
+
+    private static void add(Map<Key, long[]> increments, Key key, int duration) {
+        long[] totals = increments.computeIfAbsent(key, k -> new long[2]);
+        totals[0]++;
+        totals[1] += duration;
+    }
+
+    /**
+     * A rollup counter
+     */
+    public static final class Key {
+        private final Instant hour;
+        private final String dimension;
+        private final String value;
+
+        public Key(Instant hour, String dimension, String value) {
+            this.hour = hour;
+            this.dimension = dimension;
+            this.value = value;
+        }
+
+        public Instant getHour() {
+            return hour;
+        }
+
+        public String getDimension() {
+            return dimension;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hour.equals(other.hour) && dimension.equals(other.dimension) && value.equals(other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(hour, dimension, value);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.streaming.analytics.repository;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Projections;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Splits a collection into contiguous _id ranges of roughly equal size
+ * Split points are taken from a $sample of ObjectIds, so ranges stay balanced
+ * even when the data was bulk-loaded within a few seconds
+ */
+public final class IdRangeSplitter {
+
+    /**
+     * Sampled documents per requested range
+     */
+    private static final int SAMPLES_PER_RANGE = 64;
+
+    /**
+     * Lowest possible ObjectId (inclusive lower bound of the first range)
+     */
+    public static final ObjectId MIN_ID = new ObjectId("000000000000000000000000");
+
+    private IdRangeSplitter() {
+    }
+
+    /**
+     * Returns range boundaries b0 < b1 < ... < bn, range i being [b(i), b(i+1))
+     * The last boundary is the ObjectId lower bound of the second after upTo, which
+     * freezes the snapshot: documents inserted later fall outside every range
+     */
+    public static List<ObjectId> split(MongoCollection<Document> collection, int ranges, Instant upTo) {
+        ObjectId upperBound = objectIdAt(upTo.getEpochSecond() + 1);
+
+        TreeSet<ObjectId> sample = new TreeSet<>();
+        if (ranges > 1) {
+            for (Document doc : collection.aggregate(Arrays.asList(
+                    Aggregates.sample(ranges * SAMPLES_PER_RANGE),
+                    Aggregates.project(Projections.include("_id"))))) {
+                Object id = doc.get("_id");
+                if (id instanceof ObjectId && ((ObjectId) id).compareTo(upperBound) < 0) {
+                    sample.add((ObjectId) id);
+                }
+            }
+        }
+
+        List<ObjectId> boundaries = new ArrayList<>(ranges + 1);
+        boundaries.add(MIN_ID);
+        List<ObjectId> sorted = new ArrayList<>(sample);
+        for (int i = 1; i < ranges && !sorted.isEmpty(); i++) {
+            ObjectId candidate = sorted.get((int) ((long) i * sorted.size() / ranges));
+            if (candidate.compareTo(boundaries.get(boundaries.size() - 1)) > 0) {
+                boundaries.add(candidate);
+            }
+        }
+        boundaries.add(upperBound);
+        return boundaries;
+    }
+
+    /**
+     * Smallest ObjectId generated at the given epoch second
+     */
+    public static ObjectId objectIdAt(long epochSecond) {
+        return new ObjectId(String.format("%08x0000000000000000", epochSecond));
+    }
+}
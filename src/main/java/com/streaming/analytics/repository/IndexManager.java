@@ -0,0 +1,371 @@
+package com.streaming.analytics.repository;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Declares every index the application relies on, in one place
+ * At startup the declared indexes are reconciled with what already exists
+ * (e.g. created by mongo-init/init.js): missing ones are built in the background,
+ * conflicting or unmanaged ones are reported
+ */
+@ApplicationScoped
+public class IndexManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexManager.class);
+
+    /**
+     * Partial index used by the WATCH-only per-video time range counts (trending)
+     * action is part of the key so a count that filters on it is covered by the index
+     */
+    public static final String WATCH_BY_VIDEO_INDEX = "videoId_1_action_1_timestamp_1_watch";
+
+    private static final Document WATCH_ONLY = new Document("action", "WATCH");
+
+    /**
+     * At most one open (not full) watch history bucket per user and day
+     */
+    public static final String OPEN_BUCKET_INDEX = "userId_1_bucketStart_1_open";
+
+    private static final Document OPEN_BUCKETS = new Document("count",
+            new Document("$lt", WatchHistoryRepository.BUCKET_SIZE));
+
+    private static final List<IndexSpec> INDEXES = Arrays.asList(
+            // events
+            new IndexSpec("events", new Document("userId", 1)),
+            new IndexSpec("events", new Document("videoId", 1)),
+            new IndexSpec("events", new Document("timestamp", -1)),
+            new IndexSpec("events", new Document("userId", 1).append("timestamp", -1)),
+            new IndexSpec("events", new Document("videoId", 1).append("timestamp", -1)),
+            new IndexSpec("events", new Document("videoId", 1).append("action", 1).append("timestamp", 1))
+                    .named(WATCH_BY_VIDEO_INDEX)
+                    .partial(WATCH_ONLY),
+
+            // video_stats
+            new IndexSpec("video_stats", new Document("videoId", 1)).unique(),
+            new IndexSpec("video_stats", new Document("totalViews", -1)),
+            new IndexSpec("video_stats", new Document("lastUpdated", -1)),
+
+            // user_profiles
+            new IndexSpec("user_profiles", new Document("userId", 1)).unique(),
+            new IndexSpec("user_profiles", new Document("totalWatchTime", -1)),
+
+            // watch_history (bucketed, several buckets per user and day once one fills up)
+            new IndexSpec("watch_history", new Document("userId", 1).append("bucketStart", -1)),
+            new IndexSpec("watch_history", new Document("userId", 1).append("bucketStart", 1))
+                    .named(OPEN_BUCKET_INDEX)
+                    .unique()
+                    .partial(OPEN_BUCKETS),
+
+            // event_sessions (raw events compacted by SessionCompactionJob)
+            new IndexSpec("event_sessions", new Document("start", 1)),
+            new IndexSpec("event_sessions", new Document("userId", 1).append("start", -1)),
+            new IndexSpec("event_sessions", new Document("upTo", 1)),
+
+            // event_rollups (hourly counters written at ingest)
+            new IndexSpec("event_rollups", new Document("_id.d", 1).append("_id.h", 1)),
+
+            // rebuild_partials (per-chunk partial results of StatsRebuildJob)
+            new IndexSpec("rebuild_partials", new Document("job", 1).append("type", 1).append("key", 1)),
+            new IndexSpec("rebuild_partials", new Document("job", 1).append("chunk", 1)),
+
+            // videos
+            new IndexSpec("videos", new Document("videoId", 1)).unique(),
+            new IndexSpec("videos", new Document("category", 1)),
+            new IndexSpec("videos", new Document("views", -1)),
+            new IndexSpec("videos", new Document("category", 1).append("views", -1)));
+
+    @Inject
+    private MongoDatabase database;
+
+    private ExecutorService executor;
+
+    private volatile ReconcileReport lastReport;
+
+    /**
+     * Starts index reconciliation once the application is up
+     * Runs on a background thread so startup is not blocked by index builds
+     */
+    public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "index-manager");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.submit(() -> {
+            try {
+                reconcile();
+                verifyWatchCountCovered();
+            } catch (Exception e) {
+                logger.error("Index reconciliation failed", e);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Gets the declared indexes
+     */
+    public static List<IndexSpec> getDeclaredIndexes() {
+        return Collections.unmodifiableList(INDEXES);
+    }
+
+    /**
+     * Builds the indexes declared for one collection on another collection
+     * Used for shadow collections that are later renamed over the declared one
+     */
+    public static void createDeclaredIndexes(MongoCollection<Document> target, String declaredCollection) {
+        for (IndexSpec spec : INDEXES) {
+            if (spec.getCollection().equals(declaredCollection)) {
+                target.createIndex(spec.getKeys(), spec.toOptions());
+            }
+        }
+    }
+
+    /**
+     * Compares declared indexes with existing ones and builds the missing ones
+     */
+    public ReconcileReport reconcile() {
+        ReconcileReport report = new ReconcileReport();
+        Map<String, List<Document>> existingByCollection = new HashMap<>();
+
+        for (IndexSpec spec : INDEXES) {
+            List<Document> existing = existingByCollection.computeIfAbsent(spec.getCollection(),
+                    name -> database.getCollection(name).listIndexes().into(new ArrayList<>()));
+
+            if (existing.stream().anyMatch(spec::matches)) {
+                report.present.add(spec.describe());
+            } else {
+                // Missing, or present with different options: createIndex reports conflicts
+                create(spec, report);
+            }
+        }
+
+        for (Map.Entry<String, List<Document>> entry : existingByCollection.entrySet()) {
+            for (Document index : entry.getValue()) {
+                if (!"_id_".equals(index.getString("name")) && !isDeclared(entry.getKey(), index)) {
+                    report.unmanaged.add(entry.getKey() + "." + index.getString("name"));
+                }
+            }
+        }
+
+        report.completedAt = Instant.now();
+        lastReport = report;
+        logger.info("Index reconciliation: {} present, {} created, {} conflicting, {} unmanaged",
+                report.present.size(), report.created.size(), report.conflicting.size(), report.unmanaged.size());
+        return report;
+    }
+
+    /**
+     * Confirms that the per-video WATCH count used by trending detection is a covered query
+     * (answered from the partial index without fetching any event document)
+     */
+    public boolean verifyWatchCountCovered() {
+        Instant now = Instant.now();
+        Document explain = database.runCommand(new Document("explain",
+                new Document("count", "events")
+                        .append("query", new Document("videoId", "video_1")
+                                .append("action", "WATCH")
+                                .append("timestamp", new Document("$gte", Date.from(now.minusSeconds(86400)))
+                                        .append("$lt", Date.from(now)))))
+                .append("verbosity", "executionStats"));
+
+        Document queryPlanner = explain.get("queryPlanner", Document.class);
+        Document stats = explain.get("executionStats", Document.class);
+        Number docsExamined = stats != null ? (Number) stats.get("totalDocsExamined") : null;
+        String winningPlan = queryPlanner != null ? queryPlanner.get("winningPlan", Document.class).toJson() : "";
+        boolean usesIndex = winningPlan.contains(WATCH_BY_VIDEO_INDEX);
+        boolean covered = usesIndex && !winningPlan.contains("\"FETCH\"")
+                && docsExamined != null && docsExamined.longValue() == 0;
+
+        if (lastReport != null) {
+            lastReport.watchCountCovered = covered;
+        }
+        if (covered) {
+            logger.info("WATCH count query is covered by {}", WATCH_BY_VIDEO_INDEX);
+        } else {
+            logger.warn("WATCH count query is not covered (index used: {}, docs examined: {}): {}",
+                    usesIndex, docsExamined, winningPlan);
+        }
+        return covered;
+    }
+
+    /**
+     * Gets the result of the last reconciliation (null until the first run completes)
+     */
+    public ReconcileReport getLastReport() {
+        return lastReport;
+    }
+
+    private void create(IndexSpec spec, ReconcileReport report) {
+        try {
+            MongoCollection<Document> collection = database.getCollection(spec.getCollection());
+            String name = collection.createIndex(spec.getKeys(), spec.toOptions());
+            report.created.add(spec.getCollection() + "." + name);
+            logger.info("Created index {} on {}", name, spec.getCollection());
+        } catch (MongoCommandException e) {
+            report.conflicting.add(spec.describe() + ": " + e.getErrorMessage());
+            logger.warn("Could not create index {}: {}", spec.describe(), e.getErrorMessage());
+        }
+    }
+
+    private boolean isDeclared(String collection, Document index) {
+        for (IndexSpec spec : INDEXES) {
+            if (spec.getCollection().equals(collection) && spec.matches(index)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Index key directions come back as Integer or Double depending on how they were created
+     */
+    private static Document normalizeKey(Document key) {
+        Document normalized = new Document();
+        if (key != null) {
+            for (Map.Entry<String, Object> entry : key.entrySet()) {
+                Object value = entry.getValue();
+                normalized.append(entry.getKey(), value instanceof Number ? ((Number) value).intValue() : value);
+            }
+        }
+        return normalized;
+    }
+
+    /**
+     * Declaration of a single index
+     */
+    public static class IndexSpec {
+        private final String collection;
+        private final Document keys;
+        private String name;
+        private boolean unique;
+        private Document partialFilter;
+
+        public IndexSpec(String collection, Document keys) {
+            this.collection = collection;
+            this.keys = keys;
+        }
+
+        IndexSpec named(String name) {
+            this.name = name;
+            return this;
+        }
+
+        IndexSpec unique() {
+            this.unique = true;
+            return this;
+        }
+
+        IndexSpec partial(Document partialFilter) {
+            this.partialFilter = partialFilter;
+            return this;
+        }
+
+        public String getCollection() {
+            return collection;
+        }
+
+        public Document getKeys() {
+            return keys;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isUnique() {
+            return unique;
+        }
+
+        public Document getPartialFilter() {
+            return partialFilter;
+        }
+
+        IndexOptions toOptions() {
+            IndexOptions options = new IndexOptions().background(true).unique(unique);
+            if (name != null) {
+                options.name(name);
+            }
+            if (partialFilter != null) {
+                options.partialFilterExpression(partialFilter);
+            }
+            return options;
+        }
+
+        boolean matches(Document existing) {
+            boolean existingUnique = Boolean.TRUE.equals(existing.getBoolean("unique"));
+            Document existingPartial = existing.get("partialFilterExpression", Document.class);
+            return normalizeKey(existing.get("key", Document.class)).equals(keys)
+                    && existingUnique == unique
+                    && (partialFilter == null ? existingPartial == null : partialFilter.equals(existingPartial));
+        }
+
+        String describe() {
+            return collection + "." + (name != null ? name : keys.toJson());
+        }
+    }
+
+    /**
+     * Outcome of a reconciliation run
+     */
+    public static class ReconcileReport {
+        private final List<String> present = new ArrayList<>();
+        private final List<String> created = new ArrayList<>();
+        private final List<String> conflicting = new ArrayList<>();
+        private final List<String> unmanaged = new ArrayList<>();
+        private volatile Boolean watchCountCovered;
+        private Instant completedAt;
+
+        public List<String> getPresent() {
+            return present;
+        }
+
+        public List<String> getCreated() {
+            return created;
+        }
+
+        public List<String> getConflicting() {
+            return conflicting;
+        }
+
+        public List<String> getUnmanaged() {
+            return unmanaged;
+        }
+
+        public Boolean getWatchCountCovered() {
+            return watchCountCovered;
+        }
+
+        public Instant getCompletedAt() {
+            return completedAt;
+        }
+    }
+}
@@ -0,0 +1,852 @@
+package com.streaming.analytics.repository;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Facet;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.streaming.analytics.config.IngestDatabase;
+import com.streaming.analytics.metrics.QueryMetrics;
+import com.streaming.analytics.model.ViewEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.codecs.pojo.PojoCodecProvider;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.mongodb.MongoClientSettings.getDefaultCodecRegistry;
+import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+
+/**
+ * MongoDB implementation of EventRepository
+ * Provides data access operations for the 'events' collection
+ */
+@ApplicationScoped
+public class MongoEventRepository implements EventRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(MongoEventRepository.class);
+    private static final String COLLECTION_NAME = "events";
+
+    // Count maps of the compacted session documents, by event field
+    private static final Map<String, String> SESSION_COUNTS = Map.of(
+            "deviceType", "devices",
+            "quality", "qualities",
+            "action", "actions");
+
+    @Inject
+    private MongoDatabase database;
+
+    @Inject
+    @IngestDatabase
+    private MongoDatabase ingestDatabase;
+
+    @Inject
+    private QueryMetrics queryMetrics;
+
+    @Inject
+    private EventWatermarks watermarks;
+
+    @Inject
+    private ParallelAggregator parallel;
+
+    private MongoCollection<ViewEvent> collection;
+
+    // Inserts go through the ingest client (own pool and write concern)
+    private MongoCollection<ViewEvent> insertCollection;
+
+    private MongoCollection<RawBsonDocument> rawCollection;
+
+    private MongoCollection<Document> documentCollection;
+
+    @PostConstruct
+    public void init() {
+        // Configure POJO codec for automatic mapping
+        CodecProvider pojoCodecProvider = PojoCodecProvider.builder()
+                .automatic(true)
+                .build();
+        CodecRegistry pojoCodecRegistry = fromRegistries(
+                getDefaultCodecRegistry(),
+                fromProviders(pojoCodecProvider));
+
+        this.collection = database
+                .withCodecRegistry(pojoCodecRegistry)
+                .getCollection(COLLECTION_NAME, ViewEvent.class);
+        this.insertCollection = ingestDatabase
+                .withCodecRegistry(pojoCodecRegistry)
+                .getCollection(COLLECTION_NAME, ViewEvent.class);
+        this.rawCollection = database.getCollection(COLLECTION_NAME, RawBsonDocument.class);
+        this.documentCollection = database.getCollection(COLLECTION_NAME);
+
+        // Indexes are declared and built by IndexManager
+        logger.info("EventRepository initialized with collection: {}", COLLECTION_NAME);
+    }
+
+    /**
+     * Saves a single event to the database
+     */
+    @Override
+    public void save(ViewEvent event) {
+        insertCollection.insertOne(event);
+        logger.debug("Saved event: {}", event.getEventId());
+    }
+
+    /**
+     * Saves a batch of events to the database
+     */
+    @Override
+    public void saveBatch(List<ViewEvent> events) {
+        if (events != null && !events.isEmpty()) {
+            insertCollection.insertMany(events);
+            logger.info("Saved batch of {} events", events.size());
+        }
+    }
+
+    /**
+     * Finds all events for a specific user
+     */
+    @Override
+    public List<ViewEvent> findByUserId(String userId) {
+        return collection.find(Filters.eq("userId", userId))
+                .sort(Sorts.descending("timestamp"))
+                .into(new ArrayList<>());
+    }
+
+    /**
+     * Finds all events for a specific user with limit
+     */
+    @Override
+    public List<ViewEvent> findByUserId(String userId, int limit) {
+        return collection.find(Filters.eq("userId", userId))
+                .sort(Sorts.descending("timestamp"))
+                .limit(limit)
+                .into(new ArrayList<>());
+    }
+
+    /**
+     * Finds all events for a specific video
+     */
+    @Override
+    public List<ViewEvent> findByVideoId(String videoId) {
+        return collection.find(Filters.eq("videoId", videoId))
+                .sort(Sorts.descending("timestamp"))
+                .into(new ArrayList<>());
+    }
+
+    /**
+     * Finds events within a time range
+     */
+    @Override
+    public List<ViewEvent> findByTimeRange(Instant start, Instant end) {
+        return collection.find(
+                Filters.and(
+                        Filters.gte("timestamp", start),
+                        Filters.lte("timestamp", end)))
+                .sort(Sorts.descending("timestamp"))
+                .into(new ArrayList<>());
+    }
+
+    /**
+     * Gets the most recently inserted events in chronological order
+     * Only the requested fields are transferred and decoded
+     */
+    @Override
+    public List<Document> findLatest(int limit, String... fields) {
+        List<RawBsonDocument> rawEvents = rawCollection.find()
+                .projection(Projections.include(fields))
+                .sort(Sorts.descending("_id"))
+                .limit(limit)
+                .into(new ArrayList<>(limit));
+
+        long start = System.nanoTime();
+        long bytes = 0;
+        List<Document> events = new ArrayList<>(rawEvents.size());
+        for (RawBsonDocument raw : rawEvents) {
+            bytes += RawDocuments.size(raw);
+            Document event = new Document();
+            for (String field : fields) {
+                BsonValue value = raw.get(field);
+                if (value != null) {
+                    event.append(field, RawDocuments.toJava(value));
+                }
+            }
+            events.add(event);
+        }
+        queryMetrics.record("events.findLatest", events.size(), bytes, System.nanoTime() - start);
+
+        Collections.reverse(events);
+        return events;
+    }
+
+    /**
+     * Counts total events in the collection
+     */
+    @Override
+    public long count() {
+        return collection.countDocuments();
+    }
+
+    /**
+     * Counts raw events plus the events compacted into sessions
+     */
+    @Override
+    public long countAll() {
+        return watermarks.countAllEvents();
+    }
+
+    /**
+     * Counts events for a specific video
+     */
+    @Override
+    public long countByVideoId(String videoId) {
+        return collection.countDocuments(Filters.eq("videoId", videoId));
+    }
+
+    /**
+     * Counts WATCH events of a video in a time range
+     */
+    @Override
+    public long countViews(String videoId, Instant start, Instant end) {
+        return collection.countDocuments(
+                Filters.and(
+                        Filters.eq("videoId", videoId),
+                        Filters.eq("action", "WATCH"),
+                        Filters.gte("timestamp", start),
+                        Filters.lt("timestamp", end)));
+    }
+
+    /**
+     * One aggregation over the WATCH events of the last 7 days: both window counts per video,
+     * the score, then sort and limit on the server; the catalog check only runs for the
+     * videos pulled through the limit. Days already compacted add the WATCH counts of their
+     * sessions, filed under the session start
+     */
+    @Override
+    public List<Document> findTrending(Instant now, double minScore, int limit) {
+        Instant since = now.minus(7, ChronoUnit.DAYS);
+        Instant watermark = watermarks.getCompactionWatermark();
+        ObjectId compactedUpTo = watermarks.getCompactedUpTo();
+        boolean compacted = watermark != null && watermark.isAfter(since);
+        Date last24h = Date.from(now.minus(24, ChronoUnit.HOURS));
+
+        EventFilter window = new EventFilter(since, now, null);
+        Bson raw = rangeMatch(null, compacted ? watermark : since, now);
+        Bson late = compacted ? lateMatch(window, watermark, compactedUpTo) : null;
+
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(Filters.and(
+                Filters.eq("action", "WATCH"),
+                late != null ? Filters.or(raw, late) : raw)));
+        pipeline.add(trendingGroup("$timestamp", 1, last24h));
+        if (compacted) {
+            Instant sessionsEnd = watermark.isBefore(now) ? watermark : now;
+            List<Bson> sessionFilters = new ArrayList<>(Arrays.asList(
+                    Filters.gte("start", Date.from(since)),
+                    Filters.lt("start", Date.from(sessionsEnd)),
+                    Filters.gt("actions.WATCH", 0)));
+            addCommitted(sessionFilters, compactedUpTo);
+            pipeline.add(Aggregates.unionWith(EventWatermarks.SESSIONS_COLLECTION, Arrays.asList(
+                    Aggregates.match(Filters.and(sessionFilters)),
+                    trendingGroup("$start", "$actions.WATCH", last24h))));
+            pipeline.add(Aggregates.group("$_id",
+                    Accumulators.sum("views24h", "$views24h"),
+                    Accumulators.sum("views7d", "$views7d")));
+        }
+        pipeline.add(Aggregates.project(new Document("views24h", 1)
+                .append("trendScore", new Document("$cond", Arrays.asList(
+                        new Document("$gt", Arrays.asList("$views7d", 0)),
+                        new Document("$divide", Arrays.asList("$views24h",
+                                new Document("$divide", Arrays.asList("$views7d", 7.0)))),
+                        "$views24h")))));
+        pipeline.add(Aggregates.match(Filters.gt("trendScore", minScore)));
+        pipeline.add(Aggregates.sort(Sorts.orderBy(Sorts.descending("trendScore"), Sorts.ascending("_id"))));
+        pipeline.add(Aggregates.lookup("videos", "_id", "videoId", "video"));
+        pipeline.add(Aggregates.match(Filters.ne("video", Collections.emptyList())));
+        pipeline.add(Aggregates.limit(limit));
+        pipeline.add(Aggregates.project(Projections.exclude("video")));
+
+        return documentCollection.aggregate(pipeline)
+                .allowDiskUse(true)
+                .into(new ArrayList<>());
+    }
+
+    /**
+     * Splits views per video into the last 24 hours and the 6 days before
+     */
+    private static Bson trendingGroup(String date, Object views, Date last24h) {
+        Document recent = new Document("$gte", Arrays.asList(date, last24h));
+        return Aggregates.group("$videoId",
+                Accumulators.sum("views24h", new Document("$cond", Arrays.asList(recent, views, 0))),
+                Accumulators.sum("views7d", new Document("$cond", Arrays.asList(recent, 0, views))));
+    }
+
+    /**
+     * One $facet pass over the events for all fields; compacted days add one more $facet pass
+     * over the sessions, whose counts are filed under the session start
+     */
+    @Override
+    public Map<String, Map<String, Long>> countByFields(List<String> fields, EventFilter filter) {
+        Instant watermark = watermarks.getCompactionWatermark();
+        ObjectId compactedUpTo = watermarks.getCompactedUpTo();
+        Map<String, Map<String, Long>> counts;
+        if (isParallel(filter)) {
+            List<Bson> facet = fieldsPipeline(fields, EventFilter.ALL, null, null);
+            counts = parallel.aggregate(documentCollection, partitions(filter, watermark, compactedUpTo), facet,
+                    partial -> facetCounts(fields, partial.isEmpty() ? null : partial.get(0)),
+                    MongoEventRepository::sumFieldCounts);
+        } else {
+            counts = facetCounts(fields, documentCollection
+                    .aggregate(fieldsPipeline(fields, filter, watermark, compactedUpTo))
+                    .allowDiskUse(true).first());
+        }
+
+        sumFieldCounts(counts, sessionFieldCounts(fields, filter, watermark, compactedUpTo));
+        Map<String, Map<String, Long>> result = new LinkedHashMap<>();
+        for (String field : fields) {
+            result.put(field, sortByCount(counts.get(field)));
+        }
+        return result;
+    }
+
+    /**
+     * Counts the compacted sessions of a filter per value of each field in one $facet pass
+     * (empty counts when the filter has no compacted part)
+     */
+    private Map<String, Map<String, Long>> sessionFieldCounts(List<String> fields, EventFilter filter,
+            Instant watermark, ObjectId compactedUpTo) {
+        if (!coversSessions(filter, watermark)) {
+            return facetCounts(fields, null);
+        }
+        List<Facet> sessionFacets = new ArrayList<>();
+        for (String field : fields) {
+            sessionFacets.add(new Facet(field,
+                    Aggregates.project(new Document("counts",
+                            new Document("$objectToArray", "$" + sessionCounts(field)))),
+                    Aggregates.unwind("$counts"),
+                    Aggregates.group("$counts.k", Accumulators.sum("count", "$counts.v"))));
+        }
+        return facetCounts(fields, database.getCollection(EventWatermarks.SESSIONS_COLLECTION).aggregate(
+                Arrays.asList(
+                        Aggregates.match(sessionMatch(filter, watermark, compactedUpTo)),
+                        Aggregates.facet(sessionFacets))).allowDiskUse(true).first());
+    }
+
+    /**
+     * $sample runs first, so it reads random documents instead of scanning; the filter is
+     * applied to the drawn events, and the draw is scaled up by the share of raw events the
+     * filter matches (see drawSize). Sessions are counted exactly, without durations
+     */
+    @Override
+    public EventSample sampleByFields(List<String> fields, EventFilter filter, int sampleSize) {
+        List<Facet> facets = new ArrayList<>();
+        for (String field : fields) {
+            requireSupportedField(field);
+            facets.add(new Facet(field, Aggregates.group("$" + field,
+                    Accumulators.sum("count", 1),
+                    Accumulators.sum("totalDuration", "$duration"))));
+        }
+        Instant watermark = watermarks.getCompactionWatermark();
+        ObjectId compactedUpTo = watermarks.getCompactedUpTo();
+        long population = documentCollection.estimatedDocumentCount();
+        long size = drawSize(population, matching(filter, watermark, compactedUpTo, population), sampleSize);
+        Document result = documentCollection.aggregate(samplePipeline(size < population ? size : 0,
+                filter, watermark, compactedUpTo, Aggregates.facet(facets))).allowDiskUse(true).first();
+
+        Map<String, Map<String, long[]>> sampled = new HashMap<>();
+        Map<String, Map<String, long[]>> exact = new HashMap<>();
+        Map<String, Map<String, Long>> sessionCounts =
+                sessionFieldCounts(fields, filter, watermark, compactedUpTo);
+        for (String field : fields) {
+            sampled.put(field, toTotals(result != null ? result.getList(field, Document.class) : List.of()));
+            Map<String, long[]> fieldExact = new HashMap<>();
+            sessionCounts.get(field).forEach((value, count) -> fieldExact.put(value, new long[] { count, 0 }));
+            exact.put(field, fieldExact);
+        }
+        return new EventSample(population, size, sampled, exact);
+    }
+
+    @Override
+    public EventSample sampleByPeriod(String period, EventFilter filter, int sampleSize) {
+        String dateFormat = dateFormat(period);
+        Instant watermark = watermarks.getCompactionWatermark();
+        ObjectId compactedUpTo = watermarks.getCompactedUpTo();
+        long population = documentCollection.estimatedDocumentCount();
+        long size = drawSize(population, matching(filter, watermark, compactedUpTo, population), sampleSize);
+        Map<String, long[]> sampled = toTotals(documentCollection.aggregate(samplePipeline(
+                size < population ? size : 0, filter, watermark, compactedUpTo,
+                periodGroup(dateFormat, "$timestamp", 1, "$duration")))
+                .allowDiskUse(true)
+                .into(new ArrayList<>()));
+        Map<String, long[]> exact = new HashMap<>();
+        if (coversSessions(filter, watermark)) {
+            exact = toTotals(database.getCollection(EventWatermarks.SESSIONS_COLLECTION)
+                    .aggregate(sessionPeriodStages(dateFormat, filter, watermark, compactedUpTo))
+                    .allowDiskUse(true)
+                    .into(new ArrayList<>()));
+        }
+        return new EventSample(population, size, Map.of("period", sampled), Map.of("period", exact));
+    }
+
+    /**
+     * Counts the raw events a filter matches, by index; the whole population without a filter
+     */
+    private long matching(EventFilter filter, Instant watermark, ObjectId compactedUpTo, long population) {
+        Bson match = eventMatch(filter, watermark, compactedUpTo);
+        return filter.isAll() || match == null ? population : documentCollection.countDocuments(match);
+    }
+
+    /**
+     * Number of events to draw so that about sampleSize of them match the filter, which keeps
+     * the interval of a narrow window or video as tight as an unfiltered one: all raw events
+     * once the draw would exceed 5% of them, beyond which $sample sorts the whole collection
+     * instead of reading random documents (and the $match counts the filter exactly)
+     */
+    static long drawSize(long population, long matching, int sampleSize) {
+        if (matching == 0) {
+            return population;
+        }
+        long size = (long) Math.ceil(sampleSize * (double) population / matching);
+        return size * 20 > population ? population : size;
+    }
+
+    /**
+     * Builds [$sample (unless size is 0), $match of the filter, stage]
+     */
+    static List<Bson> samplePipeline(long size, EventFilter filter, Instant watermark, ObjectId compactedUpTo,
+            Bson stage) {
+        List<Bson> pipeline = new ArrayList<>();
+        if (size > 0) {
+            pipeline.add(Aggregates.sample((int) size));
+        }
+        Bson match = eventMatch(filter, watermark, compactedUpTo);
+        if (match != null) {
+            pipeline.add(Aggregates.match(match));
+        }
+        pipeline.add(stage);
+        return pipeline;
+    }
+
+    /**
+     * Reads the per-field counts of one $facet result (null: no counts)
+     */
+    private static Map<String, Map<String, Long>> facetCounts(List<String> fields, Document facets) {
+        Map<String, Map<String, Long>> counts = new HashMap<>();
+        for (String field : fields) {
+            Map<String, Long> fieldCounts = new HashMap<>();
+            if (facets != null) {
+                fieldCounts.putAll(toCounts(facets.getList(field, Document.class)));
+            }
+            counts.put(field, fieldCounts);
+        }
+        return counts;
+    }
+
+    private static Map<String, Map<String, Long>> sumFieldCounts(Map<String, Map<String, Long>> a,
+            Map<String, Map<String, Long>> b) {
+        b.forEach((field, counts) -> a.merge(field, counts, ParallelAggregator::sumCounts));
+        return a;
+    }
+
+    /**
+     * Whether to split an aggregation of the raw events; video filters are narrow enough to
+     * run as one index-bounded pipeline
+     */
+    private boolean isParallel(EventFilter filter) {
+        return parallel.isEnabled() && filter.getVideoIds() == null;
+    }
+
+    /**
+     * Splits the raw events of a filter without videos: timestamp slices of the range when it
+     * has a start, plus one for the late events before it, else _id ranges
+     */
+    private List<Bson> partitions(EventFilter filter, Instant watermark, ObjectId compactedUpTo) {
+        Instant from = rawStart(filter, watermark);
+        if (from != null) {
+            List<Bson> partitions = new ArrayList<>(
+                    ParallelAggregator.timeRanges("timestamp", from, filter.getEnd(), parallel.getPartitions()));
+            Bson late = lateMatch(filter, watermark, compactedUpTo);
+            if (late != null) {
+                partitions.add(late);
+            }
+            return partitions;
+        }
+        return ParallelAggregator.idRanges(documentCollection, eventMatch(filter, watermark, compactedUpTo),
+                parallel.getPartitions());
+    }
+
+    /**
+     * Builds the events part of countByFields: the filter's $match first, then one $facet per field
+     */
+    static List<Bson> fieldsPipeline(List<String> fields, EventFilter filter, Instant watermark,
+            ObjectId compactedUpTo) {
+        List<Facet> facets = new ArrayList<>();
+        for (String field : fields) {
+            requireSupportedField(field);
+            facets.add(new Facet(field, Aggregates.group("$" + field, Accumulators.sum("count", 1))));
+        }
+        List<Bson> pipeline = new ArrayList<>();
+        Bson match = eventMatch(filter, watermark, compactedUpTo);
+        if (match != null) {
+            pipeline.add(Aggregates.match(match));
+        }
+        pipeline.add(Aggregates.facet(facets));
+        return pipeline;
+    }
+
+    /**
+     * Matches the raw events of the filter: videoId first and a timestamp range starting no
+     * earlier than the compaction watermark, so the timestamp or videoId/timestamp index bounds
+     * the scan, or'ed with the late events before it; null when nothing is restricted
+     */
+    static Bson eventMatch(EventFilter filter, Instant watermark, ObjectId compactedUpTo) {
+        Bson raw = rangeMatch(filter.getVideoIds(), rawStart(filter, watermark), filter.getEnd());
+        Bson late = lateMatch(filter, watermark, compactedUpTo);
+        return late != null ? Filters.or(raw, late) : raw;
+    }
+
+    /**
+     * Matches the raw events of the filter before the watermark that arrived after their day was
+     * compacted (_id above compactedUpTo) and wait for the next run; null when the filter ends
+     * before anything was compacted
+     */
+    static Bson lateMatch(EventFilter filter, Instant watermark, ObjectId compactedUpTo) {
+        if (!coversSessions(filter, watermark) || compactedUpTo == null) {
+            return null;
+        }
+        Instant to = filter.getEnd() != null && filter.getEnd().isBefore(watermark) ? filter.getEnd() : watermark;
+        return Filters.and(Filters.gt("_id", compactedUpTo),
+                rangeMatch(filter.getVideoIds(), filter.getStart(), to));
+    }
+
+    /**
+     * Matches videoId first, then the timestamp range; null when nothing is restricted
+     */
+    private static Bson rangeMatch(List<String> videoIds, Instant from, Instant to) {
+        List<Bson> filters = new ArrayList<>();
+        if (videoIds != null) {
+            filters.add(Filters.in("videoId", videoIds));
+        }
+        if (from != null) {
+            filters.add(Filters.gte("timestamp", Date.from(from)));
+        }
+        if (to != null) {
+            filters.add(Filters.lt("timestamp", Date.from(to)));
+        }
+        return filters.isEmpty() ? null : Filters.and(filters);
+    }
+
+    /**
+     * Start of the raw events of a filter: its start, raised to the compaction watermark
+     */
+    private static Instant rawStart(EventFilter filter, Instant watermark) {
+        Instant start = filter.getStart();
+        return watermark != null && (start == null || start.isBefore(watermark)) ? watermark : start;
+    }
+
+    /**
+     * Whether part of the filter's range is compacted into sessions
+     */
+    private static boolean coversSessions(EventFilter filter, Instant watermark) {
+        return watermark != null && (filter.getStart() == null || filter.getStart().isBefore(watermark));
+    }
+
+    /**
+     * Matches the sessions of the filter by their start, before the watermark
+     */
+    private static Bson sessionMatch(EventFilter filter, Instant watermark, ObjectId compactedUpTo) {
+        Instant to = filter.getEnd() != null && filter.getEnd().isBefore(watermark) ? filter.getEnd() : watermark;
+        List<Bson> filters = new ArrayList<>();
+        if (filter.getVideoIds() != null) {
+            filters.add(Filters.in("videoId", filter.getVideoIds()));
+        }
+        if (filter.getStart() != null) {
+            filters.add(Filters.gte("start", Date.from(filter.getStart())));
+        }
+        filters.add(Filters.lt("start", Date.from(to)));
+        addCommitted(filters, compactedUpTo);
+        return Filters.and(filters);
+    }
+
+    /**
+     * Skips the sessions of a compaction run that did not commit: their events are still read raw
+     */
+    private static void addCommitted(List<Bson> sessionFilters, ObjectId compactedUpTo) {
+        if (compactedUpTo != null) {
+            sessionFilters.add(Filters.not(Filters.gt("upTo", compactedUpTo)));
+        }
+    }
+
+    private static String sessionCounts(String field) {
+        requireSupportedField(field);
+        return SESSION_COUNTS.get(field);
+    }
+
+    /**
+     * Rejects fields the sessions and views have no counts for
+     */
+    private static void requireSupportedField(String field) {
+        if (!SESSION_COUNTS.containsKey(field)) {
+            throw new IllegalArgumentException("Unsupported field: " + field);
+        }
+    }
+
+    /**
+     * Orders counts highest first
+     */
+    private static Map<String, Long> sortByCount(Map<String, Long> counts) {
+        Map<String, Long> sorted = new LinkedHashMap<>();
+        counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .forEach(entry -> sorted.put(entry.getKey(), entry.getValue()));
+        return sorted;
+    }
+
+    /**
+     * Groups events with $dateToString, or the hourly materialized view once built;
+     * compacted days are read from the per-hour counts of the sessions
+     */
+    @Override
+    public List<Document> countByPeriod(String period, int limit) {
+        return countByPeriod(period, limit, EventFilter.ALL);
+    }
+
+    /**
+     * The hourly materialized view only answers unfiltered calls; otherwise the filter's $match
+     * runs first over the events and over the per-hour counts of the compacted sessions
+     */
+    @Override
+    public List<Document> countByPeriod(String period, int limit, EventFilter filter) {
+        String dateFormat = dateFormat(period);
+        if (filter.isAll() && watermarks.isViewReady(EventWatermarks.EVENTS_BY_HOUR)) {
+            return database.getCollection(EventWatermarks.EVENTS_BY_HOUR).aggregate(Arrays.asList(
+                    Aggregates.group(
+                            new Document("$dateToString",
+                                    new Document("format", dateFormat)
+                                            .append("date", "$_id")),
+                            Accumulators.sum("count", "$count"),
+                            Accumulators.sum("totalDuration", "$totalDuration")),
+                    Aggregates.project(new Document("count", 1)
+                            .append("avgDuration", new Document("$divide",
+                                    Arrays.asList("$totalDuration", "$count")))),
+                    Aggregates.sort(Sorts.descending("_id")),
+                    Aggregates.limit(limit)))
+                    .into(new ArrayList<>());
+        }
+
+        Instant watermark = watermarks.getCompactionWatermark();
+        ObjectId compactedUpTo = watermarks.getCompactedUpTo();
+        if (!isParallel(filter)) {
+            return documentCollection
+                    .aggregate(periodPipeline(dateFormat, limit, filter, watermark, compactedUpTo))
+                    .allowDiskUse(true)
+                    .into(new ArrayList<>());
+        }
+
+        // Partial count and duration sums per period; the averages are taken after merging
+        Map<String, long[]> totals = parallel.aggregate(documentCollection,
+                partitions(filter, watermark, compactedUpTo),
+                List.of(periodGroup(dateFormat, "$timestamp", 1, "$duration")),
+                MongoEventRepository::toTotals, ParallelAggregator::sumTotals);
+        if (coversSessions(filter, watermark)) {
+            ParallelAggregator.sumTotals(totals, toTotals(database.getCollection(EventWatermarks.SESSIONS_COLLECTION)
+                    .aggregate(sessionPeriodStages(dateFormat, filter, watermark, compactedUpTo))
+                    .allowDiskUse(true)
+                    .into(new ArrayList<>())));
+        }
+        List<Document> results = new ArrayList<>();
+        for (Map.Entry<String, long[]> entry : new TreeMap<>(totals).descendingMap().entrySet()) {
+            if (results.size() >= limit) {
+                break;
+            }
+            long[] periodTotals = entry.getValue();
+            results.add(new Document("_id", entry.getKey())
+                    .append("count", periodTotals[0])
+                    .append("avgDuration", periodTotals[1] / (double) periodTotals[0]));
+        }
+        return results;
+    }
+
+    /**
+     * Reads {_id: period, count, totalDuration} documents into period -> [count, totalDuration]
+     */
+    private static Map<String, long[]> toTotals(List<Document> periods) {
+        Map<String, long[]> totals = new HashMap<>();
+        for (Document period : periods) {
+            Object key = period.get("_id");
+            if (key instanceof String) {
+                totals.put((String) key, new long[] {
+                        ((Number) period.get("count")).longValue(),
+                        ((Number) period.get("totalDuration")).longValue() });
+            }
+        }
+        return totals;
+    }
+
+    private static Bson periodGroup(String dateFormat, String date, Object count, Object duration) {
+        return Aggregates.group(
+                new Document("$dateToString",
+                        new Document("format", dateFormat)
+                                .append("date", date)),
+                Accumulators.sum("count", count),
+                Accumulators.sum("totalDuration", duration));
+    }
+
+    /**
+     * Builds the raw countByPeriod aggregation, the filter's $match first
+     */
+    static List<Bson> periodPipeline(String dateFormat, int limit, EventFilter filter, Instant watermark,
+            ObjectId compactedUpTo) {
+        List<Bson> pipeline = new ArrayList<>();
+        Bson match = eventMatch(filter, watermark, compactedUpTo);
+        if (match != null) {
+            pipeline.add(Aggregates.match(match));
+        }
+        pipeline.add(periodGroup(dateFormat, "$timestamp", 1, "$duration"));
+        if (coversSessions(filter, watermark)) {
+            pipeline.add(Aggregates.unionWith(EventWatermarks.SESSIONS_COLLECTION,
+                    sessionPeriodStages(dateFormat, filter, watermark, compactedUpTo)));
+            pipeline.add(Aggregates.group("$_id",
+                    Accumulators.sum("count", "$count"),
+                    Accumulators.sum("totalDuration", "$totalDuration")));
+        }
+        pipeline.add(Aggregates.project(new Document("count", 1)
+                .append("avgDuration", new Document("$divide", Arrays.asList("$totalDuration", "$count")))));
+        pipeline.add(Aggregates.sort(Sorts.descending("_id")));
+        pipeline.add(Aggregates.limit(limit));
+        return pipeline;
+    }
+
+    /**
+     * Groups the per-hour counts of the compacted sessions of a filter by period
+     * A session started before the range can still have hours inside it
+     */
+    private static List<Bson> sessionPeriodStages(String dateFormat, EventFilter filter, Instant watermark,
+            ObjectId compactedUpTo) {
+        List<Bson> hourFilters = new ArrayList<>();
+        List<Bson> sessionFilters = new ArrayList<>();
+        if (filter.getVideoIds() != null) {
+            sessionFilters.add(Filters.in("videoId", filter.getVideoIds()));
+        }
+        sessionFilters.add(Filters.lt("start", Date.from(watermark)));
+        addCommitted(sessionFilters, compactedUpTo);
+        if (filter.getStart() != null) {
+            sessionFilters.add(Filters.gte("end", Date.from(filter.getStart())));
+            hourFilters.add(Filters.gte("hours.h", Date.from(filter.getStart())));
+        }
+        if (filter.getEnd() != null) {
+            sessionFilters.add(Filters.lt("start", Date.from(filter.getEnd())));
+            hourFilters.add(Filters.lt("hours.h", Date.from(filter.getEnd())));
+        }
+        List<Bson> stages = new ArrayList<>();
+        stages.add(Aggregates.match(Filters.and(sessionFilters)));
+        stages.add(Aggregates.unwind("$hours"));
+        if (!hourFilters.isEmpty()) {
+            stages.add(Aggregates.match(Filters.and(hourFilters)));
+        }
+        stages.add(periodGroup(dateFormat, "$hours.h", "$hours.n", "$hours.d"));
+        return stages;
+    }
+
+    /**
+     * Maps hour, day or month to its $dateToString format; anything else groups by day
+     */
+    static String dateFormat(String period) {
+        switch (period.toLowerCase()) {
+            case "hour":
+                return "%Y-%m-%d %H:00";
+            case "month":
+                return "%Y-%m";
+            default:
+                return "%Y-%m-%d";
+        }
+    }
+
+    /**
+     * Groups events by "%H:00"; sessions cover the part of the window before the watermark
+     * The hourly materialized view, once built, answers with the whole hours starting at or after since
+     */
+    @Override
+    public Map<String, Long> countByHourOfDay(Instant since) {
+        if (watermarks.isViewReady(EventWatermarks.EVENTS_BY_HOUR)) {
+            Instant firstHour = HourlyRollups.firstWholeHour(since);
+            return toCounts(database.getCollection(EventWatermarks.EVENTS_BY_HOUR).aggregate(Arrays.asList(
+                    Aggregates.match(Filters.gte("_id", Date.from(firstHour))),
+                    Aggregates.group(
+                            new Document("$dateToString",
+                                    new Document("format", "%H:00")
+                                            .append("date", "$_id")),
+                            Accumulators.sum("count", "$count")),
+                    Aggregates.sort(Sorts.ascending("_id")))));
+        }
+
+        Instant watermark = watermarks.getCompactionWatermark();
+        ObjectId compactedUpTo = watermarks.getCompactedUpTo();
+        boolean compacted = watermark != null && watermark.isAfter(since);
+        Bson raw = Filters.gte("timestamp", Date.from(compacted ? watermark : since));
+        Bson late = compacted ? lateMatch(new EventFilter(since, null, null), watermark, compactedUpTo) : null;
+
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(late != null ? Filters.or(raw, late) : raw));
+        pipeline.add(Aggregates.group(
+                new Document("$dateToString",
+                        new Document("format", "%H:00")
+                                .append("date", "$timestamp")),
+                Accumulators.sum("count", 1)));
+        if (compacted) {
+            List<Bson> sessionFilters = new ArrayList<>(Arrays.asList(
+                    Filters.lt("start", Date.from(watermark)),
+                    Filters.gte("end", Date.from(since))));
+            addCommitted(sessionFilters, compactedUpTo);
+            pipeline.add(Aggregates.unionWith(EventWatermarks.SESSIONS_COLLECTION, Arrays.asList(
+                    Aggregates.match(Filters.and(sessionFilters)),
+                    Aggregates.unwind("$hours"),
+                    Aggregates.match(Filters.gte("hours.h", Date.from(since))),
+                    Aggregates.group(
+                            new Document("$dateToString",
+                                    new Document("format", "%H:00")
+                                            .append("date", "$hours.h")),
+                            Accumulators.sum("count", "$hours.n")))));
+            pipeline.add(Aggregates.group("$_id", Accumulators.sum("count", "$count")));
+        }
+        pipeline.add(Aggregates.sort(Sorts.ascending("_id")));
+
+        return toCounts(documentCollection.aggregate(pipeline));
+    }
+
+    /**
+     * Reads {_id, count} documents into an ordered map, skipping null keys
+     */
+    static Map<String, Long> toCounts(Iterable<Document> aggregation) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Document doc : aggregation) {
+            Object key = doc.get("_id");
+            Number count = (Number) doc.get("count");
+            if (key instanceof String && count != null) {
+                counts.put((String) key, count.longValue());
+            }
+        }
+        return counts;
+    }
+}
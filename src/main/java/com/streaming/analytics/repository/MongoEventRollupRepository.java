@@ -0,0 +1,272 @@
+package com.streaming.analytics.repository;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.MergeOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.streaming.analytics.config.IngestDatabase;
+import com.streaming.analytics.model.ViewEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MongoDB implementation of EventRollupRepository
+ *
+ * Counters live in 'event_rollups' as {_id: {h, d, v}, n, s}. Events stored before the
+ * rollups existed are backfilled once, from raw events and compacted sessions, into
+ * separate fields (bn, bs) so a restarted backfill overwrites instead of adding; readers
+ * sum both. Sessions only have per-hour totals, so their per-value counts are filed under
+ * the session's start hour and carry no duration.
+ */
+@ApplicationScoped
+public class MongoEventRollupRepository implements EventRollupRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(MongoEventRollupRepository.class);
+
+    public static final String COLLECTION_NAME = "event_rollups";
+    private static final String STATE_COLLECTION = "rollup_state";
+    private static final String STATE_ID = "events";
+
+    @Inject
+    private MongoDatabase database;
+
+    @Inject
+    @IngestDatabase
+    private MongoDatabase ingestDatabase;
+
+    @Inject
+    private EventWatermarks watermarks;
+
+    private MongoCollection<Document> collection;
+
+    // Increments from ingest go through the ingest client (own pool and write concern)
+    private MongoCollection<Document> ingestCollection;
+
+    private volatile boolean ready;
+
+    @PostConstruct
+    public void init() {
+        collection = database.getCollection(COLLECTION_NAME);
+        ingestCollection = ingestDatabase.getCollection(COLLECTION_NAME);
+
+        // Events after 'since' are counted by record(); older ones by the backfill
+        MongoCollection<Document> states = database.getCollection(STATE_COLLECTION);
+        if (states.find(Filters.eq("_id", STATE_ID)).first() == null) {
+            try {
+                states.insertOne(new Document("_id", STATE_ID)
+                        .append("since", EventWatermarks.upperBound(Instant.now().minusSeconds(1))));
+            } catch (MongoWriteException e) {
+                if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+            }
+        }
+        ready = states.find(Filters.eq("_id", STATE_ID)).first().getDate("backfilledAt") != null;
+        logger.info("EventRollupRepository initialized with collection: {} (backfilled: {})",
+                COLLECTION_NAME, ready);
+    }
+
+    /**
+     * Starts the one-time backfill of the events stored before the rollups
+     */
+    public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        if (ready) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                backfill();
+            } catch (Exception e) {
+                logger.error("Rollup backfill failed; the breakdowns keep scanning events", e);
+            }
+        }, "rollup-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void backfill() {
+        long start = System.currentTimeMillis();
+        ObjectId since = database.getCollection(STATE_COLLECTION)
+                .find(Filters.eq("_id", STATE_ID)).first().getObjectId("since");
+
+        watermarks.runExclusive(() -> {
+            Instant watermark = watermarks.getCompactionWatermark();
+            Bson eventFilter = watermark != null
+                    ? Filters.and(Filters.lte("_id", since), Filters.gte("timestamp", Date.from(watermark)))
+                    : Filters.lte("_id", since);
+
+            collection.updateMany(Filters.exists("bn"), Updates.combine(Updates.unset("bn"), Updates.unset("bs")));
+            aggregateInto(database, eventFilter,
+                    watermark != null ? Filters.lt("start", Date.from(watermark)) : null);
+        });
+
+        database.getCollection(STATE_COLLECTION).updateOne(Filters.eq("_id", STATE_ID),
+                Updates.set("backfilledAt", new Date()));
+        ready = true;
+        logger.info("Backfilled event rollups in {}ms", System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public void record(List<ViewEvent> events) {
+        if (events == null || events.isEmpty()) {
+            return;
+        }
+        ingestCollection.bulkWrite(toWrites(HourlyRollups.aggregate(events)), new BulkWriteOptions().ordered(false));
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public Map<String, Long> countByValue(String dimension) {
+        return MongoEventRepository.toCounts(collection.aggregate(Arrays.asList(
+                Aggregates.match(Filters.eq("_id.d", dimension)),
+                Aggregates.group("$_id.v", Accumulators.sum("count", total("n", "bn"))),
+                Aggregates.sort(Sorts.descending("count")))));
+    }
+
+    @Override
+    public Map<String, Long> countByHourOfDay(Instant since) {
+        return MongoEventRepository.toCounts(collection.aggregate(Arrays.asList(
+                Aggregates.match(Filters.and(
+                        Filters.eq("_id.d", ALL),
+                        Filters.gte("_id.h", Date.from(HourlyRollups.firstWholeHour(since))))),
+                Aggregates.group(
+                        new Document("$dateToString",
+                                new Document("format", "%H:00")
+                                        .append("date", "$_id.h")),
+                        Accumulators.sum("count", total("n", "bn"))),
+                Aggregates.sort(Sorts.ascending("_id")))));
+    }
+
+    private static Document total(String live, String backfilled) {
+        return new Document("$add", Arrays.asList(
+                new Document("$ifNull", Arrays.asList("$" + live, 0)),
+                new Document("$ifNull", Arrays.asList("$" + backfilled, 0))));
+    }
+
+    /**
+     * One upsert with $inc per counter
+     */
+    public static List<WriteModel<Document>> toWrites(Map<HourlyRollups.Key, long[]> increments) {
+        List<WriteModel<Document>> writes = new ArrayList<>(increments.size());
+        increments.forEach((key, totals) -> writes.add(new UpdateOneModel<>(
+                Filters.eq("_id", new Document("h", Date.from(key.getHour()))
+                        .append("d", key.getDimension())
+                        .append("v", key.getValue())),
+                Updates.combine(Updates.inc("n", totals[0]), Updates.inc("s", totals[1])),
+                new UpdateOptions().upsert(true))));
+        return writes;
+    }
+
+    /**
+     * Recomputes the rollups of all stored events from scratch
+     * Used by the data generator after a bulk load that bypasses the ingest path
+     */
+    public static void rebuild(MongoDatabase database) {
+        MongoCollection<Document> rollups = database.getCollection(COLLECTION_NAME);
+        rollups.drop();
+        IndexManager.createDeclaredIndexes(rollups, COLLECTION_NAME);
+        database.getCollection(STATE_COLLECTION).deleteMany(Filters.eq("_id", STATE_ID));
+
+        ObjectId since = EventWatermarks.upperBound(Instant.now());
+        aggregateInto(database, Filters.lte("_id", since), null);
+        database.getCollection(STATE_COLLECTION).insertOne(new Document("_id", STATE_ID)
+                .append("since", since)
+                .append("backfilledAt", new Date()));
+    }
+
+    /**
+     * Sets bn/bs of every counter from the matching raw events and, if sessionFilter is
+     * not null, the matching sessions
+     */
+    private static void aggregateInto(MongoDatabase database, Bson eventFilter, Bson sessionFilter) {
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(Filters.and(eventFilter, Filters.type("timestamp", BsonType.DATE_TIME))));
+        pipeline.add(Aggregates.project(new Document("_id", 0)
+                .append("h", new Document("$dateTrunc",
+                        new Document("date", "$timestamp").append("unit", "hour")))
+                .append("duration", 1)
+                .append("keys", Arrays.asList(
+                        new Document("d", ALL).append("v", ""),
+                        new Document("d", "deviceType").append("v", "$deviceType"),
+                        new Document("d", "quality").append("v", "$quality"),
+                        new Document("d", "action").append("v", "$action")))));
+        pipeline.add(Aggregates.unwind("$keys"));
+        pipeline.add(Aggregates.match(Filters.ne("keys.v", null)));
+        pipeline.add(Aggregates.group(counter("$h", "$keys.d", "$keys.v"),
+                Accumulators.sum("bn", 1),
+                Accumulators.sum("bs", "$duration")));
+
+        if (sessionFilter != null) {
+            pipeline.add(Aggregates.unionWith(EventWatermarks.SESSIONS_COLLECTION, Arrays.asList(
+                    Aggregates.match(sessionFilter),
+                    Aggregates.unwind("$hours"),
+                    Aggregates.group(counter("$hours.h", ALL, ""),
+                            Accumulators.sum("bn", "$hours.n"),
+                            Accumulators.sum("bs", "$hours.d")))));
+            pipeline.add(Aggregates.unionWith(EventWatermarks.SESSIONS_COLLECTION, Arrays.asList(
+                    Aggregates.match(sessionFilter),
+                    Aggregates.project(new Document("h", new Document("$dateTrunc",
+                            new Document("date", "$start").append("unit", "hour")))
+                            .append("counts", new Document("$concatArrays", Arrays.asList(
+                                    sessionCounts("$devices", "deviceType"),
+                                    sessionCounts("$qualities", "quality"),
+                                    sessionCounts("$actions", "action"))))),
+                    Aggregates.unwind("$counts"),
+                    Aggregates.group(counter("$h", "$counts.d", "$counts.v"),
+                            Accumulators.sum("bn", "$counts.n"),
+                            Accumulators.sum("bs", 0)))));
+            pipeline.add(Aggregates.group("$_id",
+                    Accumulators.sum("bn", "$bn"),
+                    Accumulators.sum("bs", "$bs")));
+        }
+        pipeline.add(Aggregates.merge(COLLECTION_NAME, new MergeOptions()
+                .whenMatched(MergeOptions.WhenMatched.MERGE)
+                .whenNotMatched(MergeOptions.WhenNotMatched.INSERT)));
+
+        database.getCollection("events").aggregate(pipeline).allowDiskUse(true).toCollection();
+    }
+
+    private static Document counter(Object hour, Object dimension, Object value) {
+        return new Document("h", hour).append("d", dimension).append("v", value);
+    }
+
+    /**
+     * Turns a session count map into [{d, v, n}]
+     */
+    private static Document sessionCounts(String counts, String dimension) {
+        return new Document("$map", new Document("input",
+                new Document("$ifNull", Arrays.asList(new Document("$objectToArray", counts), List.of())))
+                .append("as", "c")
+                .append("in", new Document("d", dimension).append("v", "$$c.k").append("n", "$$c.v")));
+    }
+}
@@ -0,0 +1,215 @@
+package com.streaming.analytics.repository;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.PushOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import com.streaming.analytics.config.IngestDatabase;
+import com.streaming.analytics.metrics.QueryMetrics;
+import com.streaming.analytics.model.UserProfile;
+import com.streaming.analytics.state.UserStateService;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.codecs.pojo.PojoCodecProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.mongodb.MongoClientSettings.getDefaultCodecRegistry;
+import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+
+/**
+ * MongoDB implementation of UserProfileRepository
+ * Provides data access operations for the 'user_profiles' collection
+ */
+@ApplicationScoped
+public class MongoUserProfileRepository implements UserProfileRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(MongoUserProfileRepository.class);
+    static final String COLLECTION_NAME = "user_profiles";
+
+    @Inject
+    @IngestDatabase
+    private MongoDatabase database;
+
+    @Inject
+    private QueryMetrics queryMetrics;
+
+    @Inject
+    private UserStateService userState;
+
+    private MongoCollection<UserProfile> collection;
+
+    private MongoCollection<RawBsonDocument> rawCollection;
+
+    @PostConstruct
+    public void init() {
+        // Configure POJO codec for automatic mapping
+        CodecProvider pojoCodecProvider = PojoCodecProvider.builder()
+                .automatic(true)
+                .build();
+        CodecRegistry pojoCodecRegistry = fromRegistries(
+                getDefaultCodecRegistry(),
+                fromProviders(pojoCodecProvider));
+
+        this.collection = database
+                .withCodecRegistry(pojoCodecRegistry)
+                .getCollection(COLLECTION_NAME, UserProfile.class);
+        this.rawCollection = database.getCollection(COLLECTION_NAME, RawBsonDocument.class);
+
+        // Before any profile write can cut a legacy watchHistory array down to the recent list
+        new WatchHistoryMigration(database).migrate();
+
+        logger.info("UserProfileRepository initialized with collection: {}", COLLECTION_NAME);
+    }
+
+    /**
+     * Gets a user profile by userId, from the local state store first when enabled
+     */
+    @Override
+    public UserProfile findByUserId(String userId) {
+        if (userState.isEnabled()) {
+            UserProfile local = userState.find(userId);
+            if (local != null) {
+                return local;
+            }
+        }
+        return findStoredProfile(userId);
+    }
+
+    /**
+     * Gets the profile as last written to Mongo
+     */
+    private UserProfile findStoredProfile(String userId) {
+        return collection.find(Filters.eq("userId", userId)).first();
+    }
+
+    /**
+     * Gets the fields needed to build recommendations (preferences and recent watch history)
+     * Returns a partially populated profile, or null if the user is unknown
+     */
+    @Override
+    public UserProfile findPreferencesAndHistory(String userId) {
+        if (userState.isEnabled()) {
+            UserProfile local = userState.find(userId);
+            if (local != null) {
+                return local;
+            }
+        }
+
+        RawBsonDocument doc = rawCollection.find(Filters.eq("userId", userId))
+                .projection(Projections.fields(
+                        Projections.include("userId", "preferences", "watchHistory"),
+                        Projections.excludeId()))
+                .first();
+        if (doc == null) {
+            queryMetrics.record("user_profiles.findPreferencesAndHistory", 0, 0, 0);
+            return null;
+        }
+
+        long start = System.nanoTime();
+        UserProfile profile = new UserProfile();
+        profile.setUserId(RawDocuments.getString(doc, "userId"));
+        profile.setPreferences(RawDocuments.getIntMap(doc, "preferences"));
+        profile.setWatchHistory(RawDocuments.getStringList(doc, "watchHistory"));
+        queryMetrics.record("user_profiles.findPreferencesAndHistory", 1, RawDocuments.size(doc),
+                System.nanoTime() - start);
+        return profile;
+    }
+
+    /**
+     * Gets or creates a user profile
+     */
+    @Override
+    public UserProfile getOrCreate(String userId) {
+        UserProfile profile = findByUserId(userId);
+        if (profile == null) {
+            profile = new UserProfile(userId);
+            collection.insertOne(profile);
+            logger.debug("Created new user profile for: {}", userId);
+        }
+        return profile;
+    }
+
+    /**
+     * Updates user profile with a new watch event
+     * Only the RECENT_HISTORY_SIZE newest videoIds are kept in the profile
+     * With local user state enabled the write stays local until the next checkpoint
+     */
+    @Override
+    public void updateWithWatch(String userId, String videoId, String category, int watchDuration) {
+        if (userState.isEnabled()) {
+            userState.applyWatch(userId, videoId, category, watchDuration, this::findStoredProfile);
+            return;
+        }
+
+        FindOneAndUpdateOptions options = new FindOneAndUpdateOptions()
+                .upsert(true)
+                .returnDocument(ReturnDocument.AFTER);
+
+        collection.findOneAndUpdate(
+                Filters.eq("userId", userId),
+                Updates.combine(
+                        Updates.pushEach("watchHistory", Collections.singletonList(videoId),
+                                new PushOptions().position(0).slice(UserProfile.RECENT_HISTORY_SIZE)),
+                        Updates.inc("preferences." + category, 1),
+                        Updates.inc("totalWatchTime", watchDuration),
+                        Updates.set("lastActive", Instant.now())),
+                options);
+    }
+
+    /**
+     * Updates recommended videos for a user
+     */
+    @Override
+    public void updateRecommendations(String userId, List<String> recommendedVideoIds) {
+        collection.updateOne(
+                Filters.eq("userId", userId),
+                Updates.set("recommendedVideos", recommendedVideoIds));
+    }
+
+    /**
+     * Gets the most active users
+     */
+    @Override
+    public List<UserProfile> getMostActiveUsers(int limit) {
+        return collection.find()
+                .sort(Sorts.descending("totalWatchTime"))
+                .limit(limit)
+                .into(new ArrayList<>());
+    }
+
+    /**
+     * Saves or updates a user profile
+     */
+    @Override
+    public void save(UserProfile profile) {
+        FindOneAndUpdateOptions options = new FindOneAndUpdateOptions()
+                .upsert(true);
+
+        collection.findOneAndUpdate(
+                Filters.eq("userId", profile.getUserId()),
+                Updates.combine(
+                        Updates.set("watchHistory", profile.getWatchHistory()),
+                        Updates.set("preferences", profile.getPreferences()),
+                        Updates.set("recommendedVideos", profile.getRecommendedVideos()),
+                        Updates.set("lastActive", profile.getLastActive()),
+                        Updates.set("totalWatchTime", profile.getTotalWatchTime())),
+                options);
+    }
+}
@@ -0,0 +1,274 @@
+package com.streaming.analytics.repository;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Variable;
+import com.streaming.analytics.metrics.QueryMetrics;
+import com.streaming.analytics.model.Video;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * MongoDB implementation of VideoRepository
+ * Uses Document-based queries to avoid POJO codec issues
+ */
+@ApplicationScoped
+public class MongoVideoRepository implements VideoRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(MongoVideoRepository.class);
+    private static final String COLLECTION_NAME = "videos";
+
+    @Inject
+    private MongoDatabase database;
+
+    @Inject
+    private QueryMetrics queryMetrics;
+
+    private MongoCollection<Document> collection;
+
+    private MongoCollection<RawBsonDocument> rawCollection;
+
+    @PostConstruct
+    public void init() {
+        this.collection = database.getCollection(COLLECTION_NAME);
+        this.rawCollection = database.getCollection(COLLECTION_NAME, RawBsonDocument.class);
+        logger.info("VideoRepository initialized with collection: {}", COLLECTION_NAME);
+    }
+
+    /**
+     * Converts a Document to Video
+     */
+    private Video documentToVideo(Document doc) {
+        if (doc == null)
+            return null;
+
+        Video video = new Video();
+        video.setVideoId(doc.getString("videoId"));
+        video.setTitle(doc.getString("title"));
+        video.setCategory(doc.getString("category"));
+
+        Number duration = (Number) doc.get("duration");
+        video.setDuration(duration != null ? duration.intValue() : 0);
+
+        Number views = (Number) doc.get("views");
+        video.setViews(views != null ? views.intValue() : 0);
+
+        Number likes = (Number) doc.get("likes");
+        video.setLikes(likes != null ? likes.intValue() : 0);
+
+        Object uploadDate = doc.get("uploadDate");
+        if (uploadDate instanceof Date) {
+            video.setUploadDate(((Date) uploadDate).toInstant());
+        } else if (uploadDate instanceof Instant) {
+            video.setUploadDate((Instant) uploadDate);
+        }
+
+        return video;
+    }
+
+    /**
+     * Gets a video by videoId
+     */
+    @Override
+    public Video findByVideoId(String videoId) {
+        Document doc = collection.find(Filters.eq("videoId", videoId)).first();
+        return documentToVideo(doc);
+    }
+
+    /**
+     * Gets only the category of a video (used on the ingest path)
+     * Projects a single field and reads it lazily from the raw BSON bytes
+     */
+    @Override
+    public String findCategoryByVideoId(String videoId) {
+        RawBsonDocument doc = rawCollection.find(Filters.eq("videoId", videoId))
+                .projection(Projections.fields(
+                        Projections.include("category"),
+                        Projections.excludeId()))
+                .first();
+        if (doc == null) {
+            queryMetrics.record("videos.findCategoryByVideoId", 0, 0, 0);
+            return null;
+        }
+
+        long start = System.nanoTime();
+        String category = RawDocuments.getString(doc, "category");
+        queryMetrics.record("videos.findCategoryByVideoId", 1, RawDocuments.size(doc), System.nanoTime() - start);
+        return category;
+    }
+
+    /**
+     * Gets videos by category
+     */
+    @Override
+    public List<Video> findByCategory(String category) {
+        List<Video> results = new ArrayList<>();
+
+        for (Document doc : collection.find(Filters.eq("category", category))
+                .sort(Sorts.descending("views"))) {
+            results.add(documentToVideo(doc));
+        }
+
+        return results;
+    }
+
+    /**
+     * Gets videos by category with limit
+     */
+    @Override
+    public List<Video> findByCategory(String category, int limit) {
+        List<Video> results = new ArrayList<>();
+
+        for (Document doc : collection.find(Filters.eq("category", category))
+                .sort(Sorts.descending("views"))
+                .limit(limit)) {
+            results.add(documentToVideo(doc));
+        }
+
+        return results;
+    }
+
+    /**
+     * Gets the most popular videos
+     */
+    @Override
+    public List<Video> findMostPopular(int limit) {
+        List<Video> results = new ArrayList<>();
+
+        for (Document doc : collection.find()
+                .sort(Sorts.descending("views"))
+                .limit(limit)) {
+            results.add(documentToVideo(doc));
+        }
+
+        return results;
+    }
+
+    /**
+     * Gets videos by list of IDs (for recommendations)
+     */
+    @Override
+    public List<Video> findByVideoIds(List<String> videoIds) {
+        List<Video> results = new ArrayList<>();
+
+        for (Document doc : collection.find(Filters.in("videoId", videoIds))) {
+            results.add(documentToVideo(doc));
+        }
+
+        return results;
+    }
+
+    /**
+     * Counts total videos
+     */
+    @Override
+    public long count() {
+        return collection.countDocuments();
+    }
+
+    /**
+     * Gets all categories
+     */
+    @Override
+    public List<String> getAllCategories() {
+        return collection.distinct("category", String.class).into(new ArrayList<>());
+    }
+
+    /**
+     * One aggregation over 'videos' with a $lookup of each video's stats (unique videoId index)
+     * The lookup only carries totalViews and avgDuration, not the sketches of the stats documents
+     */
+    @Override
+    public List<Document> sumStatsByCategory() {
+        return collection.aggregate(Arrays.asList(
+                Aggregates.match(Filters.type("category", BsonType.STRING)),
+                Aggregates.lookup(MongoVideoStatsRepository.COLLECTION_NAME,
+                        List.of(new Variable<>("videoId", "$videoId")),
+                        Arrays.asList(
+                                Aggregates.match(Filters.expr(new Document("$eq",
+                                        Arrays.asList("$videoId", "$$videoId")))),
+                                Aggregates.project(Projections.fields(
+                                        Projections.include("totalViews", "avgDuration"),
+                                        Projections.excludeId()))),
+                        "stats"),
+                Aggregates.project(new Document("_id", 0)
+                        .append("category", 1)
+                        .append("stats", new Document("$first", "$stats"))),
+                Aggregates.group("$category",
+                        Accumulators.sum("videoCount", 1),
+                        Accumulators.sum("totalViews", new Document("$ifNull", Arrays.asList("$stats.totalViews", 0L))),
+                        Accumulators.sum("totalDuration", new Document("$multiply", Arrays.asList(
+                                new Document("$ifNull", Arrays.asList("$stats.avgDuration", 0.0)),
+                                new Document("$ifNull", Arrays.asList("$stats.totalViews", 0L)))))),
+                Aggregates.sort(Sorts.ascending("_id"))))
+                .into(new ArrayList<>());
+    }
+
+    /**
+     * Saves a video
+     */
+    @Override
+    public void save(Video video) {
+        Document doc = new Document()
+                .append("videoId", video.getVideoId())
+                .append("title", video.getTitle())
+                .append("category", video.getCategory())
+                .append("duration", video.getDuration())
+                .append("views", video.getViews())
+                .append("likes", video.getLikes())
+                .append("uploadDate", video.getUploadDate() != null ? Date.from(video.getUploadDate()) : new Date());
+
+        collection.insertOne(doc);
+        logger.debug("Saved video: {}", video.getVideoId());
+    }
+
+    /**
+     * Saves a batch of videos
+     */
+    @Override
+    public void saveBatch(List<Video> videos) {
+        if (videos != null && !videos.isEmpty()) {
+            List<Document> docs = new ArrayList<>();
+            for (Video video : videos) {
+                Document doc = new Document()
+                        .append("videoId", video.getVideoId())
+                        .append("title", video.getTitle())
+                        .append("category", video.getCategory())
+                        .append("duration", video.getDuration())
+                        .append("views", video.getViews())
+                        .append("likes", video.getLikes())
+                        .append("uploadDate",
+                                video.getUploadDate() != null ? Date.from(video.getUploadDate()) : new Date());
+                docs.add(doc);
+            }
+            collection.insertMany(docs);
+            logger.info("Saved batch of {} videos", videos.size());
+        }
+    }
+
+    /**
+     * Diff-based sync, see CatalogSync
+     */
+    @Override
+    public CatalogSyncResult syncCatalog(Iterator<Video> catalog) {
+        return new CatalogSync(collection).sync(catalog);
+    }
+}
@@ -0,0 +1,308 @@
+package com.streaming.analytics.repository;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.streaming.analytics.config.IngestDatabase;
+import com.streaming.analytics.model.VideoStats;
+import com.streaming.analytics.sketch.DurationHistogram;
+import com.streaming.analytics.sketch.HyperLogLog;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * MongoDB implementation of VideoStatsRepository
+ * Uses Document-based queries to avoid POJO codec issues with aggregated data
+ */
+@ApplicationScoped
+public class MongoVideoStatsRepository implements VideoStatsRepository {
+
+        private static final Logger logger = LoggerFactory.getLogger(MongoVideoStatsRepository.class);
+        public static final String COLLECTION_NAME = "video_stats";
+        private static final int SKETCH_MERGE_ATTEMPTS = 10;
+
+        @Inject
+        @IngestDatabase
+        private MongoDatabase database;
+
+        private MongoCollection<Document> collection;
+
+        @PostConstruct
+        public void init() {
+                this.collection = database.getCollection(COLLECTION_NAME);
+                logger.info("VideoStatsRepository initialized with collection: {}", COLLECTION_NAME);
+        }
+
+        /**
+         * Converts a Document to VideoStats
+         */
+        private VideoStats documentToVideoStats(Document doc) {
+                if (doc == null)
+                        return null;
+
+                VideoStats stats = new VideoStats();
+                stats.setVideoId(doc.getString("videoId"));
+
+                // Handle numeric types flexibly (can be Integer, Long, or Double)
+                Number totalViews = (Number) doc.get("totalViews");
+                stats.setTotalViews(totalViews != null ? totalViews.longValue() : 0L);
+
+                Number avgDuration = (Number) doc.get("avgDuration");
+                stats.setAvgDuration(avgDuration != null ? avgDuration.doubleValue() : 0.0);
+
+                Number uniqueViewers = (Number) doc.get("uniqueViewers");
+                stats.setUniqueViewers(uniqueViewers != null ? uniqueViewers.longValue() : 0L);
+
+                // Handle lastUpdated - can be Date or other types
+                Object lastUpdated = doc.get("lastUpdated");
+                if (lastUpdated instanceof Date) {
+                        stats.setLastUpdated(((Date) lastUpdated).toInstant());
+                } else if (lastUpdated instanceof Instant) {
+                        stats.setLastUpdated((Instant) lastUpdated);
+                } else {
+                        stats.setLastUpdated(Instant.now());
+                }
+
+                return stats;
+        }
+
+        /**
+         * Gets statistics for a specific video
+         */
+        @Override
+        public VideoStats getStats(String videoId) {
+                Document doc = collection.find(Filters.eq("videoId", videoId)).first();
+                return documentToVideoStats(doc);
+        }
+
+        /**
+         * Updates statistics when a new view event is processed
+         */
+        @Override
+        public VideoStats updateStats(String videoId, int watchDuration) {
+                VideoStats currentStats = getStats(videoId);
+
+                double newAvgDuration;
+                long newTotalViews;
+
+                if (currentStats == null) {
+                        newTotalViews = 1;
+                        newAvgDuration = watchDuration;
+                } else {
+                        long previousTotalDuration = (long) (currentStats.getAvgDuration()
+                                        * currentStats.getTotalViews());
+                        newTotalViews = currentStats.getTotalViews() + 1;
+                        newAvgDuration = (previousTotalDuration + watchDuration) / (double) newTotalViews;
+                }
+
+                FindOneAndUpdateOptions options = new FindOneAndUpdateOptions()
+                                .upsert(true)
+                                .returnDocument(ReturnDocument.AFTER);
+
+                Document result = collection.findOneAndUpdate(
+                                Filters.eq("videoId", videoId),
+                                Updates.combine(
+                                                Updates.set("videoId", videoId),
+                                                Updates.set("totalViews", newTotalViews),
+                                                Updates.set("avgDuration", newAvgDuration),
+                                                Updates.set("lastUpdated", new Date())),
+                                options);
+
+                return documentToVideoStats(result);
+        }
+
+        /**
+         * Gets the top videos by total views
+         */
+        @Override
+        public List<VideoStats> getTopVideos(int limit) {
+                List<VideoStats> results = new ArrayList<>();
+
+                for (Document doc : collection.find()
+                                .sort(Sorts.descending("totalViews"))
+                                .limit(limit)) {
+                        results.add(documentToVideoStats(doc));
+                }
+
+                return results;
+        }
+
+        /**
+         * Gets videos updated within a time range (for trending detection)
+         */
+        @Override
+        public List<VideoStats> findRecentlyUpdated(Instant since) {
+                List<VideoStats> results = new ArrayList<>();
+
+                for (Document doc : collection.find(Filters.gte("lastUpdated", Date.from(since)))
+                                .sort(Sorts.descending("totalViews"))) {
+                        results.add(documentToVideoStats(doc));
+                }
+
+                return results;
+        }
+
+        /**
+         * Increments the unique viewers count
+         */
+        @Override
+        public void incrementUniqueViewers(String videoId) {
+                collection.updateOne(
+                                Filters.eq("videoId", videoId),
+                                Updates.inc("uniqueViewers", 1));
+        }
+
+        /**
+         * Saves or updates video stats
+         */
+        @Override
+        public void save(VideoStats stats) {
+                FindOneAndUpdateOptions options = new FindOneAndUpdateOptions()
+                                .upsert(true);
+
+                collection.findOneAndUpdate(
+                                Filters.eq("videoId", stats.getVideoId()),
+                                Updates.combine(
+                                                Updates.set("videoId", stats.getVideoId()),
+                                                Updates.set("totalViews", stats.getTotalViews()),
+                                                Updates.set("avgDuration", stats.getAvgDuration()),
+                                                Updates.set("uniqueViewers", stats.getUniqueViewers()),
+                                                Updates.set("lastUpdated",
+                                                                stats.getLastUpdated() != null
+                                                                                ? Date.from(stats.getLastUpdated())
+                                                                                : new Date())),
+                                options);
+        }
+
+        @Override
+        public HyperLogLog getViewerSketch(String videoId) {
+                Document doc = collection.find(Filters.eq("videoId", videoId))
+                                .projection(Projections.include("viewerSketch"))
+                                .first();
+                Binary sketch = doc != null ? doc.get("viewerSketch", Binary.class) : null;
+                return sketch != null ? HyperLogLog.fromBytes(sketch.getData()) : null;
+        }
+
+        @Override
+        public void mergeViewerSketch(String videoId, HyperLogLog viewers) {
+                mergeSketch(videoId, "viewerSketch", previous -> {
+                        HyperLogLog merged = viewers.copy();
+                        if (previous != null) {
+                                merged.merge(HyperLogLog.fromBytes(previous));
+                        }
+                        return merged.toBytes();
+                }, merged -> Updates.set("uniqueViewers", HyperLogLog.fromBytes(merged).estimate()));
+        }
+
+        @Override
+        public HyperLogLog mergeViewerSketches(List<String> videoIds) {
+                Bson filter = videoIds != null
+                                ? Filters.and(Filters.in("videoId", videoIds), Filters.exists("viewerSketch"))
+                                : Filters.exists("viewerSketch");
+                HyperLogLog merged = new HyperLogLog();
+                for (Document doc : collection.find(filter).projection(Projections.include("viewerSketch"))) {
+                        merged.merge(HyperLogLog.fromBytes(doc.get("viewerSketch", Binary.class).getData()));
+                }
+                return merged;
+        }
+
+        @Override
+        public DurationHistogram getDurationSketch(String videoId) {
+                Document doc = collection.find(Filters.eq("videoId", videoId))
+                                .projection(Projections.include("durationSketch"))
+                                .first();
+                Binary sketch = doc != null ? doc.get("durationSketch", Binary.class) : null;
+                return sketch != null ? DurationHistogram.fromBytes(sketch.getData()) : null;
+        }
+
+        @Override
+        public void mergeDurationSketch(String videoId, DurationHistogram durations) {
+                mergeSketch(videoId, "durationSketch", previous -> {
+                        DurationHistogram merged = durations.copy();
+                        if (previous != null) {
+                                merged.merge(DurationHistogram.fromBytes(previous));
+                        }
+                        return merged.toBytes();
+                }, null);
+        }
+
+        @Override
+        public DurationHistogram mergeDurationSketches(List<String> videoIds) {
+                Bson filter = videoIds != null
+                                ? Filters.and(Filters.in("videoId", videoIds), Filters.exists("durationSketch"))
+                                : Filters.exists("durationSketch");
+                DurationHistogram merged = new DurationHistogram();
+                for (Document doc : collection.find(filter).projection(Projections.include("durationSketch"))) {
+                        merged.merge(DurationHistogram.fromBytes(doc.get("durationSketch", Binary.class).getData()));
+                }
+                return merged;
+        }
+
+        /**
+         * Compare-and-set on a stored sketch binary: the update only matches the sketch it was
+         * merged with, so concurrent merges retry instead of losing updates
+         *
+         * @param merge   merges the new values into the stored sketch (null if none)
+         * @param derived extra update computed from the merged sketch (may be null)
+         */
+        private void mergeSketch(String videoId, String field, UnaryOperator<byte[]> merge,
+                        Function<byte[], Bson> derived) {
+                for (int attempt = 0; attempt < SKETCH_MERGE_ATTEMPTS; attempt++) {
+                        Document doc = collection.find(Filters.eq("videoId", videoId))
+                                        .projection(Projections.include(field))
+                                        .first();
+                        Binary previous = doc != null ? doc.get(field, Binary.class) : null;
+                        byte[] merged = merge.apply(previous != null ? previous.getData() : null);
+                        if (previous != null && Arrays.equals(merged, previous.getData())) {
+                                return;
+                        }
+
+                        Bson unchanged = previous != null
+                                        ? Filters.eq(field, previous)
+                                        : Filters.exists(field, false);
+                        Bson update = Updates.set(field, new Binary(merged));
+                        if (derived != null) {
+                                update = Updates.combine(update, derived.apply(merged));
+                        }
+                        try {
+                                long matched = collection.updateOne(
+                                                Filters.and(Filters.eq("videoId", videoId), unchanged),
+                                                update,
+                                                new UpdateOptions().upsert(doc == null))
+                                                .getMatchedCount();
+                                if (matched > 0 || doc == null) {
+                                        return;
+                                }
+                        } catch (MongoWriteException e) {
+                                // Another merge created the document first
+                                if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                                        throw e;
+                                }
+                        }
+                }
+                throw new IllegalStateException(field + " of " + videoId + " kept changing; gave up after "
+                                + SKETCH_MERGE_ATTEMPTS + " attempts");
+        }
+}
@@ -0,0 +1,185 @@
+package com.streaming.analytics.repository;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.streaming.analytics.config.IngestDatabase;
+import com.streaming.analytics.metrics.QueryMetrics;
+import com.streaming.analytics.model.ViewEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * MongoDB implementation of WatchHistoryRepository on the bucketed 'watch_history' collection
+ * Each document holds up to BUCKET_SIZE compact entries {v: videoId, t: timestamp, d: duration}
+ * for one user and one day; a full bucket is followed by a new one for the same day
+ *
+ * A unique index on the open buckets ({userId, bucketStart} where count < BUCKET_SIZE) keeps
+ * concurrent upserts from opening two buckets for the same day: the loser gets a duplicate key
+ * error and is retried, which then matches the bucket the winner opened.
+ */
+@ApplicationScoped
+public class MongoWatchHistoryRepository implements WatchHistoryRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(MongoWatchHistoryRepository.class);
+    static final String COLLECTION_NAME = "watch_history";
+    private static final int UPSERT_ATTEMPTS = 3;
+
+    @Inject
+    @IngestDatabase
+    private MongoDatabase database;
+
+    @Inject
+    private QueryMetrics queryMetrics;
+
+    private MongoCollection<Document> collection;
+
+    private MongoCollection<RawBsonDocument> rawCollection;
+
+    @PostConstruct
+    public void init() {
+        this.collection = database.getCollection(COLLECTION_NAME);
+        this.rawCollection = database.getCollection(COLLECTION_NAME, RawBsonDocument.class);
+        logger.info("WatchHistoryRepository initialized with collection: {}", COLLECTION_NAME);
+    }
+
+    /**
+     * Appends a single watch entry to the user's current bucket
+     */
+    @Override
+    public void append(ViewEvent event) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                collection.updateOne(bucketFilter(event), appendUpdate(event), new UpdateOptions().upsert(true));
+                return;
+            } catch (MongoWriteException e) {
+                // Another writer opened the bucket first
+                if (attempt >= UPSERT_ATTEMPTS || e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends a batch of watch entries
+     * Ordered so that entries filling a bucket roll over to a new one deterministically; an upsert
+     * that lost the race to open a bucket is retried with the rest of the batch
+     */
+    @Override
+    public void appendBatch(List<ViewEvent> events) {
+        if (events == null || events.isEmpty()) {
+            return;
+        }
+
+        List<WriteModel<Document>> writes = new ArrayList<>(events.size());
+        for (ViewEvent event : events) {
+            writes.add(new UpdateOneModel<>(bucketFilter(event), appendUpdate(event),
+                    new UpdateOptions().upsert(true)));
+        }
+        int attempt = 1;
+        while (true) {
+            try {
+                collection.bulkWrite(writes);
+                break;
+            } catch (MongoBulkWriteException e) {
+                BulkWriteError error = e.getWriteErrors().get(0);
+                if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY
+                        || error.getIndex() == 0 && attempt >= UPSERT_ATTEMPTS) {
+                    throw e;
+                }
+                // The writes before the rejected one are applied
+                attempt = error.getIndex() == 0 ? attempt + 1 : 1;
+                writes = writes.subList(error.getIndex(), writes.size());
+            }
+        }
+        logger.debug("Appended {} watch history entries", events.size());
+    }
+
+    /**
+     * Gets the videoIds found in the user's most recent buckets
+     * Reads at most MAX_BUCKETS_READ documents and decodes only the videoIds
+     */
+    @Override
+    public Set<String> findRecentlyWatched(String userId) {
+        Set<String> watched = new HashSet<>();
+        long bytes = 0;
+        int documents = 0;
+        long decodeNanos = 0;
+
+        for (RawBsonDocument bucket : rawCollection.find(Filters.eq("userId", userId))
+                .projection(Projections.fields(Projections.include("items.v"), Projections.excludeId()))
+                .sort(Sorts.descending("bucketStart"))
+                .limit(MAX_BUCKETS_READ)) {
+            long start = System.nanoTime();
+            BsonValue items = bucket.get("items");
+            if (items != null && items.isArray()) {
+                for (BsonValue item : items.asArray()) {
+                    String videoId = RawDocuments.getString(item.asDocument(), "v");
+                    if (videoId != null) {
+                        watched.add(videoId);
+                    }
+                }
+            }
+            decodeNanos += System.nanoTime() - start;
+            bytes += RawDocuments.size(bucket);
+            documents++;
+        }
+
+        queryMetrics.record("watch_history.findRecentlyWatched", documents, bytes, decodeNanos);
+        return watched;
+    }
+
+    /**
+     * Matches the open (not yet full) bucket of the event's user and day
+     */
+    private Bson bucketFilter(ViewEvent event) {
+        return Filters.and(
+                Filters.eq("userId", event.getUserId()),
+                Filters.eq("bucketStart", Date.from(bucketStart(event.getTimestamp()))),
+                Filters.lt("count", BUCKET_SIZE));
+    }
+
+    private Bson appendUpdate(ViewEvent event) {
+        Date timestamp = Date.from(event.getTimestamp() != null ? event.getTimestamp() : Instant.now());
+        return Updates.combine(
+                Updates.push("items", new Document("v", event.getVideoId())
+                        .append("t", timestamp)
+                        .append("d", event.getDuration())),
+                Updates.inc("count", 1),
+                Updates.min("first", timestamp),
+                Updates.max("last", timestamp));
+    }
+
+    /**
+     * Buckets are aligned on UTC days
+     */
+    static Instant bucketStart(Instant timestamp) {
+        return (timestamp != null ? timestamp : Instant.now()).truncatedTo(ChronoUnit.DAYS);
+    }
+}
@@ -0,0 +1,187 @@
+package com.streaming.analytics.repository;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+/**
+ * Runs one aggregation as several concurrent partial aggregations over disjoint ranges of a
+ * collection, then combines the partial results in Java
+ *
+ * A single $group pipeline runs on one server thread; splitting it into AGGREGATION_PARTITIONS
+ * _id or timestamp ranges spreads it over as many server threads and pooled connections. The
+ * partial stages must give results that an associative combiner can merge (counts and sums,
+ * not averages). AGGREGATION_PARTITIONS defaults to 1 (every aggregation as a single pipeline):
+ * each partition holds a pooled connection for the whole query, so it is opted into per deployment.
+ */
+@ApplicationScoped
+public class ParallelAggregator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelAggregator.class);
+
+    private static final int PARTITIONS = Math.max(1, Integer.parseInt(env("AGGREGATION_PARTITIONS", "1")));
+
+    private int partitions;
+    private ExecutorService executor;
+
+    private static String env(String name, String defaultValue) {
+        return System.getenv(name) != null ? System.getenv(name) : defaultValue;
+    }
+
+    public ParallelAggregator() {
+    }
+
+    /**
+     * Creates an aggregator outside the container (benchmarks) with its own threads
+     */
+    public ParallelAggregator(int partitions) {
+        start(partitions);
+    }
+
+    @PostConstruct
+    public void init() {
+        start(PARTITIONS);
+        logger.info("Parallel aggregation {}", partitions > 1 ? "over " + partitions + " partitions" : "disabled");
+    }
+
+    private void start(int count) {
+        partitions = count;
+        if (count > 1) {
+            AtomicInteger threads = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(count, r -> {
+                Thread thread = new Thread(r, "parallel-aggregation-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return executor != null;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Runs [$match(partition), stages...] for every partition concurrently and combines the results
+     *
+     * @param partitions disjoint filters covering the documents to aggregate (see idRanges, timeRanges)
+     * @param partial    reads the output of one partition
+     * @param combiner   merges two partial results; must be associative, may update its first argument
+     */
+    public <T> T aggregate(MongoCollection<Document> collection, List<Bson> partitions, List<Bson> stages,
+            Function<List<Document>, T> partial, BinaryOperator<T> combiner) {
+        List<Future<T>> futures = new ArrayList<>();
+        for (Bson partition : partitions) {
+            List<Bson> pipeline = new ArrayList<>();
+            pipeline.add(Aggregates.match(partition));
+            pipeline.addAll(stages);
+            futures.add(executor.submit(() ->
+                    partial.apply(collection.aggregate(pipeline).allowDiskUse(true).into(new ArrayList<>()))));
+        }
+
+        T result = null;
+        try {
+            for (Future<T> future : futures) {
+                T next = future.get();
+                result = result == null ? next : combiner.apply(result, next);
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw new IllegalStateException("Partitioned aggregation of " + collection.getNamespace() + " failed",
+                    e.getCause());
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Partitioned aggregation interrupted", e);
+        }
+        return result;
+    }
+
+    /**
+     * Splits the documents matching the filter (null: all) into _id ranges of roughly equal
+     * size (see IdRangeSplitter); documents inserted from now on fall outside every range
+     */
+    public static List<Bson> idRanges(MongoCollection<Document> collection, Bson filter, int count) {
+        List<ObjectId> bounds = IdRangeSplitter.split(collection, count, Instant.now());
+        List<Bson> ranges = new ArrayList<>();
+        for (int i = 0; i < bounds.size() - 1; i++) {
+            Bson range = Filters.and(Filters.gte("_id", bounds.get(i)), Filters.lt("_id", bounds.get(i + 1)));
+            ranges.add(filter != null ? Filters.and(filter, range) : range);
+        }
+        return ranges;
+    }
+
+    /**
+     * Splits [start, end) of a date field into equal slices; without an end the last slice is open
+     */
+    public static List<Bson> timeRanges(String field, Instant start, Instant end, int count) {
+        Instant last = end != null ? end : Instant.now();
+        long span = Math.max(last.toEpochMilli() - start.toEpochMilli(), 0);
+        int slices = (int) Math.max(1, Math.min(count, span));
+        List<Bson> ranges = new ArrayList<>();
+        for (int i = 0; i < slices; i++) {
+            Date from = new Date(start.toEpochMilli() + span * i / slices);
+            if (i < slices - 1) {
+                ranges.add(Filters.and(Filters.gte(field, from),
+                        Filters.lt(field, new Date(start.toEpochMilli() + span * (i + 1) / slices))));
+            } else {
+                ranges.add(end != null
+                        ? Filters.and(Filters.gte(field, from), Filters.lt(field, Date.from(end)))
+                        : Filters.gte(field, from));
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Adds the counts of b to a (combiner for value -> count partials)
+     */
+    public static Map<String, Long> sumCounts(Map<String, Long> a, Map<String, Long> b) {
+        b.forEach((key, count) -> a.merge(key, count, Long::sum));
+        return a;
+    }
+
+    /**
+     * Adds the totals of b to a element-wise (combiner for key -> [count, sum, ...] partials)
+     */
+    public static Map<String, long[]> sumTotals(Map<String, long[]> a, Map<String, long[]> b) {
+        b.forEach((key, totals) -> a.merge(key, totals, (x, y) -> {
+            for (int i = 0; i < x.length; i++) {
+                x[i] += y[i];
+            }
+            return x;
+        }));
+        return a;
+    }
+}
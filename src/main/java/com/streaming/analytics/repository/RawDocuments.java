@@ -0,0 +1,92 @@
+package com.streaming.analytics.repository;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lazy field accessors for RawBsonDocument results
+ * Only the requested fields are decoded; the rest of the document stays as bytes
+ */
+final class RawDocuments {
+
+    private RawDocuments() {
+    }
+
+    /**
+     * Size in bytes of the BSON document as received from the server
+     */
+    static int size(RawBsonDocument doc) {
+        return doc.getByteBuffer().remaining();
+    }
+
+    static String getString(BsonDocument doc, String key) {
+        BsonValue value = doc.get(key);
+        return value != null && value.isString() ? value.asString().getValue() : null;
+    }
+
+    static long getLong(BsonDocument doc, String key) {
+        BsonValue value = doc.get(key);
+        return value != null && value.isNumber() ? value.asNumber().longValue() : 0L;
+    }
+
+    /**
+     * Converts a scalar BSON value to its plain Java equivalent
+     */
+    static Object toJava(BsonValue value) {
+        switch (value.getBsonType()) {
+            case STRING:
+                return value.asString().getValue();
+            case INT32:
+                return value.asInt32().getValue();
+            case INT64:
+                return value.asInt64().getValue();
+            case DOUBLE:
+                return value.asDouble().getValue();
+            case BOOLEAN:
+                return value.asBoolean().getValue();
+            case DATE_TIME:
+                return new Date(value.asDateTime().getValue());
+            case OBJECT_ID:
+                return value.asObjectId().getValue();
+            case NULL:
+                return null;
+            default:
+                return value;
+        }
+    }
+
+    static List<String> getStringList(BsonDocument doc, String key) {
+        List<String> result = new ArrayList<>();
+        BsonValue value = doc.get(key);
+        if (value != null && value.isArray()) {
+            BsonArray array = value.asArray();
+            for (BsonValue item : array) {
+                if (item.isString()) {
+                    result.add(item.asString().getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    static Map<String, Integer> getIntMap(BsonDocument doc, String key) {
+        Map<String, Integer> result = new HashMap<>();
+        BsonValue value = doc.get(key);
+        if (value != null && value.isDocument()) {
+            for (Map.Entry<String, BsonValue> entry : value.asDocument().entrySet()) {
+                if (entry.getValue().isNumber()) {
+                    result.put(entry.getKey(), entry.getValue().asNumber().intValue());
+                }
+            }
+        }
+        return result;
+    }
+}
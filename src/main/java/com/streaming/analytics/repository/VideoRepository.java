@@ -1,190 +1,77 @@
 package com.streaming.analytics.repository;
 
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.Filters;
-import com.mongodb.client.model.Sorts;
 import com.streaming.analytics.model.Video;
-import jakarta.annotation.PostConstruct;
-import jakarta.enterprise.context.ApplicationScoped;
-import jakarta.inject.Inject;
 import org.bson.Document;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 
 /**
- * CDI Repository for Video entities
- * Uses Document-based queries to avoid POJO codec issues
+ * Storage of the video catalog
+ * MongoVideoRepository is the default implementation
  */
-@ApplicationScoped
-public class VideoRepository {
-
-    private static final Logger logger = LoggerFactory.getLogger(VideoRepository.class);
-    private static final String COLLECTION_NAME = "videos";
-
-    @Inject
-    private MongoDatabase database;
-
-    private MongoCollection<Document> collection;
-
-    @PostConstruct
-    public void init() {
-        this.collection = database.getCollection(COLLECTION_NAME);
-        logger.info("VideoRepository initialized with collection: {}", COLLECTION_NAME);
-    }
+public interface VideoRepository {
 
     /**
-     * Converts a Document to Video
+     * Gets a video by videoId (null if unknown)
      */
-    private Video documentToVideo(Document doc) {
-        if (doc == null)
-            return null;
-
-        Video video = new Video();
-        video.setVideoId(doc.getString("videoId"));
-        video.setTitle(doc.getString("title"));
-        video.setCategory(doc.getString("category"));
-
-        Number duration = (Number) doc.get("duration");
-        video.setDuration(duration != null ? duration.intValue() : 0);
-
-        Number views = (Number) doc.get("views");
-        video.setViews(views != null ? views.intValue() : 0);
-
-        Number likes = (Number) doc.get("likes");
-        video.setLikes(likes != null ? likes.intValue() : 0);
-
-        Object uploadDate = doc.get("uploadDate");
-        if (uploadDate instanceof Date) {
-            video.setUploadDate(((Date) uploadDate).toInstant());
-        } else if (uploadDate instanceof Instant) {
-            video.setUploadDate((Instant) uploadDate);
-        }
-
-        return video;
-    }
+    Video findByVideoId(String videoId);
 
     /**
-     * Gets a video by videoId
+     * Gets only the category of a video (null if unknown)
      */
-    public Video findByVideoId(String videoId) {
-        Document doc = collection.find(Filters.eq("videoId", videoId)).first();
-        return documentToVideo(doc);
-    }
+    String findCategoryByVideoId(String videoId);
 
     /**
-     * Gets videos by category
+     * Gets videos by category, most viewed first
      */
-    public List<Video> findByCategory(String category) {
-        List<Video> results = new ArrayList<>();
-
-        for (Document doc : collection.find(Filters.eq("category", category))
-                .sort(Sorts.descending("views"))) {
-            results.add(documentToVideo(doc));
-        }
-
-        return results;
-    }
+    List<Video> findByCategory(String category);
 
     /**
-     * Gets videos by category with limit
+     * Gets the most viewed videos of a category
      */
-    public List<Video> findByCategory(String category, int limit) {
-        List<Video> results = new ArrayList<>();
-
-        for (Document doc : collection.find(Filters.eq("category", category))
-                .sort(Sorts.descending("views"))
-                .limit(limit)) {
-            results.add(documentToVideo(doc));
-        }
-
-        return results;
-    }
+    List<Video> findByCategory(String category, int limit);
 
     /**
      * Gets the most popular videos
      */
-    public List<Video> findMostPopular(int limit) {
-        List<Video> results = new ArrayList<>();
-
-        for (Document doc : collection.find()
-                .sort(Sorts.descending("views"))
-                .limit(limit)) {
-            results.add(documentToVideo(doc));
-        }
-
-        return results;
-    }
+    List<Video> findMostPopular(int limit);
 
     /**
      * Gets videos by list of IDs (for recommendations)
      */
-    public List<Video> findByVideoIds(List<String> videoIds) {
-        List<Video> results = new ArrayList<>();
-
-        for (Document doc : collection.find(Filters.in("videoId", videoIds))) {
-            results.add(documentToVideo(doc));
-        }
-
-        return results;
-    }
+    List<Video> findByVideoIds(List<String> videoIds);
 
     /**
      * Counts total videos
      */
-    public long count() {
-        return collection.countDocuments();
-    }
+    long count();
 
     /**
      * Gets all categories
      */
-    public List<String> getAllCategories() {
-        return collection.distinct("category", String.class).into(new ArrayList<>());
-    }
+    List<String> getAllCategories();
 
     /**
-     * Saves a video
+     * Sums the statistics of each category's videos in one pass, videos without statistics included:
+     * {_id: category, videoCount, totalViews, totalDuration}, where totalDuration is the sum of
+     * avgDuration * totalViews
      */
-    public void save(Video video) {
-        Document doc = new Document()
-                .append("videoId", video.getVideoId())
-                .append("title", video.getTitle())
-                .append("category", video.getCategory())
-                .append("duration", video.getDuration())
-                .append("views", video.getViews())
-                .append("likes", video.getLikes())
-                .append("uploadDate", video.getUploadDate() != null ? Date.from(video.getUploadDate()) : new Date());
+    List<Document> sumStatsByCategory();
 
-        collection.insertOne(doc);
-        logger.debug("Saved video: {}", video.getVideoId());
-    }
+    /**
+     * Saves a new video
+     */
+    void save(Video video);
+
+    /**
+     * Saves a batch of new videos
+     */
+    void saveBatch(List<Video> videos);
 
     /**
-     * Saves a batch of videos
+     * Makes the catalog match a full feed: inserts new videos, replaces changed ones and
+     * deletes those missing from the feed
      */
-    public void saveBatch(List<Video> videos) {
-        if (videos != null && !videos.isEmpty()) {
-            List<Document> docs = new ArrayList<>();
-            for (Video video : videos) {
-                Document doc = new Document()
-                        .append("videoId", video.getVideoId())
-                        .append("title", video.getTitle())
-                        .append("category", video.getCategory())
-                        .append("duration", video.getDuration())
-                        .append("views", video.getViews())
-                        .append("likes", video.getLikes())
-                        .append("uploadDate",
-                                video.getUploadDate() != null ? Date.from(video.getUploadDate()) : new Date());
-                docs.add(doc);
-            }
-            collection.insertMany(docs);
-            logger.info("Saved batch of {} videos", videos.size());
-        }
-    }
+    CatalogSyncResult syncCatalog(Iterator<Video> catalog);
 }
@@ -0,0 +1,119 @@
+package com.streaming.analytics.repository;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.streaming.analytics.model.UserProfile;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * One-off move of the watchHistory arrays embedded in user profiles into 'watch_history'
+ *
+ * Before the history was bucketed, each watch was appended to the profile's array without
+ * bound. Arrays longer than RECENT_HISTORY_SIZE can only be such legacy arrays: they are
+ * written as buckets dated on the profile's lastActive day, then replaced in the profile by
+ * their RECENT_HISTORY_SIZE newest videoIds, newest first. The buckets have fixed _ids and are
+ * marked full (count = BUCKET_SIZE) so appends never reopen them, which makes a rerun after a
+ * crash harmless. Once done, 'migration_state' records it and later startups skip the scan.
+ */
+public class WatchHistoryMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(WatchHistoryMigration.class);
+
+    static final String STATE_COLLECTION = "migration_state";
+    static final String STATE_ID = "watch_history";
+
+    private final MongoDatabase database;
+
+    public WatchHistoryMigration(MongoDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Moves the legacy arrays unless that was done already
+     * Returns the number of profiles migrated
+     */
+    public long migrate() {
+        MongoCollection<Document> states = database.getCollection(STATE_COLLECTION);
+        if (states.find(Filters.eq("_id", STATE_ID)).first() != null) {
+            return 0;
+        }
+        long start = System.currentTimeMillis();
+        MongoCollection<Document> profiles = database.getCollection(MongoUserProfileRepository.COLLECTION_NAME);
+        MongoCollection<Document> history = database.getCollection(MongoWatchHistoryRepository.COLLECTION_NAME);
+
+        long migrated = 0;
+        for (Document profile : profiles.find(Filters.exists("watchHistory." + UserProfile.RECENT_HISTORY_SIZE))
+                .projection(Projections.include("userId", "watchHistory", "lastActive"))) {
+            List<String> legacy = profile.getList("watchHistory", String.class);
+            Date lastActive = profile.getDate("lastActive");
+            history.bulkWrite(toBuckets(profile.getString("userId"), legacy,
+                    lastActive != null ? lastActive.toInstant() : Instant.now()));
+
+            List<String> recent = new ArrayList<>(
+                    legacy.subList(legacy.size() - UserProfile.RECENT_HISTORY_SIZE, legacy.size()));
+            Collections.reverse(recent);
+            // A profile written meanwhile keeps what it has; its buckets are in place either way
+            profiles.updateOne(Filters.and(
+                            Filters.eq("_id", profile.get("_id")),
+                            Filters.eq("watchHistory", legacy)),
+                    Updates.set("watchHistory", recent));
+            migrated++;
+        }
+
+        try {
+            states.insertOne(new Document("_id", STATE_ID)
+                    .append("profiles", migrated)
+                    .append("migratedAt", new Date()));
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                throw e;
+            }
+        }
+        logger.info("Moved the embedded watch history of {} profiles to {} in {}ms", migrated,
+                MongoWatchHistoryRepository.COLLECTION_NAME, System.currentTimeMillis() - start);
+        return migrated;
+    }
+
+    /**
+     * Splits a legacy array (oldest first) into full buckets of at most BUCKET_SIZE entries
+     * Entries have no timestamp of their own and take the lastActive time
+     */
+    static List<WriteModel<Document>> toBuckets(String userId, List<String> videoIds, Instant lastActive) {
+        Date last = Date.from(lastActive);
+        Date bucketStart = Date.from(MongoWatchHistoryRepository.bucketStart(lastActive));
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        for (int from = 0; from < videoIds.size(); from += WatchHistoryRepository.BUCKET_SIZE) {
+            List<Document> items = new ArrayList<>();
+            for (String videoId : videoIds.subList(from,
+                    Math.min(from + WatchHistoryRepository.BUCKET_SIZE, videoIds.size()))) {
+                items.add(new Document("v", videoId).append("t", last).append("d", 0));
+            }
+            String id = "legacy:" + userId + ":" + (from / WatchHistoryRepository.BUCKET_SIZE);
+            writes.add(new ReplaceOneModel<>(Filters.eq("_id", id), new Document("_id", id)
+                    .append("userId", userId)
+                    .append("bucketStart", bucketStart)
+                    .append("items", items)
+                    .append("count", WatchHistoryRepository.BUCKET_SIZE)
+                    .append("first", last)
+                    .append("last", last),
+                    new ReplaceOptions().upsert(true)));
+        }
+        return writes;
+    }
+}
@@ -0,0 +1,38 @@
+package com.streaming.analytics.repository;
+
+import com.streaming.analytics.model.ViewEvent;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Storage of the full watch history, bucketed per user and UTC day
+ * MongoWatchHistoryRepository is the default implementation
+ */
+public interface WatchHistoryRepository {
+
+    /**
+     * Maximum number of entries per bucket
+     */
+    int BUCKET_SIZE = 200;
+
+    /**
+     * Maximum number of buckets read when checking what a user has already watched
+     */
+    int MAX_BUCKETS_READ = 5;
+
+    /**
+     * Appends a single watch entry to the user's current bucket
+     */
+    void append(ViewEvent event);
+
+    /**
+     * Appends a batch of watch entries in order
+     */
+    void appendBatch(List<ViewEvent> events);
+
+    /**
+     * Gets the videoIds found in the user's MAX_BUCKETS_READ most recent buckets
+     */
+    Set<String> findRecentlyWatched(String userId);
+}
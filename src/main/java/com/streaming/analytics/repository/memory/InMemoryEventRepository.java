@@ -0,0 +1,406 @@
+package com.streaming.analytics.repository.memory;
+
+import com.streaming.analytics.model.ViewEvent;
+import com.streaming.analytics.repository.EventFilter;
+import com.streaming.analytics.repository.EventRepository;
+import com.streaming.analytics.repository.EventSample;
+import com.streaming.analytics.repository.VideoRepository;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Concurrent in-memory EventRepository
+ * Events are kept in insertion order, with per-user and per-video indexes
+ */
+@ApplicationScoped
+@InMemoryStore
+public class InMemoryEventRepository implements EventRepository {
+
+    private static final DateTimeFormatter HOUR = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:00")
+            .withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyy-MM-dd")
+            .withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyy-MM")
+            .withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter HOUR_OF_DAY = DateTimeFormatter.ofPattern("HH:00")
+            .withZone(ZoneOffset.UTC);
+
+    private static final Comparator<ViewEvent> NEWEST_FIRST = Comparator.comparing(ViewEvent::getTimestamp,
+            Comparator.nullsLast(Comparator.reverseOrder()));
+
+    private final ConcurrentLinkedDeque<ViewEvent> events = new ConcurrentLinkedDeque<>();
+    private final Map<String, Queue<ViewEvent>> byUser = new ConcurrentHashMap<>();
+    private final Map<String, Queue<ViewEvent>> byVideo = new ConcurrentHashMap<>();
+    private final AtomicLong size = new AtomicLong();
+
+    @Inject
+    private VideoRepository videoRepository;
+
+    @Override
+    public void save(ViewEvent event) {
+        if (event.getId() == null) {
+            event.setId(new ObjectId());
+        }
+        events.addLast(event);
+        if (event.getUserId() != null) {
+            byUser.computeIfAbsent(event.getUserId(), k -> new ConcurrentLinkedQueue<>()).add(event);
+        }
+        if (event.getVideoId() != null) {
+            byVideo.computeIfAbsent(event.getVideoId(), k -> new ConcurrentLinkedQueue<>()).add(event);
+        }
+        size.incrementAndGet();
+    }
+
+    @Override
+    public void saveBatch(List<ViewEvent> events) {
+        if (events != null) {
+            events.forEach(this::save);
+        }
+    }
+
+    @Override
+    public List<ViewEvent> findByUserId(String userId) {
+        return findByUserId(userId, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<ViewEvent> findByUserId(String userId, int limit) {
+        return newest(byUser.getOrDefault(userId, new ConcurrentLinkedQueue<>()), event -> true, limit);
+    }
+
+    @Override
+    public List<ViewEvent> findByVideoId(String videoId) {
+        return newest(byVideo.getOrDefault(videoId, new ConcurrentLinkedQueue<>()), event -> true,
+                Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<ViewEvent> findByTimeRange(Instant start, Instant end) {
+        return newest(events, event -> event.getTimestamp() != null
+                && !event.getTimestamp().isBefore(start)
+                && !event.getTimestamp().isAfter(end), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Document> findLatest(int limit, String... fields) {
+        List<Document> latest = new ArrayList<>(Math.min(limit, 1024));
+        Iterator<ViewEvent> iterator = events.descendingIterator();
+        while (iterator.hasNext() && latest.size() < limit) {
+            ViewEvent event = iterator.next();
+            Document doc = new Document();
+            for (String field : fields) {
+                Object value = fieldValue(event, field);
+                if (value != null) {
+                    doc.append(field, value);
+                }
+            }
+            latest.add(doc);
+        }
+        Collections.reverse(latest);
+        return latest;
+    }
+
+    @Override
+    public long count() {
+        return size.get();
+    }
+
+    @Override
+    public long countAll() {
+        return size.get();
+    }
+
+    @Override
+    public long countByVideoId(String videoId) {
+        Queue<ViewEvent> videoEvents = byVideo.get(videoId);
+        return videoEvents != null ? videoEvents.size() : 0;
+    }
+
+    @Override
+    public long countViews(String videoId, Instant start, Instant end) {
+        long views = 0;
+        for (ViewEvent event : byVideo.getOrDefault(videoId, new ConcurrentLinkedQueue<>())) {
+            if ("WATCH".equals(event.getAction()) && event.getTimestamp() != null
+                    && !event.getTimestamp().isBefore(start) && event.getTimestamp().isBefore(end)) {
+                views++;
+            }
+        }
+        return views;
+    }
+
+    @Override
+    public List<Document> findTrending(Instant now, double minScore, int limit) {
+        Instant last24h = now.minus(24, ChronoUnit.HOURS);
+        Instant last7d = now.minus(7, ChronoUnit.DAYS);
+        List<Document> trending = new ArrayList<>();
+        for (Map.Entry<String, Queue<ViewEvent>> entry : byVideo.entrySet()) {
+            long views24h = 0;
+            long views7d = 0;
+            for (ViewEvent event : entry.getValue()) {
+                Instant timestamp = event.getTimestamp();
+                if (!"WATCH".equals(event.getAction()) || timestamp == null
+                        || timestamp.isBefore(last7d) || !timestamp.isBefore(now)) {
+                    continue;
+                }
+                if (timestamp.isBefore(last24h)) {
+                    views7d++;
+                } else {
+                    views24h++;
+                }
+            }
+            double trendScore = views7d > 0 ? views24h / (views7d / 7.0) : views24h;
+            if (trendScore > minScore) {
+                trending.add(new Document("_id", entry.getKey())
+                        .append("views24h", views24h)
+                        .append("trendScore", trendScore));
+            }
+        }
+        trending.sort(Comparator.comparing((Document doc) -> doc.getDouble("trendScore")).reversed()
+                .thenComparing(doc -> doc.getString("_id")));
+
+        List<Document> results = new ArrayList<>();
+        for (Document doc : trending) {
+            if (results.size() >= limit) {
+                break;
+            }
+            if (videoRepository.findByVideoId(doc.getString("_id")) != null) {
+                results.add(doc);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Map<String, Map<String, Long>> countByFields(List<String> fields, EventFilter filter) {
+        List<Function<ViewEvent, String>> extractors = new ArrayList<>();
+        List<Map<String, Long>> counts = new ArrayList<>();
+        for (String field : fields) {
+            extractors.add(extractor(field));
+            counts.add(new HashMap<>());
+        }
+
+        for (ViewEvent event : events) {
+            if (!filter.matches(event)) {
+                continue;
+            }
+            for (int i = 0; i < extractors.size(); i++) {
+                String value = extractors.get(i).apply(event);
+                if (value != null) {
+                    counts.get(i).merge(value, 1L, Long::sum);
+                }
+            }
+        }
+
+        Map<String, Map<String, Long>> result = new LinkedHashMap<>();
+        for (int i = 0; i < fields.size(); i++) {
+            Map<String, Long> sorted = new LinkedHashMap<>();
+            counts.get(i).entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                    .forEach(entry -> sorted.put(entry.getKey(), entry.getValue()));
+            result.put(fields.get(i), sorted);
+        }
+        return result;
+    }
+
+    @Override
+    public EventSample sampleByFields(List<String> fields, EventFilter filter, int sampleSize) {
+        List<Function<ViewEvent, String>> extractors = new ArrayList<>();
+        for (String field : fields) {
+            extractors.add(extractor(field));
+        }
+        Draw draw = draw(filter, sampleSize);
+        Map<String, Map<String, long[]>> sampled = new HashMap<>();
+        for (int i = 0; i < fields.size(); i++) {
+            sampled.put(fields.get(i), totals(draw.events, filter, extractors.get(i)));
+        }
+        return new EventSample(draw.population, draw.events.size(), sampled, Map.of());
+    }
+
+    @Override
+    public EventSample sampleByPeriod(String period, EventFilter filter, int sampleSize) {
+        DateTimeFormatter format = periodFormat(period);
+        Draw draw = draw(filter, sampleSize);
+        Map<String, long[]> sampled = totals(draw.events, filter,
+                event -> event.getTimestamp() != null ? format.format(event.getTimestamp()) : null);
+        return new EventSample(draw.population, draw.events.size(), Map.of("period", sampled), Map.of());
+    }
+
+    /**
+     * Draws a uniform random sample of the events matching the filter (reservoir sampling)
+     */
+    private Draw draw(EventFilter filter, int sampleSize) {
+        List<ViewEvent> drawn = new ArrayList<>(Math.min(sampleSize, (int) Math.min(size.get(), Integer.MAX_VALUE)));
+        Random random = ThreadLocalRandom.current();
+        long seen = 0;
+        for (ViewEvent event : events) {
+            if (!filter.matches(event)) {
+                continue;
+            }
+            seen++;
+            if (drawn.size() < sampleSize) {
+                drawn.add(event);
+            } else {
+                long slot = (long) (random.nextDouble() * seen);
+                if (slot < sampleSize) {
+                    drawn.set((int) slot, event);
+                }
+            }
+        }
+        return new Draw(drawn, seen);
+    }
+
+    private static Map<String, long[]> totals(List<ViewEvent> drawn, EventFilter filter,
+            Function<ViewEvent, String> key) {
+        Map<String, long[]> totals = new HashMap<>();
+        for (ViewEvent event : drawn) {
+            String value = filter.matches(event) ? key.apply(event) : null;
+            if (value != null) {
+                long[] valueTotals = totals.computeIfAbsent(value, k -> new long[2]);
+                valueTotals[0]++;
+                valueTotals[1] += event.getDuration();
+            }
+        }
+        return totals;
+    }
+
+    private static Function<ViewEvent, String> extractor(String field) {
+        switch (field) {
+            case "deviceType":
+                return ViewEvent::getDeviceType;
+            case "quality":
+                return ViewEvent::getQuality;
+            case "action":
+                return ViewEvent::getAction;
+            default:
+                throw new IllegalArgumentException("Unsupported field: " + field);
+        }
+    }
+
+    @Override
+    public List<Document> countByPeriod(String period, int limit) {
+        return countByPeriod(period, limit, EventFilter.ALL);
+    }
+
+    @Override
+    public List<Document> countByPeriod(String period, int limit, EventFilter filter) {
+        DateTimeFormatter format = periodFormat(period);
+
+        TreeMap<String, long[]> periods = new TreeMap<>(Comparator.reverseOrder());
+        for (ViewEvent event : events) {
+            if (event.getTimestamp() != null && filter.matches(event)) {
+                long[] totals = periods.computeIfAbsent(format.format(event.getTimestamp()), k -> new long[2]);
+                totals[0]++;
+                totals[1] += event.getDuration();
+            }
+        }
+
+        List<Document> results = new ArrayList<>();
+        for (Map.Entry<String, long[]> entry : periods.entrySet()) {
+            if (results.size() >= limit) {
+                break;
+            }
+            long[] totals = entry.getValue();
+            results.add(new Document("_id", entry.getKey())
+                    .append("count", totals[0])
+                    .append("avgDuration", totals[1] / (double) totals[0]));
+        }
+        return results;
+    }
+
+    private static DateTimeFormatter periodFormat(String period) {
+        switch (period.toLowerCase()) {
+            case "hour":
+                return HOUR;
+            case "month":
+                return MONTH;
+            default:
+                return DAY;
+        }
+    }
+
+    @Override
+    public Map<String, Long> countByHourOfDay(Instant since) {
+        TreeMap<String, Long> hours = new TreeMap<>();
+        for (ViewEvent event : events) {
+            if (event.getTimestamp() != null && !event.getTimestamp().isBefore(since)) {
+                hours.merge(HOUR_OF_DAY.format(event.getTimestamp()), 1L, Long::sum);
+            }
+        }
+        return new LinkedHashMap<>(hours);
+    }
+
+    private static List<ViewEvent> newest(Iterable<ViewEvent> source, Predicate<ViewEvent> filter, int limit) {
+        List<ViewEvent> matches = new ArrayList<>();
+        for (ViewEvent event : source) {
+            if (filter.test(event)) {
+                matches.add(event);
+            }
+        }
+        matches.sort(NEWEST_FIRST);
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    private static Object fieldValue(ViewEvent event, String field) {
+        switch (field) {
+            case "_id":
+                return event.getId();
+            case "eventId":
+                return event.getEventId();
+            case "userId":
+                return event.getUserId();
+            case "videoId":
+                return event.getVideoId();
+            case "timestamp":
+                return event.getTimestamp() != null ? Date.from(event.getTimestamp()) : null;
+            case "action":
+                return event.getAction();
+            case "duration":
+                return event.getDuration();
+            case "quality":
+                return event.getQuality();
+            case "deviceType":
+                return event.getDeviceType();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Events drawn out of the population of events matching a filter
+     */
+    private static class Draw {
+        private final List<ViewEvent> events;
+        private final long population;
+
+        Draw(List<ViewEvent> events, long population) {
+            this.events = events;
+            this.population = population;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.streaming.analytics.repository.memory;
+
+import com.streaming.analytics.model.ViewEvent;
+import com.streaming.analytics.repository.EventRollupRepository;
+import com.streaming.analytics.repository.HourlyRollups;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent in-memory EventRollupRepository
+ * Batches are folded with HourlyRollups, like the MongoDB implementation
+ */
+@ApplicationScoped
+@InMemoryStore
+public class InMemoryEventRollupRepository implements EventRollupRepository {
+
+    private static final DateTimeFormatter HOUR_OF_DAY = DateTimeFormatter.ofPattern("HH:00")
+            .withZone(ZoneOffset.UTC);
+
+    // Counter -> {count, duration}
+    private final Map<HourlyRollups.Key, AtomicLongArray> counters = new ConcurrentHashMap<>();
+
+    @Override
+    public void record(List<ViewEvent> events) {
+        if (events == null || events.isEmpty()) {
+            return;
+        }
+        HourlyRollups.aggregate(events).forEach((key, totals) -> {
+            AtomicLongArray counter = counters.computeIfAbsent(key, k -> new AtomicLongArray(2));
+            counter.addAndGet(0, totals[0]);
+            counter.addAndGet(1, totals[1]);
+        });
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public Map<String, Long> countByValue(String dimension) {
+        Map<String, Long> counts = new HashMap<>();
+        counters.forEach((key, counter) -> {
+            if (key.getDimension().equals(dimension)) {
+                counts.merge(key.getValue(), counter.get(0), Long::sum);
+            }
+        });
+
+        Map<String, Long> sorted = new LinkedHashMap<>();
+        counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .forEach(entry -> sorted.put(entry.getKey(), entry.getValue()));
+        return sorted;
+    }
+
+    @Override
+    public Map<String, Long> countByHourOfDay(Instant since) {
+        Instant firstHour = HourlyRollups.firstWholeHour(since);
+        TreeMap<String, Long> hours = new TreeMap<>();
+        counters.forEach((key, counter) -> {
+            if (key.getDimension().equals(ALL) && !key.getHour().isBefore(firstHour)) {
+                hours.merge(HOUR_OF_DAY.format(key.getHour()), counter.get(0), Long::sum);
+            }
+        });
+        return new LinkedHashMap<>(hours);
+    }
+}
@@ -0,0 +1,21 @@
+package com.streaming.analytics.repository.memory;
+
+import jakarta.enterprise.inject.Alternative;
+import jakarta.enterprise.inject.Stereotype;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the in-memory repository implementations
+ * They replace the MongoDB ones when this stereotype is selected in beans.xml:
+ * {@code <alternatives><stereotype>com.streaming.analytics.repository.memory.InMemoryStore</stereotype></alternatives>}
+ */
+@Alternative
+@Stereotype
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface InMemoryStore {
+}
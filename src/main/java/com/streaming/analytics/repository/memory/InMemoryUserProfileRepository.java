@@ -0,0 +1,92 @@
+package com.streaming.analytics.repository.memory;
+
+import com.streaming.analytics.model.UserProfile;
+import com.streaming.analytics.repository.UserProfileRepository;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Concurrent in-memory UserProfileRepository
+ * Updates are atomic per user; reads return copies
+ */
+@ApplicationScoped
+@InMemoryStore
+public class InMemoryUserProfileRepository implements UserProfileRepository {
+
+    private final Map<String, UserProfile> profiles = new ConcurrentHashMap<>();
+
+    @Override
+    public UserProfile findByUserId(String userId) {
+        UserProfile profile = profiles.get(userId);
+        return profile != null ? copy(profile) : null;
+    }
+
+    @Override
+    public UserProfile findPreferencesAndHistory(String userId) {
+        UserProfile profile = profiles.get(userId);
+        if (profile == null) {
+            return null;
+        }
+        UserProfile partial = new UserProfile();
+        partial.setUserId(profile.getUserId());
+        partial.setPreferences(new HashMap<>(profile.getPreferences()));
+        partial.setWatchHistory(new ArrayList<>(profile.getWatchHistory()));
+        return partial;
+    }
+
+    @Override
+    public UserProfile getOrCreate(String userId) {
+        return copy(profiles.computeIfAbsent(userId, UserProfile::new));
+    }
+
+    @Override
+    public void updateWithWatch(String userId, String videoId, String category, int watchDuration) {
+        profiles.compute(userId, (id, current) -> {
+            UserProfile updated = current != null ? copy(current) : new UserProfile(id);
+            updated.addToHistory(videoId, category, watchDuration);
+            return updated;
+        });
+    }
+
+    @Override
+    public void updateRecommendations(String userId, List<String> recommendedVideoIds) {
+        profiles.computeIfPresent(userId, (id, current) -> {
+            UserProfile updated = copy(current);
+            updated.setRecommendedVideos(new ArrayList<>(recommendedVideoIds));
+            return updated;
+        });
+    }
+
+    @Override
+    public List<UserProfile> getMostActiveUsers(int limit) {
+        return profiles.values().stream()
+                .sorted(Comparator.comparingLong(UserProfile::getTotalWatchTime).reversed())
+                .limit(limit)
+                .map(InMemoryUserProfileRepository::copy)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void save(UserProfile profile) {
+        profiles.put(profile.getUserId(), copy(profile));
+    }
+
+    private static UserProfile copy(UserProfile source) {
+        UserProfile copy = new UserProfile();
+        copy.setId(source.getId());
+        copy.setUserId(source.getUserId());
+        copy.setWatchHistory(new ArrayList<>(source.getWatchHistory()));
+        copy.setPreferences(new HashMap<>(source.getPreferences()));
+        copy.setRecommendedVideos(new ArrayList<>(source.getRecommendedVideos()));
+        copy.setLastActive(source.getLastActive());
+        copy.setTotalWatchTime(source.getTotalWatchTime());
+        return copy;
+    }
+}
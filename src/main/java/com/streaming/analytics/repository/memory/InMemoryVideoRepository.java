@@ -0,0 +1,199 @@
+package com.streaming.analytics.repository.memory;
+
+import com.streaming.analytics.model.Video;
+import com.streaming.analytics.model.VideoStats;
+import com.streaming.analytics.repository.CatalogSync;
+import com.streaming.analytics.repository.CatalogSyncResult;
+import com.streaming.analytics.repository.VideoRepository;
+import com.streaming.analytics.repository.VideoStatsRepository;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.bson.Document;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Concurrent in-memory VideoRepository
+ * Stores and returns copies holding the same fields as the MongoDB documents
+ */
+@ApplicationScoped
+@InMemoryStore
+public class InMemoryVideoRepository implements VideoRepository {
+
+    private static final Comparator<Video> MOST_VIEWED = Comparator.comparingInt(Video::getViews).reversed();
+
+    private final Map<String, Video> videos = new ConcurrentHashMap<>();
+    private final Map<String, String> hashes = new ConcurrentHashMap<>();
+
+    @Inject
+    private VideoStatsRepository statsRepository;
+
+    @Override
+    public Video findByVideoId(String videoId) {
+        Video video = videos.get(videoId);
+        return video != null ? copy(video) : null;
+    }
+
+    @Override
+    public String findCategoryByVideoId(String videoId) {
+        Video video = videos.get(videoId);
+        return video != null ? video.getCategory() : null;
+    }
+
+    @Override
+    public List<Video> findByCategory(String category) {
+        return findByCategory(category, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Video> findByCategory(String category, int limit) {
+        return videos.values().stream()
+                .filter(video -> category != null && category.equals(video.getCategory()))
+                .sorted(MOST_VIEWED)
+                .limit(limit)
+                .map(InMemoryVideoRepository::copy)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Video> findMostPopular(int limit) {
+        return videos.values().stream()
+                .sorted(MOST_VIEWED)
+                .limit(limit)
+                .map(InMemoryVideoRepository::copy)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Video> findByVideoIds(List<String> videoIds) {
+        List<Video> results = new ArrayList<>();
+        for (String videoId : new TreeSet<>(videoIds)) {
+            Video video = videos.get(videoId);
+            if (video != null) {
+                results.add(copy(video));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public long count() {
+        return videos.size();
+    }
+
+    @Override
+    public List<String> getAllCategories() {
+        return videos.values().stream()
+                .map(Video::getCategory)
+                .filter(category -> category != null)
+                .distinct()
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Document> sumStatsByCategory() {
+        Map<String, Document> categories = new TreeMap<>();
+        for (Video video : videos.values()) {
+            if (video.getCategory() == null) {
+                continue;
+            }
+            Document totals = categories.computeIfAbsent(video.getCategory(), category -> new Document("_id", category)
+                    .append("videoCount", 0)
+                    .append("totalViews", 0L)
+                    .append("totalDuration", 0.0));
+            totals.put("videoCount", totals.getInteger("videoCount") + 1);
+            VideoStats stats = statsRepository.getStats(video.getVideoId());
+            if (stats != null) {
+                totals.put("totalViews", totals.getLong("totalViews") + stats.getTotalViews());
+                totals.put("totalDuration", totals.getDouble("totalDuration")
+                        + stats.getAvgDuration() * stats.getTotalViews());
+            }
+        }
+        return new ArrayList<>(categories.values());
+    }
+
+    /**
+     * Fails like the unique videoId index on a duplicate
+     */
+    @Override
+    public void save(Video video) {
+        if (videos.putIfAbsent(video.getVideoId(), copy(video)) != null) {
+            throw new IllegalArgumentException("Duplicate videoId: " + video.getVideoId());
+        }
+    }
+
+    @Override
+    public void saveBatch(List<Video> videos) {
+        if (videos != null) {
+            videos.forEach(this::save);
+        }
+    }
+
+    /**
+     * Same diff as CatalogSync, with the content hashes kept beside the videos
+     */
+    @Override
+    public synchronized CatalogSyncResult syncCatalog(Iterator<Video> catalog) {
+        long start = System.currentTimeMillis();
+        CatalogSyncResult result = new CatalogSyncResult();
+        Set<String> seen = new HashSet<>();
+        while (catalog.hasNext()) {
+            Video video = catalog.next();
+            if (video == null || video.getVideoId() == null) {
+                continue;
+            }
+            String hash = CatalogSync.hash(video);
+            String previous = hashes.get(video.getVideoId());
+            if (hash.equals(previous)) {
+                result.addUnchanged(1);
+            } else {
+                if (!videos.containsKey(video.getVideoId())) {
+                    result.addInserted(1);
+                } else {
+                    result.addUpdated(1);
+                }
+                videos.put(video.getVideoId(), copy(video));
+                hashes.put(video.getVideoId(), hash);
+                result.addChanged(video.getVideoId());
+            }
+            seen.add(video.getVideoId());
+        }
+        if (!seen.isEmpty()) {
+            for (String videoId : new ArrayList<>(videos.keySet())) {
+                if (!seen.contains(videoId)) {
+                    videos.remove(videoId);
+                    hashes.remove(videoId);
+                    result.addDeleted(1);
+                    result.addChanged(videoId);
+                }
+            }
+        }
+        result.addChunk();
+        result.setDurationMs(System.currentTimeMillis() - start);
+        return result;
+    }
+
+    private static Video copy(Video video) {
+        Video copy = new Video();
+        copy.setVideoId(video.getVideoId());
+        copy.setTitle(video.getTitle());
+        copy.setCategory(video.getCategory());
+        copy.setDuration(video.getDuration());
+        copy.setViews(video.getViews());
+        copy.setLikes(video.getLikes());
+        copy.setUploadDate(video.getUploadDate() != null ? video.getUploadDate() : Instant.now());
+        return copy;
+    }
+}
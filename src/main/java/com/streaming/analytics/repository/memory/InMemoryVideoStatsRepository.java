@@ -0,0 +1,157 @@
+package com.streaming.analytics.repository.memory;
+
+import com.streaming.analytics.model.VideoStats;
+import com.streaming.analytics.repository.VideoStatsRepository;
+import com.streaming.analytics.sketch.DurationHistogram;
+import com.streaming.analytics.sketch.HyperLogLog;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Concurrent in-memory VideoStatsRepository
+ * Updates are atomic per video; reads return copies
+ */
+@ApplicationScoped
+@InMemoryStore
+public class InMemoryVideoStatsRepository implements VideoStatsRepository {
+
+    private static final Comparator<VideoStats> MOST_VIEWED = Comparator.comparingLong(VideoStats::getTotalViews)
+            .reversed();
+
+    private final Map<String, VideoStats> stats = new ConcurrentHashMap<>();
+    private final Map<String, HyperLogLog> viewerSketches = new ConcurrentHashMap<>();
+    private final Map<String, DurationHistogram> durationSketches = new ConcurrentHashMap<>();
+
+    @Override
+    public VideoStats getStats(String videoId) {
+        VideoStats current = stats.get(videoId);
+        return current != null ? copy(current) : null;
+    }
+
+    @Override
+    public VideoStats updateStats(String videoId, int watchDuration) {
+        return copy(stats.compute(videoId, (id, current) -> {
+            VideoStats updated = current != null ? copy(current) : new VideoStats(id);
+            long previousTotalDuration = (long) (updated.getAvgDuration() * updated.getTotalViews());
+            updated.setTotalViews(updated.getTotalViews() + 1);
+            updated.setAvgDuration((previousTotalDuration + watchDuration) / (double) updated.getTotalViews());
+            updated.setLastUpdated(Instant.now());
+            return updated;
+        }));
+    }
+
+    @Override
+    public List<VideoStats> getTopVideos(int limit) {
+        return stats.values().stream()
+                .sorted(MOST_VIEWED)
+                .limit(limit)
+                .map(InMemoryVideoStatsRepository::copy)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<VideoStats> findRecentlyUpdated(Instant since) {
+        return stats.values().stream()
+                .filter(current -> current.getLastUpdated() != null && !current.getLastUpdated().isBefore(since))
+                .sorted(MOST_VIEWED)
+                .map(InMemoryVideoStatsRepository::copy)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void incrementUniqueViewers(String videoId) {
+        stats.computeIfPresent(videoId, (id, current) -> {
+            VideoStats updated = copy(current);
+            updated.setUniqueViewers(updated.getUniqueViewers() + 1);
+            return updated;
+        });
+    }
+
+    @Override
+    public void save(VideoStats videoStats) {
+        VideoStats saved = copy(videoStats);
+        if (saved.getLastUpdated() == null) {
+            saved.setLastUpdated(Instant.now());
+        }
+        stats.put(saved.getVideoId(), saved);
+    }
+
+    @Override
+    public HyperLogLog getViewerSketch(String videoId) {
+        HyperLogLog sketch = viewerSketches.get(videoId);
+        return sketch != null ? sketch.copy() : null;
+    }
+
+    @Override
+    public void mergeViewerSketch(String videoId, HyperLogLog viewers) {
+        // The estimate is set while the video's sketch entry is locked, so it never goes back
+        viewerSketches.compute(videoId, (id, sketch) -> {
+            HyperLogLog merged = sketch != null ? sketch.copy().merge(viewers) : viewers.copy();
+            stats.compute(id, (statsId, current) -> {
+                VideoStats updated = current != null ? copy(current) : new VideoStats(statsId);
+                updated.setUniqueViewers(merged.estimate());
+                return updated;
+            });
+            return merged;
+        });
+    }
+
+    @Override
+    public HyperLogLog mergeViewerSketches(List<String> videoIds) {
+        HyperLogLog merged = new HyperLogLog();
+        if (videoIds == null) {
+            viewerSketches.values().forEach(merged::merge);
+        } else {
+            for (String videoId : videoIds) {
+                HyperLogLog sketch = viewerSketches.get(videoId);
+                if (sketch != null) {
+                    merged.merge(sketch);
+                }
+            }
+        }
+        return merged;
+    }
+
+    @Override
+    public DurationHistogram getDurationSketch(String videoId) {
+        DurationHistogram sketch = durationSketches.get(videoId);
+        return sketch != null ? sketch.copy() : null;
+    }
+
+    @Override
+    public void mergeDurationSketch(String videoId, DurationHistogram durations) {
+        durationSketches.compute(videoId,
+                (id, sketch) -> sketch != null ? sketch.copy().merge(durations) : durations.copy());
+    }
+
+    @Override
+    public DurationHistogram mergeDurationSketches(List<String> videoIds) {
+        DurationHistogram merged = new DurationHistogram();
+        if (videoIds == null) {
+            durationSketches.values().forEach(merged::merge);
+        } else {
+            for (String videoId : videoIds) {
+                DurationHistogram sketch = durationSketches.get(videoId);
+                if (sketch != null) {
+                    merged.merge(sketch);
+                }
+            }
+        }
+        return merged;
+    }
+
+    private static VideoStats copy(VideoStats source) {
+        VideoStats copy = new VideoStats(source.getVideoId());
+        copy.setTotalViews(source.getTotalViews());
+        copy.setAvgDuration(source.getAvgDuration());
+        copy.setUniqueViewers(source.getUniqueViewers());
+        copy.setLastUpdated(source.getLastUpdated());
+        return copy;
+    }
+}
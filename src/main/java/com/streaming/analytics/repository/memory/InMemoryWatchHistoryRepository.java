@@ -0,0 +1,79 @@
+package com.streaming.analytics.repository.memory;
+
+import com.streaming.analytics.model.ViewEvent;
+import com.streaming.analytics.repository.WatchHistoryRepository;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent in-memory WatchHistoryRepository
+ * Keeps the same per-user, per-UTC-day buckets of at most BUCKET_SIZE entries
+ */
+@ApplicationScoped
+@InMemoryStore
+public class InMemoryWatchHistoryRepository implements WatchHistoryRepository {
+
+    private final Map<String, List<Bucket>> buckets = new ConcurrentHashMap<>();
+
+    @Override
+    public void append(ViewEvent event) {
+        Instant bucketStart = (event.getTimestamp() != null ? event.getTimestamp() : Instant.now())
+                .truncatedTo(ChronoUnit.DAYS);
+        List<Bucket> userBuckets = buckets.computeIfAbsent(event.getUserId(), k -> new ArrayList<>());
+        synchronized (userBuckets) {
+            Bucket open = null;
+            for (Bucket bucket : userBuckets) {
+                if (bucket.start.equals(bucketStart) && bucket.videoIds.size() < BUCKET_SIZE) {
+                    open = bucket;
+                    break;
+                }
+            }
+            if (open == null) {
+                open = new Bucket(bucketStart);
+                userBuckets.add(open);
+            }
+            open.videoIds.add(event.getVideoId());
+        }
+    }
+
+    @Override
+    public void appendBatch(List<ViewEvent> events) {
+        if (events != null) {
+            events.forEach(this::append);
+        }
+    }
+
+    @Override
+    public Set<String> findRecentlyWatched(String userId) {
+        Set<String> watched = new HashSet<>();
+        List<Bucket> userBuckets = buckets.get(userId);
+        if (userBuckets == null) {
+            return watched;
+        }
+        synchronized (userBuckets) {
+            List<Bucket> newest = new ArrayList<>(userBuckets);
+            newest.sort((a, b) -> b.start.compareTo(a.start));
+            for (Bucket bucket : newest.subList(0, Math.min(MAX_BUCKETS_READ, newest.size()))) {
+                watched.addAll(bucket.videoIds);
+            }
+        }
+        return watched;
+    }
+
+    private static class Bucket {
+        private final Instant start;
+        private final List<String> videoIds = new ArrayList<>();
+
+        Bucket(Instant start) {
+            this.start = start;
+        }
+    }
+}
@@ -1,16 +1,19 @@
 package com.streaming.analytics.service;
 
-import com.mongodb.client.AggregateIterable;
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.Accumulators;
-import com.mongodb.client.model.Aggregates;
-import com.mongodb.client.model.Filters;
-import com.mongodb.client.model.Sorts;
 import com.streaming.analytics.model.Video;
 import com.streaming.analytics.model.VideoStats;
+import com.streaming.analytics.repository.EventFilter;
+import com.streaming.analytics.repository.EventRepository;
+import com.streaming.analytics.repository.EventSample;
+import com.streaming.analytics.repository.EventRollupRepository;
 import com.streaming.analytics.repository.VideoRepository;
 import com.streaming.analytics.repository.VideoStatsRepository;
+import com.streaming.analytics.sketch.Estimate;
+import com.streaming.analytics.state.EventCubeService;
+import com.streaming.analytics.state.GlobalCounters;
+import com.streaming.analytics.state.TrendingService;
+import com.streaming.analytics.state.VideoCounterService;
+import com.streaming.analytics.state.WatchTimeService;
 import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
@@ -21,7 +24,7 @@ import org.slf4j.LoggerFactory;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.Date;
+import java.util.function.IntFunction;
 
 /**
  * Analytics service for aggregations and trend detection
@@ -32,8 +35,20 @@ public class AnalyticsService {
 
     private static final Logger logger = LoggerFactory.getLogger(AnalyticsService.class);
 
+    // Days of history the breakdowns cover when no start is given (0: all history)
+    private static final int WINDOW_DAYS = Integer.parseInt(env("ANALYTICS_WINDOW_DAYS", "0"));
+
+    // Approximate queries: latency target and first sample size (adapted to the target after each query)
+    private static final long APPROX_TARGET_MS = Long.parseLong(env("APPROX_TARGET_MS", "200"));
+    private static final int APPROX_SAMPLE_SIZE = Integer.parseInt(env("APPROX_SAMPLE_SIZE", "100000"));
+    private static final int APPROX_MIN_SAMPLE = 10_000;
+    private static final int APPROX_MAX_SAMPLE = 1_000_000;
+
+    @Inject
+    private EventRepository eventRepository;
+
     @Inject
-    private MongoDatabase database;
+    private EventRollupRepository rollupRepository;
 
     @Inject
     private VideoRepository videoRepository;
@@ -41,45 +56,86 @@ public class AnalyticsService {
     @Inject
     private VideoStatsRepository statsRepository;
 
-    private MongoCollection<Document> eventsCollection;
+    @Inject
+    private VideoCounterService videoCounters;
+
+    @Inject
+    private GlobalCounters globalCounters;
+
+    @Inject
+    private TrendingService trendingService;
+
+    @Inject
+    private EventCubeService eventCube;
+
+    @Inject
+    private WatchTimeService watchTime;
+
+    private SampleSizer sampleSizer = new SampleSizer(APPROX_TARGET_MS, APPROX_SAMPLE_SIZE,
+            APPROX_MIN_SAMPLE, APPROX_MAX_SAMPLE);
+
+    private static String env(String name, String defaultValue) {
+        return System.getenv(name) != null ? System.getenv(name) : defaultValue;
+    }
 
     @PostConstruct
     public void init() {
-        this.eventsCollection = database.getCollection("events");
         logger.info("AnalyticsService initialized");
     }
 
+    /**
+     * Builds the event filter of a breakdown request; every argument may be null
+     * Without a start, the last ANALYTICS_WINDOW_DAYS days are covered (all history if 0);
+     * a category restricts to the videos of that category (and to videoId if both are given)
+     */
+    public EventFilter eventFilter(Instant from, Instant to, String videoId, String category) {
+        Instant start = from;
+        if (start == null && WINDOW_DAYS > 0) {
+            start = (to != null ? to : Instant.now()).minus(WINDOW_DAYS, ChronoUnit.DAYS);
+        }
+        List<String> videoIds = null;
+        if (category != null) {
+            videoIds = new ArrayList<>();
+            for (Video video : videoRepository.findByCategory(category)) {
+                if (videoId == null || videoId.equals(video.getVideoId())) {
+                    videoIds.add(video.getVideoId());
+                }
+            }
+        } else if (videoId != null) {
+            videoIds = List.of(videoId);
+        }
+        return new EventFilter(start, to, videoIds);
+    }
+
     /**
      * Aggregates statistics by video category
      * Uses MongoDB aggregation pipeline (MapReduce-like)
      */
     public Map<String, CategoryStats> aggregateByCategory() {
+        return aggregateByCategory(false);
+    }
+
+    /**
+     * Aggregates statistics by video category, optionally with the watch duration percentiles
+     * of each category (merged from the duration histograms of its videos)
+     */
+    public Map<String, CategoryStats> aggregateByCategory(boolean durationPercentiles) {
         Map<String, CategoryStats> result = new HashMap<>();
 
         try {
-            // Get all categories from videos
-            List<String> categories = videoRepository.getAllCategories();
-
-            for (String category : categories) {
-                // Get videos in this category
-                List<Video> videos = videoRepository.findByCategory(category);
-
-                long totalViews = 0;
-                double totalDuration = 0;
-                int videoCount = videos.size();
-
-                // Aggregate stats for each video in category
-                for (Video video : videos) {
-                    VideoStats stats = statsRepository.getStats(video.getVideoId());
-                    if (stats != null) {
-                        totalViews += stats.getTotalViews();
-                        totalDuration += stats.getAvgDuration() * stats.getTotalViews();
-                    }
-                }
-
+            // One aggregation over all videos and their stats, instead of a query per category and video
+            for (Document totals : videoRepository.sumStatsByCategory()) {
+                String category = totals.getString("_id");
+                long totalViews = ((Number) totals.get("totalViews")).longValue();
+                double totalDuration = ((Number) totals.get("totalDuration")).doubleValue();
                 double avgDuration = totalViews > 0 ? totalDuration / totalViews : 0;
 
-                result.put(category, new CategoryStats(category, videoCount, totalViews, avgDuration));
+                Map<String, Long> percentiles = durationPercentiles && watchTime.isEnabled()
+                        ? WatchTimeService.percentiles(watchTime.getCategorySketch(category))
+                        : null;
+
+                result.put(category, new CategoryStats(category,
+                        ((Number) totals.get("videoCount")).intValue(), totalViews, avgDuration, percentiles));
             }
 
             logger.debug("Aggregated stats for {} categories", result.size());
@@ -92,90 +148,124 @@ public class AnalyticsService {
     }
 
     /**
-     * Aggregates events by time period using MongoDB aggregation
+     * Aggregates events by time period (hour, day or month), newest 24 periods
      */
     public List<Document> aggregateByTimePeriod(String period) {
+        return aggregateByTimePeriod(period, eventFilter(null, null, null, null));
+    }
+
+    /**
+     * Aggregates the events matching the filter by time period (hour, day or month), newest 24 periods
+     */
+    public List<Document> aggregateByTimePeriod(String period, EventFilter filter) {
         List<Document> results = new ArrayList<>();
 
         try {
-            String dateFormat;
-            switch (period.toLowerCase()) {
-                case "hour":
-                    dateFormat = "%Y-%m-%d %H:00";
-                    break;
-                case "day":
-                    dateFormat = "%Y-%m-%d";
-                    break;
-                case "month":
-                    dateFormat = "%Y-%m";
-                    break;
-                default:
-                    dateFormat = "%Y-%m-%d";
-            }
+            results = eventRepository.countByPeriod(period, 24, filter);
 
-            AggregateIterable<Document> aggregation = eventsCollection.aggregate(Arrays.asList(
-                    Aggregates.group(
-                            new Document("$dateToString",
-                                    new Document("format", dateFormat)
-                                            .append("date", "$timestamp")),
-                            Accumulators.sum("count", 1),
-                            Accumulators.avg("avgDuration", "$duration")),
-                    Aggregates.sort(Sorts.descending("_id")),
-                    Aggregates.limit(24)));
-
-            for (Document doc : aggregation) {
-                results.add(doc);
+        } catch (Exception e) {
+            logger.error("Error aggregating by time period", e);
+        }
+
+        return results;
+    }
+
+    /**
+     * Aggregates events by time period like aggregateByTimePeriod; approximate mode scales the
+     * counts of a random sample of the events and adds their 95% interval as low and high
+     */
+    public List<Document> aggregateByTimePeriod(String period, EventFilter filter, boolean approx) {
+        if (!approx) {
+            return aggregateByTimePeriod(period, filter);
+        }
+        List<Document> results = new ArrayList<>();
+
+        try {
+            EventSample sample = sample(size -> eventRepository.sampleByPeriod(period, filter, size));
+            Map<String, long[]> sampled = sample.getSampled("period");
+            Map<String, long[]> exact = sample.getExact("period");
+            TreeSet<String> periods = new TreeSet<>(Comparator.reverseOrder());
+            periods.addAll(sampled.keySet());
+            periods.addAll(exact.keySet());
+            double scale = sample.getSize() > 0 ? sample.getPopulation() / (double) sample.getSize() : 0;
+
+            for (String label : periods) {
+                if (results.size() >= 24) {
+                    break;
+                }
+                long[] hits = sampled.getOrDefault(label, new long[2]);
+                long[] known = exact.getOrDefault(label, new long[2]);
+                Estimate count = Estimate.fromSample(hits[0], sample.getSize(), sample.getPopulation(), known[0],
+                        Estimate.Z95);
+                double duration = hits[1] * scale + known[1];
+                results.add(new Document("_id", label)
+                        .append("count", count.getValue())
+                        .append("avgDuration", count.getValue() > 0 ? duration / count.getValue() : 0)
+                        .append("low", count.getLow())
+                        .append("high", count.getHigh()));
             }
 
         } catch (Exception e) {
-            logger.error("Error aggregating by time period", e);
+            logger.error("Error estimating events by time period", e);
         }
 
         return results;
     }
 
+    /**
+     * Draws a sample with the current adaptive size and records how long it took
+     */
+    /**
+     * Replaces the sample sizer (tests pin the sample size)
+     */
+    void setSampleSizer(SampleSizer sampleSizer) {
+        this.sampleSizer = sampleSizer;
+    }
+
+    private EventSample sample(IntFunction<EventSample> query) {
+        int size = sampleSizer.getSize();
+        long start = System.currentTimeMillis();
+        EventSample sample = query.apply(size);
+        if (sample.getSize() < sample.getPopulation()) {
+            sampleSizer.record(size, System.currentTimeMillis() - start);
+        }
+        return sample;
+    }
+
     /**
      * Detects trending videos
-     * Compares views in last 24 hours vs previous 7 days average
+     * Compares views in last 24 hours vs previous 7 days average, or the decayed short vs
+     * long view rates once the in-memory engine is seeded; either must exceed TRENDING_RATIO
      */
     public List<TrendingVideo> detectTrending(int limit) {
         List<TrendingVideo> trending = new ArrayList<>();
 
         try {
-            Instant now = Instant.now();
-            Instant last24h = now.minus(24, ChronoUnit.HOURS);
-            Instant last7d = now.minus(7, ChronoUnit.DAYS);
-
-            // Get recently updated videos
-            List<VideoStats> recentStats = statsRepository.findRecentlyUpdated(last24h);
-
-            for (VideoStats stats : recentStats) {
-                // Count views in last 24 hours
-                long views24h = countViewsInPeriod(stats.getVideoId(), last24h, now);
-
-                // Count views in previous 7 days (daily average)
-                long views7d = countViewsInPeriod(stats.getVideoId(), last7d, last24h);
-                double dailyAvg7d = views7d / 7.0;
-
-                // Calculate trending score (how much above average)
-                double trendScore = dailyAvg7d > 0 ? (views24h / dailyAvg7d) : views24h;
-
-                if (trendScore > 1.5) { // 50% above average = trending
-                    Video video = videoRepository.findByVideoId(stats.getVideoId());
-                    if (video != null) {
-                        trending.add(new TrendingVideo(
-                                video,
-                                views24h,
-                                trendScore,
-                                stats.getTotalViews()));
-                    }
-                }
+            if (trendingService.isReady()) {
+                return trendingService.getTrending(limit);
             }
 
-            // Sort by trend score and limit
-            trending.sort((a, b) -> Double.compare(b.getTrendScore(), a.getTrendScore()));
-            if (trending.size() > limit) {
-                trending = trending.subList(0, limit);
+            // Scores, sort and limit in one query over the events; titles in one multi-get
+            List<Document> scores = eventRepository.findTrending(Instant.now(), TrendingService.MIN_RATIO, limit);
+            List<String> videoIds = new ArrayList<>();
+            for (Document score : scores) {
+                videoIds.add(score.getString("_id"));
+            }
+            Map<String, Video> videos = new HashMap<>();
+            for (Video video : videoRepository.findByVideoIds(videoIds)) {
+                videos.put(video.getVideoId(), video);
+            }
+
+            for (Document score : scores) {
+                Video video = videos.get(score.getString("_id"));
+                if (video != null) {
+                    VideoStats stats = statsRepository.getStats(video.getVideoId());
+                    trending.add(new TrendingVideo(
+                            video,
+                            ((Number) score.get("views24h")).longValue(),
+                            ((Number) score.get("trendScore")).doubleValue(),
+                            stats != null ? stats.getTotalViews() : 0));
+                }
             }
 
             logger.debug("Detected {} trending videos", trending.size());
@@ -188,30 +278,25 @@ public class AnalyticsService {
     }
 
     /**
-     * Counts views for a video in a time period
+     * Gets dashboard summary statistics
      */
-    private long countViewsInPeriod(String videoId, Instant start, Instant end) {
-        return eventsCollection.countDocuments(
-                Filters.and(
-                        Filters.eq("videoId", videoId),
-                        Filters.eq("action", "WATCH"),
-                        Filters.gte("timestamp", start),
-                        Filters.lt("timestamp", end)));
+    public DashboardSummary getDashboardSummary() {
+        return getDashboardSummary(aggregateByCategory());
     }
 
     /**
-     * Gets dashboard summary statistics
+     * Gets dashboard summary statistics around an already aggregated category breakdown
      */
-    public DashboardSummary getDashboardSummary() {
+    public DashboardSummary getDashboardSummary(Map<String, CategoryStats> categoryStats) {
         try {
-            long totalEvents = eventsCollection.countDocuments();
-            long totalVideos = videoRepository.count();
+            boolean counted = globalCounters.isReady();
+            long totalEvents = counted ? globalCounters.getTotalEvents() : eventRepository.countAll();
+            long totalVideos = counted ? globalCounters.getTotalVideos() : videoRepository.count();
 
             // Get top 5 videos
-            List<VideoStats> topVideos = statsRepository.getTopVideos(5);
-
-            // Get category breakdown
-            Map<String, CategoryStats> categoryStats = aggregateByCategory();
+            List<VideoStats> topVideos = videoCounters.isEnabled()
+                    ? videoCounters.getTopVideos(5)
+                    : statsRepository.getTopVideos(5);
 
             return new DashboardSummary(totalEvents, totalVideos, topVideos, categoryStats);
 
@@ -225,140 +310,180 @@ public class AnalyticsService {
      * Aggregates events by device type for chart
      */
     public Map<String, Long> aggregateByDevice() {
-        Map<String, Long> result = new LinkedHashMap<>();
+        return aggregateByDevice(eventFilter(null, null, null, null));
+    }
+
+    /**
+     * Aggregates the events matching the filter by device type
+     */
+    public Map<String, Long> aggregateByDevice(EventFilter filter) {
+        return getBreakdown(List.of("deviceType"), filter).getCounts("deviceType");
+    }
+
+    /**
+     * Counts events per value of each dimension (deviceType, quality, action), restricted to
+     * [start, end) where those are not null
+     */
+    public Breakdown getBreakdown(List<String> dimensions, Instant start, Instant end) {
+        return getBreakdown(dimensions, new EventFilter(start, end, null));
+    }
+
+    /**
+     * Counts events per value of each dimension like getBreakdown; approximate mode scales the
+     * counts of a random sample of the events (sized to keep within APPROX_TARGET_MS) and reports
+     * a 95% interval per value. All-time counts from the cube or the rollups stay exact.
+     */
+    public Breakdown getBreakdown(List<String> dimensions, EventFilter filter, boolean approx) {
+        if (!approx || dimensions.isEmpty()
+                || (filter.isAll() && (eventCube.isComplete() || rollupRepository.isReady()))) {
+            return getBreakdown(dimensions, filter);
+        }
+        validateDimensions(dimensions);
+        Map<String, Map<String, Long>> counts = new LinkedHashMap<>();
+        Map<String, Map<String, Estimate>> estimates = new LinkedHashMap<>();
+        for (String dimension : dimensions) {
+            counts.put(dimension, new LinkedHashMap<>());
+            estimates.put(dimension, new LinkedHashMap<>());
+        }
 
         try {
-            AggregateIterable<Document> aggregation = eventsCollection.aggregate(Arrays.asList(
-                    Aggregates.group("$deviceType", Accumulators.sum("count", 1)),
-                    Aggregates.sort(Sorts.descending("count"))));
-
-            for (Document doc : aggregation) {
-                String device = doc.getString("_id");
-                Number count = (Number) doc.get("count");
-                if (device != null && count != null) {
-                    result.put(device, count.longValue());
+            EventSample sample = sample(size -> eventRepository.sampleByFields(dimensions, filter, size));
+            for (String dimension : dimensions) {
+                Map<String, long[]> sampled = sample.getSampled(dimension);
+                Map<String, long[]> exact = sample.getExact(dimension);
+                Set<String> values = new HashSet<>(sampled.keySet());
+                values.addAll(exact.keySet());
+                List<Map.Entry<String, Estimate>> sorted = new ArrayList<>();
+                for (String value : values) {
+                    sorted.add(Map.entry(value, Estimate.fromSample(sampled.getOrDefault(value, new long[1])[0],
+                            sample.getSize(), sample.getPopulation(), exact.getOrDefault(value, new long[1])[0],
+                            Estimate.Z95)));
+                }
+                sorted.sort((a, b) -> Long.compare(b.getValue().getValue(), a.getValue().getValue()));
+                for (Map.Entry<String, Estimate> entry : sorted) {
+                    counts.get(dimension).put(entry.getKey(), entry.getValue().getValue());
+                    estimates.get(dimension).put(entry.getKey(), entry.getValue());
                 }
             }
-
-            logger.debug("Aggregated {} device types", result.size());
+            logger.debug("Estimated breakdown of {} from {} of {} events", dimensions,
+                    sample.getSize(), sample.getPopulation());
 
         } catch (Exception e) {
-            logger.error("Error aggregating by device", e);
+            logger.error("Error estimating breakdown of {}", dimensions, e);
         }
 
-        return result;
+        return new Breakdown(filter.getStart(), filter.getEnd(), filter.getVideoIds(), counts, estimates);
     }
 
     /**
-     * Gets hourly event counts for the last 24 hours (for line chart)
+     * Counts the events matching the filter per value of each dimension (deviceType, quality, action)
+     * All-time counts come from the in-memory cube, else the hourly rollups; filtered counts, and
+     * all-time counts while both are being loaded, take one index-bounded pass over the events
+     * for all dimensions together
      */
-    public Map<String, Long> getHourlyStats() {
-        Map<String, Long> result = new LinkedHashMap<>();
+    public Breakdown getBreakdown(List<String> dimensions, EventFilter filter) {
+        validateDimensions(dimensions);
+        Map<String, Map<String, Long>> counts = new LinkedHashMap<>();
+        for (String dimension : dimensions) {
+            counts.put(dimension, new LinkedHashMap<>());
+        }
 
         try {
-            Instant now = Instant.now();
-            Instant last24h = now.minus(24, ChronoUnit.HOURS);
-
-            AggregateIterable<Document> aggregation = eventsCollection.aggregate(Arrays.asList(
-                    Aggregates.match(Filters.gte("timestamp", Date.from(last24h))),
-                    Aggregates.group(
-                            new Document("$dateToString",
-                                    new Document("format", "%H:00")
-                                            .append("date", "$timestamp")),
-                            Accumulators.sum("count", 1)),
-                    Aggregates.sort(Sorts.ascending("_id"))));
-
-            for (Document doc : aggregation) {
-                String hour = doc.getString("_id");
-                Number count = (Number) doc.get("count");
-                if (hour != null && count != null) {
-                    result.put(hour, count.longValue());
-                }
+            if (filter.isAll() && eventCube.isComplete()) {
+                dimensions.forEach(dimension -> counts.put(dimension, eventCube.countByValue(dimension)));
+            } else if (filter.isAll() && rollupRepository.isReady()) {
+                dimensions.forEach(dimension -> counts.put(dimension, rollupRepository.countByValue(dimension)));
+            } else if (!dimensions.isEmpty()) {
+                counts.putAll(eventRepository.countByFields(dimensions, filter));
             }
 
-            logger.debug("Got {} hourly data points", result.size());
+            logger.debug("Aggregated breakdown of {}", dimensions);
 
         } catch (Exception e) {
-            logger.error("Error getting hourly stats", e);
+            logger.error("Error aggregating breakdown of {}", dimensions, e);
         }
 
-        return result;
+        return new Breakdown(filter.getStart(), filter.getEnd(), filter.getVideoIds(), counts, null);
+    }
+
+    private static void validateDimensions(List<String> dimensions) {
+        for (String dimension : dimensions) {
+            if (!EventRollupRepository.DIMENSIONS.contains(dimension)) {
+                throw new IllegalArgumentException("Unsupported dimension: " + dimension
+                        + " (one of " + EventRollupRepository.DIMENSIONS + ")");
+            }
+        }
     }
 
     /**
-     * Aggregates events by video quality (360p, 720p, 1080p, 4K)
+     * Gets hourly event counts for the last 24 whole hours, current hour included (for line chart)
      */
-    public Map<String, Long> aggregateByQuality() {
+    public Map<String, Long> getHourlyStats() {
         Map<String, Long> result = new LinkedHashMap<>();
 
         try {
-            AggregateIterable<Document> aggregation = eventsCollection.aggregate(Arrays.asList(
-                    Aggregates.group("$quality", Accumulators.sum("count", 1)),
-                    Aggregates.sort(Sorts.descending("count"))));
-
-            for (Document doc : aggregation) {
-                String quality = doc.getString("_id");
-                Number count = (Number) doc.get("count");
-                if (quality != null && count != null) {
-                    result.put(quality, count.longValue());
-                }
+            Instant since = Instant.now().truncatedTo(ChronoUnit.HOURS).minus(23, ChronoUnit.HOURS);
+
+            if (eventCube.isComplete()) {
+                result = eventCube.countByHourOfDay(since);
+            } else {
+                result = rollupRepository.isReady()
+                        ? rollupRepository.countByHourOfDay(since)
+                        : eventRepository.countByHourOfDay(since);
             }
 
-            logger.debug("Aggregated {} quality levels", result.size());
+            logger.debug("Got {} hourly data points", result.size());
 
         } catch (Exception e) {
-            logger.error("Error aggregating by quality", e);
+            logger.error("Error getting hourly stats", e);
         }
 
         return result;
     }
 
     /**
-     * Aggregates events by action type (WATCH, PAUSE, STOP, etc.)
+     * Aggregates events by video quality (360p, 720p, 1080p, 4K)
      */
-    public Map<String, Long> aggregateByAction() {
-        Map<String, Long> result = new LinkedHashMap<>();
-
-        try {
-            AggregateIterable<Document> aggregation = eventsCollection.aggregate(Arrays.asList(
-                    Aggregates.group("$action", Accumulators.sum("count", 1)),
-                    Aggregates.sort(Sorts.descending("count"))));
-
-            for (Document doc : aggregation) {
-                String action = doc.getString("_id");
-                Number count = (Number) doc.get("count");
-                if (action != null && count != null) {
-                    result.put(action, count.longValue());
-                }
-            }
+    public Map<String, Long> aggregateByQuality() {
+        return aggregateByQuality(eventFilter(null, null, null, null));
+    }
 
-            logger.debug("Aggregated {} action types", result.size());
+    /**
+     * Aggregates the events matching the filter by video quality
+     */
+    public Map<String, Long> aggregateByQuality(EventFilter filter) {
+        return getBreakdown(List.of("quality"), filter).getCounts("quality");
+    }
 
-        } catch (Exception e) {
-            logger.error("Error aggregating by action", e);
-        }
+    /**
+     * Aggregates events by action type (WATCH, PAUSE, STOP, etc.)
+     */
+    public Map<String, Long> aggregateByAction() {
+        return aggregateByAction(eventFilter(null, null, null, null));
+    }
 
-        return result;
+    /**
+     * Aggregates the events matching the filter by action type
+     */
+    public Map<String, Long> aggregateByAction(EventFilter filter) {
+        return getBreakdown(List.of("action"), filter).getCounts("action");
     }
 
     /**
      * Gets average watch duration by category (engagement metric)
      */
     public Map<String, Double> getAvgDurationByCategory() {
-        Map<String, Double> result = new LinkedHashMap<>();
-
-        try {
-            Map<String, CategoryStats> categoryStats = aggregateByCategory();
-            for (Map.Entry<String, CategoryStats> entry : categoryStats.entrySet()) {
-                result.put(entry.getKey(), entry.getValue().getAvgDuration());
-            }
-
-            logger.debug("Got avg duration for {} categories", result.size());
+        return getAvgDurationByCategory(aggregateByCategory());
+    }
 
-        } catch (Exception e) {
-            logger.error("Error getting avg duration by category", e);
+    /**
+     * Gets average watch duration by category from an already aggregated category breakdown
+     */
+    public Map<String, Double> getAvgDurationByCategory(Map<String, CategoryStats> categoryStats) {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (Map.Entry<String, CategoryStats> entry : categoryStats.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getAvgDuration());
         }
-
         return result;
     }
 
@@ -370,12 +495,19 @@ public class AnalyticsService {
         private final int videoCount;
         private final long totalViews;
         private final double avgDuration;
+        private final Map<String, Long> durationPercentiles;
 
         public CategoryStats(String category, int videoCount, long totalViews, double avgDuration) {
+            this(category, videoCount, totalViews, avgDuration, null);
+        }
+
+        public CategoryStats(String category, int videoCount, long totalViews, double avgDuration,
+                Map<String, Long> durationPercentiles) {
             this.category = category;
             this.videoCount = videoCount;
             this.totalViews = totalViews;
             this.avgDuration = avgDuration;
+            this.durationPercentiles = durationPercentiles;
         }
 
         public String getCategory() {
@@ -393,6 +525,13 @@ public class AnalyticsService {
         public double getAvgDuration() {
             return avgDuration;
         }
+
+        /**
+         * Estimated p50/p90/p99 watch durations in seconds (null unless requested)
+         */
+        public Map<String, Long> getDurationPercentiles() {
+            return durationPercentiles;
+        }
     }
 
     /**
@@ -428,6 +567,66 @@ public class AnalyticsService {
         }
     }
 
+    /**
+     * Inner class for event counts per value of several dimensions
+     */
+    public static class Breakdown {
+        private final Instant start;
+        private final Instant end;
+        private final List<String> videoIds;
+        private final Map<String, Map<String, Long>> counts;
+        private final Map<String, Map<String, Estimate>> estimates;
+
+        public Breakdown(Instant start, Instant end, List<String> videoIds, Map<String, Map<String, Long>> counts,
+                Map<String, Map<String, Estimate>> estimates) {
+            this.start = start;
+            this.end = end;
+            this.videoIds = videoIds;
+            this.counts = counts;
+            this.estimates = estimates;
+        }
+
+        public Instant getStart() {
+            return start;
+        }
+
+        public Instant getEnd() {
+            return end;
+        }
+
+        /**
+         * Gets the videos counted (null for all videos)
+         */
+        public List<String> getVideoIds() {
+            return videoIds;
+        }
+
+        public Map<String, Map<String, Long>> getCounts() {
+            return counts;
+        }
+
+        /**
+         * Whether the counts are estimated from a sample
+         */
+        public boolean isApproximate() {
+            return estimates != null;
+        }
+
+        /**
+         * Gets the estimate and 95% interval per dimension and value (null when exact)
+         */
+        public Map<String, Map<String, Estimate>> getEstimates() {
+            return estimates;
+        }
+
+        /**
+         * Gets the counts of one dimension, highest first (empty if not requested)
+         */
+        public Map<String, Long> getCounts(String dimension) {
+            return counts.getOrDefault(dimension, new LinkedHashMap<>());
+        }
+    }
+
     /**
      * Inner class for dashboard summary
      */
@@ -5,9 +5,21 @@ import com.streaming.analytics.model.Video;
 import com.streaming.analytics.model.VideoStats;
 import com.streaming.analytics.model.ViewEvent;
 import com.streaming.analytics.repository.EventRepository;
+import com.streaming.analytics.repository.EventRollupRepository;
 import com.streaming.analytics.repository.UserProfileRepository;
 import com.streaming.analytics.repository.VideoRepository;
 import com.streaming.analytics.repository.VideoStatsRepository;
+import com.streaming.analytics.repository.WatchHistoryRepository;
+import com.streaming.analytics.sketch.DurationHistogram;
+import com.streaming.analytics.sketch.HyperLogLog;
+import com.streaming.analytics.state.EventCubeService;
+import com.streaming.analytics.state.GlobalCounters;
+import com.streaming.analytics.state.HeavyHitterService;
+import com.streaming.analytics.state.TrendingService;
+import com.streaming.analytics.state.UniqueViewerService;
+import com.streaming.analytics.state.VideoCounterService;
+import com.streaming.analytics.state.WatchTimeService;
+import com.streaming.analytics.state.WindowedTopService;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.slf4j.Logger;
@@ -15,7 +27,10 @@ import org.slf4j.LoggerFactory;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 
 /**
@@ -30,6 +45,9 @@ public class EventProcessorService {
     @Inject
     private EventRepository eventRepository;
 
+    @Inject
+    private EventRollupRepository rollupRepository;
+
     @Inject
     private VideoStatsRepository statsRepository;
 
@@ -39,45 +57,82 @@ public class EventProcessorService {
     @Inject
     private VideoRepository videoRepository;
 
+    @Inject
+    private WatchHistoryRepository watchHistoryRepository;
+
+    @Inject
+    private VideoCounterService videoCounters;
+
+    @Inject
+    private GlobalCounters globalCounters;
+
+    @Inject
+    private TrendingService trendingService;
+
+    @Inject
+    private EventCubeService eventCube;
+
+    @Inject
+    private UniqueViewerService uniqueViewers;
+
+    @Inject
+    private WatchTimeService watchTime;
+
+    @Inject
+    private HeavyHitterService heavyHitters;
+
+    @Inject
+    private WindowedTopService windowedTop;
+
+    @Inject
+    private StatsRebuildService statsRebuild;
+
     /**
      * Processes a single view event
-     * 1. Saves the event
+     * 1. Saves the event and adds it to the rollups and in-memory aggregates
      * 2. Updates video statistics
-     * 3. Updates user profile
+     * 3. Updates user profile and watch history
+     * Runs under the ingest lock, so a stats rebuild swaps in between events
      */
     public void processEvent(ViewEvent event) {
+        Lock ingest = statsRebuild.ingestLock();
+        ingest.lock();
         try {
-            // 1. Save the event
+            // 1. Save the event and count it
             if (event.getTimestamp() == null) {
                 event.setTimestamp(Instant.now());
             }
             eventRepository.save(event);
+            recordIngested(List.of(event));
 
-            // 2. Update video statistics (only for WATCH actions)
-            if ("WATCH".equals(event.getAction())) {
-                statsRepository.updateStats(event.getVideoId(), event.getDuration());
-            }
+            // 2. Update video statistics
+            updateVideoStats(event);
 
-            // 3. Update user profile
+            // 3. Update user profile and watch history
             updateUserProfile(event);
+            appendWatchHistory(List.of(event));
 
             logger.debug("Processed event: {} for user: {}", event.getEventId(), event.getUserId());
 
         } catch (Exception e) {
             logger.error("Error processing event: {}", event.getEventId(), e);
             throw new RuntimeException("Failed to process event", e);
+        } finally {
+            ingest.unlock();
         }
     }
 
     /**
      * Processes a batch of events efficiently
-     * Uses bulk insert for better performance
+     * Uses bulk insert for better performance, under the ingest lock like processEvent
      */
     public int processBatch(List<ViewEvent> events) {
         if (events == null || events.isEmpty()) {
             return 0;
         }
 
+        Lock ingest = statsRebuild.ingestLock();
+        ingest.lock();
         try {
             long startTime = System.currentTimeMillis();
 
@@ -88,20 +143,20 @@ public class EventProcessorService {
                 }
             }
 
-            // 1. Bulk save all events
+            // 1. Bulk save all events, then count them (one rollup write per distinct hour, dimension and value)
             eventRepository.saveBatch(events);
+            recordIngested(events);
 
             // 2. Update statistics for each video (batch optimization)
             for (ViewEvent event : events) {
-                if ("WATCH".equals(event.getAction())) {
-                    statsRepository.updateStats(event.getVideoId(), event.getDuration());
-                }
+                updateVideoStats(event);
             }
 
-            // 3. Update user profiles
+            // 3. Update user profiles and watch history
             for (ViewEvent event : events) {
                 updateUserProfile(event);
             }
+            appendWatchHistory(events);
 
             long duration = System.currentTimeMillis() - startTime;
             logger.info("Processed batch of {} events in {}ms ({} events/sec)",
@@ -112,6 +167,47 @@ public class EventProcessorService {
         } catch (Exception e) {
             logger.error("Error processing batch of {} events", events.size(), e);
             throw new RuntimeException("Failed to process batch", e);
+        } finally {
+            ingest.unlock();
+        }
+    }
+
+    /**
+     * Adds saved events to the hourly rollups, the global counters and every enabled
+     * in-memory aggregate
+     */
+    private void recordIngested(List<ViewEvent> events) {
+        rollupRepository.record(events);
+        globalCounters.record(events);
+        if (trendingService.isEnabled()) {
+            trendingService.record(events);
+        }
+        if (eventCube.isEnabled()) {
+            eventCube.record(events);
+        }
+        if (uniqueViewers.isEnabled()) {
+            uniqueViewers.record(events);
+        }
+        if (watchTime.isEnabled()) {
+            watchTime.record(events);
+        }
+        if (heavyHitters.isEnabled()) {
+            heavyHitters.record(events);
+        }
+        if (windowedTop.isEnabled()) {
+            windowedTop.record(events);
+        }
+    }
+
+    /**
+     * Updates video statistics: the mapped counters when enabled (every action),
+     * otherwise 'video_stats' (WATCH actions only)
+     */
+    private void updateVideoStats(ViewEvent event) {
+        if (videoCounters.isEnabled()) {
+            videoCounters.record(event);
+        } else if ("WATCH".equals(event.getAction())) {
+            statsRepository.updateStats(event.getVideoId(), event.getDuration());
         }
     }
 
@@ -120,9 +216,11 @@ public class EventProcessorService {
      */
     private void updateUserProfile(ViewEvent event) {
         try {
-            // Get video category for preferences
-            Video video = videoRepository.findByVideoId(event.getVideoId());
-            String category = (video != null) ? video.getCategory() : "Unknown";
+            // Get video category for preferences (single-field read)
+            String category = videoRepository.findCategoryByVideoId(event.getVideoId());
+            if (category == null) {
+                category = "Unknown";
+            }
 
             // Update user profile
             userProfileRepository.updateWithWatch(
@@ -135,18 +233,55 @@ public class EventProcessorService {
         }
     }
 
+    /**
+     * Appends events to the bucketed watch history
+     */
+    private void appendWatchHistory(List<ViewEvent> events) {
+        try {
+            if (events.size() == 1) {
+                watchHistoryRepository.append(events.get(0));
+            } else {
+                watchHistoryRepository.appendBatch(events);
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to append {} events to watch history", events.size(), e);
+        }
+    }
+
     /**
      * Gets the top videos by total views
      */
     public List<VideoStats> getTopVideos(int limit) {
+        if (videoCounters.isEnabled()) {
+            return videoCounters.getTopVideos(limit);
+        }
         return statsRepository.getTopVideos(limit);
     }
 
     /**
      * Gets statistics for a specific video
+     * Unique viewers are estimated from the viewers sketch, with its standard error, and
+     * watch duration percentiles from the duration histogram
      */
     public VideoStats getVideoStats(String videoId) {
-        return statsRepository.getStats(videoId);
+        VideoStats stats = videoCounters.isEnabled() ? videoCounters.getStats(videoId) : null;
+        if (stats == null) {
+            stats = statsRepository.getStats(videoId);
+        }
+        if (stats != null && uniqueViewers.isEnabled()) {
+            HyperLogLog viewers = uniqueViewers.getSketch(videoId);
+            if (viewers != null) {
+                stats.setUniqueViewers(viewers.estimate());
+                stats.setUniqueViewersError(stats.getUniqueViewers() * viewers.standardError());
+            }
+        }
+        if (stats != null && watchTime.isEnabled()) {
+            DurationHistogram durations = watchTime.getSketch(videoId);
+            if (durations != null) {
+                stats.setDurationPercentiles(WatchTimeService.percentiles(durations));
+            }
+        }
+        return stats;
     }
 
     /**
@@ -156,8 +291,8 @@ public class EventProcessorService {
      */
     public List<Video> getRecommendations(String userId, int limit) {
         try {
-            // 1. Get user profile
-            UserProfile profile = userProfileRepository.findByUserId(userId);
+            // 1. Get user preferences and watch history
+            UserProfile profile = userProfileRepository.findPreferencesAndHistory(userId);
             if (profile == null) {
                 // New user - return popular videos
                 return videoRepository.findMostPopular(limit);
@@ -170,8 +305,10 @@ public class EventProcessorService {
             }
 
             // 3. Get popular videos from preferred categories
+            // Exclusion covers the profile's recent list and the newest history buckets
             List<Video> recommendations = new ArrayList<>();
-            List<String> watchHistory = profile.getWatchHistory();
+            Set<String> watchHistory = new HashSet<>(profile.getWatchHistory());
+            watchHistory.addAll(watchHistoryRepository.findRecentlyWatched(userId));
 
             for (String category : topCategories) {
                 List<Video> categoryVideos = videoRepository.findByCategory(category, limit);
@@ -211,9 +348,10 @@ public class EventProcessorService {
     }
 
     /**
-     * Gets total event count
+     * Gets total event count, including events compacted into sessions
+     * Read from the global counters once they are seeded
      */
     public long getTotalEventCount() {
-        return eventRepository.count();
+        return globalCounters.isReady() ? globalCounters.getTotalEvents() : eventRepository.countAll();
     }
 }
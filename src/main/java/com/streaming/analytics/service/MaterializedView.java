@@ -0,0 +1,122 @@
+package com.streaming.analytics.service;
+
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BsonField;
+import com.mongodb.client.model.Field;
+import com.mongodb.client.model.MergeOptions;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Definition of a materialized view over the 'events' collection
+ *
+ * A view groups events by a key expression and keeps additive sums per group, so a batch
+ * of new events can be folded into the existing documents with $merge. Each view document
+ * records the batch that last changed it ('w'), which makes re-applying a batch a no-op.
+ * The session stages compute the same sums from 'event_sessions', for the events that
+ * compaction has already removed.
+ */
+public final class MaterializedView {
+
+    private final String name;
+    private final Object groupKey;
+    private final Map<String, Object> sums;
+    private final List<Bson> sessionStages;
+
+    MaterializedView(String name, Object groupKey, Map<String, Object> sums, List<Bson> sessionStages) {
+        this.name = name;
+        this.groupKey = groupKey;
+        this.sums = sums;
+        this.sessionStages = sessionStages;
+    }
+
+    /**
+     * Event count and total duration per UTC hour; sessions provide their per-hour counts
+     */
+    static MaterializedView hourly(String name) {
+        Map<String, Object> sums = new LinkedHashMap<>();
+        sums.put("count", 1);
+        sums.put("totalDuration", "$duration");
+        return new MaterializedView(name,
+                new Document("$dateTrunc", new Document("date", "$timestamp").append("unit", "hour")),
+                sums, Arrays.asList(
+                        Aggregates.unwind("$hours"),
+                        Aggregates.group("$hours.h",
+                                Accumulators.sum("count", "$hours.n"),
+                                Accumulators.sum("totalDuration", "$hours.d"))));
+    }
+
+    /**
+     * The view name, which is also its collection
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Folds the events matching the filter into the view as batch 'batch'
+     */
+    List<Bson> refreshPipeline(Bson eventFilter, ObjectId batch) {
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(eventFilter));
+        pipeline.add(Aggregates.group(groupKey, accumulators(false)));
+        pipeline.add(Aggregates.set(new Field<>("w", batch)));
+        pipeline.add(merge());
+        return pipeline;
+    }
+
+    /**
+     * Builds the view from raw events plus the sessions matching the session filter
+     */
+    List<Bson> buildPipeline(Bson eventFilter, Bson sessionFilter, String sessionsCollection, ObjectId batch) {
+        List<Bson> sessions = new ArrayList<>();
+        sessions.add(Aggregates.match(sessionFilter));
+        sessions.addAll(sessionStages);
+
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(eventFilter));
+        pipeline.add(Aggregates.group(groupKey, accumulators(false)));
+        pipeline.add(Aggregates.unionWith(sessionsCollection, sessions));
+        pipeline.add(Aggregates.group("$_id", accumulators(true)));
+        pipeline.add(Aggregates.set(new Field<>("w", batch)));
+        pipeline.add(merge());
+        return pipeline;
+    }
+
+    private List<BsonField> accumulators(boolean regroup) {
+        List<BsonField> accumulators = new ArrayList<>(sums.size());
+        sums.forEach((field, expression) ->
+                accumulators.add(Accumulators.sum(field, regroup ? "$" + field : expression)));
+        return accumulators;
+    }
+
+    /**
+     * Adds the batch sums to matching documents unless the document already holds this batch
+     */
+    private Bson merge() {
+        Document applied = new Document("$lt", Arrays.asList(
+                new Document("$ifNull", Arrays.asList("$w", null)), "$$new.w"));
+
+        Document set = new Document();
+        for (String field : sums.keySet()) {
+            set.append(field, new Document("$cond", Arrays.asList(applied,
+                    new Document("$add", Arrays.asList(
+                            new Document("$ifNull", Arrays.asList("$" + field, 0)), "$$new." + field)),
+                    "$" + field)));
+        }
+        set.append("w", new Document("$cond", Arrays.asList(applied, "$$new.w", "$w")));
+
+        return Aggregates.merge(name, new MergeOptions()
+                .whenMatched(MergeOptions.WhenMatched.PIPELINE)
+                .whenMatchedPipeline(List.of(new Document("$set", set)))
+                .whenNotMatched(MergeOptions.WhenNotMatched.INSERT));
+    }
+}
@@ -0,0 +1,275 @@
+package com.streaming.analytics.service;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.streaming.analytics.repository.EventWatermarks;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Incremental refresh of the materialized views of the 'events' collection
+ *
+ * Each view stores a watermark in 'view_state': the _id up to which events are folded in.
+ * A refresh aggregates only events with _id in (watermark, now - VIEWS_SETTLE_SECONDS]
+ * and merges them into the view; the settle delay leaves time for in-flight inserts with
+ * lower ids to land. The new bound is recorded as 'pending' before the merge, so a refresh
+ * interrupted by a crash re-applies the same batch, which the view documents ignore.
+ *
+ * A view without state is built from the raw events and the compacted sessions while no
+ * compaction runs. Later refreshes skip the events that build read from the sessions: those
+ * older than its compaction watermark ('baseline') with an _id up to its compactedUpTo.
+ * Late events, inserted after their day was compacted, are folded in whatever their
+ * timestamp. Compaction keeps raw events until every view has folded them in.
+ */
+@ApplicationScoped
+public class MaterializedViewJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(MaterializedViewJob.class);
+
+    static final String STATE_COLLECTION = EventWatermarks.VIEW_STATE_COLLECTION;
+
+    static final List<MaterializedView> VIEWS = List.of(
+            MaterializedView.hourly(EventWatermarks.EVENTS_BY_HOUR));
+
+    private static final boolean ENABLED = Boolean.parseBoolean(env("VIEWS_ENABLED", "true"));
+    private static final long REFRESH_SECONDS = Long.parseLong(env("VIEWS_REFRESH_SECONDS", "30"));
+    private static final long SETTLE_SECONDS = Long.parseLong(env("VIEWS_SETTLE_SECONDS", "5"));
+
+    @Inject
+    private MongoDatabase database;
+
+    @Inject
+    private EventWatermarks watermarks;
+
+    private ScheduledExecutorService scheduler;
+
+    private static String env(String name, String defaultValue) {
+        return System.getenv(name) != null ? System.getenv(name) : defaultValue;
+    }
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "materialized-views");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules the refresh when VIEWS_ENABLED=true, otherwise drops the views so their
+     * watermarks no longer hold back compaction
+     */
+    public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        MongoCollection<Document> states = database.getCollection(STATE_COLLECTION);
+        if (!ENABLED) {
+            for (MaterializedView view : VIEWS) {
+                database.getCollection(view.getName()).drop();
+            }
+            states.drop();
+            logger.info("Materialized views disabled (set VIEWS_ENABLED=true to enable)");
+            return;
+        }
+
+        List<String> names = new ArrayList<>();
+        for (MaterializedView view : VIEWS) {
+            names.add(view.getName());
+        }
+        // Views no longer defined would hold back compaction with their watermarks
+        for (Document retired : states.find(Filters.nin("_id", names))) {
+            database.getCollection(retired.getString("_id")).drop();
+        }
+        states.deleteMany(Filters.nin("_id", names));
+        for (Document state : states.find(Filters.exists("watermark"))) {
+            watermarks.setViewReady(state.getString("_id"), true);
+        }
+
+        scheduler.scheduleWithFixedDelay(this::refreshSafely, 0, REFRESH_SECONDS, TimeUnit.SECONDS);
+        logger.info("Materialized views refreshed every {}s ({} of {} built)",
+                REFRESH_SECONDS, VIEWS.stream().filter(view -> isReady(view.getName())).count(), VIEWS.size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Runs one refresh of all views in the background
+     */
+    public void submit() {
+        if (!ENABLED) {
+            throw new IllegalStateException("Materialized views are disabled");
+        }
+        scheduler.execute(this::refreshSafely);
+    }
+
+    /**
+     * Whether the view is built and can replace a scan of 'events'
+     */
+    public boolean isReady(String name) {
+        return watermarks.isViewReady(name);
+    }
+
+    private void refreshSafely() {
+        try {
+            refreshAll();
+        } catch (Exception e) {
+            logger.error("Materialized view refresh failed", e);
+        }
+    }
+
+    /**
+     * Builds missing views and folds new events into the others
+     */
+    public synchronized void refreshAll() {
+        ObjectId bound = EventWatermarks.upperBound(Instant.now().minusSeconds(SETTLE_SECONDS));
+        for (MaterializedView view : VIEWS) {
+            Document state = database.getCollection(STATE_COLLECTION)
+                    .find(Filters.eq("_id", view.getName())).first();
+            // Views built before compactedUpTo was recorded cannot tell late events apart
+            if (state == null || state.getObjectId("watermark") == null
+                    || state.getDate("baseline") != null && !state.containsKey("compactedUpTo")) {
+                watermarks.runExclusive(() -> build(view, bound));
+            } else {
+                refresh(view, state, bound);
+            }
+        }
+    }
+
+    private void build(MaterializedView view, ObjectId bound) {
+        long start = System.currentTimeMillis();
+        MongoCollection<Document> states = database.getCollection(STATE_COLLECTION);
+        watermarks.setViewReady(view.getName(), false);
+        states.deleteOne(Filters.eq("_id", view.getName()));
+        database.getCollection(view.getName()).drop();
+
+        Instant baseline = watermarks.getCompactionWatermark();
+        ObjectId compactedUpTo = baseline != null ? watermarks.getCompactedUpTo() : null;
+        Bson eventFilter = baseline != null
+                ? Filters.and(Filters.lte("_id", bound), notCompacted(Date.from(baseline), compactedUpTo))
+                : Filters.lte("_id", bound);
+        // Sessions of a compaction run that did not commit are not counted yet
+        Bson sessionFilter = baseline != null
+                ? Filters.and(Filters.lt("start", Date.from(baseline)),
+                        Filters.not(Filters.gt("upTo", compactedUpTo)))
+                : Filters.exists("_id", false);
+        database.getCollection("events")
+                .aggregate(view.buildPipeline(eventFilter, sessionFilter,
+                        EventWatermarks.SESSIONS_COLLECTION, bound))
+                .allowDiskUse(true)
+                .toCollection();
+
+        long millis = System.currentTimeMillis() - start;
+        states.updateOne(Filters.eq("_id", view.getName()),
+                Updates.combine(
+                        Updates.set("watermark", bound),
+                        Updates.set("baseline", baseline != null ? Date.from(baseline) : null),
+                        Updates.set("compactedUpTo", compactedUpTo),
+                        Updates.set("builtAt", new Date()),
+                        Updates.set("refreshedAt", new Date()),
+                        Updates.set("lastRefreshMillis", millis)),
+                new UpdateOptions().upsert(true));
+        watermarks.setViewReady(view.getName(), true);
+        logger.info("Built materialized view {} in {}ms", view.getName(), millis);
+    }
+
+    private void refresh(MaterializedView view, Document state, ObjectId bound) {
+        long start = System.currentTimeMillis();
+        MongoCollection<Document> states = database.getCollection(STATE_COLLECTION);
+        ObjectId watermark = state.getObjectId("watermark");
+        ObjectId batch = state.getObjectId("pending");
+        if (batch == null) {
+            if (bound.compareTo(watermark) <= 0) {
+                return;
+            }
+            batch = bound;
+            states.updateOne(Filters.eq("_id", view.getName()), Updates.set("pending", batch));
+        }
+
+        database.getCollection("events")
+                .aggregate(view.refreshPipeline(refreshFilter(state, batch), batch))
+                .toCollection();
+
+        long millis = System.currentTimeMillis() - start;
+        states.updateOne(Filters.eq("_id", view.getName()),
+                Updates.combine(
+                        Updates.set("watermark", batch),
+                        Updates.unset("pending"),
+                        Updates.set("refreshedAt", new Date()),
+                        Updates.set("lastRefreshMillis", millis)));
+        logger.debug("Refreshed materialized view {} in {}ms", view.getName(), millis);
+    }
+
+    /**
+     * Matches the events of a batch not already counted by the build: with a baseline, the
+     * events before it up to compactedUpTo came from the sessions
+     */
+    static Bson refreshFilter(Document state, ObjectId batch) {
+        Bson filter = Filters.and(Filters.gt("_id", state.getObjectId("watermark")), Filters.lte("_id", batch));
+        Date baseline = state.getDate("baseline");
+        return baseline != null
+                ? Filters.and(filter, notCompacted(baseline, state.getObjectId("compactedUpTo")))
+                : filter;
+    }
+
+    /**
+     * Raw events not folded into the sessions: from the watermark on, or inserted after
+     * their day was compacted
+     */
+    private static Bson notCompacted(Date watermark, ObjectId compactedUpTo) {
+        return Filters.or(Filters.gte("timestamp", watermark), Filters.gt("_id", compactedUpTo));
+    }
+
+    /**
+     * Gets the refresh status of every view; lagSeconds is how far behind now the view's
+     * watermark is (events inserted since are not in the view yet)
+     */
+    public List<Map<String, Object>> getStatus() {
+        Map<String, Document> states = new LinkedHashMap<>();
+        for (Document state : database.getCollection(STATE_COLLECTION).find()) {
+            states.put(state.getString("_id"), state);
+        }
+
+        Instant now = Instant.now();
+        List<Map<String, Object>> status = new ArrayList<>();
+        for (MaterializedView view : VIEWS) {
+            Document state = states.getOrDefault(view.getName(), new Document());
+            ObjectId watermark = state.getObjectId("watermark");
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("name", view.getName());
+            entry.put("ready", isReady(view.getName()));
+            entry.put("watermark", watermark != null ? watermark.getDate().toInstant() : null);
+            entry.put("lagSeconds", watermark != null
+                    ? now.getEpochSecond() - watermark.getTimestamp() : null);
+            entry.put("refreshedAt", state.getDate("refreshedAt") != null
+                    ? state.getDate("refreshedAt").toInstant() : null);
+            entry.put("lastRefreshMillis", state.get("lastRefreshMillis"));
+            entry.put("documents", database.getCollection(view.getName()).estimatedDocumentCount());
+            status.add(entry);
+        }
+        return status;
+    }
+}
@@ -0,0 +1,46 @@
+package com.streaming.analytics.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adapts the sample size of approximate queries to a latency target
+ * Each query reports its size and time; the next size moves halfway towards the size that
+ * would have met the target (query time taken as proportional to the sample size)
+ */
+final class SampleSizer {
+
+    private final long targetMillis;
+    private final int min;
+    private final int max;
+    private final AtomicInteger size;
+
+    SampleSizer(long targetMillis, int initial, int min, int max) {
+        if (targetMillis < 1 || min < 1 || min > max) {
+            throw new IllegalArgumentException("Invalid sample sizing: target " + targetMillis
+                    + "ms, sizes " + min + ".." + max);
+        }
+        this.targetMillis = targetMillis;
+        this.min = min;
+        this.max = max;
+        this.size = new AtomicInteger(clamp(initial));
+    }
+
+    /**
+     * Gets the sample size for the next query
+     */
+    int getSize() {
+        return size.get();
+    }
+
+    /**
+     * Records the time a query with the given sample size took
+     */
+    void record(int sampleSize, long elapsedMillis) {
+        double onTarget = sampleSize * (double) targetMillis / Math.max(elapsedMillis, 1);
+        size.set(clamp((long) ((size.get() + onTarget) / 2)));
+    }
+
+    private int clamp(long value) {
+        return (int) Math.max(min, Math.min(max, value));
+    }
+}
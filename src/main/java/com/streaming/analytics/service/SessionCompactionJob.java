@@ -0,0 +1,443 @@
+package com.streaming.analytics.service;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.streaming.analytics.repository.EventWatermarks;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background compaction of aged raw events into session documents
+ *
+ * Raw events older than COMPACTION_MIN_AGE_DAYS are rewritten, one UTC day at a time,
+ * into 'event_sessions' documents (one per user, video and viewing session) holding
+ * start, end, watch seconds and durations, action/device/quality counts, quality
+ * switches and per-hour counts. The compaction watermark then advances, and the compacted raw
+ * events are deleted in throttled batches.
+ *
+ * Each run only reads events up to an _id bound taken when it starts, and only deletes
+ * events up to the compactedUpTo _id it committed, so an event inserted during a run is
+ * never deleted unread. Events that arrive for a day already compacted are rewritten into
+ * sessions of their own on the next run.
+ *
+ * Readers combine raw events with timestamp >= watermark or _id above compactedUpTo and
+ * sessions with start < watermark, so no event is counted twice at any point of a run,
+ * including after a crash between steps; sessions tagged with an _id bound above
+ * compactedUpTo belong to a run that did not commit, are skipped by readers and are rewritten. Raw events not yet folded
+ * into every materialized view are kept until a later run.
+ */
+@ApplicationScoped
+public class SessionCompactionJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionCompactionJob.class);
+
+    private static final String SESSIONS_COLLECTION = EventWatermarks.SESSIONS_COLLECTION;
+    private static final String STATE_COLLECTION = EventWatermarks.COMPACTION_STATE_COLLECTION;
+    private static final String STATE_ID = EventWatermarks.COMPACTION_STATE_ID;
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    private static final boolean ENABLED = Boolean.parseBoolean(env("COMPACTION_ENABLED", "false"));
+    private static final int MIN_AGE_DAYS = Math.max(1, Integer.parseInt(env("COMPACTION_MIN_AGE_DAYS", "3")));
+    private static final int INTERVAL_MINUTES = Integer.parseInt(env("COMPACTION_INTERVAL_MINUTES", "60"));
+    private static final int DELETE_BATCH_SIZE = Integer.parseInt(env("COMPACTION_DELETE_BATCH", "1000"));
+    private static final long DELETE_PAUSE_MS = Long.parseLong(env("COMPACTION_DELETE_PAUSE_MS", "100"));
+    private static final Duration SESSION_GAP = Duration.ofMinutes(
+            Long.parseLong(env("SESSION_GAP_MINUTES", "30")));
+
+    @Inject
+    private MongoDatabase database;
+
+    @Inject
+    private EventWatermarks watermarks;
+
+    private ScheduledExecutorService scheduler;
+
+    private volatile boolean running;
+
+    private static String env(String name, String defaultValue) {
+        return System.getenv(name) != null ? System.getenv(name) : defaultValue;
+    }
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "session-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules the periodic compaction when COMPACTION_ENABLED=true
+     */
+    public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        if (!ENABLED) {
+            logger.info("Session compaction disabled (set COMPACTION_ENABLED=true to enable)");
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(this::runSafely, 1, INTERVAL_MINUTES, TimeUnit.MINUTES);
+        logger.info("Session compaction scheduled every {} min for events older than {} days",
+                INTERVAL_MINUTES, MIN_AGE_DAYS);
+    }
+
+    /**
+     * Runs one compaction in the background; fails if one is already running
+     */
+    public void submit() {
+        if (running) {
+            throw new IllegalStateException("A session compaction is already running");
+        }
+        scheduler.execute(this::runSafely);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void runSafely() {
+        try {
+            compact();
+        } catch (Exception e) {
+            logger.error("Session compaction failed", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Gets the compaction watermark: raw events before it live only in sessions
+     * Returns null if nothing was compacted yet
+     */
+    public Instant getWatermark() {
+        return watermarks.getCompactionWatermark();
+    }
+
+    /**
+     * Compacts every full day older than the minimum age
+     * Returns the number of sessions written
+     */
+    public long compact() {
+        return watermarks.callExclusive(this::compactExclusive);
+    }
+
+    private long compactExclusive() {
+        if (running) {
+            return 0;
+        }
+        running = true;
+        try {
+            MongoCollection<Document> events = database.getCollection("events");
+            MongoCollection<Document> sessions = database.getCollection(SESSIONS_COLLECTION);
+
+            Instant cutoff = Instant.now().minus(MIN_AGE_DAYS, ChronoUnit.DAYS).truncatedTo(ChronoUnit.DAYS);
+            // Events inserted after this id are left for the next run
+            ObjectId bound = EventWatermarks.upperBound(Instant.now().minusSeconds(1));
+            Instant watermark = getWatermark();
+            long written = 0;
+
+            if (watermark != null) {
+                // Finish whatever a previous run left behind
+                ObjectId compactedUpTo = watermarks.getCompactedUpTo();
+                sessions.deleteMany(Filters.or(
+                        Filters.gte("start", Date.from(watermark)),
+                        Filters.gt("upTo", compactedUpTo)));
+                deleteCompactedEvents(events, watermark, compactedUpTo);
+
+                written += compactLateEvents(events, sessions, watermark, compactedUpTo, bound);
+            }
+
+            Instant sliceStart = watermark != null ? watermark : oldestEventDay(events);
+            while (sliceStart != null && sliceStart.isBefore(cutoff)) {
+                Instant sliceEnd = sliceStart.plus(1, ChronoUnit.DAYS);
+                written += compactSlice(events, sessions, sliceStart, sliceEnd, bound);
+                sliceStart = sliceEnd;
+            }
+            return written;
+        } finally {
+            running = false;
+        }
+    }
+
+    /**
+     * Rewrites one day of raw events up to the bound into sessions, advances the watermark,
+     * then deletes those raw events
+     */
+    private long compactSlice(MongoCollection<Document> events, MongoCollection<Document> sessions,
+            Instant from, Instant to, ObjectId bound) {
+        long start = System.currentTimeMillis();
+        long[] counts = writeSessions(events, sessions, Filters.and(
+                Filters.gte("timestamp", Date.from(from)),
+                Filters.lt("timestamp", Date.from(to)),
+                Filters.lte("_id", bound)), bound);
+
+        // Readers switch from raw events to sessions for this day in one atomic update
+        commit(Date.from(to), bound, counts[1]);
+
+        long deleted = deleteCompactedEvents(events, to, bound);
+        logger.info("Compacted {} events of {} into {} sessions ({} raw events deleted) in {}ms",
+                counts[1], from.truncatedTo(ChronoUnit.DAYS), counts[0], deleted,
+                System.currentTimeMillis() - start);
+        return counts[0];
+    }
+
+    /**
+     * Rewrites the raw events that arrived after their day was compacted into sessions of their own
+     * A late event may split a session of its user and video in two; the event counts are unchanged
+     */
+    private long compactLateEvents(MongoCollection<Document> events, MongoCollection<Document> sessions,
+            Instant watermark, ObjectId compactedUpTo, ObjectId bound) {
+        long[] counts = writeSessions(events, sessions, Filters.and(
+                Filters.lt("timestamp", Date.from(watermark)),
+                Filters.gt("_id", compactedUpTo),
+                Filters.lte("_id", bound)), bound);
+        commit(null, bound, counts[1]);
+
+        if (counts[1] > 0) {
+            long deleted = deleteCompactedEvents(events, watermark, bound);
+            logger.info("Compacted {} late events before {} into {} sessions ({} raw events deleted)",
+                    counts[1], watermark, counts[0], deleted);
+        }
+        return counts[0];
+    }
+
+    /**
+     * Writes the sessions of the matching raw events, tagged with the bound of the run
+     * Returns the number of sessions written and of events compacted
+     */
+    private long[] writeSessions(MongoCollection<Document> events, MongoCollection<Document> sessions,
+            Bson filter, ObjectId bound) {
+        List<Document> buffer = new ArrayList<>();
+        long written = 0;
+        long compactedEvents = 0;
+        SessionBuilder current = null;
+
+        try (MongoCursor<Document> cursor = events.aggregate(Arrays.asList(
+                Aggregates.match(filter),
+                Aggregates.project(Projections.fields(
+                        Projections.include("userId", "videoId", "timestamp", "action", "duration",
+                                "quality", "deviceType"),
+                        Projections.excludeId())),
+                Aggregates.sort(Sorts.ascending("userId", "videoId", "timestamp"))))
+                .allowDiskUse(true)
+                .iterator()) {
+
+            while (cursor.hasNext()) {
+                Document event = cursor.next();
+                if (current == null || !current.accepts(event)) {
+                    if (current != null) {
+                        buffer.add(current.toDocument().append("upTo", bound));
+                    }
+                    current = new SessionBuilder(event.getString("userId"), event.getString("videoId"));
+                }
+                current.add(event);
+                compactedEvents++;
+
+                if (buffer.size() >= INSERT_BATCH_SIZE) {
+                    sessions.insertMany(buffer);
+                    written += buffer.size();
+                    buffer.clear();
+                }
+            }
+        }
+        if (current != null) {
+            buffer.add(current.toDocument().append("upTo", bound));
+        }
+        if (!buffer.isEmpty()) {
+            sessions.insertMany(buffer);
+            written += buffer.size();
+        }
+        return new long[] {written, compactedEvents};
+    }
+
+    /**
+     * Records the compacted events, and the new watermark unless it is null
+     */
+    private void commit(Date watermark, ObjectId compactedUpTo, long compactedEvents) {
+        List<Bson> updates = new ArrayList<>();
+        if (watermark != null) {
+            updates.add(Updates.set("watermark", watermark));
+        }
+        updates.add(Updates.set("compactedUpTo", compactedUpTo));
+        updates.add(Updates.inc("compactedEvents", compactedEvents));
+        updates.add(Updates.set("updatedAt", new Date()));
+        database.getCollection(STATE_COLLECTION).updateOne(Filters.eq("_id", STATE_ID),
+                Updates.combine(updates), new UpdateOptions().upsert(true));
+    }
+
+    /**
+     * Deletes the compacted raw events (older than the watermark and up to compactedUpTo) in
+     * throttled batches, except those the materialized views have not folded in yet
+     */
+    private long deleteCompactedEvents(MongoCollection<Document> events, Instant watermark,
+            ObjectId compactedUpTo) {
+        ObjectId upTo = compactedUpTo;
+        ObjectId viewWatermark = watermarks.lowestViewWatermark();
+        if (viewWatermark != null && viewWatermark.compareTo(upTo) < 0) {
+            upTo = viewWatermark;
+        }
+        Bson filter = Filters.and(Filters.lt("timestamp", Date.from(watermark)), Filters.lte("_id", upTo));
+
+        long deleted = 0;
+        while (true) {
+            List<Object> ids = new ArrayList<>(DELETE_BATCH_SIZE);
+            for (Document doc : events.find(filter)
+                    .projection(Projections.include("_id"))
+                    .limit(DELETE_BATCH_SIZE)) {
+                ids.add(doc.get("_id"));
+            }
+            if (ids.isEmpty()) {
+                return deleted;
+            }
+
+            deleted += events.deleteMany(Filters.in("_id", ids)).getDeletedCount();
+            if (DELETE_PAUSE_MS > 0) {
+                try {
+                    Thread.sleep(DELETE_PAUSE_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return deleted;
+                }
+            }
+        }
+    }
+
+    private Instant oldestEventDay(MongoCollection<Document> events) {
+        Document oldest = events.find()
+                .projection(Projections.include("timestamp"))
+                .sort(Sorts.ascending("timestamp"))
+                .first();
+        Date timestamp = oldest != null ? oldest.getDate("timestamp") : null;
+        return timestamp != null ? timestamp.toInstant().truncatedTo(ChronoUnit.DAYS) : null;
+    }
+
+    /**
+     * Accumulates consecutive events of one user on one video into a session
+     */
+    static class SessionBuilder {
+        private final String userId;
+        private final String videoId;
+        private Date start;
+        private Date end;
+        private long watchSeconds;
+        private int eventCount;
+        private int qualitySwitches;
+        private String lastQuality;
+        private final TreeMap<String, Integer> actions = new TreeMap<>();
+        private final TreeMap<String, Integer> devices = new TreeMap<>();
+        private final TreeMap<String, Integer> qualities = new TreeMap<>();
+        private final TreeMap<Long, long[]> hours = new TreeMap<>();
+        private final List<Long> watchDurations = new ArrayList<>();
+
+        SessionBuilder(String userId, String videoId) {
+            this.userId = userId;
+            this.videoId = videoId;
+        }
+
+        /**
+         * Same user and video, and within the session gap of the previous event
+         */
+        boolean accepts(Document event) {
+            Date timestamp = event.getDate("timestamp");
+            return equals(userId, event.getString("userId"))
+                    && equals(videoId, event.getString("videoId"))
+                    && end != null && timestamp != null
+                    && timestamp.getTime() - end.getTime() <= SESSION_GAP.toMillis();
+        }
+
+        void add(Document event) {
+            Date timestamp = event.getDate("timestamp");
+            if (start == null) {
+                start = timestamp;
+            }
+            end = timestamp;
+
+            String action = event.getString("action");
+            Number duration = (Number) event.get("duration");
+            long seconds = duration != null ? duration.longValue() : 0;
+            if ("WATCH".equals(action)) {
+                watchSeconds += seconds;
+                if (duration != null) {
+                    watchDurations.add(seconds);
+                }
+            }
+            eventCount++;
+
+            increment(actions, action);
+            increment(devices, event.getString("deviceType"));
+            String quality = event.getString("quality");
+            increment(qualities, quality);
+            if (quality != null && lastQuality != null && !quality.equals(lastQuality)) {
+                qualitySwitches++;
+            }
+            if (quality != null) {
+                lastQuality = quality;
+            }
+
+            long hour = timestamp.toInstant().truncatedTo(ChronoUnit.HOURS).toEpochMilli();
+            long[] bucket = hours.computeIfAbsent(hour, h -> new long[2]);
+            bucket[0]++;
+            bucket[1] += seconds;
+        }
+
+        Document toDocument() {
+            List<Document> hourly = new ArrayList<>(hours.size());
+            hours.forEach((hour, bucket) -> hourly.add(new Document("h", new Date(hour))
+                    .append("n", bucket[0])
+                    .append("d", bucket[1])));
+
+            return new Document("userId", userId)
+                    .append("videoId", videoId)
+                    .append("start", start)
+                    .append("end", end)
+                    .append("watchSeconds", watchSeconds)
+                    .append("watchDurations", watchDurations)
+                    .append("events", eventCount)
+                    .append("actions", new Document(new TreeMap<String, Object>(actions)))
+                    .append("devices", new Document(new TreeMap<String, Object>(devices)))
+                    .append("qualities", new Document(new TreeMap<String, Object>(qualities)))
+                    .append("qualitySwitches", qualitySwitches)
+                    .append("hours", hourly);
+        }
+
+        private static void increment(TreeMap<String, Integer> counts, String key) {
+            if (key != null) {
+                counts.merge(key, 1, Integer::sum);
+            }
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
@@ -0,0 +1,1005 @@
+package com.streaming.analytics.service;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Field;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.RenameCollectionOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import com.streaming.analytics.model.UserProfile;
+import com.streaming.analytics.repository.EventWatermarks;
+import com.streaming.analytics.repository.IdRangeSplitter;
+import com.streaming.analytics.repository.IndexManager;
+import com.streaming.analytics.sketch.DurationHistogram;
+import com.streaming.analytics.sketch.HyperLogLog;
+import com.streaming.analytics.state.WriteBehind;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+/**
+ * Rebuilds video_stats and user_profiles from the events collection and its compacted sessions
+ *
+ * The events are split into _id ranges (chunks) that are aggregated in parallel.
+ * Each chunk groups by (userId, videoId) with allowDiskUse, so no stage ever holds
+ * a per-video set of userIds; unique viewers are counted with mergeable HyperLogLog
+ * sketches instead. Per-chunk partial results are persisted to 'rebuild_partials'
+ * and the chunk is checkpointed in 'rebuild_jobs', so a crashed run resumes with the
+ * remaining chunks. Partials are then merged into shadow collections that replace
+ * the live ones atomically with renameCollection(dropTarget). Events inserted after the
+ * snapshot are replayed into the shadows first, the last of them with ingest paused, and
+ * the live services that write behind to the targets (see WriteBehind) flush before the
+ * swap and reload after it.
+ *
+ * Days before the compaction watermark are read from 'event_sessions', split into chunks
+ * of their own, and raw events only where they are not compacted (see SessionCompactionJob).
+ * Compaction is held off while chunks are aggregated, and a checkpoint planned against
+ * another watermark is started over rather than resumed. Sessions give exact counts, watch
+ * time and viewers; their WATCH durations feed the duration sketch.
+ */
+public class StatsRebuildJob implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatsRebuildJob.class);
+
+    static final String JOBS_COLLECTION = "rebuild_jobs";
+    static final String PARTIALS_COLLECTION = "rebuild_partials";
+    private static final String SHADOW_SUFFIX = "_rebuild";
+    private static final int WRITE_BATCH_SIZE = 1000;
+    private static final long REPLAY_SETTLE_SECONDS = 5;
+
+    private final MongoDatabase database;
+    private final EventWatermarks watermarks;
+    private final Options options;
+    private final Progress progress;
+
+    private final MongoCollection<Document> events;
+    private final MongoCollection<Document> sessions;
+    private final MongoCollection<Document> jobs;
+    private final MongoCollection<Document> partials;
+
+    // Chunk bounds of both collections and the compaction state they were planned against
+    private List<ObjectId> eventBounds;
+    private List<ObjectId> sessionBounds;
+    private Date watermark;
+    private ObjectId compactedUpTo;
+
+    // Held while the tail of events is replayed and the shadows swapped in
+    private final Lock swapLock;
+    private final List<WriteBehind> writeBehinds;
+
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a job for a database without live ingest (data generator)
+     */
+    public StatsRebuildJob(MongoDatabase database, EventWatermarks watermarks, Options options) {
+        this(database, watermarks, options, new ReentrantLock(), Collections.emptyList());
+    }
+
+    /**
+     * Creates a job that swaps while holding the lock ingest writes are paused by, coordinating
+     * with the enabled live services that write behind to the swapped collections
+     */
+    public StatsRebuildJob(MongoDatabase database, EventWatermarks watermarks, Options options,
+            Lock swapLock, List<WriteBehind> writeBehinds) {
+        this.database = database;
+        this.watermarks = watermarks;
+        this.swapLock = swapLock;
+        this.writeBehinds = writeBehinds;
+        this.options = options;
+        this.progress = new Progress(options.getJobId());
+        this.events = database.getCollection("events");
+        this.sessions = database.getCollection(EventWatermarks.SESSIONS_COLLECTION);
+        this.jobs = database.getCollection(JOBS_COLLECTION);
+        this.partials = database.getCollection(PARTIALS_COLLECTION);
+    }
+
+    public Progress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Requests the job to stop after the chunks currently running
+     * Completed chunks stay checkpointed and are skipped when the job is resumed
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public void run() {
+        progress.startedAt = Instant.now();
+        try {
+            IndexManager.createDeclaredIndexes(partials, PARTIALS_COLLECTION);
+
+            // A compaction pass would move events between the two collections under the chunks,
+            // or delete tail events before they are replayed
+            watermarks.runExclusive(this::rebuild);
+
+        } catch (Exception e) {
+            progress.phase = "FAILED";
+            progress.error = e.getMessage();
+            updateJobState("FAILED");
+            logger.error("Stats rebuild {} failed", options.getJobId(), e);
+        } finally {
+            progress.finishedAt = Instant.now();
+        }
+    }
+
+    private void rebuild() {
+        prepare();
+        progress.chunksTotal = chunkCount();
+        progress.phase = "AGGREGATING";
+        aggregateChunks();
+        if (cancelled) {
+            progress.phase = "CANCELLED";
+            updateJobState("CANCELLED");
+            logger.info("Stats rebuild {} cancelled after {}/{} chunks", options.getJobId(),
+                    progress.getChunksCompleted(), progress.chunksTotal);
+            return;
+        }
+
+        progress.phase = "MERGING";
+        updateJobState("MERGING");
+        Map<String, String> categories = options.isUserProfiles() ? loadCategories() : Collections.emptyMap();
+        if (options.isVideoStats()) {
+            progress.videoStatsWritten = mergeVideoStats();
+        }
+        if (options.isUserProfiles()) {
+            progress.userProfilesWritten = mergeUserProfiles(categories);
+        }
+
+        progress.phase = "SWAPPING";
+        swapShadows(categories);
+
+        partials.deleteMany(Filters.eq("job", options.getJobId()));
+        updateJobState("DONE");
+        progress.phase = "DONE";
+        logger.info("Stats rebuild {} done: {} video stats, {} user profiles",
+                options.getJobId(), progress.videoStatsWritten, progress.userProfilesWritten);
+    }
+
+    /**
+     * Loads the checkpoint of a previous run or plans a new one
+     */
+    private void prepare() {
+        watermark = watermarks.compactionState().getDate("watermark");
+        compactedUpTo = watermarks.getCompactedUpTo();
+
+        Document state = jobs.find(Filters.eq("_id", options.getJobId())).first();
+        if (options.isResume() && state != null && !"DONE".equals(state.getString("status"))) {
+            if (state.containsKey("sessionBounds")
+                    && Objects.equals(watermark, state.getDate("watermark"))
+                    && Objects.equals(compactedUpTo, state.getObjectId("compactedUpTo"))) {
+                eventBounds = state.getList("bounds", ObjectId.class);
+                sessionBounds = state.getList("sessionBounds", ObjectId.class);
+                List<Integer> completed = state.getList("completedChunks", Integer.class, new ArrayList<>());
+                progress.completedChunks.addAll(completed);
+                progress.chunksCompleted.set(completed.size());
+                progress.resumed = true;
+                logger.info("Resuming stats rebuild {}: {}/{} chunks already done",
+                        options.getJobId(), completed.size(), chunkCount());
+                return;
+            }
+            logger.info("Compaction ran since stats rebuild {} was checkpointed; starting it over",
+                    options.getJobId());
+        }
+
+        partials.deleteMany(Filters.eq("job", options.getJobId()));
+        Instant now = Instant.now();
+        eventBounds = IdRangeSplitter.split(events, options.getChunks(), now);
+        sessionBounds = watermark != null
+                ? IdRangeSplitter.split(sessions, options.getChunks(), now)
+                : new ArrayList<>();
+        jobs.replaceOne(Filters.eq("_id", options.getJobId()),
+                new Document("_id", options.getJobId())
+                        .append("status", "RUNNING")
+                        .append("bounds", eventBounds)
+                        .append("sessionBounds", sessionBounds)
+                        .append("watermark", watermark)
+                        .append("compactedUpTo", compactedUpTo)
+                        .append("completedChunks", new ArrayList<Integer>())
+                        .append("startedAt", new Date())
+                        .append("updatedAt", new Date()),
+                new ReplaceOptions().upsert(true));
+        logger.info("Starting stats rebuild {} with {} chunks", options.getJobId(), chunkCount());
+    }
+
+    /**
+     * Chunks of raw events come first, then chunks of sessions
+     */
+    private int chunkCount() {
+        return eventBounds.size() - 1 + Math.max(0, sessionBounds.size() - 1);
+    }
+
+    /**
+     * Aggregates every pending chunk, at most 'parallelism' at a time
+     */
+    private void aggregateChunks() {
+        ExecutorService executor = Executors.newFixedThreadPool(options.getParallelism());
+        int eventChunks = eventBounds.size() - 1;
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int chunk = 0; chunk < chunkCount(); chunk++) {
+                if (progress.completedChunks.contains(chunk)) {
+                    continue;
+                }
+                final int id = chunk;
+                futures.add(executor.submit(() -> {
+                    if (cancelled) {
+                        return null;
+                    }
+                    if (id < eventChunks) {
+                        aggregateChunk(id, events, eventsPipeline(eventBounds.get(id), eventBounds.get(id + 1)));
+                    } else {
+                        int range = id - eventChunks;
+                        aggregateChunk(id, sessions,
+                                sessionsPipeline(sessionBounds.get(range), sessionBounds.get(range + 1)));
+                    }
+                    if (options.getThrottleMillis() > 0) {
+                        Thread.sleep(options.getThrottleMillis());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while aggregating chunks", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Groups one _id range of raw events by (userId, videoId), skipping the compacted ones
+     * A null upper bound reads every event from the lower one
+     */
+    private List<Bson> eventsPipeline(ObjectId from, ObjectId to) {
+        Bson filter = to != null
+                ? Filters.and(Filters.gte("_id", from), Filters.lt("_id", to))
+                : Filters.gte("_id", from);
+        if (watermark != null) {
+            // Events of compacted days are read from the sessions, unless they arrived after compaction
+            filter = Filters.and(filter, Filters.or(
+                    Filters.gte("timestamp", watermark),
+                    Filters.gt("_id", compactedUpTo)));
+        }
+        Document watch = new Document("$eq", Arrays.asList("$action", "WATCH"));
+        return new ArrayList<>(Arrays.asList(
+                Aggregates.match(filter),
+                Aggregates.group(new Document("u", "$userId").append("v", "$videoId"),
+                        Accumulators.sum("events", 1),
+                        Accumulators.sum("duration", "$duration"),
+                        Accumulators.max("last", "$timestamp"),
+                        Accumulators.sum("watches", new Document("$cond", Arrays.asList(watch, 1, 0))),
+                        Accumulators.sum("watchDuration",
+                                new Document("$cond", Arrays.asList(watch, "$duration", 0))),
+                        Accumulators.max("lastWatch",
+                                new Document("$cond", Arrays.asList(watch, "$timestamp", null))),
+                        Accumulators.push("watchDurations",
+                                new Document("$cond", Arrays.asList(watch, "$duration", "$$REMOVE"))))));
+    }
+
+    /**
+     * Groups one _id range of sessions before the watermark into the same rows as eventsPipeline
+     * The last watch of a session is taken as its end
+     */
+    private List<Bson> sessionsPipeline(ObjectId from, ObjectId to) {
+        Document watches = new Document("$ifNull", Arrays.asList("$actions.WATCH", 0));
+        return new ArrayList<>(Arrays.asList(
+                Aggregates.match(Filters.and(
+                        Filters.gte("_id", from),
+                        Filters.lt("_id", to),
+                        Filters.lt("start", watermark),
+                        // Sessions of a compaction run that did not commit
+                        Filters.not(Filters.gt("upTo", compactedUpTo)))),
+                Aggregates.group(new Document("u", "$userId").append("v", "$videoId"),
+                        Accumulators.sum("events", "$events"),
+                        Accumulators.sum("duration", new Document("$sum", "$hours.d")),
+                        Accumulators.max("last", "$end"),
+                        Accumulators.sum("watches", watches),
+                        Accumulators.sum("watchDuration", "$watchSeconds"),
+                        Accumulators.max("lastWatch", new Document("$cond", Arrays.asList(
+                                new Document("$gt", Arrays.asList(watches, 0)), "$end", null))),
+                        Accumulators.push("watchDurations",
+                                new Document("$ifNull", Arrays.asList("$watchDurations", Collections.emptyList())))),
+                Aggregates.set(new Field<>("watchDurations", new Document("$reduce",
+                        new Document("input", "$watchDurations")
+                                .append("initialValue", Collections.emptyList())
+                                .append("in", new Document("$concatArrays", Arrays.asList("$$value", "$$this"))))))));
+    }
+
+    /**
+     * Aggregates one _id range and persists its partial results
+     */
+    private void aggregateChunk(int chunk, MongoCollection<Document> source, List<Bson> pipeline) {
+        long start = System.currentTimeMillis();
+        String job = options.getJobId();
+
+        // Idempotent retry: drop whatever a crashed attempt left behind
+        partials.deleteMany(Filters.and(Filters.eq("job", job), Filters.eq("chunk", chunk)));
+
+        if (options.isUserProfiles()) {
+            // Consecutive rows per user let user partials be flushed as they complete
+            pipeline.add(Aggregates.sort(Sorts.ascending("_id.u")));
+        }
+
+        Map<String, VideoPartial> videos = new HashMap<>();
+        List<Document> buffer = new ArrayList<>();
+        UserPartial user = null;
+
+        try (MongoCursor<Document> cursor = source.aggregate(pipeline).allowDiskUse(true).iterator()) {
+            while (cursor.hasNext()) {
+                Document row = cursor.next();
+                Document key = row.get("_id", Document.class);
+                String userId = key.getString("u");
+                String videoId = key.getString("v");
+                if (userId == null || videoId == null) {
+                    continue;
+                }
+
+                long watches = ((Number) row.get("watches")).longValue();
+                if (options.isVideoStats() && watches > 0) {
+                    VideoPartial video = videos.computeIfAbsent(videoId, VideoPartial::new);
+                    video.add(userId, watches, ((Number) row.get("watchDuration")).longValue(),
+                            row.getDate("lastWatch"));
+                    video.addDurations(row.getList("watchDurations", Number.class));
+                }
+
+                if (options.isUserProfiles()) {
+                    if (user == null || !user.userId.equals(userId)) {
+                        flush(user, chunk, buffer);
+                        user = new UserPartial(userId);
+                    }
+                    user.add(videoId, ((Number) row.get("events")).intValue(),
+                            ((Number) row.get("duration")).longValue(), row.getDate("last"));
+                }
+            }
+        }
+        flush(user, chunk, buffer);
+        for (VideoPartial video : videos.values()) {
+            buffer.add(video.toDocument(job, chunk));
+            if (buffer.size() >= WRITE_BATCH_SIZE) {
+                partials.insertMany(buffer);
+                buffer.clear();
+            }
+        }
+        if (!buffer.isEmpty()) {
+            partials.insertMany(buffer);
+        }
+
+        jobs.updateOne(Filters.eq("_id", job), Updates.combine(
+                Updates.addToSet("completedChunks", chunk),
+                Updates.set("updatedAt", new Date())));
+        progress.completedChunks.add(chunk);
+        int done = progress.chunksCompleted.incrementAndGet();
+        logger.info("Stats rebuild {}: chunk {} done in {}ms ({}/{})",
+                job, chunk, System.currentTimeMillis() - start, done, progress.chunksTotal);
+    }
+
+    private void flush(UserPartial user, int chunk, List<Document> buffer) {
+        if (user == null) {
+            return;
+        }
+        buffer.add(user.toDocument(options.getJobId(), chunk));
+        if (buffer.size() >= WRITE_BATCH_SIZE) {
+            partials.insertMany(buffer);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Merges video partials (sorted by videoId) into the shadow collection
+     */
+    private long mergeVideoStats() {
+        MongoCollection<Document> shadow = prepareShadow("video_stats");
+        List<Document> buffer = new ArrayList<>();
+        long written = 0;
+
+        VideoPartial current = null;
+        for (Document partial : partials.find(Filters.and(
+                Filters.eq("job", options.getJobId()), Filters.eq("type", "video")))
+                .sort(Sorts.ascending("key"))) {
+            VideoPartial next = VideoPartial.fromDocument(partial);
+            if (current != null && current.videoId.equals(next.videoId)) {
+                current.merge(next);
+                continue;
+            }
+            if (current != null) {
+                buffer.add(current.toVideoStats());
+                written += flushShadow(shadow, buffer, false);
+            }
+            current = next;
+        }
+        if (current != null) {
+            buffer.add(current.toVideoStats());
+        }
+        written += flushShadow(shadow, buffer, true);
+        return written;
+    }
+
+    /**
+     * Merges user partials (sorted by userId) into the shadow collection
+     */
+    private long mergeUserProfiles(Map<String, String> categories) {
+        MongoCollection<Document> shadow = prepareShadow("user_profiles");
+        List<Document> buffer = new ArrayList<>();
+        long written = 0;
+
+        UserPartial current = null;
+        for (Document partial : partials.find(Filters.and(
+                Filters.eq("job", options.getJobId()), Filters.eq("type", "user")))
+                .sort(Sorts.ascending("key"))) {
+            UserPartial next = UserPartial.fromDocument(partial);
+            if (current != null && current.userId.equals(next.userId)) {
+                current.merge(next);
+                continue;
+            }
+            if (current != null) {
+                buffer.add(current.toUserProfile(categories));
+                written += flushShadow(shadow, buffer, false);
+            }
+            current = next;
+        }
+        if (current != null) {
+            buffer.add(current.toUserProfile(categories));
+        }
+        written += flushShadow(shadow, buffer, true);
+        return written;
+    }
+
+    private MongoCollection<Document> prepareShadow(String target) {
+        MongoCollection<Document> shadow = database.getCollection(target + SHADOW_SUFFIX);
+        shadow.drop();
+        return shadow;
+    }
+
+    private long flushShadow(MongoCollection<Document> shadow, List<Document> buffer, boolean force) {
+        if (buffer.isEmpty() || (!force && buffer.size() < WRITE_BATCH_SIZE)) {
+            return 0;
+        }
+        int size = buffer.size();
+        shadow.insertMany(buffer);
+        buffer.clear();
+        return size;
+    }
+
+    /**
+     * Builds the declared indexes on the shadow collections, folds in the events inserted since
+     * the snapshot, then atomically replaces the targets
+     *
+     * A first catch-up runs while ingest goes on. Ingest is then paused, the state the live
+     * services buffered is written to the old collections, and the last events are replayed
+     * before the renames; the services then drop what they read from the old collections
+     * before ingest resumes, so no live update is lost, counted twice or written back over
+     * the rebuilt documents.
+     */
+    private void swapShadows(Map<String, String> categories) {
+        List<String> targets = new ArrayList<>();
+        if (options.isVideoStats()) {
+            targets.add("video_stats");
+        }
+        if (options.isUserProfiles()) {
+            targets.add("user_profiles");
+        }
+        for (String target : targets) {
+            IndexManager.createDeclaredIndexes(database.getCollection(target + SHADOW_SUFFIX), target);
+        }
+
+        // Events inserted in the last seconds may still be in flight; the paused replay reads them
+        ObjectId from = eventBounds.get(eventBounds.size() - 1);
+        ObjectId settled = IdRangeSplitter.objectIdAt(Instant.now().getEpochSecond() - REPLAY_SETTLE_SECONDS);
+        if (settled.compareTo(from) > 0) {
+            replay(from, settled, categories);
+            from = settled;
+        }
+
+        List<WriteBehind> live = new ArrayList<>();
+        for (WriteBehind writeBehind : writeBehinds) {
+            if (writeBehind.isEnabled() && targets.contains(writeBehind.getCollection())) {
+                live.add(writeBehind);
+            }
+        }
+
+        swapLock.lock();
+        try {
+            live.forEach(WriteBehind::beforeSwap);
+            replay(from, null, categories);
+            for (String target : targets) {
+                MongoCollection<Document> shadow = database.getCollection(target + SHADOW_SUFFIX);
+                shadow.renameCollection(new MongoNamespace(database.getName(), target),
+                        new RenameCollectionOptions().dropTarget(true));
+                logger.info("Swapped {} into {}", shadow.getNamespace().getCollectionName(), target);
+            }
+            live.forEach(WriteBehind::afterSwap);
+        } finally {
+            swapLock.unlock();
+        }
+    }
+
+    /**
+     * Merges the events of an _id range (unbounded above if 'to' is null) into the shadow collections
+     */
+    private void replay(ObjectId from, ObjectId to, Map<String, String> categories) {
+        long start = System.currentTimeMillis();
+        Map<String, VideoPartial> videos = new HashMap<>();
+        Map<String, UserPartial> users = new HashMap<>();
+        for (Document row : events.aggregate(eventsPipeline(from, to)).allowDiskUse(true)) {
+            Document key = row.get("_id", Document.class);
+            String userId = key.getString("u");
+            String videoId = key.getString("v");
+            if (userId == null || videoId == null) {
+                continue;
+            }
+
+            long watches = ((Number) row.get("watches")).longValue();
+            if (options.isVideoStats() && watches > 0) {
+                VideoPartial video = videos.computeIfAbsent(videoId, VideoPartial::new);
+                video.add(userId, watches, ((Number) row.get("watchDuration")).longValue(),
+                        row.getDate("lastWatch"));
+                video.addDurations(row.getList("watchDurations", Number.class));
+            }
+            if (options.isUserProfiles()) {
+                UserPartial user = users.computeIfAbsent(userId, UserPartial::new);
+                user.add(videoId, ((Number) row.get("events")).intValue(),
+                        ((Number) row.get("duration")).longValue(), row.getDate("last"));
+            }
+        }
+
+        replaceAll(database.getCollection("video_stats" + SHADOW_SUFFIX), "videoId", videos,
+                (video, doc) -> {
+                    if (doc != null) {
+                        video.merge(VideoPartial.fromVideoStats(doc));
+                    }
+                    return video.toVideoStats();
+                });
+        replaceAll(database.getCollection("user_profiles" + SHADOW_SUFFIX), "userId", users,
+                (user, doc) -> doc != null ? user.mergeInto(doc, categories) : user.toUserProfile(categories));
+        logger.info("Stats rebuild {}: replayed events of {} videos and {} users since the snapshot in {}ms",
+                options.getJobId(), videos.size(), users.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Replaces the shadow documents of the partials with the merged ones, in batches
+     */
+    private <P> void replaceAll(MongoCollection<Document> shadow, String keyField, Map<String, P> byKey,
+            BiFunction<P, Document, Document> merge) {
+        List<String> keys = new ArrayList<>(byKey.keySet());
+        for (int i = 0; i < keys.size(); i += WRITE_BATCH_SIZE) {
+            List<String> batch = keys.subList(i, Math.min(keys.size(), i + WRITE_BATCH_SIZE));
+            Map<String, Document> current = new HashMap<>();
+            for (Document doc : shadow.find(Filters.in(keyField, batch))) {
+                current.put(doc.getString(keyField), doc);
+            }
+            List<ReplaceOneModel<Document>> writes = new ArrayList<>(batch.size());
+            for (String key : batch) {
+                Document merged = merge.apply(byKey.get(key), current.get(key));
+                writes.add(new ReplaceOneModel<>(Filters.eq(keyField, key), merged,
+                        new ReplaceOptions().upsert(true)));
+            }
+            shadow.bulkWrite(writes);
+        }
+    }
+
+    private Map<String, String> loadCategories() {
+        Map<String, String> categories = new HashMap<>();
+        for (Document video : database.getCollection("videos").find()
+                .projection(Projections.fields(Projections.include("videoId", "category"),
+                        Projections.excludeId()))) {
+            String videoId = video.getString("videoId");
+            String category = video.getString("category");
+            if (videoId != null && category != null) {
+                categories.put(videoId, category);
+            }
+        }
+        return categories;
+    }
+
+    private void updateJobState(String status) {
+        try {
+            jobs.updateOne(Filters.eq("_id", options.getJobId()), Updates.combine(
+                    Updates.set("status", status),
+                    Updates.set("updatedAt", new Date())));
+        } catch (Exception e) {
+            logger.warn("Could not record status {} for stats rebuild {}", status, options.getJobId(), e);
+        }
+    }
+
+    /**
+     * Per-video partial: WATCH count, duration sum, last watch, a viewers sketch and a
+     * histogram of the WATCH durations
+     */
+    static class VideoPartial {
+        private final String videoId;
+        private long views;
+        private long durationSum;
+        private Date last;
+        private HyperLogLog viewers = new HyperLogLog();
+        private DurationHistogram durations = new DurationHistogram();
+
+        VideoPartial(String videoId) {
+            this.videoId = videoId;
+        }
+
+        void addDurations(List<? extends Number> watchDurations) {
+            for (Number duration : watchDurations) {
+                if (duration != null && duration.longValue() >= 0) {
+                    durations.add(duration.longValue());
+                }
+            }
+        }
+
+        void add(String userId, long watches, long duration, Date lastWatch) {
+            views += watches;
+            durationSum += duration;
+            last = max(last, lastWatch);
+            viewers.add(userId);
+        }
+
+        void merge(VideoPartial other) {
+            views += other.views;
+            durationSum += other.durationSum;
+            last = max(last, other.last);
+            viewers.merge(other.viewers);
+            durations.merge(other.durations);
+        }
+
+        Document toDocument(String job, int chunk) {
+            return new Document("job", job)
+                    .append("chunk", chunk)
+                    .append("type", "video")
+                    .append("key", videoId)
+                    .append("views", views)
+                    .append("durationSum", durationSum)
+                    .append("last", last)
+                    .append("viewers", new Binary(viewers.toBytes()))
+                    .append("durations", new Binary(durations.toBytes()));
+        }
+
+        static VideoPartial fromDocument(Document doc) {
+            VideoPartial partial = new VideoPartial(doc.getString("key"));
+            partial.views = ((Number) doc.get("views")).longValue();
+            partial.durationSum = ((Number) doc.get("durationSum")).longValue();
+            partial.last = doc.getDate("last");
+            partial.viewers = HyperLogLog.fromBytes(doc.get("viewers", Binary.class).getData());
+            Binary durations = doc.get("durations", Binary.class);
+            if (durations != null) {
+                partial.durations = DurationHistogram.fromBytes(durations.getData());
+            }
+            return partial;
+        }
+
+        /**
+         * Reads a rebuilt video_stats document back as a partial, to merge later events into it
+         */
+        static VideoPartial fromVideoStats(Document doc) {
+            VideoPartial partial = new VideoPartial(doc.getString("videoId"));
+            partial.views = ((Number) doc.get("totalViews")).longValue();
+            partial.durationSum = Math.round(((Number) doc.get("avgDuration")).doubleValue() * partial.views);
+            partial.last = doc.getDate("lastUpdated");
+            partial.viewers = HyperLogLog.fromBytes(doc.get("viewerSketch", Binary.class).getData());
+            partial.durations = DurationHistogram.fromBytes(doc.get("durationSketch", Binary.class).getData());
+            return partial;
+        }
+
+        Document toVideoStats() {
+            return new Document("videoId", videoId)
+                    .append("totalViews", views)
+                    .append("avgDuration", views > 0 ? durationSum / (double) views : 0.0)
+                    .append("uniqueViewers", viewers.estimate())
+                    .append("viewerSketch", new Binary(viewers.toBytes()))
+                    .append("durationSketch", new Binary(durations.toBytes()))
+                    .append("lastUpdated", last != null ? last : new Date());
+        }
+    }
+
+    /**
+     * Per-user partial: events per video, total duration, last activity and most recent videos
+     */
+    static class UserPartial {
+        private final String userId;
+        private final Map<String, Integer> eventsByVideo = new HashMap<>();
+        private final Map<String, Date> lastByVideo = new HashMap<>();
+        private long watchTime;
+        private Date last;
+
+        UserPartial(String userId) {
+            this.userId = userId;
+        }
+
+        void add(String videoId, int events, long duration, Date lastEvent) {
+            eventsByVideo.merge(videoId, events, Integer::sum);
+            if (lastEvent != null) {
+                lastByVideo.merge(videoId, lastEvent, StatsRebuildJob::max);
+            }
+            watchTime += duration;
+            last = max(last, lastEvent);
+        }
+
+        void merge(UserPartial other) {
+            other.eventsByVideo.forEach((videoId, events) -> eventsByVideo.merge(videoId, events, Integer::sum));
+            other.lastByVideo.forEach((videoId, date) -> lastByVideo.merge(videoId, date, StatsRebuildJob::max));
+            watchTime += other.watchTime;
+            last = max(last, other.last);
+        }
+
+        Document toDocument(String job, int chunk) {
+            List<Document> videos = new ArrayList<>(eventsByVideo.size());
+            eventsByVideo.forEach((videoId, events) -> videos.add(new Document("v", videoId)
+                    .append("n", events)
+                    .append("t", lastByVideo.get(videoId))));
+            return new Document("job", job)
+                    .append("chunk", chunk)
+                    .append("type", "user")
+                    .append("key", userId)
+                    .append("videos", videos)
+                    .append("watchTime", watchTime)
+                    .append("last", last);
+        }
+
+        static UserPartial fromDocument(Document doc) {
+            UserPartial partial = new UserPartial(doc.getString("key"));
+            for (Document video : doc.getList("videos", Document.class)) {
+                String videoId = video.getString("v");
+                partial.eventsByVideo.put(videoId, video.getInteger("n"));
+                if (video.getDate("t") != null) {
+                    partial.lastByVideo.put(videoId, video.getDate("t"));
+                }
+            }
+            partial.watchTime = ((Number) doc.get("watchTime")).longValue();
+            partial.last = doc.getDate("last");
+            return partial;
+        }
+
+        /**
+         * Same shape as the live profile: preferences count every event, like updateWithWatch
+         */
+        Document toUserProfile(Map<String, String> categories) {
+            Map<String, Integer> preferences = new HashMap<>();
+            eventsByVideo.forEach((videoId, events) ->
+                    preferences.merge(categories.getOrDefault(videoId, "Unknown"), events, Integer::sum));
+            Document preferencesDoc = new Document();
+            preferences.forEach(preferencesDoc::append);
+
+            List<String> recent = new ArrayList<>(eventsByVideo.keySet());
+            recent.sort((a, b) -> compareDates(lastByVideo.get(b), lastByVideo.get(a)));
+            if (recent.size() > UserProfile.RECENT_HISTORY_SIZE) {
+                recent = new ArrayList<>(recent.subList(0, UserProfile.RECENT_HISTORY_SIZE));
+            }
+
+            return new Document("userId", userId)
+                    .append("watchHistory", recent)
+                    .append("preferences", preferencesDoc)
+                    .append("recommendedVideos", new ArrayList<String>())
+                    .append("lastActive", last)
+                    .append("totalWatchTime", watchTime);
+        }
+
+        /**
+         * Adds this partial's later events to a rebuilt profile: its videos go first in the history
+         */
+        Document mergeInto(Document profile, Map<String, String> categories) {
+            Document merged = toUserProfile(categories);
+
+            Document preferences = merged.get("preferences", Document.class);
+            Document previous = profile.get("preferences", Document.class);
+            if (previous != null) {
+                previous.forEach((category, events) -> preferences.merge(category, events,
+                        (a, b) -> ((Number) a).intValue() + ((Number) b).intValue()));
+            }
+
+            List<String> recent = new ArrayList<>(merged.getList("watchHistory", String.class));
+            for (String videoId : profile.getList("watchHistory", String.class, new ArrayList<>())) {
+                if (recent.size() >= UserProfile.RECENT_HISTORY_SIZE) {
+                    break;
+                }
+                if (!recent.contains(videoId)) {
+                    recent.add(videoId);
+                }
+            }
+
+            Number previousWatchTime = (Number) profile.get("totalWatchTime");
+            long totalWatchTime = watchTime + (previousWatchTime != null ? previousWatchTime.longValue() : 0L);
+            return merged.append("watchHistory", recent)
+                    .append("lastActive", max(profile.getDate("lastActive"), last))
+                    .append("totalWatchTime", totalWatchTime);
+        }
+    }
+
+    private static Date max(Date a, Date b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return a.after(b) ? a : b;
+    }
+
+    private static int compareDates(Date a, Date b) {
+        if (a == null) {
+            return b == null ? 0 : -1;
+        }
+        return b == null ? 1 : a.compareTo(b);
+    }
+
+    /**
+     * Rebuild options
+     */
+    public static class Options {
+        private String jobId = "stats-rebuild";
+        private int chunks = 32;
+        private int parallelism = 4;
+        private long throttleMillis = 0;
+        private boolean resume = true;
+        private boolean videoStats = true;
+        private boolean userProfiles = true;
+
+        public String getJobId() {
+            return jobId;
+        }
+
+        public Options jobId(String jobId) {
+            this.jobId = jobId;
+            return this;
+        }
+
+        public int getChunks() {
+            return chunks;
+        }
+
+        public Options chunks(int chunks) {
+            this.chunks = Math.max(1, chunks);
+            return this;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public Options parallelism(int parallelism) {
+            this.parallelism = Math.max(1, parallelism);
+            return this;
+        }
+
+        public long getThrottleMillis() {
+            return throttleMillis;
+        }
+
+        /**
+         * Pause each worker makes after a chunk, to limit load on a live cluster
+         */
+        public Options throttleMillis(long throttleMillis) {
+            this.throttleMillis = Math.max(0, throttleMillis);
+            return this;
+        }
+
+        public boolean isResume() {
+            return resume;
+        }
+
+        public Options resume(boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+
+        public boolean isVideoStats() {
+            return videoStats;
+        }
+
+        public Options videoStats(boolean videoStats) {
+            this.videoStats = videoStats;
+            return this;
+        }
+
+        public boolean isUserProfiles() {
+            return userProfiles;
+        }
+
+        public Options userProfiles(boolean userProfiles) {
+            this.userProfiles = userProfiles;
+            return this;
+        }
+    }
+
+    /**
+     * Live progress of a rebuild
+     */
+    public static class Progress {
+        private final String jobId;
+        private final Set<Integer> completedChunks = Collections.synchronizedSet(new HashSet<>());
+        private final AtomicInteger chunksCompleted = new AtomicInteger();
+        private volatile String phase = "PENDING";
+        private volatile int chunksTotal;
+        private volatile boolean resumed;
+        private volatile long videoStatsWritten;
+        private volatile long userProfilesWritten;
+        private volatile String error;
+        private volatile Instant startedAt;
+        private volatile Instant finishedAt;
+
+        Progress(String jobId) {
+            this.jobId = jobId;
+        }
+
+        public String getJobId() {
+            return jobId;
+        }
+
+        public String getPhase() {
+            return phase;
+        }
+
+        public int getChunksTotal() {
+            return chunksTotal;
+        }
+
+        public int getChunksCompleted() {
+            return chunksCompleted.get();
+        }
+
+        public boolean isResumed() {
+            return resumed;
+        }
+
+        public long getVideoStatsWritten() {
+            return videoStatsWritten;
+        }
+
+        public long getUserProfilesWritten() {
+            return userProfilesWritten;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public Instant getStartedAt() {
+            return startedAt;
+        }
+
+        public Instant getFinishedAt() {
+            return finishedAt;
+        }
+
+        public boolean isRunning() {
+            return startedAt != null && finishedAt == null;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.streaming.analytics.service;
+
+import com.mongodb.client.MongoDatabase;
+import com.streaming.analytics.repository.EventWatermarks;
+import com.streaming.analytics.state.UniqueViewerService;
+import com.streaming.analytics.state.UserStateService;
+import com.streaming.analytics.state.VideoCounterService;
+import com.streaming.analytics.state.WatchTimeService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Runs StatsRebuildJob in the background, one rebuild at a time
+ *
+ * Ingest holds the read side of the ingest lock while it saves events and updates their
+ * stats and profiles; a rebuild takes the write side to replay the last events and swap its
+ * collections in, so no live update lands in a collection being replaced. Every service that
+ * writes behind to video_stats or user_profiles is handed to the job to flush and reload
+ * around the swap.
+ */
+@ApplicationScoped
+public class StatsRebuildService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatsRebuildService.class);
+
+    @Inject
+    private MongoDatabase database;
+
+    @Inject
+    private EventWatermarks watermarks;
+
+    @Inject
+    private UniqueViewerService uniqueViewers;
+
+    @Inject
+    private WatchTimeService watchTime;
+
+    @Inject
+    private VideoCounterService videoCounters;
+
+    @Inject
+    private UserStateService userState;
+
+    private final ReentrantReadWriteLock ingestLock = new ReentrantReadWriteLock();
+
+    private ExecutorService executor;
+
+    private volatile StatsRebuildJob currentJob;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "stats-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (currentJob != null) {
+            currentJob.cancel();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Starts a rebuild; fails if one is already running
+     */
+    public synchronized StatsRebuildJob.Progress start(StatsRebuildJob.Options options) {
+        if (currentJob != null && currentJob.getProgress().getFinishedAt() == null) {
+            throw new IllegalStateException("A stats rebuild is already running: "
+                    + currentJob.getProgress().getJobId());
+        }
+        currentJob = new StatsRebuildJob(database, watermarks, options, ingestLock.writeLock(),
+                Arrays.asList(uniqueViewers, watchTime, videoCounters, userState));
+        executor.submit(currentJob);
+        logger.info("Submitted stats rebuild {}", options.getJobId());
+        return currentJob.getProgress();
+    }
+
+    /**
+     * Gets the lock ingest holds from saving events to updating their stats and profiles
+     */
+    public Lock ingestLock() {
+        return ingestLock.readLock();
+    }
+
+    /**
+     * Requests the running rebuild to stop; it can be resumed later
+     */
+    public synchronized boolean cancel() {
+        if (currentJob == null || currentJob.getProgress().getFinishedAt() != null) {
+            return false;
+        }
+        currentJob.cancel();
+        return true;
+    }
+
+    /**
+     * Gets the progress of the current or last rebuild (null if none was started)
+     */
+    public StatsRebuildJob.Progress getProgress() {
+        return currentJob != null ? currentJob.getProgress() : null;
+    }
+}
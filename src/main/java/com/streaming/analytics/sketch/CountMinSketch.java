@@ -0,0 +1,105 @@
+package com.streaming.analytics.sketch;
+
+/**
+ * Count-Min sketch: approximate counts of items in a fixed amount of memory
+ *
+ * An estimate never undercounts; with probability 1 - e^-depth it overcounts by at most
+ * e / width of the total count. Sketches with the same dimensions are mergeable.
+ */
+public class CountMinSketch {
+
+    private final int width;
+    private final int depth;
+    private final long[] table;
+    private long total;
+
+    public CountMinSketch(int width, int depth) {
+        if (width < 1 || depth < 1 || (long) width * depth > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid Count-Min dimensions: " + width + "x" + depth);
+        }
+        this.width = width;
+        this.depth = depth;
+        this.table = new long[width * depth];
+    }
+
+    /**
+     * Sizes a sketch to overcount by at most epsilon of the total with probability 1 - delta
+     */
+    public static CountMinSketch forError(double epsilon, double delta) {
+        if (epsilon <= 0 || delta <= 0 || delta >= 1) {
+            throw new IllegalArgumentException("Invalid error bounds: epsilon " + epsilon + ", delta " + delta);
+        }
+        return new CountMinSketch((int) Math.ceil(Math.E / epsilon), (int) Math.ceil(Math.log(1 / delta)));
+    }
+
+    /**
+     * Adds occurrences of an item
+     */
+    public void add(String item, long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Cannot add a negative count: " + count);
+        }
+        long hash = HyperLogLog.hash64(item);
+        for (int row = 0; row < depth; row++) {
+            table[row * width + column(hash, row)] += count;
+        }
+        total += count;
+    }
+
+    /**
+     * Estimates the count of an item (never below the true count)
+     */
+    public long estimate(String item) {
+        long hash = HyperLogLog.hash64(item);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, table[row * width + column(hash, row)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Merges another sketch into this one (cell-wise sum)
+     */
+    public CountMinSketch merge(CountMinSketch other) {
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("Cannot merge sketches of " + width + "x" + depth
+                    + " and " + other.width + "x" + other.depth);
+        }
+        for (int i = 0; i < table.length; i++) {
+            table[i] += other.table[i];
+        }
+        total += other.total;
+        return this;
+    }
+
+    /**
+     * Overcount an estimate stays within, with probability getConfidence()
+     */
+    public long errorBound() {
+        return (long) Math.ceil(Math.E / width * total);
+    }
+
+    public double getConfidence() {
+        return 1 - Math.exp(-depth);
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    // Double hashing: row i uses h1 + i * h2
+    private int column(long hash, int row) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        return Math.floorMod(h1 + row * h2, width);
+    }
+}
@@ -0,0 +1,236 @@
+package com.streaming.analytics.sketch;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Log-linear histogram of non-negative values (HDR-style) for quantile estimates
+ *
+ * Values below 64 have a bucket each; above, every power of two is split into 32 buckets,
+ * so a quantile is off by at most 1/64 of its value. There are at most 1,888 buckets whatever
+ * the number of values; histograms are mergeable by adding their bucket counts.
+ */
+public class DurationHistogram {
+
+    private static final byte FORMAT_VERSION = 1;
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Upper bound of the number of buckets
+     */
+    public static final int MAX_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    // Grown up to the highest bucket used
+    private long[] counts;
+    private long count;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public DurationHistogram() {
+        this.counts = new long[0];
+    }
+
+    /**
+     * Adds a value
+     */
+    public void add(long value) {
+        add(value, 1);
+    }
+
+    /**
+     * Adds a value a number of times
+     */
+    public void add(long value, long times) {
+        if (value < 0 || times < 1) {
+            throw new IllegalArgumentException("Cannot add " + value + " " + times + " times");
+        }
+        int index = bucket(value);
+        grow(index + 1);
+        counts[index] += times;
+        count += times;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Merges another histogram into this one (bucket-wise sum)
+     */
+    public DurationHistogram merge(DurationHistogram other) {
+        if (other.count == 0) {
+            return this;
+        }
+        grow(other.counts.length);
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        return this;
+    }
+
+    /**
+     * Estimates the q-quantile (0 to 1) by nearest rank; 0 if the histogram is empty
+     * The estimate is the middle of the value's bucket, within the exact minimum and maximum
+     * (which the first and last ranks return)
+     */
+    public long quantile(double q) {
+        if (q < 0 || q > 1 || Double.isNaN(q)) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1: " + q);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * count));
+        if (rank == 1 || rank == count) {
+            return rank == 1 ? min : max;
+        }
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long middle = lowest(i) + (width(i) - 1) / 2;
+                return Math.max(min, Math.min(max, middle));
+            }
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMin() {
+        return count > 0 ? min : 0;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Number of non-empty buckets
+     */
+    public int getBucketCount() {
+        int used = 0;
+        for (long bucketCount : counts) {
+            if (bucketCount > 0) {
+                used++;
+            }
+        }
+        return used;
+    }
+
+    public DurationHistogram copy() {
+        DurationHistogram copy = new DurationHistogram();
+        copy.counts = counts.clone();
+        copy.count = count;
+        copy.min = min;
+        copy.max = max;
+        return copy;
+    }
+
+    /**
+     * Serializes the histogram: a version byte, then varints of the minimum, maximum, number of
+     * non-empty buckets and, per non-empty bucket, the index delta and count
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(FORMAT_VERSION);
+        writeVarint(out, getMin());
+        writeVarint(out, max);
+        writeVarint(out, getBucketCount());
+        int previous = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                writeVarint(out, i - previous);
+                writeVarint(out, counts[i]);
+                previous = i;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Restores a histogram serialized with toBytes()
+     */
+    public static DurationHistogram fromBytes(byte[] bytes) {
+        if (bytes == null || bytes.length < 1 || bytes[0] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Not a serialized duration histogram");
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(bytes, 1, bytes.length - 1);
+            DurationHistogram histogram = new DurationHistogram();
+            long min = readVarint(in);
+            long max = readVarint(in);
+            long buckets = readVarint(in);
+            int index = 0;
+            for (long i = 0; i < buckets; i++) {
+                index += (int) readVarint(in);
+                long bucketCount = readVarint(in);
+                if (index < 0 || index >= MAX_BUCKETS || bucketCount < 1) {
+                    throw new IllegalArgumentException("Corrupt duration histogram");
+                }
+                histogram.grow(index + 1);
+                histogram.counts[index] = bucketCount;
+                histogram.count += bucketCount;
+            }
+            if (histogram.count > 0) {
+                histogram.min = min;
+                histogram.max = max;
+            }
+            return histogram;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated duration histogram", e);
+        }
+    }
+
+    static int bucket(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    static long lowest(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    }
+
+    private static long width(int bucket) {
+        return bucket < 2 * SUB_BUCKETS ? 1 : 1L << (bucket / SUB_BUCKETS - 1);
+    }
+
+    private void grow(int size) {
+        if (size > counts.length) {
+            counts = Arrays.copyOf(counts, size);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Corrupt duration histogram");
+    }
+}
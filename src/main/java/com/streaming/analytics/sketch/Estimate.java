@@ -0,0 +1,83 @@
+package com.streaming.analytics.sketch;
+
+/**
+ * Estimated count with a confidence interval
+ *
+ * fromSample scales a count from a simple random sample (drawn without replacement) to the
+ * population; the interval is the Wilson score interval of the sampled proportion, narrowed by
+ * the finite population correction, so it stays sensible for rare and absent values.
+ */
+public final class Estimate {
+
+    /**
+     * Normal quantile of a two-sided 95% confidence interval
+     */
+    public static final double Z95 = 1.96;
+
+    private final long value;
+    private final long low;
+    private final long high;
+
+    public Estimate(long value, long low, long high) {
+        this.value = value;
+        this.low = low;
+        this.high = high;
+    }
+
+    /**
+     * Exact count (empty interval)
+     */
+    public static Estimate exact(long value) {
+        return new Estimate(value, value, value);
+    }
+
+    /**
+     * Estimates the population count of a value seen 'hits' times in 'sampled' items out of
+     * 'population', plus 'exact' items known outside the population
+     *
+     * @param z normal quantile of the confidence level (Z95 for 95%)
+     */
+    public static Estimate fromSample(long hits, long sampled, long population, long exact, double z) {
+        if (hits < 0 || hits > sampled) {
+            throw new IllegalArgumentException("Invalid sample: " + hits + " hits in " + sampled);
+        }
+        if (sampled == 0 || sampled >= population) {
+            return exact(hits + exact);
+        }
+        double n = sampled;
+        double p = hits / n;
+        double z2 = z * z;
+        double center = (p + z2 / (2 * n)) / (1 + z2 / n);
+        double halfWidth = z / (1 + z2 / n) * Math.sqrt(p * (1 - p) / n + z2 / (4 * n * n))
+                * Math.sqrt((population - sampled) / (double) (population - 1));
+
+        long lowCount = Math.max(hits, (long) Math.floor(population * (center - halfWidth)));
+        long highCount = Math.min(population - (sampled - hits), (long) Math.ceil(population * (center + halfWidth)));
+        long value = Math.round(population * p);
+        return new Estimate(value + exact, Math.min(lowCount, value) + exact, Math.max(highCount, value) + exact);
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    /**
+     * Whether the interval contains a count
+     */
+    public boolean contains(long count) {
+        return count >= low && count <= high;
+    }
+
+    @Override
+    public String toString() {
+        return value + " [" + low + ", " + high + "]";
+    }
+}
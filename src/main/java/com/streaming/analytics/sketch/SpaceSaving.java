@@ -0,0 +1,115 @@
+package com.streaming.analytics.sketch;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Space-Saving top-k: the most frequent items of a stream with a fixed number of counters
+ *
+ * When all counters are taken, a new item replaces the smallest counter and inherits its count
+ * as the error. A counter overcounts its item by at most its error, and an item without a
+ * counter occurred at most getMinCount() times, so every item counted more often than that
+ * is monitored. Not thread-safe.
+ */
+public class SpaceSaving {
+
+    private static final Comparator<Counter> BY_COUNT = Comparator.comparingLong((Counter counter) -> counter.count)
+            .thenComparing(counter -> counter.item);
+
+    private final int capacity;
+    private final Map<String, Counter> counters = new HashMap<>();
+    private final TreeSet<Counter> ordered = new TreeSet<>(BY_COUNT);
+
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Adds occurrences of an item
+     */
+    public void add(String item, long count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Count must be positive: " + count);
+        }
+        Counter counter = counters.get(item);
+        if (counter != null) {
+            ordered.remove(counter);
+            counter.count += count;
+        } else if (counters.size() < capacity) {
+            counter = new Counter(item, count, 0);
+            counters.put(item, counter);
+        } else {
+            Counter smallest = ordered.pollFirst();
+            counters.remove(smallest.item);
+            counter = new Counter(item, smallest.count + count, smallest.count);
+            counters.put(item, counter);
+        }
+        ordered.add(counter);
+    }
+
+    /**
+     * Gets up to 'limit' counters, highest count first
+     */
+    public List<Counter> top(int limit) {
+        List<Counter> top = new ArrayList<>(Math.min(limit, counters.size()));
+        Iterator<Counter> descending = ordered.descendingIterator();
+        while (descending.hasNext() && top.size() < limit) {
+            Counter counter = descending.next();
+            top.add(new Counter(counter.item, counter.count, counter.error));
+        }
+        return top;
+    }
+
+    /**
+     * Most occurrences an item without a counter can have (0 until all counters are taken)
+     */
+    public long getMinCount() {
+        return counters.size() < capacity ? 0 : ordered.first().count;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Count of an item, overcounted by at most 'error'
+     */
+    public static final class Counter {
+        private final String item;
+        private long count;
+        private final long error;
+
+        Counter(String item, long count, long error) {
+            this.item = item;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getItem() {
+            return item;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+
+        /**
+         * Fewest occurrences the item can have
+         */
+        public long getLowerBound() {
+            return count - error;
+        }
+    }
+}
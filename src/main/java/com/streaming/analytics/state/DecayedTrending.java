@@ -0,0 +1,239 @@
+package com.streaming.analytics.state;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Exponentially decayed view rates per video, with the top trend candidates kept ranked
+ *
+ * Each video has two decayed view sums in primitive arrays, one with a short and one with a
+ * long half-life. A view at time t adds e^(λ(t - origin)) to a sum, so nothing is decayed on
+ * update: reads scale by e^(-λ(now - origin)), and the origin moves forward (rescaling every
+ * slot) before the weights grow too large. The trend ratio is the short rate over the long
+ * rate (λs·S / λl·L): 1 at a steady rate, above 1 when views speed up.
+ *
+ * The ratio order of two videos does not change while neither gets views, and a new view
+ * never lowers the ratio of its video, so the candidates stay exact by re-ranking only the
+ * updated video. A late view (older than the newest of its video) can lower it; a video
+ * outside the candidates that then ranks higher only enters on its next view. Videos enter
+ * the candidates once their short sum reaches minViews.
+ *
+ * Thread-safe: all access is serialized on the instance.
+ */
+public class DecayedTrending {
+
+    // Rescale before weights reach e^REBASE_EXPONENT, far below the double range
+    private static final double REBASE_EXPONENT = 40;
+    private static final int INITIAL_SLOTS = 1024;
+
+    private final double shortRate;
+    private final double longRate;
+    private final double minViews;
+    private final int candidates;
+
+    private final Map<String, Integer> slots = new HashMap<>();
+    private String[] videoIds = new String[INITIAL_SLOTS];
+    private double[] shortSums = new double[INITIAL_SLOTS];
+    private double[] longSums = new double[INITIAL_SLOTS];
+    // Rank of each candidate as inserted in 'top'; only changed while the slot is out of it
+    private double[] ranks = new double[INITIAL_SLOTS];
+    private boolean[] ranked = new boolean[INITIAL_SLOTS];
+    private int size;
+
+    private final TreeSet<Integer> top = new TreeSet<>(this::compareRanks);
+
+    // Epoch seconds at which a view weighs 1; NaN until the first view
+    private double origin = Double.NaN;
+
+    /**
+     * @param shortHalfLife half-life of the recent rate
+     * @param longHalfLife  half-life of the baseline rate, longer than shortHalfLife
+     * @param minViews      decayed short-window views a video needs to trend
+     * @param candidates    number of videos kept ranked by ratio
+     */
+    public DecayedTrending(Duration shortHalfLife, Duration longHalfLife, double minViews, int candidates) {
+        if (shortHalfLife.isNegative() || shortHalfLife.isZero() || longHalfLife.compareTo(shortHalfLife) <= 0) {
+            throw new IllegalArgumentException("Invalid half-lives: " + shortHalfLife + ", " + longHalfLife);
+        }
+        if (candidates < 1) {
+            throw new IllegalArgumentException("Invalid candidate count: " + candidates);
+        }
+        this.shortRate = Math.log(2) / shortHalfLife.getSeconds();
+        this.longRate = Math.log(2) / longHalfLife.getSeconds();
+        this.minViews = minViews;
+        this.candidates = candidates;
+    }
+
+    /**
+     * Adds views of a video at the given time
+     */
+    public synchronized void record(String videoId, Instant at, long views) {
+        if (views <= 0) {
+            return;
+        }
+        double time = seconds(at);
+        if (Double.isNaN(origin)) {
+            origin = time;
+        } else if (shortRate * (time - origin) > REBASE_EXPONENT) {
+            rebase(time);
+        }
+        double age = time - origin;
+        double longWeight = views * Math.exp(longRate * age);
+        if (longWeight == 0) {
+            return; // too old to count
+        }
+
+        int slot = slot(videoId);
+        if (ranked[slot]) {
+            top.remove(slot);
+        }
+        shortSums[slot] += views * Math.exp(shortRate * age);
+        longSums[slot] += longWeight;
+        ranks[slot] = rank(slot);
+        if (ranked[slot] || shortSums[slot] * Math.exp(-shortRate * age) >= minViews) {
+            offer(slot);
+        }
+    }
+
+    /**
+     * Gets the candidates above the ratio threshold at the given time, highest ratio first
+     */
+    public synchronized List<Entry> top(Instant now, double minRatio, int limit) {
+        List<Entry> result = new ArrayList<>();
+        if (Double.isNaN(origin)) {
+            return result;
+        }
+        double age = seconds(now) - origin;
+        double shortScale = Math.exp(-shortRate * age);
+        double longScale = Math.exp(-longRate * age);
+        for (int slot : top) {
+            double shortViews = shortSums[slot] * shortScale;
+            double longViews = longSums[slot] * longScale;
+            double ratio = longViews > 0 ? shortRate * shortViews / (longRate * longViews) : 0;
+            if (ratio <= minRatio) {
+                break;
+            }
+            if (shortViews >= minViews) {
+                result.add(new Entry(videoIds[slot], shortViews, ratio));
+                if (result.size() == limit) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Re-ranks all videos, e.g. after loading views out of time order
+     */
+    public synchronized void rerank(Instant now) {
+        top.clear();
+        Arrays.fill(ranked, false);
+        if (Double.isNaN(origin)) {
+            return;
+        }
+        double shortScale = Math.exp(-shortRate * (seconds(now) - origin));
+        for (int slot = 0; slot < size; slot++) {
+            if (shortSums[slot] * shortScale >= minViews) {
+                offer(slot);
+            }
+        }
+    }
+
+    /**
+     * Number of videos with views
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private void offer(int slot) {
+        top.add(slot);
+        ranked[slot] = true;
+        if (top.size() > candidates) {
+            ranked[top.pollLast()] = false;
+        }
+    }
+
+    /**
+     * Moves the origin to the given time; every rank scales by the same factor, so the
+     * candidates keep their order
+     */
+    private void rebase(double time) {
+        double shortScale = Math.exp(-shortRate * (time - origin));
+        double longScale = Math.exp(-longRate * (time - origin));
+        List<Integer> members = new ArrayList<>(top);
+        top.clear();
+        for (int slot = 0; slot < size; slot++) {
+            shortSums[slot] *= shortScale;
+            longSums[slot] *= longScale;
+            ranks[slot] = rank(slot);
+        }
+        top.addAll(members);
+        origin = time;
+    }
+
+    private double rank(int slot) {
+        return longSums[slot] > 0 ? shortSums[slot] / longSums[slot] : 0;
+    }
+
+    private int compareRanks(int a, int b) {
+        int byRank = Double.compare(ranks[b], ranks[a]);
+        return byRank != 0 ? byRank : videoIds[a].compareTo(videoIds[b]);
+    }
+
+    private int slot(String videoId) {
+        Integer slot = slots.get(videoId);
+        if (slot != null) {
+            return slot;
+        }
+        if (size == videoIds.length) {
+            int capacity = size * 2;
+            videoIds = Arrays.copyOf(videoIds, capacity);
+            shortSums = Arrays.copyOf(shortSums, capacity);
+            longSums = Arrays.copyOf(longSums, capacity);
+            ranks = Arrays.copyOf(ranks, capacity);
+            ranked = Arrays.copyOf(ranked, capacity);
+        }
+        videoIds[size] = videoId;
+        slots.put(videoId, size);
+        return size++;
+    }
+
+    private static double seconds(Instant instant) {
+        return instant.getEpochSecond() + instant.getNano() / 1e9;
+    }
+
+    /**
+     * A trending video: decayed short-window views and trend ratio
+     */
+    public static class Entry {
+        private final String videoId;
+        private final double views;
+        private final double ratio;
+
+        Entry(String videoId, double views, double ratio) {
+            this.videoId = videoId;
+            this.views = views;
+            this.ratio = ratio;
+        }
+
+        public String getVideoId() {
+            return videoId;
+        }
+
+        public double getViews() {
+            return views;
+        }
+
+        public double getRatio() {
+            return ratio;
+        }
+    }
+}
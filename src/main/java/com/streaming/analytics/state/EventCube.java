@@ -0,0 +1,347 @@
+package com.streaming.analytics.state;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Event counts and duration sums per (hour, action, deviceType, quality, category) in dense
+ * long arrays
+ *
+ * Hours are a ring of the most recent 'hours' UTC hours; when the newest hour moves on, the
+ * hours falling out of the ring are folded into one "earlier" bucket, so totals cover all
+ * events. Actions, devices and qualities use the fixed values of VideoCounterTable, categories
+ * are assigned on first sight up to 'categories' - 1; other values share an "other" slot.
+ *
+ * Updates add atomically under a shared lock; moving the ring takes the lock exclusively.
+ */
+public class EventCube {
+
+    public static final String HOUR = "hour";
+    public static final String ACTION = "action";
+    public static final String DEVICE = "deviceType";
+    public static final String QUALITY = "quality";
+    public static final String CATEGORY = "category";
+
+    /**
+     * Dimensions in cell order
+     */
+    public static final List<String> DIMENSIONS = List.of(HOUR, ACTION, DEVICE, QUALITY, CATEGORY);
+
+    static final String EARLIER = "earlier";
+    private static final String OTHER = "other";
+    private static final long NO_HOUR = Long.MIN_VALUE;
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final int hours;
+    private final int categoryCapacity;
+    private final int[] sizes;
+    private final long[] counts;
+    private final long[] durations;
+
+    private final String[] categories;
+    private final Map<String, Integer> categoryIndex = new ConcurrentHashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Newest hour (epoch hours) in the ring
+    private long head = NO_HOUR;
+
+    public EventCube(int hours, int categories) {
+        if (hours < 1 || categories < 2) {
+            throw new IllegalArgumentException("Invalid cube size: " + hours + " hours, " + categories + " categories");
+        }
+        this.hours = hours;
+        this.categoryCapacity = categories;
+        this.sizes = new int[] { hours + 1, VideoCounterTable.ACTIONS.length + 1,
+                VideoCounterTable.DEVICES.length + 1, VideoCounterTable.QUALITIES.length + 1, categories };
+        long cells = 1;
+        for (int size : sizes) {
+            cells *= size;
+        }
+        if (cells > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Cube too large: " + cells + " cells");
+        }
+        this.counts = new long[(int) cells];
+        this.durations = new long[(int) cells];
+        this.categories = new String[categories];
+        this.categories[categories - 1] = OTHER;
+    }
+
+    /**
+     * Adds events with the given dimension values; a null category counts as "other"
+     */
+    public void record(Instant timestamp, String action, String deviceType, String quality, String category,
+            long count, long duration) {
+        long hour = Math.floorDiv(timestamp.getEpochSecond(), 3600);
+        int cell = (((index(VideoCounterTable.ACTIONS, action) * sizes[2]
+                + index(VideoCounterTable.DEVICES, deviceType)) * sizes[3]
+                + index(VideoCounterTable.QUALITIES, quality)) * sizes[4]
+                + categoryIndex(category));
+        int cellsPerHour = counts.length / sizes[0];
+
+        lock.readLock().lock();
+        try {
+            while (hour > head) {
+                lock.readLock().unlock();
+                advance(hour);
+                lock.readLock().lock();
+            }
+            int index = hourSlot(hour) * cellsPerHour + cell;
+            LONGS.getAndAdd(counts, index, count);
+            LONGS.getAndAdd(durations, index, duration);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sums the cells matching the filters, grouped by the given dimensions, highest count first
+     *
+     * @param groupBy dimensions to group by, in output order (none: a single total row)
+     * @param filters allowed values per dimension (hour excluded, see since)
+     * @param since   if not null, only the whole hours in the ring starting at or after it
+     */
+    public List<Row> query(List<String> groupBy, Map<String, ? extends Collection<String>> filters, Instant since) {
+        int[] grouped = new int[groupBy.size()];
+        for (int i = 0; i < grouped.length; i++) {
+            grouped[i] = dimension(groupBy.get(i));
+        }
+        boolean[][] masks = new boolean[DIMENSIONS.size()][];
+        for (int d = 1; d < masks.length; d++) {
+            masks[d] = new boolean[sizes[d]];
+            Collection<String> allowed = filters.get(DIMENSIONS.get(d));
+            for (int v = 0; v < sizes[d]; v++) {
+                String value = label(d, v, 0);
+                masks[d][v] = allowed == null || (value != null && allowed.contains(value));
+            }
+        }
+        for (String filtered : filters.keySet()) {
+            if (dimension(filtered) == 0) {
+                throw new IllegalArgumentException("Filter hours with 'since', not by value");
+            }
+        }
+
+        int groups = 1;
+        for (int d : grouped) {
+            groups *= sizes[d];
+        }
+        long[] groupCounts = new long[groups];
+        long[] groupDurations = new long[groups];
+        int[] position = new int[DIMENSIONS.size()];
+        long newest;
+
+        lock.readLock().lock();
+        try {
+            newest = head;
+            masks[0] = hourMask(since);
+            int cell = 0;
+            for (int h = 0; h < sizes[0]; h++) {
+                if (!masks[0][h]) {
+                    cell += counts.length / sizes[0];
+                    continue;
+                }
+                position[0] = h;
+                for (int a = 0; a < sizes[1]; a++) {
+                    position[1] = a;
+                    for (int dv = 0; dv < sizes[2]; dv++) {
+                        position[2] = dv;
+                        for (int q = 0; q < sizes[3]; q++) {
+                            position[3] = q;
+                            boolean selected = masks[1][a] && masks[2][dv] && masks[3][q];
+                            for (int c = 0; c < sizes[4]; c++, cell++) {
+                                if (!selected || !masks[4][c]) {
+                                    continue;
+                                }
+                                long count = (long) LONGS.getOpaque(counts, cell);
+                                if (count == 0) {
+                                    continue;
+                                }
+                                position[4] = c;
+                                int group = 0;
+                                for (int d : grouped) {
+                                    group = group * sizes[d] + position[d];
+                                }
+                                groupCounts[group] += count;
+                                groupDurations[group] += (long) LONGS.getOpaque(durations, cell);
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Row> rows = new ArrayList<>();
+        for (int group = 0; group < groups; group++) {
+            if (groupCounts[group] == 0) {
+                continue;
+            }
+            Map<String, String> values = new LinkedHashMap<>();
+            int rest = group;
+            String[] labels = new String[grouped.length];
+            for (int i = grouped.length - 1; i >= 0; i--) {
+                labels[i] = label(grouped[i], rest % sizes[grouped[i]], newest);
+                rest /= sizes[grouped[i]];
+            }
+            for (int i = 0; i < grouped.length; i++) {
+                values.put(groupBy.get(i), labels[i]);
+            }
+            rows.add(new Row(values, groupCounts[group], groupDurations[group]));
+        }
+        rows.sort((a, b) -> Long.compare(b.count, a.count));
+        return rows;
+    }
+
+    /**
+     * Counts events per value of one dimension, highest count first
+     */
+    public Map<String, Long> countByValue(String dimension) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Row row : query(List.of(dimension), Collections.emptyMap(), null)) {
+            result.put(row.values.get(dimension), row.count);
+        }
+        return result;
+    }
+
+    private void advance(long hour) {
+        lock.writeLock().lock();
+        try {
+            if (hour <= head) {
+                return;
+            }
+            if (head != NO_HOUR) {
+                int cellsPerHour = counts.length / sizes[0];
+                int earlier = hours * cellsPerHour;
+                for (long h = head + 1; h <= hour && h <= head + hours; h++) {
+                    int from = hourSlot(h) * cellsPerHour;
+                    for (int i = 0; i < cellsPerHour; i++) {
+                        counts[earlier + i] += counts[from + i];
+                        durations[earlier + i] += durations[from + i];
+                    }
+                    Arrays.fill(counts, from, from + cellsPerHour, 0);
+                    Arrays.fill(durations, from, from + cellsPerHour, 0);
+                }
+            }
+            head = hour;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int hourSlot(long hour) {
+        return hour > head - hours ? (int) Math.floorMod(hour, (long) hours) : hours;
+    }
+
+    private boolean[] hourMask(Instant since) {
+        boolean[] mask = new boolean[sizes[0]];
+        if (since == null) {
+            Arrays.fill(mask, true);
+        } else if (head != NO_HOUR) {
+            long first = Math.max(Math.floorDiv(since.getEpochSecond() + 3599, 3600), head - hours + 1);
+            for (long h = first; h <= head; h++) {
+                mask[hourSlot(h)] = true;
+            }
+        }
+        return mask;
+    }
+
+    private String label(int dimension, int value, long newest) {
+        switch (dimension) {
+            case 0:
+                return value == hours ? EARLIER
+                        : Instant.ofEpochSecond((newest - Math.floorMod(newest - value, (long) hours)) * 3600).toString();
+            case 1:
+                return label(VideoCounterTable.ACTIONS, value);
+            case 2:
+                return label(VideoCounterTable.DEVICES, value);
+            case 3:
+                return label(VideoCounterTable.QUALITIES, value);
+            default:
+                return categories[value];
+        }
+    }
+
+    private static String label(String[] names, int value) {
+        return value < names.length ? names[value] : OTHER;
+    }
+
+    private static int dimension(String name) {
+        int dimension = DIMENSIONS.indexOf(name);
+        if (dimension < 0) {
+            throw new IllegalArgumentException("Unknown dimension: " + name + " (one of " + DIMENSIONS + ")");
+        }
+        return dimension;
+    }
+
+    private static int index(String[] names, String value) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(value)) {
+                return i;
+            }
+        }
+        return names.length;
+    }
+
+    private int categoryIndex(String category) {
+        if (category == null) {
+            return categoryCapacity - 1;
+        }
+        Integer index = categoryIndex.get(category);
+        if (index != null) {
+            return index;
+        }
+        synchronized (categoryIndex) {
+            index = categoryIndex.get(category);
+            if (index == null) {
+                int assigned = categoryIndex.size();
+                if (assigned >= categoryCapacity - 1) {
+                    return categoryCapacity - 1;
+                }
+                categories[assigned] = category;
+                categoryIndex.put(category, assigned);
+                index = assigned;
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Total of one group: its dimension values, event count and duration sum
+     */
+    public static class Row {
+        private final Map<String, String> values;
+        private final long count;
+        private final long duration;
+
+        Row(Map<String, String> values, long count, long duration) {
+            this.values = values;
+            this.count = count;
+            this.duration = duration;
+        }
+
+        public Map<String, String> getValues() {
+            return values;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.streaming.analytics.state;
+
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.streaming.analytics.model.ViewEvent;
+import com.streaming.analytics.repository.EventWatermarks;
+import com.streaming.analytics.repository.VideoRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory event cube for the dashboard breakdowns, backed by EventCube
+ *
+ * Ingest adds every saved event, with the category of its video (cached from the catalog
+ * until a catalog sync writes the video; "Unknown", uncached, when not in it yet). At startup the events stored before are aggregated into the cube
+ * in the background. Events already compacted into sessions have no per-event dimensions, so
+ * after a compaction the cube only covers the raw events and the breakdowns keep using the
+ * rollups (see isComplete). EVENT_CUBE_HOURS (at least 24) hours are kept per hour.
+ * Set EVENT_CUBE=false to disable.
+ */
+@ApplicationScoped
+public class EventCubeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventCubeService.class);
+
+    private static final boolean ENABLED = Boolean.parseBoolean(env("EVENT_CUBE", "true"));
+    private static final int HOURS = Math.max(24, Integer.parseInt(env("EVENT_CUBE_HOURS", "48")));
+    private static final int CATEGORIES = Integer.parseInt(env("EVENT_CUBE_CATEGORIES", "32"));
+    private static final String UNKNOWN_CATEGORY = "Unknown";
+    private static final DateTimeFormatter HOUR_LABEL = DateTimeFormatter.ofPattern("HH:00").withZone(ZoneOffset.UTC);
+
+    @Inject
+    private MongoDatabase database;
+
+    @Inject
+    private VideoRepository videoRepository;
+
+    @Inject
+    private EventWatermarks watermarks;
+
+    private EventCube cube;
+
+    // Events up to this id are loaded by the rehydration, later ones by record()
+    private ObjectId loadedUpTo;
+
+    private final Map<String, String> categories = new ConcurrentHashMap<>();
+
+    private volatile boolean ready;
+    private volatile boolean complete;
+
+    private static String env(String name, String defaultValue) {
+        return System.getenv(name) != null ? System.getenv(name) : defaultValue;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!ENABLED) {
+            logger.info("Event cube disabled (EVENT_CUBE=false)");
+            return;
+        }
+        cube = new EventCube(HOURS, CATEGORIES);
+        loadedUpTo = EventWatermarks.upperBound(Instant.now().minusSeconds(1));
+    }
+
+    /**
+     * Starts loading the stored events into the cube
+     */
+    public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        if (cube == null) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                rehydrate();
+            } catch (Exception e) {
+                logger.error("Event cube rehydration failed; the breakdowns keep using the rollups", e);
+            }
+        }, "event-cube-rehydrate");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void rehydrate() {
+        long start = System.currentTimeMillis();
+        for (Document video : database.getCollection("videos").find()
+                .projection(Projections.include("videoId", "category"))) {
+            if (video.getString("videoId") != null && video.getString("category") != null) {
+                categories.put(video.getString("videoId"), video.getString("category"));
+            }
+        }
+
+        Instant watermark = watermarks.getCompactionWatermark();
+        List<Bson> filters = new ArrayList<>(Arrays.asList(
+                Filters.lte("_id", loadedUpTo),
+                Filters.type("timestamp", BsonType.DATE_TIME)));
+        if (watermark != null) {
+            filters.add(Filters.gte("timestamp", Date.from(watermark)));
+        }
+        long events = 0;
+        // Group per video first, so the category lookup runs once per video and cell
+        for (Document cell : database.getCollection("events").aggregate(Arrays.asList(
+                Aggregates.match(Filters.and(filters)),
+                Aggregates.group(new Document("h", new Document("$dateTrunc",
+                                new Document("date", "$timestamp").append("unit", "hour")))
+                                .append("a", "$action")
+                                .append("d", "$deviceType")
+                                .append("q", "$quality")
+                                .append("v", "$videoId"),
+                        Accumulators.sum("n", 1),
+                        Accumulators.sum("s", "$duration")),
+                Aggregates.lookup("videos", "_id.v", "videoId", "video"),
+                Aggregates.group(new Document("h", "$_id.h")
+                                .append("a", "$_id.a")
+                                .append("d", "$_id.d")
+                                .append("q", "$_id.q")
+                                .append("c", new Document("$first", "$video.category")),
+                        Accumulators.sum("n", "$n"),
+                        Accumulators.sum("s", "$s"))))
+                .allowDiskUse(true)) {
+            Document key = cell.get("_id", Document.class);
+            String category = key.getString("c");
+            long count = ((Number) cell.get("n")).longValue();
+            cube.record(key.getDate("h").toInstant(), key.getString("a"), key.getString("d"), key.getString("q"),
+                    category != null ? category : UNKNOWN_CATEGORY, count, ((Number) cell.get("s")).longValue());
+            events += count;
+        }
+        complete = watermark == null;
+        ready = true;
+        logger.info("Loaded {} events into the event cube in {}ms{}", events, System.currentTimeMillis() - start,
+                complete ? "" : " (raw events since the compaction watermark only)");
+    }
+
+    public boolean isEnabled() {
+        return cube != null;
+    }
+
+    /**
+     * Whether the stored events are loaded; until then the cube only holds new events
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Whether the cube covers every stored event (false when compacted events could not be loaded)
+     */
+    public boolean isComplete() {
+        return ready && complete;
+    }
+
+    /**
+     * Adds a batch of saved events
+     */
+    public void record(List<ViewEvent> saved) {
+        for (ViewEvent event : saved) {
+            if (event.getTimestamp() != null) {
+                cube.record(event.getTimestamp(), event.getAction(), event.getDeviceType(), event.getQuality(),
+                        category(event.getVideoId()), 1, event.getDuration());
+            }
+        }
+    }
+
+    /**
+     * Sums events grouped by the given dimensions; see EventCube.query
+     */
+    public List<EventCube.Row> query(List<String> groupBy, Map<String, ? extends Collection<String>> filters,
+            Instant since) {
+        return cube.query(groupBy, filters, since);
+    }
+
+    /**
+     * Counts events per value of a dimension, highest count first
+     */
+    public Map<String, Long> countByValue(String dimension) {
+        return cube.countByValue(dimension);
+    }
+
+    /**
+     * Counts events per UTC hour of day ("HH:00") in the whole hours starting at or after since,
+     * in label order
+     */
+    public Map<String, Long> countByHourOfDay(Instant since) {
+        Map<String, Long> result = new TreeMap<>();
+        for (EventCube.Row row : cube.query(List.of(EventCube.HOUR), Map.of(), since)) {
+            String label = HOUR_LABEL.format(Instant.parse(row.getValues().get(EventCube.HOUR)));
+            result.merge(label, row.getCount(), Long::sum);
+        }
+        return result;
+    }
+
+    /**
+     * Drops the cached categories of videos a catalog sync inserted, replaced or deleted
+     */
+    public void forgetCategories(Collection<String> videoIds) {
+        categories.keySet().removeAll(videoIds);
+    }
+
+    private String category(String videoId) {
+        if (videoId == null) {
+            return UNKNOWN_CATEGORY;
+        }
+        String category = categories.get(videoId);
+        if (category == null) {
+            // A video not in the catalog yet is looked up again on its next event
+            category = videoRepository.findCategoryByVideoId(videoId);
+            if (category == null) {
+                return UNKNOWN_CATEGORY;
+            }
+            categories.put(videoId, category);
+        }
+        return category;
+    }
+}
@@ -0,0 +1,165 @@
+package com.streaming.analytics.state;
+
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.streaming.analytics.model.ViewEvent;
+import com.streaming.analytics.repository.EventRollupRepository;
+import com.streaming.analytics.repository.EventWatermarks;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide totals read by the health check and the dashboard in O(1)
+ *
+ * Event totals (all and per action) are striped counters seeded at startup from the rollups,
+ * or from collection metadata while the rollups are backfilled, then incremented by the
+ * ingest path. Video and user totals come from collection metadata, refreshed with every
+ * snapshot written to 'global_counters' (each GLOBAL_COUNTERS_PERSIST_SECONDS).
+ * Events loaded around the ingest path (e.g. by the data generator) show after a restart.
+ */
+@ApplicationScoped
+public class GlobalCounters {
+
+    private static final Logger logger = LoggerFactory.getLogger(GlobalCounters.class);
+
+    static final String COLLECTION_NAME = "global_counters";
+    private static final String SNAPSHOT_ID = "global";
+    private static final long PERSIST_SECONDS = Long.parseLong(env("GLOBAL_COUNTERS_PERSIST_SECONDS", "10"));
+
+    @Inject
+    private MongoDatabase database;
+
+    @Inject
+    private EventRollupRepository rollupRepository;
+
+    @Inject
+    private EventWatermarks watermarks;
+
+    private final LongAdder events = new LongAdder();
+    private final Map<String, LongAdder> actions = new ConcurrentHashMap<>();
+    private volatile long videos;
+    private volatile long users;
+    private volatile boolean ready;
+
+    private ScheduledExecutorService scheduler;
+
+    private static String env(String name, String defaultValue) {
+        return System.getenv(name) != null ? System.getenv(name) : defaultValue;
+    }
+
+    @PostConstruct
+    public void init() {
+        Document snapshot = database.getCollection(COLLECTION_NAME).find(Filters.eq("_id", SNAPSHOT_ID)).first();
+        if (rollupRepository.isReady()) {
+            rollupRepository.countByValue(EventRollupRepository.ALL).values().forEach(events::add);
+            rollupRepository.countByValue("action").forEach((action, count) -> action(action).add(count));
+        } else {
+            // Per-action counts have no metadata; the last snapshot is the best estimate
+            events.add(watermarks.estimateAllEvents());
+            Document saved = snapshot != null ? snapshot.get("actions", Document.class) : null;
+            if (saved != null) {
+                saved.forEach((action, count) -> action(action).add(((Number) count).longValue()));
+            }
+        }
+        refreshCatalogTotals();
+        ready = true;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "global-counters");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::persistSafely, PERSIST_SECONDS, PERSIST_SECONDS, TimeUnit.SECONDS);
+        logger.info("Global counters seeded from {}: {} events, {} videos, {} users",
+                rollupRepository.isReady() ? "rollups" : "metadata", events.sum(), videos, users);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            persistSafely();
+        }
+    }
+
+    /**
+     * Whether the counters are seeded; until then callers count from the repositories
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Counts a batch of saved events
+     */
+    public void record(List<ViewEvent> saved) {
+        events.add(saved.size());
+        for (ViewEvent event : saved) {
+            if (event.getAction() != null) {
+                action(event.getAction()).increment();
+            }
+        }
+    }
+
+    private LongAdder action(String action) {
+        return actions.computeIfAbsent(action, k -> new LongAdder());
+    }
+
+    public long getTotalEvents() {
+        return events.sum();
+    }
+
+    public long getTotalVideos() {
+        return videos;
+    }
+
+    public long getTotalUsers() {
+        return users;
+    }
+
+    /**
+     * Gets the event count per action
+     */
+    public Map<String, Long> getActionCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        actions.forEach((action, count) -> counts.put(action, count.sum()));
+        return counts;
+    }
+
+    private void refreshCatalogTotals() {
+        videos = database.getCollection("videos").estimatedDocumentCount();
+        users = database.getCollection("user_profiles").estimatedDocumentCount();
+    }
+
+    private void persistSafely() {
+        try {
+            refreshCatalogTotals();
+            database.getCollection(COLLECTION_NAME).replaceOne(Filters.eq("_id", SNAPSHOT_ID),
+                    new Document("_id", SNAPSHOT_ID)
+                            .append("events", getTotalEvents())
+                            .append("actions", new Document(getActionCounts()))
+                            .append("videos", videos)
+                            .append("users", users)
+                            .append("updatedAt", new Date()),
+                    new ReplaceOptions().upsert(true));
+        } catch (Exception e) {
+            logger.error("Global counters snapshot failed", e);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.streaming.analytics.state;
+
+import com.streaming.analytics.model.ViewEvent;
+import com.streaming.analytics.sketch.CountMinSketch;
+import com.streaming.analytics.sketch.SpaceSaving;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming heavy hitters: most viewed videos and most active users since startup
+ *
+ * Each stream has a Space-Saving top-k (HEAVY_HITTERS_CAPACITY counters) for the candidates
+ * and a Count-Min sketch (HEAVY_HITTERS_CMS_WIDTH x HEAVY_HITTERS_CMS_DEPTH) that caps their
+ * counts, so memory is fixed whatever the number of videos or users. Videos count WATCH
+ * events; users count events of any action (HEAVY_HITTERS_USERS=false to skip them). Set
+ * HEAVY_HITTERS=false to disable.
+ */
+@ApplicationScoped
+public class HeavyHitterService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeavyHitterService.class);
+
+    private static final boolean ENABLED = Boolean.parseBoolean(env("HEAVY_HITTERS", "true"));
+    private static final boolean TRACK_USERS = Boolean.parseBoolean(env("HEAVY_HITTERS_USERS", "true"));
+    private static final int CAPACITY = Integer.parseInt(env("HEAVY_HITTERS_CAPACITY", "1000"));
+    private static final int CMS_WIDTH = Integer.parseInt(env("HEAVY_HITTERS_CMS_WIDTH", "8192"));
+    private static final int CMS_DEPTH = Integer.parseInt(env("HEAVY_HITTERS_CMS_DEPTH", "5"));
+
+    private Tracker videos;
+    private Tracker users;
+    private Instant since;
+
+    private static String env(String name, String defaultValue) {
+        return System.getenv(name) != null ? System.getenv(name) : defaultValue;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!ENABLED) {
+            logger.info("Heavy hitters disabled (HEAVY_HITTERS=false)");
+            return;
+        }
+        videos = new Tracker(CAPACITY, CMS_WIDTH, CMS_DEPTH);
+        users = TRACK_USERS ? new Tracker(CAPACITY, CMS_WIDTH, CMS_DEPTH) : null;
+        since = Instant.now();
+        logger.info("Heavy hitters enabled ({} counters, {}x{} Count-Min, users: {})",
+                CAPACITY, CMS_WIDTH, CMS_DEPTH, TRACK_USERS);
+    }
+
+    public boolean isEnabled() {
+        return videos != null;
+    }
+
+    public boolean isTrackingUsers() {
+        return users != null;
+    }
+
+    /**
+     * Gets the instant counting started
+     */
+    public Instant getSince() {
+        return since;
+    }
+
+    /**
+     * Counts the WATCH events per video and the events per user
+     */
+    public void record(List<ViewEvent> events) {
+        for (ViewEvent event : events) {
+            if ("WATCH".equals(event.getAction()) && event.getVideoId() != null) {
+                videos.add(event.getVideoId());
+            }
+            if (users != null && event.getUserId() != null) {
+                users.add(event.getUserId());
+            }
+        }
+    }
+
+    /**
+     * Gets the most viewed videos
+     */
+    public Ranking topVideos(int limit) {
+        return videos.top(limit);
+    }
+
+    /**
+     * Gets the users with the most events
+     */
+    public Ranking topUsers(int limit) {
+        return users.top(limit);
+    }
+
+    /**
+     * Top-k and Count-Min sketch of one stream of items
+     */
+    static class Tracker {
+        private final SpaceSaving topK;
+        private final CountMinSketch counts;
+
+        Tracker(int capacity, int width, int depth) {
+            this.topK = new SpaceSaving(capacity);
+            this.counts = new CountMinSketch(width, depth);
+        }
+
+        synchronized void add(String item) {
+            topK.add(item, 1);
+            counts.add(item, 1);
+        }
+
+        synchronized Ranking top(int limit) {
+            List<SpaceSaving.Counter> candidates = topK.top(limit + 1);
+            // An item outside the list occurred at most as often as the next counter (or an evicted one)
+            long threshold = Math.max(topK.getMinCount(),
+                    candidates.size() > limit ? candidates.get(limit).getCount() : 0);
+
+            List<HeavyHitter> hitters = new ArrayList<>(Math.min(limit, candidates.size()));
+            for (SpaceSaving.Counter counter : candidates.subList(0, Math.min(limit, candidates.size()))) {
+                long high = Math.min(counter.getCount(), counts.estimate(counter.getItem()));
+                long low = counter.getLowerBound();
+                hitters.add(new HeavyHitter(counter.getItem(), high, low, high, low >= threshold));
+            }
+            return new Ranking(counts.getTotal(), counts.errorBound(), counts.getConfidence(), hitters);
+        }
+    }
+
+    /**
+     * Heavy hitters of a stream with the bounds of the estimates
+     */
+    public static class Ranking {
+        private final long total;
+        private final long errorBound;
+        private final double confidence;
+        private final List<HeavyHitter> items;
+
+        Ranking(long total, long errorBound, double confidence, List<HeavyHitter> items) {
+            this.total = total;
+            this.errorBound = errorBound;
+            this.confidence = confidence;
+            this.items = items;
+        }
+
+        /**
+         * Number of items counted
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * Count-Min overcount bound of any item's count, holding with probability 'confidence'
+         */
+        public long getErrorBound() {
+            return errorBound;
+        }
+
+        public double getConfidence() {
+            return confidence;
+        }
+
+        public List<HeavyHitter> getItems() {
+            return items;
+        }
+    }
+
+    /**
+     * Estimated count of a heavy hitter (the tighter of both overcounts): the true count is
+     * between low and high
+     */
+    public static class HeavyHitter {
+        private final String id;
+        private final long count;
+        private final long low;
+        private final long high;
+        private final boolean guaranteed;
+
+        HeavyHitter(String id, long count, long low, long high, boolean guaranteed) {
+            this.id = id;
+            this.count = count;
+            this.low = low;
+            this.high = high;
+            this.guaranteed = guaranteed;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getLow() {
+            return low;
+        }
+
+        public long getHigh() {
+            return high;
+        }
+
+        /**
+         * Whether the item is certainly in the top list (its lower bound beats every other item)
+         */
+        public boolean isGuaranteed() {
+            return guaranteed;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.streaming.analytics.state;
+
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.streaming.analytics.model.Video;
+import com.streaming.analytics.model.VideoStats;
+import com.streaming.analytics.model.ViewEvent;
+import com.streaming.analytics.repository.EventWatermarks;
+import com.streaming.analytics.repository.VideoRepository;
+import com.streaming.analytics.repository.VideoStatsRepository;
+import com.streaming.analytics.service.AnalyticsService;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory trending detection, backed by DecayedTrending
+ *
+ * WATCH events update decayed short (TRENDING_SHORT_HALF_LIFE_HOURS) and long
+ * (TRENDING_LONG_HALF_LIFE_HOURS) view rates; a video trends when the ratio of the two is
+ * above TRENDING_RATIO with at least TRENDING_MIN_VIEWS decayed recent views. At startup the
+ * rates are seeded in the background from the hourly WATCH counts of the events stored before
+ * the service started, within four long half-lives (compacted sessions count at their start
+ * hour); until then trending is computed from the events.
+ * Catalog entries and total views of the trending videos are cached, so answers need no
+ * query once warm. Set TRENDING_ENGINE=false to always compute from the events.
+ */
+@ApplicationScoped
+public class TrendingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrendingService.class);
+
+    public static final double MIN_RATIO = Double.parseDouble(env("TRENDING_RATIO", "1.5"));
+
+    private static final boolean ENABLED = Boolean.parseBoolean(env("TRENDING_ENGINE", "true"));
+    private static final double SHORT_HALF_LIFE_HOURS = Double.parseDouble(env("TRENDING_SHORT_HALF_LIFE_HOURS", "12"));
+    private static final double LONG_HALF_LIFE_HOURS = Double.parseDouble(env("TRENDING_LONG_HALF_LIFE_HOURS", "84"));
+    private static final double MIN_VIEWS = Double.parseDouble(env("TRENDING_MIN_VIEWS", "2"));
+    private static final int CANDIDATES = Integer.parseInt(env("TRENDING_CANDIDATES", "1000"));
+
+    @Inject
+    private MongoDatabase database;
+
+    @Inject
+    private VideoRepository videoRepository;
+
+    @Inject
+    private VideoStatsRepository statsRepository;
+
+    @Inject
+    private VideoCounterService videoCounters;
+
+    @Inject
+    private EventWatermarks watermarks;
+
+    private DecayedTrending trending;
+
+    // Events up to this id are counted by the seed, later ones by record()
+    private ObjectId seededUpTo;
+
+    // Catalog entry and total views of recent candidates; videoIds missing from the catalog
+    private final Map<String, Listing> listings = new ConcurrentHashMap<>();
+    private final Set<String> unlisted = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean ready;
+
+    private static String env(String name, String defaultValue) {
+        return System.getenv(name) != null ? System.getenv(name) : defaultValue;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!ENABLED) {
+            logger.info("Trending engine disabled (TRENDING_ENGINE=false)");
+            return;
+        }
+        trending = new DecayedTrending(hours(SHORT_HALF_LIFE_HOURS), hours(LONG_HALF_LIFE_HOURS),
+                MIN_VIEWS, CANDIDATES);
+        seededUpTo = EventWatermarks.upperBound(Instant.now().minusSeconds(1));
+    }
+
+    /**
+     * Starts seeding the rates from the stored events
+     */
+    public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        if (trending == null) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                seed();
+            } catch (Exception e) {
+                logger.error("Trending seed failed; trending keeps scanning events", e);
+            }
+        }, "trending-seed");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void seed() {
+        long start = System.currentTimeMillis();
+        Instant since = Instant.now().minus(hours(LONG_HALF_LIFE_HOURS * 4));
+        Instant watermark = watermarks.getCompactionWatermark();
+        boolean compacted = watermark != null && watermark.isAfter(since);
+
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(Filters.and(
+                Filters.eq("action", "WATCH"),
+                Filters.gte("timestamp", Date.from(compacted ? watermark : since)),
+                Filters.lte("_id", seededUpTo))));
+        pipeline.add(Aggregates.group(new Document("v", "$videoId")
+                        .append("h", new Document("$dateTrunc",
+                                new Document("date", "$timestamp").append("unit", "hour"))),
+                Accumulators.sum("n", 1)));
+        if (compacted) {
+            pipeline.add(Aggregates.unionWith(EventWatermarks.SESSIONS_COLLECTION, Arrays.asList(
+                    Aggregates.match(Filters.and(
+                            Filters.gte("start", Date.from(since)),
+                            Filters.lt("start", Date.from(watermark)),
+                            Filters.gt("actions.WATCH", 0))),
+                    Aggregates.group(new Document("v", "$videoId")
+                                    .append("h", new Document("$dateTrunc",
+                                            new Document("date", "$start").append("unit", "hour"))),
+                            Accumulators.sum("n", "$actions.WATCH")))));
+            pipeline.add(Aggregates.group("$_id", Accumulators.sum("n", "$n")));
+        }
+
+        long views = 0;
+        for (Document hour : database.getCollection("events").aggregate(pipeline).allowDiskUse(true)) {
+            Document key = hour.get("_id", Document.class);
+            if (key.getString("v") == null) {
+                continue;
+            }
+            long n = ((Number) hour.get("n")).longValue();
+            // Mid-hour: the seeded rates are accurate to the hour
+            trending.record(key.getString("v"), key.getDate("h").toInstant().plusSeconds(1800), n);
+            views += n;
+        }
+        // Views recorded by ingest meanwhile arrived out of time order
+        trending.rerank(Instant.now());
+        ready = true;
+        logger.info("Seeded trending rates of {} videos from {} views in {}ms",
+                trending.size(), views, System.currentTimeMillis() - start);
+    }
+
+    public boolean isEnabled() {
+        return trending != null;
+    }
+
+    /**
+     * Whether the rates are seeded; until then callers compute trending from the events
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Adds the WATCH events of a saved batch to the rates
+     */
+    public void record(List<ViewEvent> saved) {
+        for (ViewEvent event : saved) {
+            if (!"WATCH".equals(event.getAction()) || event.getVideoId() == null) {
+                continue;
+            }
+            trending.record(event.getVideoId(), event.getTimestamp(), 1);
+            Listing listing = listings.get(event.getVideoId());
+            if (listing != null) {
+                listing.views.increment();
+            }
+        }
+    }
+
+    /**
+     * Gets the trending catalog videos, highest ratio first
+     */
+    public List<AnalyticsService.TrendingVideo> getTrending(int limit) {
+        List<DecayedTrending.Entry> entries = trending.top(Instant.now(), MIN_RATIO, CANDIDATES);
+        loadListings(entries);
+
+        List<AnalyticsService.TrendingVideo> result = new ArrayList<>();
+        for (DecayedTrending.Entry entry : entries) {
+            Listing listing = listings.get(entry.getVideoId());
+            if (listing == null) {
+                continue;
+            }
+            result.add(new AnalyticsService.TrendingVideo(listing.video, Math.round(entry.getViews()),
+                    entry.getRatio(), totalViews(listing)));
+            if (result.size() == limit) {
+                break;
+            }
+        }
+
+        if (listings.size() + unlisted.size() > 2 * CANDIDATES) {
+            Set<String> current = new HashSet<>();
+            entries.forEach(entry -> current.add(entry.getVideoId()));
+            listings.keySet().retainAll(current);
+            unlisted.retainAll(current);
+        }
+        return result;
+    }
+
+    /**
+     * Caches the catalog entries of new candidates with one multi-get
+     */
+    private void loadListings(List<DecayedTrending.Entry> entries) {
+        List<String> missing = new ArrayList<>();
+        for (DecayedTrending.Entry entry : entries) {
+            if (!listings.containsKey(entry.getVideoId()) && !unlisted.contains(entry.getVideoId())) {
+                missing.add(entry.getVideoId());
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        for (Video video : videoRepository.findByVideoIds(missing)) {
+            long views = 0;
+            if (!videoCounters.isEnabled()) {
+                VideoStats stats = statsRepository.getStats(video.getVideoId());
+                views = stats != null ? stats.getTotalViews() : 0;
+            }
+            Listing listing = new Listing(video);
+            listing.views.add(views);
+            listings.putIfAbsent(video.getVideoId(), listing);
+            missing.remove(video.getVideoId());
+        }
+        unlisted.addAll(missing);
+    }
+
+    private long totalViews(Listing listing) {
+        if (videoCounters.isEnabled()) {
+            VideoStats stats = videoCounters.getStats(listing.video.getVideoId());
+            return stats != null ? stats.getTotalViews() : 0;
+        }
+        return listing.views.sum();
+    }
+
+    private static Duration hours(double hours) {
+        return Duration.ofSeconds(Math.round(hours * 3600));
+    }
+
+    /**
+     * Cached catalog entry and total views (WATCH events, as in 'video_stats') of a video
+     */
+    private static class Listing {
+        private final Video video;
+        private final LongAdder views = new LongAdder();
+
+        Listing(Video video) {
+            this.video = video;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.streaming.analytics.state;
+
+import com.streaming.analytics.model.Video;
+import com.streaming.analytics.model.ViewEvent;
+import com.streaming.analytics.repository.VideoRepository;
+import com.streaming.analytics.repository.VideoStatsRepository;
+import com.streaming.analytics.sketch.HyperLogLog;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Unique viewers per video, counted with HyperLogLog sketches
+ *
+ * The users of WATCH events are added to a pending sketch per video, which is merged every
+ * UNIQUE_VIEWERS_FLUSH_SECONDS into the 'viewerSketch' binary of 'video_stats' (4 KB per
+ * video, the precision of the StatsRebuildJob sketches, so a rebuild restores them).
+ * Category and global counts merge the sketches of their videos. Set UNIQUE_VIEWERS=false
+ * to disable.
+ */
+@ApplicationScoped
+public class UniqueViewerService implements WriteBehind {
+
+    private static final Logger logger = LoggerFactory.getLogger(UniqueViewerService.class);
+
+    private static final boolean ENABLED = Boolean.parseBoolean(env("UNIQUE_VIEWERS", "true"));
+    private static final long FLUSH_SECONDS = Long.parseLong(env("UNIQUE_VIEWERS_FLUSH_SECONDS", "5"));
+
+    @Inject
+    private VideoStatsRepository statsRepository;
+
+    @Inject
+    private VideoRepository videoRepository;
+
+    // Viewers recorded since the last flush, per video
+    private Map<String, HyperLogLog> pending;
+
+    private ScheduledExecutorService scheduler;
+
+    private static String env(String name, String defaultValue) {
+        return System.getenv(name) != null ? System.getenv(name) : defaultValue;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!ENABLED) {
+            logger.info("Unique viewer sketches disabled (UNIQUE_VIEWERS=false)");
+            return;
+        }
+        pending = new ConcurrentHashMap<>();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "unique-viewers-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (Exception e) {
+                logger.error("Unique viewers flush failed", e);
+            }
+        }, FLUSH_SECONDS, FLUSH_SECONDS, TimeUnit.SECONDS);
+        logger.info("Unique viewer sketches enabled (flush every {}s)", FLUSH_SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (pending == null) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+            flush();
+        } catch (Exception e) {
+            logger.error("Final unique viewers flush failed", e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return pending != null;
+    }
+
+    /**
+     * Adds the users of WATCH events to the pending sketches of their videos
+     */
+    public void record(List<ViewEvent> events) {
+        for (ViewEvent event : events) {
+            if (!"WATCH".equals(event.getAction()) || event.getUserId() == null) {
+                continue;
+            }
+            // compute() holds the entry against a concurrent flush; readers lock the sketch itself
+            pending.compute(event.getVideoId(), (videoId, sketch) -> {
+                HyperLogLog viewers = sketch != null ? sketch : new HyperLogLog();
+                synchronized (viewers) {
+                    viewers.add(event.getUserId());
+                }
+                return viewers;
+            });
+        }
+    }
+
+    /**
+     * Merges the pending sketches into 'video_stats'
+     * Returns the number of videos written; a sketch that fails to merge is kept for the next flush
+     */
+    public synchronized int flush() {
+        int written = 0;
+        for (String videoId : new ArrayList<>(pending.keySet())) {
+            HyperLogLog viewers = pending.remove(videoId);
+            if (viewers == null) {
+                continue;
+            }
+            try {
+                statsRepository.mergeViewerSketch(videoId, viewers);
+                written++;
+            } catch (RuntimeException e) {
+                pending.merge(videoId, viewers, (newer, failed) -> {
+                    synchronized (newer) {
+                        return newer.merge(failed);
+                    }
+                });
+                throw e;
+            }
+        }
+        if (written > 0) {
+            logger.debug("Flushed unique viewer sketches of {} videos", written);
+        }
+        return written;
+    }
+
+    @Override
+    public String getCollection() {
+        return "video_stats";
+    }
+
+    /**
+     * Flushes the pending sketches into the collection about to be replaced
+     */
+    @Override
+    public void beforeSwap() {
+        flush();
+    }
+
+    @Override
+    public void afterSwap() {
+        // Nothing is kept from the old collection
+    }
+
+    /**
+     * Gets the viewers sketch of a video, including unflushed viewers (null if it has none)
+     */
+    public HyperLogLog getSketch(String videoId) {
+        HyperLogLog sketch = statsRepository.getViewerSketch(videoId);
+        HyperLogLog unflushed = pending.get(videoId);
+        if (unflushed == null) {
+            return sketch;
+        }
+        synchronized (unflushed) {
+            unflushed = unflushed.copy();
+        }
+        return sketch != null ? sketch.merge(unflushed) : unflushed;
+    }
+
+    /**
+     * Estimates the unique viewers of all videos of a category
+     */
+    public ViewerCount countCategory(String category) {
+        List<String> videoIds = videoRepository.findByCategory(category).stream()
+                .map(Video::getVideoId)
+                .collect(Collectors.toList());
+        if (videoIds.isEmpty()) {
+            return new ViewerCount(new HyperLogLog());
+        }
+        HyperLogLog merged = statsRepository.mergeViewerSketches(videoIds);
+        for (String videoId : videoIds) {
+            mergePending(merged, videoId);
+        }
+        return new ViewerCount(merged);
+    }
+
+    /**
+     * Estimates the unique viewers of all videos
+     */
+    public ViewerCount countAll() {
+        HyperLogLog merged = statsRepository.mergeViewerSketches(null);
+        for (String videoId : pending.keySet()) {
+            mergePending(merged, videoId);
+        }
+        return new ViewerCount(merged);
+    }
+
+    private void mergePending(HyperLogLog target, String videoId) {
+        HyperLogLog unflushed = pending.get(videoId);
+        if (unflushed != null) {
+            synchronized (unflushed) {
+                target.merge(unflushed);
+            }
+        }
+    }
+
+    /**
+     * Unique viewers estimate and its standard error
+     */
+    public static class ViewerCount {
+        private final long estimate;
+        private final double standardError;
+
+        ViewerCount(HyperLogLog sketch) {
+            this.estimate = sketch.estimate();
+            this.standardError = estimate * sketch.standardError();
+        }
+
+        public long getEstimate() {
+            return estimate;
+        }
+
+        public double getStandardError() {
+            return standardError;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.streaming.analytics.state;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.streaming.analytics.model.UserProfile;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.bson.Document;
+import org.rocksdb.RocksDBException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Optional local state for user profiles, backed by UserStateStore
+ *
+ * Enabled by setting USER_STATE_DIR. Watches are then applied to the local store only,
+ * and changed profiles are checkpointed to 'user_profiles' every
+ * USER_STATE_CHECKPOINT_SECONDS with one unordered bulk write. Reads of a profile go to
+ * the local store first; queries across users (e.g. most active) see Mongo, which lags
+ * by at most one checkpoint interval. A stats rebuild that replaces 'user_profiles' drops
+ * the local state, so the rebuilt profiles are read and loaded instead.
+ */
+@ApplicationScoped
+public class UserStateService implements WriteBehind {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserStateService.class);
+
+    private static final String STATE_DIR = System.getenv("USER_STATE_DIR");
+    private static final long CHECKPOINT_SECONDS = Long.parseLong(env("USER_STATE_CHECKPOINT_SECONDS", "5"));
+    private static final boolean SYNC_WAL = Boolean.parseBoolean(env("USER_STATE_SYNC_WAL", "false"));
+    private static final int CHECKPOINT_BATCH_SIZE = 1000;
+
+    @Inject
+    private MongoDatabase database;
+
+    private UserStateStore store;
+
+    private ScheduledExecutorService scheduler;
+
+    private static String env(String name, String defaultValue) {
+        return System.getenv(name) != null ? System.getenv(name) : defaultValue;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (STATE_DIR == null || STATE_DIR.isEmpty()) {
+            logger.info("Local user state disabled (set USER_STATE_DIR to enable)");
+            return;
+        }
+        try {
+            store = new UserStateStore(Paths.get(STATE_DIR), SYNC_WAL);
+        } catch (RocksDBException e) {
+            throw new IllegalStateException("Cannot open local user state in " + STATE_DIR, e);
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "user-state-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Profiles left dirty by a crash are checkpointed on the first run
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            } catch (Exception e) {
+                logger.error("User state checkpoint failed", e);
+            }
+        }, CHECKPOINT_SECONDS, CHECKPOINT_SECONDS, TimeUnit.SECONDS);
+        logger.info("Local user state opened in {} (checkpoint every {}s)", STATE_DIR, CHECKPOINT_SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (store == null) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+            checkpoint();
+        } catch (Exception e) {
+            logger.error("Final user state checkpoint failed; the WAL keeps the changes", e);
+        } finally {
+            store.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return store != null;
+    }
+
+    /**
+     * Gets the local profile of a user (null if the user has no local state)
+     */
+    public UserProfile find(String userId) {
+        try {
+            return store.get(userId);
+        } catch (RocksDBException e) {
+            throw new IllegalStateException("Local user state read failed for " + userId, e);
+        }
+    }
+
+    /**
+     * Applies a watch to the local profile
+     *
+     * @param loader loads the checkpointed profile for users without local state yet
+     */
+    public void applyWatch(String userId, String videoId, String category, int watchDuration,
+            Function<String, UserProfile> loader) {
+        try {
+            store.applyWatch(userId, videoId, category, watchDuration, loader);
+        } catch (RocksDBException e) {
+            throw new IllegalStateException("Local user state write failed for " + userId, e);
+        }
+    }
+
+    /**
+     * Writes every dirty profile to Mongo
+     * Returns the number of profiles written
+     */
+    public synchronized int checkpoint() throws RocksDBException {
+        MongoCollection<Document> collection = database.getCollection("user_profiles");
+        int written = 0;
+        while (true) {
+            List<UserStateStore.DirtyProfile> dirty = store.dirty(CHECKPOINT_BATCH_SIZE);
+            if (dirty.isEmpty()) {
+                break;
+            }
+
+            List<WriteModel<Document>> writes = new ArrayList<>(dirty.size());
+            for (UserStateStore.DirtyProfile entry : dirty) {
+                writes.add(toUpdate(entry.getProfile()));
+            }
+            collection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+            store.markClean(dirty);
+            written += dirty.size();
+
+            if (dirty.size() < CHECKPOINT_BATCH_SIZE) {
+                break;
+            }
+        }
+        if (written > 0) {
+            logger.debug("Checkpointed {} user profiles", written);
+        }
+        return written;
+    }
+
+    @Override
+    public String getCollection() {
+        return "user_profiles";
+    }
+
+    /**
+     * Checkpoints the dirty profiles into the collection about to be replaced
+     */
+    @Override
+    public void beforeSwap() {
+        try {
+            checkpoint();
+        } catch (RocksDBException e) {
+            throw new IllegalStateException("Cannot checkpoint user state before the swap", e);
+        }
+    }
+
+    /**
+     * Drops the local profiles, so reads fall back to the rebuilt documents and the next
+     * checkpoint cannot write the replaced ones back over them
+     */
+    @Override
+    public synchronized void afterSwap() {
+        try {
+            store.clear();
+            logger.info("Dropped local user state after user_profiles was rebuilt");
+        } catch (RocksDBException e) {
+            throw new IllegalStateException("Cannot drop local user state after the swap", e);
+        }
+    }
+
+    /**
+     * Only the fields maintained by watches are written; recommendedVideos stays owned by Mongo
+     */
+    private static WriteModel<Document> toUpdate(UserProfile profile) {
+        Document preferences = new Document();
+        for (Map.Entry<String, Integer> entry : profile.getPreferences().entrySet()) {
+            preferences.append(entry.getKey(), entry.getValue());
+        }
+        return new UpdateOneModel<>(
+                Filters.eq("userId", profile.getUserId()),
+                Updates.combine(
+                        Updates.set("watchHistory", profile.getWatchHistory()),
+                        Updates.set("preferences", preferences),
+                        Updates.set("totalWatchTime", profile.getTotalWatchTime()),
+                        Updates.set("lastActive", profile.getLastActive() != null
+                                ? Date.from(profile.getLastActive())
+                                : new Date())),
+                new UpdateOptions().upsert(true));
+    }
+}
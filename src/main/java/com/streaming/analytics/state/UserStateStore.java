@@ -0,0 +1,272 @@
+package com.streaming.analytics.state;
+
+import com.streaming.analytics.model.UserProfile;
+import org.bson.ByteBuf;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Embedded RocksDB store for per-user profile state
+ *
+ * Each watch is a read-modify-write of the local profile plus a dirty marker, written
+ * in one WriteBatch so both survive a crash through the RocksDB WAL. Dirty markers carry
+ * a version so a profile changed while it was being checkpointed stays dirty.
+ *
+ * Keys: "p:" + userId -> profile (BSON), "d:" + userId -> version (8 bytes)
+ */
+public class UserStateStore implements AutoCloseable {
+
+    private static final byte[] PROFILE_PREFIX = "p:".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DIRTY_PREFIX = "d:".getBytes(StandardCharsets.UTF_8);
+    private static final int LOCK_STRIPES = 256;
+    private static final DocumentCodec CODEC = new DocumentCodec();
+
+    static {
+        RocksDB.loadLibrary();
+    }
+
+    private final Options options;
+    private final WriteOptions writeOptions;
+    private final RocksDB db;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    // Seeded from the clock so versions keep increasing across restarts
+    private final AtomicLong versions = new AtomicLong(System.currentTimeMillis() << 20);
+
+    /**
+     * Opens (or creates) the store; replays the WAL of an unclean shutdown
+     *
+     * @param syncWal fsync the WAL on every write (survives an OS crash, not only a process crash)
+     */
+    public UserStateStore(Path directory, boolean syncWal) throws RocksDBException {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RocksDBException("Cannot create " + directory + ": " + e.getMessage());
+        }
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        this.options = new Options().setCreateIfMissing(true);
+        this.writeOptions = new WriteOptions().setSync(syncWal);
+        this.db = RocksDB.open(options, directory.toString());
+    }
+
+    /**
+     * Gets the local profile of a user (null if the user has no local state)
+     */
+    public UserProfile get(String userId) throws RocksDBException {
+        byte[] value = db.get(key(PROFILE_PREFIX, userId));
+        return value != null ? decode(value) : null;
+    }
+
+    /**
+     * Applies a watch to the local profile and marks it dirty
+     *
+     * @param loader loads the checkpointed profile for users without local state yet
+     */
+    public UserProfile applyWatch(String userId, String videoId, String category, int watchDuration,
+            Function<String, UserProfile> loader) throws RocksDBException {
+        synchronized (lockFor(userId)) {
+            UserProfile profile = get(userId);
+            if (profile == null) {
+                profile = loader.apply(userId);
+                if (profile == null) {
+                    profile = new UserProfile(userId);
+                }
+            }
+            profile.addToHistory(videoId, category, watchDuration);
+
+            try (WriteBatch batch = new WriteBatch()) {
+                batch.put(key(PROFILE_PREFIX, userId), encode(profile));
+                batch.put(key(DIRTY_PREFIX, userId), toBytes(versions.incrementAndGet()));
+                db.write(writeOptions, batch);
+            }
+            return profile;
+        }
+    }
+
+    /**
+     * Gets up to limit profiles changed since their last checkpoint
+     */
+    public List<DirtyProfile> dirty(int limit) throws RocksDBException {
+        List<String> userIds = new ArrayList<>();
+        try (RocksIterator iterator = db.newIterator()) {
+            for (iterator.seek(DIRTY_PREFIX); iterator.isValid() && userIds.size() < limit; iterator.next()) {
+                byte[] key = iterator.key();
+                if (!startsWith(key, DIRTY_PREFIX)) {
+                    break;
+                }
+                userIds.add(new String(key, DIRTY_PREFIX.length, key.length - DIRTY_PREFIX.length,
+                        StandardCharsets.UTF_8));
+            }
+        }
+
+        List<DirtyProfile> dirty = new ArrayList<>(userIds.size());
+        for (String userId : userIds) {
+            synchronized (lockFor(userId)) {
+                byte[] version = db.get(key(DIRTY_PREFIX, userId));
+                UserProfile profile = get(userId);
+                if (version != null && profile != null) {
+                    dirty.add(new DirtyProfile(profile, fromBytes(version)));
+                }
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Clears the dirty markers of checkpointed profiles not changed since they were read
+     */
+    public void markClean(List<DirtyProfile> checkpointed) throws RocksDBException {
+        for (DirtyProfile entry : checkpointed) {
+            String userId = entry.getProfile().getUserId();
+            synchronized (lockFor(userId)) {
+                byte[] key = key(DIRTY_PREFIX, userId);
+                byte[] version = db.get(key);
+                if (version != null && fromBytes(version) == entry.getVersion()) {
+                    db.delete(writeOptions, key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every local profile and dirty marker, e.g. once 'user_profiles' was rebuilt
+     * Users are then loaded again on their next watch
+     */
+    public void clear() throws RocksDBException {
+        try (WriteBatch batch = new WriteBatch()) {
+            batch.deleteRange(PROFILE_PREFIX, prefixEnd(PROFILE_PREFIX));
+            batch.deleteRange(DIRTY_PREFIX, prefixEnd(DIRTY_PREFIX));
+            db.write(writeOptions, batch);
+        }
+    }
+
+    @Override
+    public void close() {
+        db.close();
+        writeOptions.close();
+        options.close();
+    }
+
+    private Object lockFor(String userId) {
+        return locks[(userId.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+
+    private static byte[] key(byte[] prefix, String userId) {
+        byte[] id = userId.getBytes(StandardCharsets.UTF_8);
+        byte[] key = Arrays.copyOf(prefix, prefix.length + id.length);
+        System.arraycopy(id, 0, key, prefix.length, id.length);
+        return key;
+    }
+
+    /**
+     * The first key after every key with the prefix
+     */
+    private static byte[] prefixEnd(byte[] prefix) {
+        byte[] end = prefix.clone();
+        end[end.length - 1]++;
+        return end;
+    }
+
+    private static boolean startsWith(byte[] key, byte[] prefix) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] toBytes(long value) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+    }
+
+    private static long fromBytes(byte[] value) {
+        return ByteBuffer.wrap(value).getLong();
+    }
+
+    static byte[] encode(UserProfile profile) {
+        Document preferences = new Document();
+        for (Map.Entry<String, Integer> entry : profile.getPreferences().entrySet()) {
+            preferences.append(entry.getKey(), entry.getValue());
+        }
+        Document doc = new Document("userId", profile.getUserId())
+                .append("watchHistory", profile.getWatchHistory())
+                .append("preferences", preferences)
+                .append("recommendedVideos", profile.getRecommendedVideos())
+                .append("totalWatchTime", profile.getTotalWatchTime())
+                .append("lastActive", profile.getLastActive() != null ? Date.from(profile.getLastActive()) : null);
+
+        ByteBuf buffer = new RawBsonDocument(doc, CODEC).getByteBuffer();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    static UserProfile decode(byte[] bytes) {
+        Document doc = new RawBsonDocument(bytes).decode(CODEC);
+        UserProfile profile = new UserProfile();
+        profile.setUserId(doc.getString("userId"));
+        profile.setWatchHistory(stringList(doc, "watchHistory"));
+        Document preferences = doc.get("preferences", new Document());
+        for (Map.Entry<String, Object> entry : preferences.entrySet()) {
+            profile.getPreferences().put(entry.getKey(), ((Number) entry.getValue()).intValue());
+        }
+        profile.setRecommendedVideos(stringList(doc, "recommendedVideos"));
+        profile.setTotalWatchTime(doc.getLong("totalWatchTime"));
+        Date lastActive = doc.getDate("lastActive");
+        profile.setLastActive(lastActive != null ? lastActive.toInstant() : null);
+        return profile;
+    }
+
+    private static List<String> stringList(Document doc, String key) {
+        List<String> values = doc.getList(key, String.class);
+        return values != null ? new ArrayList<>(values) : new ArrayList<>();
+    }
+
+    /**
+     * A profile waiting to be checkpointed, with the dirty version it was read at
+     */
+    public static class DirtyProfile {
+        private final UserProfile profile;
+        private final long version;
+
+        DirtyProfile(UserProfile profile, long version) {
+            this.profile = profile;
+            this.version = version;
+        }
+
+        public UserProfile getProfile() {
+            return profile;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.streaming.analytics.state;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.streaming.analytics.model.VideoStats;
+import com.streaming.analytics.model.ViewEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional realtime per-video counters, backed by VideoCounterTable
+ *
+ * Enabled by setting VIDEO_COUNTERS_DIR. Events then update the memory-mapped counters
+ * instead of 'video_stats', which becomes a checkpoint written every
+ * VIDEO_COUNTERS_CHECKPOINT_SECONDS. A new counter file is seeded from 'video_stats', and
+ * every counter is reseeded when a stats rebuild replaces it.
+ */
+@ApplicationScoped
+public class VideoCounterService implements WriteBehind {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoCounterService.class);
+
+    private static final String COUNTERS_DIR = System.getenv("VIDEO_COUNTERS_DIR");
+    private static final int CAPACITY = Integer.parseInt(env("VIDEO_COUNTERS_CAPACITY", "262144"));
+    private static final long CHECKPOINT_SECONDS = Long.parseLong(env("VIDEO_COUNTERS_CHECKPOINT_SECONDS", "30"));
+    private static final int CHECKPOINT_BATCH_SIZE = 1000;
+
+    @Inject
+    private MongoDatabase database;
+
+    private VideoCounterTable table;
+
+    private ScheduledExecutorService scheduler;
+
+    private static String env(String name, String defaultValue) {
+        return System.getenv(name) != null ? System.getenv(name) : defaultValue;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (COUNTERS_DIR == null || COUNTERS_DIR.isEmpty()) {
+            logger.info("Video counters disabled (set VIDEO_COUNTERS_DIR to enable)");
+            return;
+        }
+        try {
+            table = new VideoCounterTable(Paths.get(COUNTERS_DIR), CAPACITY);
+            if (table.isCreated()) {
+                seedFromCheckpoint();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open video counters in " + COUNTERS_DIR, e);
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "video-counters-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            } catch (Exception e) {
+                logger.error("Video counters checkpoint failed", e);
+            }
+        }, CHECKPOINT_SECONDS, CHECKPOINT_SECONDS, TimeUnit.SECONDS);
+        logger.info("Video counters mapped from {} ({} videos, checkpoint every {}s)",
+                COUNTERS_DIR, table.size(), CHECKPOINT_SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (table == null) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+            checkpoint();
+        } catch (Exception e) {
+            logger.error("Final video counters checkpoint failed; the mapped file keeps the counters", e);
+        } finally {
+            try {
+                table.close();
+            } catch (IOException e) {
+                logger.error("Error closing video counters", e);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return table != null;
+    }
+
+    /**
+     * Records an event in the counters of its video
+     */
+    public void record(ViewEvent event) {
+        try {
+            table.record(event.getVideoId(), event.getAction(), event.getDuration(),
+                    event.getDeviceType(), event.getQuality(), event.getTimestamp());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot assign a counter slot to " + event.getVideoId(), e);
+        }
+    }
+
+    /**
+     * Gets the realtime statistics of a video (null if it has no counters)
+     */
+    public VideoStats getStats(String videoId) {
+        VideoCounterTable.Counters counters = table.get(videoId);
+        return counters != null ? counters.toVideoStats() : null;
+    }
+
+    /**
+     * Gets the raw counters of a video (null if it has no counters)
+     */
+    public VideoCounterTable.Counters getCounters(String videoId) {
+        return table.get(videoId);
+    }
+
+    /**
+     * Gets the top videos by realtime views
+     */
+    public List<VideoStats> getTopVideos(int limit) {
+        List<VideoStats> top = new ArrayList<>();
+        for (VideoCounterTable.Counters counters : table.top(limit)) {
+            top.add(counters.toVideoStats());
+        }
+        return top;
+    }
+
+    /**
+     * Writes changed counters to 'video_stats' and flushes the mapped file
+     * Returns the number of videos written
+     */
+    public synchronized int checkpoint() throws IOException {
+        MongoCollection<Document> collection = database.getCollection("video_stats");
+        int written = 0;
+        while (true) {
+            List<VideoCounterTable.Counters> dirty = table.dirty(CHECKPOINT_BATCH_SIZE);
+            if (dirty.isEmpty()) {
+                break;
+            }
+
+            List<WriteModel<Document>> writes = new ArrayList<>(dirty.size());
+            for (VideoCounterTable.Counters counters : dirty) {
+                writes.add(toUpdate(counters));
+            }
+            collection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+            table.markCheckpointed(dirty);
+            written += dirty.size();
+        }
+        table.force();
+        if (written > 0) {
+            logger.debug("Checkpointed counters of {} videos", written);
+        }
+        return written;
+    }
+
+    @Override
+    public String getCollection() {
+        return "video_stats";
+    }
+
+    /**
+     * Checkpoints the counters into the collection about to be replaced
+     */
+    @Override
+    public void beforeSwap() {
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot checkpoint video counters before the swap", e);
+        }
+    }
+
+    /**
+     * Reseeds every counter from the rebuilt 'video_stats', so neither reads nor the next
+     * checkpoint carry the values it replaced; videos missing from it start over at zero
+     */
+    @Override
+    public synchronized void afterSwap() {
+        try {
+            Set<String> seeded = seedFromCheckpoint();
+            for (String videoId : table.videoIds()) {
+                if (!seeded.contains(videoId)) {
+                    table.seed(videoId, 0, 0, 0, null);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot reseed video counters from the rebuilt video_stats", e);
+        }
+    }
+
+    /**
+     * Seeds the counters from 'video_stats'
+     * Returns the videos seeded
+     */
+    private Set<String> seedFromCheckpoint() throws IOException {
+        Set<String> seeded = new HashSet<>();
+        for (Document doc : database.getCollection("video_stats").find()
+                .projection(Projections.include("videoId", "totalViews", "avgDuration",
+                        "uniqueViewers", "lastUpdated"))) {
+            String videoId = doc.getString("videoId");
+            if (videoId == null) {
+                continue;
+            }
+            long views = number(doc, "totalViews").longValue();
+            long watchSeconds = Math.round(number(doc, "avgDuration").doubleValue() * views);
+            Date lastUpdated = doc.getDate("lastUpdated");
+            table.seed(videoId, views, watchSeconds, number(doc, "uniqueViewers").longValue(),
+                    lastUpdated != null ? lastUpdated.toInstant() : null);
+            seeded.add(videoId);
+        }
+        logger.info("Seeded video counters of {} videos from video_stats", seeded.size());
+        return seeded;
+    }
+
+    private static Number number(Document doc, String field) {
+        Object value = doc.get(field);
+        return value instanceof Number ? (Number) value : 0;
+    }
+
+    private static WriteModel<Document> toUpdate(VideoCounterTable.Counters counters) {
+        VideoStats stats = counters.toVideoStats();
+        return new UpdateOneModel<>(
+                Filters.eq("videoId", counters.getVideoId()),
+                Updates.combine(
+                        Updates.set("totalViews", stats.getTotalViews()),
+                        Updates.set("avgDuration", stats.getAvgDuration()),
+                        Updates.set("lastUpdated", Date.from(stats.getLastUpdated())),
+                        Updates.set("actions", toDocument(counters.getActions())),
+                        Updates.set("devices", toDocument(counters.getDevices())),
+                        Updates.set("qualities", toDocument(counters.getQualities()))),
+                new UpdateOptions().upsert(true));
+    }
+
+    private static Document toDocument(Map<String, Long> counts) {
+        Document doc = new Document();
+        counts.forEach(doc::append);
+        return doc;
+    }
+}
@@ -0,0 +1,384 @@
+package com.streaming.analytics.state;
+
+import com.streaming.analytics.model.VideoStats;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Per-video counters in a fixed-layout memory-mapped file, indexed by a dense video ordinal
+ *
+ * The counters live off the GC heap and are updated in place with atomic VarHandle
+ * operations; after a restart they are available as soon as the file is mapped.
+ * videoId -> ordinal assignments are appended to a sidecar file (one videoId per line).
+ *
+ * File layout: a 64-byte header (magic, layout version, capacity, longs per slot)
+ * followed by capacity slots of SLOT_LONGS little-endian longs.
+ */
+public class VideoCounterTable implements AutoCloseable {
+
+    static final String[] ACTIONS = { "WATCH", "PAUSE", "STOP", "RESUME", "SEEK" };
+    static final String[] DEVICES = { "mobile", "desktop", "tablet", "tv", "console" };
+    static final String[] QUALITIES = { "360p", "480p", "720p", "1080p", "4K" };
+    private static final String OTHER = "other";
+
+    private static final int MAGIC = 0x56435442;
+    private static final int LAYOUT_VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+
+    // Slot layout, in longs
+    private static final int VIEWS = 0;
+    private static final int WATCH_SECONDS = 1;
+    private static final int EVENTS = 2;
+    private static final int LAST_UPDATED = 3;
+    private static final int UNIQUE_VIEWERS = 4;
+    private static final int VERSION = 5;
+    private static final int CHECKPOINTED_VERSION = 6;
+    private static final int ACTION_BASE = 7;
+    private static final int DEVICE_BASE = ACTION_BASE + ACTIONS.length + 1;
+    private static final int QUALITY_BASE = DEVICE_BASE + DEVICES.length + 1;
+    static final int SLOT_LONGS = QUALITY_BASE + QUALITIES.length + 1;
+    private static final int SLOT_BYTES = SLOT_LONGS * Long.BYTES;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private final int capacity;
+    private final boolean created;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final BufferedWriter ordinalWriter;
+    private final Map<String, Integer> ordinals = new ConcurrentHashMap<>();
+    private final List<String> videoIds = new CopyOnWriteArrayList<>();
+
+    /**
+     * Maps (or creates) the counter file in the given directory
+     */
+    public VideoCounterTable(Path directory, int capacity) throws IOException {
+        if (capacity <= 0 || capacity > (Integer.MAX_VALUE - HEADER_BYTES) / SLOT_BYTES) {
+            throw new IllegalArgumentException("Unsupported capacity: " + capacity);
+        }
+        Files.createDirectories(directory);
+        Path countersFile = directory.resolve("video-counters.bin");
+        Path ordinalsFile = directory.resolve("video-ordinals.txt");
+
+        this.created = !Files.exists(countersFile);
+        this.channel = FileChannel.open(countersFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_BYTES + (long) capacity * SLOT_BYTES);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (created) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, LAYOUT_VERSION);
+            buffer.putInt(8, capacity);
+            buffer.putInt(12, SLOT_LONGS);
+        } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != LAYOUT_VERSION
+                || buffer.getInt(8) != capacity || buffer.getInt(12) != SLOT_LONGS) {
+            channel.close();
+            throw new IllegalStateException("Counter file " + countersFile
+                    + " has another layout or capacity; move it away to rebuild from video_stats");
+        }
+        this.capacity = capacity;
+
+        if (Files.exists(ordinalsFile)) {
+            for (String videoId : Files.readAllLines(ordinalsFile, StandardCharsets.UTF_8)) {
+                if (!videoId.isEmpty()) {
+                    ordinals.put(videoId, videoIds.size());
+                    videoIds.add(videoId);
+                }
+            }
+        }
+        this.ordinalWriter = Files.newBufferedWriter(ordinalsFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * True if the counter file did not exist before this table was opened
+     */
+    public boolean isCreated() {
+        return created;
+    }
+
+    public int size() {
+        return videoIds.size();
+    }
+
+    /**
+     * Gets the videos that have a slot, in slot order
+     */
+    public List<String> videoIds() {
+        return Collections.unmodifiableList(videoIds);
+    }
+
+    /**
+     * Records one event of a video
+     */
+    public void record(String videoId, String action, int duration, String deviceType, String quality,
+            Instant timestamp) throws IOException {
+        int base = slot(ordinalFor(videoId));
+
+        add(base, EVENTS, 1);
+        if ("WATCH".equals(action)) {
+            add(base, VIEWS, 1);
+            add(base, WATCH_SECONDS, duration);
+        }
+        add(base, ACTION_BASE + indexOf(ACTIONS, action), 1);
+        add(base, DEVICE_BASE + indexOf(DEVICES, deviceType), 1);
+        add(base, QUALITY_BASE + indexOf(QUALITIES, quality), 1);
+        max(base, LAST_UPDATED, timestamp != null ? timestamp.toEpochMilli() : System.currentTimeMillis());
+
+        // Bumped last: a checkpoint reading an older version writes this slot again next time
+        add(base, VERSION, 1);
+    }
+
+    /**
+     * Sets the base values of a video, e.g. from the video_stats checkpoint
+     * The slot keeps its version, so seeding alone does not make it dirty
+     */
+    public void seed(String videoId, long views, long watchSeconds, long uniqueViewers, Instant lastUpdated)
+            throws IOException {
+        int base = slot(ordinalFor(videoId));
+        LONGS.setVolatile(buffer, base + VIEWS * Long.BYTES, views);
+        LONGS.setVolatile(buffer, base + WATCH_SECONDS * Long.BYTES, watchSeconds);
+        LONGS.setVolatile(buffer, base + UNIQUE_VIEWERS * Long.BYTES, uniqueViewers);
+        LONGS.setVolatile(buffer, base + LAST_UPDATED * Long.BYTES,
+                lastUpdated != null ? lastUpdated.toEpochMilli() : 0L);
+    }
+
+    /**
+     * Gets the counters of a video (null if the video was never recorded)
+     */
+    public Counters get(String videoId) {
+        Integer ordinal = ordinals.get(videoId);
+        return ordinal != null ? read(ordinal) : null;
+    }
+
+    /**
+     * Gets the videos with the most views
+     */
+    public List<Counters> top(int limit) {
+        PriorityQueue<long[]> heap = new PriorityQueue<>(Comparator.comparingLong((long[] e) -> e[1]));
+        int size = videoIds.size();
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            long views = get(slot(ordinal), VIEWS);
+            if (heap.size() < limit) {
+                heap.add(new long[] { ordinal, views });
+            } else if (limit > 0 && views > heap.peek()[1]) {
+                heap.poll();
+                heap.add(new long[] { ordinal, views });
+            }
+        }
+
+        List<Counters> top = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            top.add(0, read((int) heap.poll()[0]));
+        }
+        return top;
+    }
+
+    /**
+     * Gets up to limit videos changed since their last checkpoint
+     */
+    public List<Counters> dirty(int limit) {
+        List<Counters> dirty = new ArrayList<>();
+        int size = videoIds.size();
+        for (int ordinal = 0; ordinal < size && dirty.size() < limit; ordinal++) {
+            int base = slot(ordinal);
+            if (get(base, VERSION) != get(base, CHECKPOINTED_VERSION)) {
+                dirty.add(read(ordinal));
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Records that the given counters were written to the checkpoint
+     */
+    public void markCheckpointed(List<Counters> checkpointed) {
+        for (Counters counters : checkpointed) {
+            LONGS.setVolatile(buffer, slot(counters.ordinal) + CHECKPOINTED_VERSION * Long.BYTES,
+                    counters.version);
+        }
+    }
+
+    /**
+     * Flushes the mapped pages to disk (they already survive a process crash)
+     */
+    public void force() throws IOException {
+        buffer.force();
+        ordinalWriter.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        ordinalWriter.close();
+        channel.close();
+    }
+
+    private int ordinalFor(String videoId) throws IOException {
+        Integer ordinal = ordinals.get(videoId);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        synchronized (this) {
+            ordinal = ordinals.get(videoId);
+            if (ordinal != null) {
+                return ordinal;
+            }
+            if (videoIds.size() >= capacity) {
+                throw new IllegalStateException("Video counter table is full (" + capacity + " videos)");
+            }
+            ordinalWriter.write(videoId);
+            ordinalWriter.newLine();
+            ordinalWriter.flush();
+            videoIds.add(videoId);
+            ordinals.put(videoId, videoIds.size() - 1);
+            return videoIds.size() - 1;
+        }
+    }
+
+    private Counters read(int ordinal) {
+        int base = slot(ordinal);
+        Counters counters = new Counters(ordinal, videoIds.get(ordinal), get(base, VERSION));
+        counters.views = get(base, VIEWS);
+        counters.watchSeconds = get(base, WATCH_SECONDS);
+        counters.events = get(base, EVENTS);
+        counters.uniqueViewers = get(base, UNIQUE_VIEWERS);
+        long lastUpdated = get(base, LAST_UPDATED);
+        counters.lastUpdated = lastUpdated > 0 ? Instant.ofEpochMilli(lastUpdated) : null;
+        counters.actions = readCounts(base, ACTION_BASE, ACTIONS);
+        counters.devices = readCounts(base, DEVICE_BASE, DEVICES);
+        counters.qualities = readCounts(base, QUALITY_BASE, QUALITIES);
+        return counters;
+    }
+
+    private Map<String, Long> readCounts(int base, int offset, String[] names) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i <= names.length; i++) {
+            long count = get(base, offset + i);
+            if (count > 0) {
+                counts.put(i < names.length ? names[i] : OTHER, count);
+            }
+        }
+        return counts;
+    }
+
+    private static int indexOf(String[] names, String value) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(value)) {
+                return i;
+            }
+        }
+        return names.length;
+    }
+
+    private static int slot(int ordinal) {
+        return HEADER_BYTES + ordinal * SLOT_BYTES;
+    }
+
+    private long get(int base, int field) {
+        return (long) LONGS.getVolatile(buffer, base + field * Long.BYTES);
+    }
+
+    private void add(int base, int field, long delta) {
+        LONGS.getAndAdd(buffer, base + field * Long.BYTES, delta);
+    }
+
+    private void max(int base, int field, long value) {
+        int index = base + field * Long.BYTES;
+        long current = (long) LONGS.getVolatile(buffer, index);
+        while (value > current && !LONGS.compareAndSet(buffer, index, current, value)) {
+            current = (long) LONGS.getVolatile(buffer, index);
+        }
+    }
+
+    /**
+     * Point-in-time copy of the counters of one video
+     */
+    public static class Counters {
+        private final int ordinal;
+        private final String videoId;
+        private final long version;
+        private long views;
+        private long watchSeconds;
+        private long events;
+        private long uniqueViewers;
+        private Instant lastUpdated;
+        private Map<String, Long> actions;
+        private Map<String, Long> devices;
+        private Map<String, Long> qualities;
+
+        Counters(int ordinal, String videoId, long version) {
+            this.ordinal = ordinal;
+            this.videoId = videoId;
+            this.version = version;
+        }
+
+        public String getVideoId() {
+            return videoId;
+        }
+
+        public long getViews() {
+            return views;
+        }
+
+        public long getWatchSeconds() {
+            return watchSeconds;
+        }
+
+        public long getEvents() {
+            return events;
+        }
+
+        public long getUniqueViewers() {
+            return uniqueViewers;
+        }
+
+        public Instant getLastUpdated() {
+            return lastUpdated;
+        }
+
+        public Map<String, Long> getActions() {
+            return actions;
+        }
+
+        public Map<String, Long> getDevices() {
+            return devices;
+        }
+
+        public Map<String, Long> getQualities() {
+            return qualities;
+        }
+
+        public VideoStats toVideoStats() {
+            VideoStats stats = new VideoStats(videoId);
+            stats.setTotalViews(views);
+            stats.setAvgDuration(views > 0 ? watchSeconds / (double) views : 0.0);
+            stats.setUniqueViewers(uniqueViewers);
+            stats.setLastUpdated(lastUpdated != null ? lastUpdated : Instant.now());
+            return stats;
+        }
+    }
+}
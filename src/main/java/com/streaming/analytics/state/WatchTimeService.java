@@ -0,0 +1,211 @@
+package com.streaming.analytics.state;
+
+import com.streaming.analytics.model.Video;
+import com.streaming.analytics.model.ViewEvent;
+import com.streaming.analytics.repository.VideoRepository;
+import com.streaming.analytics.repository.VideoStatsRepository;
+import com.streaming.analytics.sketch.DurationHistogram;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Watch duration percentiles per video, from DurationHistogram sketches
+ *
+ * The durations of WATCH events are added to a pending histogram per video, which is merged
+ * every WATCH_TIME_FLUSH_SECONDS into the 'durationSketch' binary of 'video_stats' (at most
+ * 1,888 buckets; a few hundred bytes for typical durations). Category percentiles merge the
+ * histograms of their videos. Set WATCH_TIME_PERCENTILES=false to disable.
+ */
+@ApplicationScoped
+public class WatchTimeService implements WriteBehind {
+
+    private static final Logger logger = LoggerFactory.getLogger(WatchTimeService.class);
+
+    private static final boolean ENABLED = Boolean.parseBoolean(env("WATCH_TIME_PERCENTILES", "true"));
+    private static final long FLUSH_SECONDS = Long.parseLong(env("WATCH_TIME_FLUSH_SECONDS", "5"));
+
+    @Inject
+    private VideoStatsRepository statsRepository;
+
+    @Inject
+    private VideoRepository videoRepository;
+
+    // Durations recorded since the last flush, per video
+    private Map<String, DurationHistogram> pending;
+
+    private ScheduledExecutorService scheduler;
+
+    private static String env(String name, String defaultValue) {
+        return System.getenv(name) != null ? System.getenv(name) : defaultValue;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!ENABLED) {
+            logger.info("Watch time percentiles disabled (WATCH_TIME_PERCENTILES=false)");
+            return;
+        }
+        pending = new ConcurrentHashMap<>();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "watch-time-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (Exception e) {
+                logger.error("Watch time flush failed", e);
+            }
+        }, FLUSH_SECONDS, FLUSH_SECONDS, TimeUnit.SECONDS);
+        logger.info("Watch time percentiles enabled (flush every {}s)", FLUSH_SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (pending == null) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+            flush();
+        } catch (Exception e) {
+            logger.error("Final watch time flush failed", e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return pending != null;
+    }
+
+    /**
+     * Adds the durations of WATCH events to the pending histograms of their videos
+     */
+    public void record(List<ViewEvent> events) {
+        for (ViewEvent event : events) {
+            if (!"WATCH".equals(event.getAction()) || event.getDuration() < 0) {
+                continue;
+            }
+            // compute() holds the entry against a concurrent flush; readers lock the histogram itself
+            pending.compute(event.getVideoId(), (videoId, histogram) -> {
+                DurationHistogram durations = histogram != null ? histogram : new DurationHistogram();
+                synchronized (durations) {
+                    durations.add(event.getDuration());
+                }
+                return durations;
+            });
+        }
+    }
+
+    /**
+     * Merges the pending histograms into 'video_stats'
+     * Returns the number of videos written; a histogram that fails to merge is kept for the next flush
+     */
+    public synchronized int flush() {
+        int written = 0;
+        for (String videoId : new ArrayList<>(pending.keySet())) {
+            DurationHistogram durations = pending.remove(videoId);
+            if (durations == null) {
+                continue;
+            }
+            try {
+                statsRepository.mergeDurationSketch(videoId, durations);
+                written++;
+            } catch (RuntimeException e) {
+                pending.merge(videoId, durations, (newer, failed) -> {
+                    synchronized (newer) {
+                        return newer.merge(failed);
+                    }
+                });
+                throw e;
+            }
+        }
+        if (written > 0) {
+            logger.debug("Flushed watch time histograms of {} videos", written);
+        }
+        return written;
+    }
+
+    @Override
+    public String getCollection() {
+        return "video_stats";
+    }
+
+    /**
+     * Flushes the pending histograms into the collection about to be replaced
+     */
+    @Override
+    public void beforeSwap() {
+        flush();
+    }
+
+    @Override
+    public void afterSwap() {
+        // Nothing is kept from the old collection
+    }
+
+    /**
+     * Gets the duration histogram of a video, including unflushed durations (null if it has none)
+     */
+    public DurationHistogram getSketch(String videoId) {
+        DurationHistogram sketch = statsRepository.getDurationSketch(videoId);
+        DurationHistogram unflushed = pending.get(videoId);
+        if (unflushed == null) {
+            return sketch;
+        }
+        synchronized (unflushed) {
+            unflushed = unflushed.copy();
+        }
+        return sketch != null ? sketch.merge(unflushed) : unflushed;
+    }
+
+    /**
+     * Merges the duration histograms of all videos of a category
+     */
+    public DurationHistogram getCategorySketch(String category) {
+        List<String> videoIds = videoRepository.findByCategory(category).stream()
+                .map(Video::getVideoId)
+                .collect(Collectors.toList());
+        if (videoIds.isEmpty()) {
+            return new DurationHistogram();
+        }
+        DurationHistogram merged = statsRepository.mergeDurationSketches(videoIds);
+        for (String videoId : videoIds) {
+            DurationHistogram unflushed = pending.get(videoId);
+            if (unflushed != null) {
+                synchronized (unflushed) {
+                    merged.merge(unflushed);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Gets the p50, p90 and p99 of a histogram (empty if it has no values)
+     */
+    public static Map<String, Long> percentiles(DurationHistogram durations) {
+        Map<String, Long> percentiles = new LinkedHashMap<>();
+        if (durations != null && durations.getCount() > 0) {
+            percentiles.put("p50", durations.quantile(0.50));
+            percentiles.put("p90", durations.quantile(0.90));
+            percentiles.put("p99", durations.quantile(0.99));
+        }
+        return percentiles;
+    }
+}
@@ -0,0 +1,147 @@
+package com.streaming.analytics.state;
+
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.streaming.analytics.model.ViewEvent;
+import com.streaming.analytics.repository.EventWatermarks;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Most viewed videos over the last 5 minutes, hour and 24 hours, counted exactly as WATCH events arrive
+ *
+ * Views count at their event timestamp, per minute for the 5m and 1h windows and per hour for
+ * the 24h window (see WindowedViewCounts). Windows advance with the clock on every record and
+ * read, and videos without views in the last 24 hours are evicted. At startup the windows are
+ * seeded in the background from the per-minute WATCH counts of the events stored before the
+ * service started; until then isReady is false. Compaction only rewrites days older than the
+ * 24h window, so the seed reads raw events only. Set WINDOWED_TOP=false to disable.
+ */
+@ApplicationScoped
+public class WindowedTopService {
+
+    private static final Logger logger = LoggerFactory.getLogger(WindowedTopService.class);
+
+    private static final boolean ENABLED = Boolean.parseBoolean(env("WINDOWED_TOP", "true"));
+
+    @Inject
+    private MongoDatabase database;
+
+    private WindowedViewCounts counts;
+
+    // Events up to this id are counted by the seed, later ones by record()
+    private ObjectId seededUpTo;
+
+    private volatile boolean ready;
+
+    private static String env(String name, String defaultValue) {
+        return System.getenv(name) != null ? System.getenv(name) : defaultValue;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!ENABLED) {
+            logger.info("Windowed top videos disabled (WINDOWED_TOP=false)");
+            return;
+        }
+        counts = new WindowedViewCounts();
+        seededUpTo = EventWatermarks.upperBound(Instant.now().minusSeconds(1));
+        logger.info("Windowed top videos enabled (5m, 1h, 24h)");
+    }
+
+    /**
+     * Starts seeding the windows from the stored events
+     */
+    public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        if (counts == null) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                seed();
+            } catch (Exception e) {
+                logger.error("Windowed top seed failed; the windows only count views since startup", e);
+            }
+        }, "windowed-top-seed");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void seed() {
+        long start = System.currentTimeMillis();
+        Instant since = WindowedViewCounts.Window.ONE_DAY.start(Instant.now());
+        long views = 0;
+        for (Document minute : database.getCollection("events").aggregate(Arrays.asList(
+                Aggregates.match(Filters.and(
+                        Filters.eq("action", "WATCH"),
+                        Filters.gte("timestamp", Date.from(since)),
+                        Filters.lte("_id", seededUpTo))),
+                Aggregates.group(new Document("v", "$videoId")
+                                .append("m", new Document("$dateTrunc",
+                                        new Document("date", "$timestamp").append("unit", "minute"))),
+                        Accumulators.sum("n", 1))))
+                .allowDiskUse(true)) {
+            Document key = minute.get("_id", Document.class);
+            if (key.getString("v") == null) {
+                continue;
+            }
+            long n = ((Number) minute.get("n")).longValue();
+            counts.record(key.getString("v"), key.getDate("m").toInstant(), n, Instant.now());
+            views += n;
+        }
+        ready = true;
+        logger.info("Seeded windowed top videos from {} views since {} in {}ms",
+                views, since, System.currentTimeMillis() - start);
+    }
+
+    public boolean isEnabled() {
+        return counts != null;
+    }
+
+    /**
+     * Whether the windows are seeded; until then they only hold views since startup
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Counts the WATCH events per video at their timestamp
+     */
+    public void record(List<ViewEvent> events) {
+        Instant now = Instant.now();
+        for (ViewEvent event : events) {
+            if ("WATCH".equals(event.getAction()) && event.getVideoId() != null) {
+                counts.record(event.getVideoId(), event.getTimestamp() != null ? event.getTimestamp() : now, now);
+            }
+        }
+    }
+
+    /**
+     * Gets the most viewed videos of a window as of now
+     */
+    public List<WindowedViewCounts.Entry> top(WindowedViewCounts.Window window, int limit, Instant now) {
+        return counts.top(window, limit, now);
+    }
+
+    /**
+     * Number of videos with views in the last 24 hours
+     */
+    public int size() {
+        return counts.size();
+    }
+}
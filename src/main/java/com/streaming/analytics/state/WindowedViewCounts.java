@@ -0,0 +1,285 @@
+package com.streaming.analytics.state;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Exact view counts per video over sliding windows (5 minutes, 1 hour, 24 hours), each kept ranked
+ *
+ * Every video has a ring of per-minute counts (the current minute and the 60 before) and a
+ * ring of per-hour counts (the current hour and the 24 before) in primitive arrays, plus its
+ * total per window. A window covers its units before the current one and the current one so
+ * far: the 5m window at 12:07:30 starts at 12:02:00, the 24h window at 12:07 starts at 12:00
+ * the day before. When the minute advances, the unit leaving each window is subtracted from
+ * the totals and its ring slot cleared, so each window's ranking is maintained incrementally
+ * and read without sorting. Videos without views in the 24h window are evicted and their
+ * slots reused, so memory is bounded by the videos viewed in the last day.
+ *
+ * Views with a timestamp after the current minute count in the current minute; views older
+ * than every window are ignored. Thread-safe: all access is serialized on the instance.
+ */
+public class WindowedViewCounts {
+
+    /**
+     * Sliding windows, in units of one minute or one hour
+     */
+    public enum Window {
+        FIVE_MINUTES("5m", 1, 5),
+        ONE_HOUR("1h", 1, 60),
+        ONE_DAY("24h", 60, 24);
+
+        private final String label;
+        private final int unitMinutes;
+        private final int units;
+
+        Window(String label, int unitMinutes, int units) {
+            this.label = label;
+            this.unitMinutes = unitMinutes;
+            this.units = units;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Parses a window label (5m, 1h or 24h)
+         */
+        public static Window parse(String label) {
+            for (Window window : values()) {
+                if (window.label.equals(label)) {
+                    return window;
+                }
+            }
+            throw new IllegalArgumentException("Unknown window: " + label + " (5m, 1h or 24h)");
+        }
+
+        /**
+         * Gets the first instant the window covers at the given time
+         */
+        public Instant start(Instant now) {
+            return Instant.ofEpochSecond(startMinute(minute(now)) * 60);
+        }
+
+        long startMinute(long currentMinute) {
+            return (Math.floorDiv(currentMinute, unitMinutes) - units) * unitMinutes;
+        }
+    }
+
+    private static final Window[] WINDOWS = Window.values();
+    private static final int MINUTE_SLOTS = 61;
+    private static final int HOUR_SLOTS = 25;
+    private static final int INITIAL_SLOTS = 256;
+
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private String[] videoIds = new String[INITIAL_SLOTS];
+    private int[] minuteCounts = new int[INITIAL_SLOTS * MINUTE_SLOTS];
+    private int[] hourCounts = new int[INITIAL_SLOTS * HOUR_SLOTS];
+    private long[] totals = new long[INITIAL_SLOTS * WINDOWS.length];
+    private int size;
+
+    // Per window, the videos with views in it, most viewed first
+    private final List<TreeSet<Integer>> rankings = new ArrayList<>();
+
+    // Epoch minute of the newest advance; Long.MIN_VALUE until the first one
+    private long current = Long.MIN_VALUE;
+
+    public WindowedViewCounts() {
+        for (Window window : WINDOWS) {
+            int w = window.ordinal();
+            rankings.add(new TreeSet<>((a, b) -> {
+                int byViews = Long.compare(totals[b * WINDOWS.length + w], totals[a * WINDOWS.length + w]);
+                return byViews != 0 ? byViews : videoIds[a].compareTo(videoIds[b]);
+            }));
+        }
+    }
+
+    /**
+     * Adds a view of a video at 'at', with the clock at 'now'
+     */
+    public void record(String videoId, Instant at, Instant now) {
+        record(videoId, at, 1, now);
+    }
+
+    /**
+     * Adds several views of a video at 'at', with the clock at 'now'
+     */
+    public synchronized void record(String videoId, Instant at, long views, Instant now) {
+        advance(minute(now));
+        long minute = Math.min(minute(at), current);
+        if (minute < Window.ONE_DAY.startMinute(current)) {
+            return;
+        }
+
+        int slot = slot(videoId);
+        if (minute > current - MINUTE_SLOTS) {
+            minuteCounts[slot * MINUTE_SLOTS + Math.floorMod(minute, MINUTE_SLOTS)] += (int) views;
+        }
+        hourCounts[slot * HOUR_SLOTS + Math.floorMod(Math.floorDiv(minute, 60), HOUR_SLOTS)] += (int) views;
+        for (Window window : WINDOWS) {
+            if (minute >= window.startMinute(current)) {
+                addToTotal(slot, window, views);
+            }
+        }
+    }
+
+    /**
+     * Gets the most viewed videos of a window at the given time
+     */
+    public synchronized List<Entry> top(Window window, int limit, Instant now) {
+        advance(minute(now));
+        List<Entry> result = new ArrayList<>(limit);
+        for (int slot : rankings.get(window.ordinal())) {
+            if (result.size() == limit) {
+                break;
+            }
+            result.add(new Entry(videoIds[slot], totals[slot * WINDOWS.length + window.ordinal()]));
+        }
+        return result;
+    }
+
+    /**
+     * Number of videos with views in the 24h window
+     */
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    /**
+     * Moves the clock forward minute by minute, expiring the units that leave each window
+     */
+    private void advance(long minute) {
+        if (minute <= current) {
+            return;
+        }
+        if (current == Long.MIN_VALUE || minute - current > (long) HOUR_SLOTS * 60) {
+            clear();
+            current = minute;
+            return;
+        }
+        for (long next = current + 1; next <= minute; next++) {
+            for (int slot = 0; slot < size; slot++) {
+                if (videoIds[slot] != null) {
+                    expire(slot, next);
+                }
+            }
+            current = next;
+        }
+    }
+
+    private void expire(int slot, long minute) {
+        for (Window window : WINDOWS) {
+            if (window.unitMinutes == 1) {
+                long leaving = minute - window.units - 1;
+                addToTotal(slot, window, -minuteCounts[slot * MINUTE_SLOTS + Math.floorMod(leaving, MINUTE_SLOTS)]);
+            }
+        }
+        minuteCounts[slot * MINUTE_SLOTS + Math.floorMod(minute, MINUTE_SLOTS)] = 0;
+
+        if (Math.floorMod(minute, 60) == 0) {
+            long hour = Math.floorDiv(minute, 60);
+            for (Window window : WINDOWS) {
+                if (window.unitMinutes == 60) {
+                    long leaving = hour - window.units - 1;
+                    addToTotal(slot, window, -hourCounts[slot * HOUR_SLOTS + Math.floorMod(leaving, HOUR_SLOTS)]);
+                }
+            }
+            hourCounts[slot * HOUR_SLOTS + Math.floorMod(hour, HOUR_SLOTS)] = 0;
+        }
+
+        if (totals[slot * WINDOWS.length + Window.ONE_DAY.ordinal()] == 0) {
+            evict(slot);
+        }
+    }
+
+    private void addToTotal(int slot, Window window, long views) {
+        if (views == 0) {
+            return;
+        }
+        int index = slot * WINDOWS.length + window.ordinal();
+        TreeSet<Integer> ranking = rankings.get(window.ordinal());
+        if (totals[index] > 0) {
+            ranking.remove(slot);
+        }
+        totals[index] += views;
+        if (totals[index] > 0) {
+            ranking.add(slot);
+        }
+    }
+
+    private int slot(String videoId) {
+        Integer slot = slots.get(videoId);
+        if (slot != null) {
+            return slot;
+        }
+        if (freeSlots.isEmpty()) {
+            if (size == videoIds.length) {
+                int capacity = size * 2;
+                videoIds = Arrays.copyOf(videoIds, capacity);
+                minuteCounts = Arrays.copyOf(minuteCounts, capacity * MINUTE_SLOTS);
+                hourCounts = Arrays.copyOf(hourCounts, capacity * HOUR_SLOTS);
+                totals = Arrays.copyOf(totals, capacity * WINDOWS.length);
+            }
+            freeSlots.push(size++);
+        }
+        int free = freeSlots.pop();
+        videoIds[free] = videoId;
+        slots.put(videoId, free);
+        return free;
+    }
+
+    private void evict(int slot) {
+        for (Window window : WINDOWS) {
+            if (totals[slot * WINDOWS.length + window.ordinal()] > 0) {
+                rankings.get(window.ordinal()).remove(slot);
+            }
+        }
+        Arrays.fill(minuteCounts, slot * MINUTE_SLOTS, (slot + 1) * MINUTE_SLOTS, 0);
+        Arrays.fill(hourCounts, slot * HOUR_SLOTS, (slot + 1) * HOUR_SLOTS, 0);
+        Arrays.fill(totals, slot * WINDOWS.length, (slot + 1) * WINDOWS.length, 0);
+        slots.remove(videoIds[slot]);
+        videoIds[slot] = null;
+        freeSlots.push(slot);
+    }
+
+    private void clear() {
+        for (int slot = 0; slot < size; slot++) {
+            if (videoIds[slot] != null) {
+                evict(slot);
+            }
+        }
+    }
+
+    private static long minute(Instant instant) {
+        return Math.floorDiv(instant.getEpochSecond(), 60);
+    }
+
+    /**
+     * A video and its views in a window
+     */
+    public static class Entry {
+        private final String videoId;
+        private final long views;
+
+        Entry(String videoId, long views) {
+            this.videoId = videoId;
+            this.views = views;
+        }
+
+        public String getVideoId() {
+            return videoId;
+        }
+
+        public long getViews() {
+            return views;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.streaming.analytics.state;
+
+/**
+ * Live state written behind to a collection that StatsRebuildJob replaces
+ *
+ * The rebuild pauses ingest and calls beforeSwap on every enabled owner of a collection it is
+ * about to swap, then afterSwap once the rebuilt collection is in place, still paused.
+ * beforeSwap writes out what is buffered (the rebuild replays the same events into the new
+ * collection); afterSwap drops or reloads whatever was read from the old one.
+ */
+public interface WriteBehind {
+
+    boolean isEnabled();
+
+    /**
+     * Gets the collection the state is written to ('video_stats' or 'user_profiles')
+     */
+    String getCollection();
+
+    void beforeSwap();
+
+    void afterSwap();
+}
@@ -51,31 +51,26 @@ public class DashboardServlet extends HttpServlet {
             request.setAttribute("trendingVideos", trendingVideos);
 
             // 4. Get dashboard summary
-            AnalyticsService.DashboardSummary summary = analyticsService.getDashboardSummary();
+            AnalyticsService.DashboardSummary summary = analyticsService.getDashboardSummary(categoryStats);
             request.setAttribute("summary", summary);
 
-            // 5. Get total event count
-            long totalEvents = eventProcessor.getTotalEventCount();
+            // 5. Get total event count (already in the summary)
+            long totalEvents = summary.getTotalEvents();
             request.setAttribute("totalEvents", totalEvents);
 
-            // 6. Get chart data - Device distribution
-            Map<String, Long> deviceStats = analyticsService.aggregateByDevice();
-            request.setAttribute("deviceStats", deviceStats);
+            // 6. Get chart data - Device, quality and action distributions in one breakdown
+            AnalyticsService.Breakdown breakdown = analyticsService.getBreakdown(
+                    List.of("deviceType", "quality", "action"), analyticsService.eventFilter(null, null, null, null));
+            request.setAttribute("deviceStats", breakdown.getCounts("deviceType"));
+            request.setAttribute("qualityStats", breakdown.getCounts("quality"));
+            request.setAttribute("actionStats", breakdown.getCounts("action"));
 
             // 7. Get chart data - Hourly event counts
             Map<String, Long> hourlyStats = analyticsService.getHourlyStats();
             request.setAttribute("hourlyStats", hourlyStats);
 
-            // 8. Get chart data - Quality distribution
-            Map<String, Long> qualityStats = analyticsService.aggregateByQuality();
-            request.setAttribute("qualityStats", qualityStats);
-
-            // 9. Get chart data - Action breakdown
-            Map<String, Long> actionStats = analyticsService.aggregateByAction();
-            request.setAttribute("actionStats", actionStats);
-
-            // 10. Get chart data - Avg duration by category
-            Map<String, Double> avgDurationStats = analyticsService.getAvgDurationByCategory();
+            // 8. Get chart data - Avg duration by category
+            Map<String, Double> avgDurationStats = analyticsService.getAvgDurationByCategory(categoryStats);
             request.setAttribute("avgDurationStats", avgDurationStats);
 
             logger.info("Dashboard data loaded: {} top videos, {} categories",
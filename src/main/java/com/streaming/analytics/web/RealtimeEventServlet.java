@@ -3,9 +3,7 @@ package com.streaming.analytics.web;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.Sorts;
+import com.streaming.analytics.repository.EventRepository;
 import jakarta.inject.Inject;
 import jakarta.servlet.AsyncContext;
 import jakarta.servlet.ServletException;
@@ -35,9 +33,10 @@ public class RealtimeEventServlet extends HttpServlet {
     private static final Logger logger = LoggerFactory.getLogger(RealtimeEventServlet.class);
     private static final int POLL_INTERVAL_SECONDS = 3;
     private static final int MAX_EVENTS_PER_POLL = 5;
+    private static final String[] STREAM_FIELDS = { "_id", "eventId", "userId", "videoId", "action", "duration" };
 
     @Inject
-    private MongoDatabase database;
+    private EventRepository eventRepository;
 
     private ObjectMapper objectMapper;
     private ScheduledExecutorService executor;
@@ -126,22 +125,14 @@ public class RealtimeEventServlet extends HttpServlet {
 
     /**
      * Gets recent events from MongoDB
+     * Projects only the fields pushed to clients
      */
     private List<Document> getRecentEvents(String lastEventId) {
         List<Document> events = new ArrayList<>();
 
         try {
-            MongoCollection<Document> collection = database.getCollection("events");
-
-            // Get latest events, sorted by _id descending (most recent first)
-            for (Document doc : collection.find()
-                    .sort(Sorts.descending("_id"))
-                    .limit(MAX_EVENTS_PER_POLL)) {
-                events.add(doc);
-            }
-
-            // Reverse to get chronological order
-            java.util.Collections.reverse(events);
+            // Latest events, returned in chronological order
+            events = eventRepository.findLatest(MAX_EVENTS_PER_POLL, STREAM_FIELDS);
 
         } catch (Exception e) {
             logger.error("Error fetching recent events", e);
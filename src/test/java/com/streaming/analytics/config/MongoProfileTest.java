@@ -0,0 +1,77 @@
+package com.streaming.analytics.config;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ReadConcern;
+import com.mongodb.WriteConcern;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Defaults, overrides and parsing of the workload client settings
+ */
+class MongoProfileTest {
+
+    @AfterEach
+    void clearProperties() {
+        System.clearProperty("MONGODB_POOL_MAX");
+        System.clearProperty("MONGODB_INGEST_POOL_MAX");
+        System.clearProperty("MONGODB_COMPRESSORS");
+    }
+
+    @Test
+    @DisplayName("Ingest and analytics should default to their own pool size and write concern")
+    void testDefaults() {
+        MongoProfile ingest = MongoProfile.ingest();
+        MongoProfile analytics = MongoProfile.analytics();
+
+        assertEquals(WriteConcern.W1, ingest.getWriteConcern());
+        assertEquals(WriteConcern.MAJORITY, analytics.getWriteConcern());
+        assertEquals(ReadConcern.LOCAL, ingest.getReadConcern());
+        assertEquals(50, ingest.getPoolMax());
+        assertEquals(20, analytics.getPoolMax());
+        assertEquals(List.of("zstd", "snappy"), ingest.getCompressors());
+        assertEquals("streaming-analytics-ingest", ingest.getAppName());
+    }
+
+    @Test
+    @DisplayName("A workload setting should override the shared one")
+    void testOverrides() {
+        System.setProperty("MONGODB_POOL_MAX", "30");
+        System.setProperty("MONGODB_INGEST_POOL_MAX", "100");
+        System.setProperty("MONGODB_COMPRESSORS", "none");
+
+        assertEquals(100, MongoProfile.ingest().getPoolMax());
+        assertEquals(30, MongoProfile.analytics().getPoolMax());
+        assertTrue(MongoProfile.ingest().getCompressors().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Should apply the settings to the client builder")
+    void testApplyTo() {
+        MongoClientSettings settings = MongoProfile.ingest().applyTo(MongoClientSettings.builder()).build();
+
+        assertEquals(50, settings.getConnectionPoolSettings().getMaxSize());
+        assertEquals(2_000, settings.getConnectionPoolSettings().getMaxWaitTime(TimeUnit.MILLISECONDS));
+        assertEquals(2, settings.getCompressorList().size());
+        assertEquals(WriteConcern.W1, settings.getWriteConcern());
+        assertEquals("streaming-analytics-ingest", settings.getApplicationName());
+    }
+
+    @Test
+    @DisplayName("Should parse concerns and reject unknown values")
+    void testParsing() {
+        assertEquals(new WriteConcern(2), MongoProfile.parseWriteConcern("2"));
+        assertEquals(WriteConcern.MAJORITY, MongoProfile.parseWriteConcern("MAJORITY"));
+        assertEquals(ReadConcern.MAJORITY, MongoProfile.parseReadConcern("majority"));
+        assertEquals(ReadConcern.DEFAULT, MongoProfile.parseReadConcern("default"));
+        assertEquals(List.of("zlib"), MongoProfile.parseCompressors(" zlib, "));
+        assertThrows(IllegalArgumentException.class, () -> MongoProfile.parseCompressors("lz4"));
+        assertThrows(IllegalArgumentException.class, () -> MongoProfile.parseReadConcern("strong"));
+    }
+}
@@ -0,0 +1,40 @@
+package com.streaming.analytics.model;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for UserProfile model
+ */
+class UserProfileTest {
+
+    @Test
+    @DisplayName("Recent history should be capped and keep the newest videos first")
+    void testRecentHistoryCap() {
+        UserProfile profile = new UserProfile("user_1");
+
+        for (int i = 1; i <= UserProfile.RECENT_HISTORY_SIZE + 5; i++) {
+            profile.addToHistory("video_" + i, "Action", 60);
+        }
+
+        assertEquals(UserProfile.RECENT_HISTORY_SIZE, profile.getWatchHistory().size());
+        assertEquals("video_" + (UserProfile.RECENT_HISTORY_SIZE + 5), profile.getWatchHistory().get(0));
+        assertFalse(profile.getWatchHistory().contains("video_1"), "Oldest entries should be dropped");
+    }
+
+    @Test
+    @DisplayName("Aggregates should keep counting past the recent history cap")
+    void testAggregatesBeyondCap() {
+        UserProfile profile = new UserProfile("user_2");
+
+        for (int i = 0; i < UserProfile.RECENT_HISTORY_SIZE * 2; i++) {
+            profile.addToHistory("video_" + i, i % 2 == 0 ? "Drama" : "Comedy", 10);
+        }
+
+        assertEquals(UserProfile.RECENT_HISTORY_SIZE * 2 * 10L, profile.getTotalWatchTime());
+        assertEquals(UserProfile.RECENT_HISTORY_SIZE, profile.getPreferences().get("Drama"));
+        assertEquals(UserProfile.RECENT_HISTORY_SIZE, profile.getPreferences().get("Comedy"));
+    }
+}
@@ -0,0 +1,104 @@
+package com.streaming.analytics.repository;
+
+import com.streaming.analytics.generator.DataGenerator;
+import com.streaming.analytics.model.Video;
+import com.streaming.analytics.repository.memory.InMemoryVideoRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Diff semantics of the catalog sync and parsing of the catalog feed
+ */
+class CatalogSyncTest {
+
+    @TempDir
+    Path directory;
+
+    private static Video video(String videoId, String title, int views) {
+        Video video = new Video(videoId, title, "Drama", 5400, Instant.parse("2024-01-01T00:00:00Z"));
+        video.setViews(views);
+        return video;
+    }
+
+    @Test
+    @DisplayName("Should read the generated catalog feed and load it on the first sync")
+    void testReadFeed() throws Exception {
+        Path file = directory.resolve("videos_catalog.json");
+        new DataGenerator().generateVideosCatalogToFile(file.toString());
+
+        List<Video> parsed = new ArrayList<>();
+        try (InputStream feed = Files.newInputStream(file)) {
+            CatalogSync.readFeed(feed).forEachRemaining(parsed::add);
+        }
+        assertFalse(parsed.isEmpty());
+        assertNotNull(parsed.get(0).getVideoId());
+        assertNotNull(parsed.get(0).getUploadDate());
+
+        InMemoryVideoRepository repository = new InMemoryVideoRepository();
+        CatalogSyncResult result = repository.syncCatalog(parsed.iterator());
+        assertEquals(parsed.size(), result.getInserted());
+        assertEquals(parsed.size(), repository.count());
+
+        result = repository.syncCatalog(parsed.iterator());
+        assertEquals(0, result.getInserted());
+        assertEquals(0, result.getUpdated());
+        assertEquals(parsed.size(), result.getUnchanged());
+    }
+
+    @Test
+    @DisplayName("Should only insert new, replace changed and delete missing videos")
+    void testDiff() {
+        InMemoryVideoRepository repository = new InMemoryVideoRepository();
+        repository.syncCatalog(List.of(video("v1", "One", 10), video("v2", "Two", 20),
+                video("v3", "Three", 30)).iterator());
+
+        CatalogSyncResult result = repository.syncCatalog(List.of(video("v1", "One", 10),
+                video("v2", "Two", 25), video("v4", "Four", 40)).iterator());
+
+        assertEquals(1, result.getInserted());
+        assertEquals(1, result.getUpdated());
+        assertEquals(1, result.getUnchanged());
+        assertEquals(1, result.getDeleted());
+        assertEquals(Set.of("v2", "v3", "v4"), result.getChangedVideoIds());
+        assertEquals(25, repository.findByVideoId("v2").getViews());
+        assertNull(repository.findByVideoId("v3"));
+        assertEquals(3, repository.count());
+    }
+
+    @Test
+    @DisplayName("An empty feed should delete nothing")
+    void testEmptyFeed() {
+        InMemoryVideoRepository repository = new InMemoryVideoRepository();
+        repository.syncCatalog(List.of(video("v1", "One", 10)).iterator());
+
+        Iterator<Video> empty = Collections.emptyIterator();
+        assertEquals(0, repository.syncCatalog(empty).getDeleted());
+        assertEquals(1, repository.count());
+    }
+
+    @Test
+    @DisplayName("The content hash should depend on the stored fields only")
+    void testHash() {
+        assertEquals(CatalogSync.hash(video("v1", "One", 10)), CatalogSync.hash(video("v1", "One", 10)));
+        assertNotEquals(CatalogSync.hash(video("v1", "One", 10)), CatalogSync.hash(video("v1", "One", 11)));
+
+        Video withTmdb = video("v1", "One", 10);
+        withTmdb.setOverview("Overview");
+        assertNotEquals(CatalogSync.hash(video("v1", "One", 10)), CatalogSync.hash(withTmdb));
+        assertTrue(CatalogSync.toDocument(withTmdb).containsKey("overview"));
+        assertFalse(CatalogSync.toDocument(video("v1", "One", 10)).containsKey("overview"));
+    }
+}
@@ -0,0 +1,67 @@
+package com.streaming.analytics.repository;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonDocument;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the partitioning and combiners of ParallelAggregator
+ */
+class ParallelAggregatorTest {
+
+    private static final Instant START = Instant.parse("2024-03-01T00:00:00Z");
+
+    @Test
+    @DisplayName("Time ranges should tile the range without gaps or overlaps")
+    void testTimeRanges() {
+        List<Bson> ranges = ParallelAggregator.timeRanges("timestamp", START, START.plusSeconds(100), 4);
+        assertEquals(4, ranges.size());
+        long previousEnd = START.toEpochMilli();
+        for (Bson range : ranges) {
+            BsonDocument bounds = bounds(range);
+            assertEquals(previousEnd, bounds.getDateTime("$gte").getValue());
+            previousEnd = bounds.getDateTime("$lt").getValue();
+        }
+        assertEquals(START.plusSeconds(100).toEpochMilli(), previousEnd);
+
+        List<Bson> open = ParallelAggregator.timeRanges("timestamp", Instant.now().minusSeconds(60), null, 3);
+        assertEquals(3, open.size());
+        assertFalse(bounds(open.get(2)).containsKey("$lt"), "The last slice stays open without an end");
+    }
+
+    @Test
+    @DisplayName("Combiners should add partial counts and totals")
+    void testCombiners() {
+        Map<String, Long> counts = new HashMap<>(Map.of("tv", 2L, "mobile", 1L));
+        ParallelAggregator.sumCounts(counts, Map.of("tv", 3L, "tablet", 4L));
+        assertEquals(Map.of("tv", 5L, "mobile", 1L, "tablet", 4L), counts);
+
+        Map<String, long[]> totals = new HashMap<>();
+        totals.put("2024-03-01", new long[] { 2, 100 });
+        Map<String, long[]> other = new HashMap<>();
+        other.put("2024-03-01", new long[] { 1, 50 });
+        other.put("2024-03-02", new long[] { 4, 10 });
+        ParallelAggregator.sumTotals(totals, other);
+        assertArrayEquals(new long[] { 3, 150 }, totals.get("2024-03-01"));
+        assertArrayEquals(new long[] { 4, 10 }, totals.get("2024-03-02"));
+    }
+
+    private static BsonDocument bounds(Bson range) {
+        BsonDocument document = range.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+        if (document.containsKey("$and")) {
+            BsonDocument merged = new BsonDocument();
+            document.getArray("$and").forEach(value -> merged.putAll(value.asDocument().getDocument("timestamp")));
+            return merged;
+        }
+        return document.getDocument("timestamp");
+    }
+}
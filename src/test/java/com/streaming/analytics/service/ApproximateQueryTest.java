@@ -0,0 +1,142 @@
+package com.streaming.analytics.service;
+
+import com.streaming.analytics.model.ViewEvent;
+import com.streaming.analytics.repository.EventFilter;
+import com.streaming.analytics.sketch.Estimate;
+import org.bson.Document;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Approximate breakdowns and period counts over the in-memory pipeline
+ */
+class ApproximateQueryTest {
+
+    private static final String[] ACTIONS = { "WATCH", "PAUSE", "STOP", "RESUME", "SEEK" };
+    private static final String[] DEVICES = { "mobile", "desktop", "tablet", "tv", "console" };
+    private static final String[] QUALITIES = { "360p", "480p", "720p", "1080p", "4K" };
+    private static final int EVENTS = 200_000;
+
+    @Test
+    @DisplayName("Sample sizes should move towards the latency target within their limits")
+    void testSampleSizer() {
+        SampleSizer sizer = new SampleSizer(100, 10_000, 1_000, 50_000);
+        sizer.record(10_000, 50);
+        assertEquals(15_000, sizer.getSize(), "Twice as fast as the target: grow halfway to double");
+        sizer.record(15_000, 600);
+        assertEquals(8_750, sizer.getSize());
+        for (int i = 0; i < 20; i++) {
+            sizer.record(sizer.getSize(), 10_000);
+        }
+        assertEquals(1_000, sizer.getSize());
+        assertThrows(IllegalArgumentException.class, () -> new SampleSizer(100, 10, 50, 20));
+    }
+
+    @Test
+    @DisplayName("Estimated counts should stay near the exact counts and report their intervals")
+    void testApproximateBreakdown() {
+        InMemoryServices services = new InMemoryServices();
+        Instant now = Instant.now();
+        for (int i = 0; i < EVENTS; i++) {
+            // Skewed devices: mobile 50%, desktop 25%, ...
+            int device = Integer.numberOfTrailingZeros(i + 1) % DEVICES.length;
+            services.events.save(new ViewEvent("e" + i, "user_" + (i % 1000), "video_" + (i % 97),
+                    now.minusSeconds(i * 4L), ACTIONS[i % 5], i % 600, QUALITIES[i / 5 % 5], DEVICES[device]));
+        }
+        services.analytics.setSampleSizer(new SampleSizer(10_000, 10_000, 10_000, 10_000));
+
+        EventFilter recent = new EventFilter(now.minus(7, ChronoUnit.DAYS), null, null);
+        List<String> dimensions = List.of("deviceType", "quality", "action");
+        AnalyticsService.Breakdown exact = services.analytics.getBreakdown(dimensions, recent);
+        AnalyticsService.Breakdown approx = services.analytics.getBreakdown(dimensions, recent, true);
+        assertFalse(exact.isApproximate());
+        assertTrue(approx.isApproximate());
+
+        for (String dimension : dimensions) {
+            Map<String, Long> truth = exact.getCounts(dimension);
+            Map<String, Estimate> estimates = approx.getEstimates().get(dimension);
+            assertEquals(truth.keySet(), estimates.keySet());
+            for (Map.Entry<String, Long> entry : truth.entrySet()) {
+                Estimate estimate = estimates.get(entry.getKey());
+                // 3 times the 95% half-width: fails about once in 10^8 runs
+                double halfWidth = (estimate.getHigh() - estimate.getLow()) / 2.0;
+                assertEquals(entry.getValue(), estimate.getValue(), 3 * halfWidth + 1,
+                        dimension + "=" + entry.getKey() + ": " + estimate);
+                assertTrue(halfWidth < entry.getValue() * 0.25, "Interval too wide: " + estimate);
+            }
+        }
+
+        List<Document> days = services.analytics.aggregateByTimePeriod("day", recent, true);
+        assertFalse(days.isEmpty());
+        long total = days.stream().mapToLong(day -> ((Number) day.get("count")).longValue()).sum();
+        long exactTotal = services.analytics.aggregateByTimePeriod("day", recent).stream()
+                .mapToLong(day -> ((Number) day.get("count")).longValue()).sum();
+        assertEquals(exactTotal, total, exactTotal * 0.03);
+        for (Document day : days) {
+            assertTrue(day.getLong("low") <= day.getLong("count") && day.getLong("count") <= day.getLong("high"));
+        }
+    }
+
+    @Test
+    @DisplayName("95% intervals of a narrow window should cover the exact counts about 95% of the time")
+    void testIntervalCoverage() {
+        InMemoryServices services = new InMemoryServices();
+        Instant now = Instant.now();
+        for (int i = 0; i < EVENTS; i++) {
+            int device = Integer.numberOfTrailingZeros(i + 1) % DEVICES.length;
+            services.events.save(new ViewEvent("e" + i, "user_" + (i % 1000), "video_" + (i % 97),
+                    now.minusSeconds(i * 4L), ACTIONS[i % 5], i % 600, QUALITIES[i / 5 % 5], DEVICES[device]));
+        }
+        services.analytics.setSampleSizer(new SampleSizer(10_000, 5_000, 5_000, 5_000));
+
+        // About a tenth of the events: the useful sample must not shrink with the window
+        EventFilter window = new EventFilter(now.minus(1, ChronoUnit.DAYS), null, null);
+        List<String> dimensions = List.of("deviceType", "quality", "action");
+        AnalyticsService.Breakdown exact = services.analytics.getBreakdown(dimensions, window);
+        int draws = 200;
+        int intervals = 0;
+        int covered = 0;
+        for (int draw = 0; draw < draws; draw++) {
+            AnalyticsService.Breakdown approx = services.analytics.getBreakdown(dimensions, window, true);
+            for (String dimension : dimensions) {
+                for (Map.Entry<String, Long> entry : exact.getCounts(dimension).entrySet()) {
+                    Estimate estimate = approx.getEstimates().get(dimension).get(entry.getKey());
+                    intervals++;
+                    if (estimate != null && estimate.contains(entry.getValue())) {
+                        covered++;
+                    }
+                    if (draw == 0 && estimate != null) {
+                        double halfWidth = (estimate.getHigh() - estimate.getLow()) / 2.0;
+                        assertTrue(halfWidth < entry.getValue() * 0.25, "Interval too wide: " + estimate);
+                    }
+                }
+            }
+        }
+        double coverage = covered / (double) intervals;
+        assertTrue(coverage > 0.92 && coverage < 0.99, "Empirical coverage of the 95% intervals: " + coverage);
+    }
+
+    @Test
+    @DisplayName("Approximate queries over few events should count them all")
+    void testSmallPopulation() {
+        InMemoryServices services = new InMemoryServices();
+        Instant now = Instant.now();
+        services.processor.processBatch(List.of(
+                new ViewEvent("e1", "user_1", "video_1", now.minus(1, ChronoUnit.HOURS), "WATCH", 60, "4K", "tv"),
+                new ViewEvent("e2", "user_2", "video_1", now.minus(1, ChronoUnit.HOURS), "PAUSE", 0, "4K", "mobile")));
+
+        AnalyticsService.Breakdown approx = services.analytics.getBreakdown(List.of("deviceType"),
+                new EventFilter(now.minus(1, ChronoUnit.DAYS), null, null), true);
+        Estimate tv = approx.getEstimates().get("deviceType").get("tv");
+        assertEquals(1, tv.getValue());
+        assertEquals(1, tv.getLow());
+        assertEquals(1, tv.getHigh());
+    }
+}
@@ -0,0 +1,208 @@
+package com.streaming.analytics.service;
+
+import com.streaming.analytics.model.Video;
+import com.streaming.analytics.model.VideoStats;
+import com.streaming.analytics.model.ViewEvent;
+import com.streaming.analytics.repository.EventFilter;
+import org.bson.Document;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * EventProcessorService and AnalyticsService end to end on the in-memory repositories
+ */
+class InMemoryPipelineTest {
+
+    private static Video video(String videoId, String category, int views) {
+        Video video = new Video();
+        video.setVideoId(videoId);
+        video.setTitle("Title " + videoId);
+        video.setCategory(category);
+        video.setDuration(600);
+        video.setViews(views);
+        return video;
+    }
+
+    @Test
+    @DisplayName("Processed events should drive stats, profiles, recommendations and aggregations")
+    void testPipeline() {
+        InMemoryServices services = new InMemoryServices();
+        services.videos.saveBatch(List.of(
+                video("video_1", "Action", 500),
+                video("video_2", "Action", 400),
+                video("video_3", "Action", 300),
+                video("video_4", "Drama", 900)));
+
+        Instant now = Instant.now();
+        List<ViewEvent> events = new ArrayList<>();
+        events.add(new ViewEvent("e1", "user_1", "video_1", now, "WATCH", 100, "720p", "mobile"));
+        events.add(new ViewEvent("e2", "user_1", "video_1", now, "PAUSE", 0, "720p", "mobile"));
+        events.add(new ViewEvent("e3", "user_2", "video_1", now, "WATCH", 300, "4K", "tv"));
+        assertEquals(3, services.processor.processBatch(events));
+        services.processor.processEvent(
+                new ViewEvent("e4", "user_1", "video_2", now, "WATCH", 50, "720p", "mobile"));
+
+        VideoStats stats = services.processor.getVideoStats("video_1");
+        assertEquals(2, stats.getTotalViews(), "Only WATCH events count as views");
+        assertEquals(4, services.processor.getTotalEventCount());
+
+        List<Video> recommendations = services.processor.getRecommendations("user_1", 3);
+        assertEquals("video_3", recommendations.get(0).getVideoId(), "Watched Action videos are excluded");
+
+        Map<String, Long> devices = services.analytics.aggregateByDevice();
+        assertEquals(List.of("mobile", "tv"), new ArrayList<>(devices.keySet()));
+        assertEquals(3L, devices.get("mobile"));
+        assertEquals(3L, services.analytics.aggregateByAction().get("WATCH"));
+        assertEquals(4L, services.analytics.getHourlyStats().values().stream().mapToLong(Long::longValue).sum());
+
+        List<Document> days = services.analytics.aggregateByTimePeriod("day");
+        assertEquals(1, days.size());
+        assertEquals(112.5, days.get(0).getDouble("avgDuration"), 0.001);
+
+        assertEquals(2, services.events.countViews("video_1", now.minus(1, ChronoUnit.HOURS),
+                now.plus(1, ChronoUnit.HOURS)));
+        assertEquals(4, services.analytics.getDashboardSummary().getTotalVideos());
+    }
+
+    @Test
+    @DisplayName("Category breakdown should count every video and weight durations by views")
+    void testCategoryBreakdown() {
+        InMemoryServices services = new InMemoryServices();
+        services.videos.saveBatch(List.of(
+                video("video_1", "Action", 0),
+                video("video_2", "Action", 0),
+                video("video_3", "Drama", 0)));
+
+        Instant now = Instant.now();
+        services.processor.processBatch(new ArrayList<>(List.of(
+                new ViewEvent("e1", "user_1", "video_1", now, "WATCH", 100, "720p", "mobile"),
+                new ViewEvent("e2", "user_2", "video_1", now, "WATCH", 200, "720p", "mobile"),
+                new ViewEvent("e3", "user_1", "video_2", now, "WATCH", 600, "720p", "tv"))));
+
+        Map<String, AnalyticsService.CategoryStats> categories = services.analytics.aggregateByCategory();
+        assertEquals(2, categories.size());
+        assertEquals(2, categories.get("Action").getVideoCount());
+        assertEquals(3, categories.get("Action").getTotalViews());
+        assertEquals(300.0, categories.get("Action").getAvgDuration(), 0.001);
+        assertEquals(1, categories.get("Drama").getVideoCount(), "Videos without stats still count");
+        assertEquals(0, categories.get("Drama").getTotalViews());
+        assertEquals(300.0, services.analytics.getAvgDurationByCategory().get("Action"), 0.001);
+    }
+
+    @Test
+    @DisplayName("Trending should rank catalog videos by 24h views against their 7-day daily average")
+    void testTrending() {
+        InMemoryServices services = new InMemoryServices();
+        services.videos.saveBatch(List.of(
+                video("video_1", "Action", 0),
+                video("video_2", "Action", 0),
+                video("video_3", "Drama", 0)));
+
+        Instant now = Instant.now();
+        List<ViewEvent> events = new ArrayList<>();
+        int id = 0;
+        // video_1: 3 views today, 7 over the previous days (1/day) -> score 3
+        for (int i = 0; i < 3; i++) {
+            events.add(new ViewEvent("e" + id++, "user_1", "video_1", now.minus(i + 1, ChronoUnit.HOURS), "WATCH", 60, "720p", "tv"));
+        }
+        for (int i = 0; i < 7; i++) {
+            events.add(new ViewEvent("e" + id++, "user_1", "video_1", now.minus(30 + i * 12, ChronoUnit.HOURS), "WATCH", 60, "720p", "tv"));
+        }
+        // video_2: 1 view today, 14 before (2/day) -> score 0.5
+        events.add(new ViewEvent("e" + id++, "user_2", "video_2", now.minus(2, ChronoUnit.HOURS), "WATCH", 60, "720p", "tv"));
+        for (int i = 0; i < 14; i++) {
+            events.add(new ViewEvent("e" + id++, "user_2", "video_2", now.minus(30 + i * 6, ChronoUnit.HOURS), "WATCH", 60, "720p", "tv"));
+        }
+        // video_3: 2 views today and none before -> score 2; pauses and 8-day-old views do not count
+        events.add(new ViewEvent("e" + id++, "user_3", "video_3", now.minus(3, ChronoUnit.HOURS), "WATCH", 60, "720p", "tv"));
+        events.add(new ViewEvent("e" + id++, "user_3", "video_3", now.minus(4, ChronoUnit.HOURS), "WATCH", 60, "720p", "tv"));
+        events.add(new ViewEvent("e" + id++, "user_3", "video_3", now.minus(5, ChronoUnit.HOURS), "PAUSE", 0, "720p", "tv"));
+        events.add(new ViewEvent("e" + id++, "user_3", "video_3", now.minus(8, ChronoUnit.DAYS), "WATCH", 60, "720p", "tv"));
+        // video_9 is not in the catalog
+        for (int i = 0; i < 5; i++) {
+            events.add(new ViewEvent("e" + id++, "user_4", "video_9", now.minus(1, ChronoUnit.HOURS), "WATCH", 60, "720p", "tv"));
+        }
+        services.processor.processBatch(events);
+
+        List<AnalyticsService.TrendingVideo> trending = services.analytics.detectTrending(5);
+        assertEquals(2, trending.size());
+        assertEquals("video_1", trending.get(0).getVideo().getVideoId());
+        assertEquals(3, trending.get(0).getViews24h());
+        assertEquals(3.0, trending.get(0).getTrendScore(), 0.001);
+        assertEquals(10, trending.get(0).getTotalViews());
+        assertEquals("video_3", trending.get(1).getVideo().getVideoId());
+        assertEquals(2.0, trending.get(1).getTrendScore(), 0.001);
+
+        assertEquals(1, services.analytics.detectTrending(1).size());
+    }
+
+    @Test
+    @DisplayName("Breakdown should count several dimensions at once, all-time or in a time range")
+    void testBreakdown() {
+        InMemoryServices services = new InMemoryServices();
+        Instant now = Instant.now();
+        services.processor.processBatch(List.of(
+                new ViewEvent("e1", "user_1", "video_1", now.minus(3, ChronoUnit.DAYS), "WATCH", 60, "720p", "tv"),
+                new ViewEvent("e2", "user_1", "video_1", now.minus(1, ChronoUnit.HOURS), "WATCH", 60, "4K", "tv"),
+                new ViewEvent("e3", "user_2", "video_1", now.minus(1, ChronoUnit.HOURS), "PAUSE", 0, "4K", "mobile")));
+
+        AnalyticsService.Breakdown all = services.analytics.getBreakdown(List.of("deviceType", "quality"), null, null);
+        assertEquals(Map.of("tv", 2L, "mobile", 1L), all.getCounts("deviceType"));
+        assertEquals(Map.of("4K", 2L, "720p", 1L), all.getCounts("quality"));
+        assertTrue(all.getCounts("action").isEmpty(), "Only requested dimensions are counted");
+
+        AnalyticsService.Breakdown recent = services.analytics.getBreakdown(List.of("deviceType", "action"),
+                now.minus(1, ChronoUnit.DAYS), now);
+        assertEquals(Map.of("tv", 1L, "mobile", 1L), recent.getCounts("deviceType"));
+        assertEquals(Map.of("WATCH", 1L, "PAUSE", 1L), recent.getCounts("action"));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> services.analytics.getBreakdown(List.of("userId"), null, null));
+    }
+
+    @Test
+    @DisplayName("Breakdowns and period counts should honour time, video and category filters")
+    void testFilteredAggregations() {
+        InMemoryServices services = new InMemoryServices();
+        services.videos.saveBatch(List.of(
+                video("video_1", "Action", 0),
+                video("video_2", "Action", 0),
+                video("video_3", "Drama", 0)));
+        Instant now = Instant.now();
+        services.processor.processBatch(new ArrayList<>(List.of(
+                new ViewEvent("e1", "user_1", "video_1", now.minus(3, ChronoUnit.DAYS), "WATCH", 60, "720p", "tv"),
+                new ViewEvent("e2", "user_1", "video_1", now.minus(1, ChronoUnit.HOURS), "WATCH", 60, "4K", "tv"),
+                new ViewEvent("e3", "user_2", "video_2", now.minus(1, ChronoUnit.HOURS), "PAUSE", 0, "4K", "mobile"),
+                new ViewEvent("e4", "user_2", "video_3", now.minus(1, ChronoUnit.HOURS), "WATCH", 30, "480p", "tv"))));
+
+        EventFilter recent = services.analytics.eventFilter(now.minus(1, ChronoUnit.DAYS), null, null, null);
+        assertEquals(Map.of("tv", 2L, "mobile", 1L), services.analytics.aggregateByDevice(recent));
+
+        EventFilter video = services.analytics.eventFilter(null, null, "video_1", null);
+        assertEquals(Map.of("720p", 1L, "4K", 1L), services.analytics.aggregateByQuality(video));
+
+        EventFilter action = services.analytics.eventFilter(null, null, null, "Action");
+        assertEquals(Map.of("WATCH", 2L, "PAUSE", 1L), services.analytics.aggregateByAction(action));
+        EventFilter recentAction = services.analytics.eventFilter(now.minus(1, ChronoUnit.DAYS), now, null, "Action");
+        assertEquals(Map.of("WATCH", 1L, "PAUSE", 1L), services.analytics.aggregateByAction(recentAction));
+        assertEquals(List.of("video_2"), services.analytics.eventFilter(null, null, "video_2", "Action").getVideoIds());
+
+        List<Document> days = services.analytics.aggregateByTimePeriod("day", video);
+        assertEquals(2, days.size());
+        assertEquals(1L, ((Number) days.get(0).get("count")).longValue());
+        List<Document> recentDays = services.analytics.aggregateByTimePeriod("hour", recent);
+        assertEquals(3L, recentDays.stream().mapToLong(day -> ((Number) day.get("count")).longValue()).sum());
+
+        assertTrue(services.analytics.aggregateByDevice(services.analytics.eventFilter(null, null, null, "Horror"))
+                .isEmpty(), "A category without videos matches nothing");
+        assertThrows(IllegalArgumentException.class, () -> new EventFilter(now, now, null));
+    }
+}
@@ -0,0 +1,92 @@
+package com.streaming.analytics.service;
+
+import com.streaming.analytics.repository.memory.InMemoryEventRepository;
+import com.streaming.analytics.repository.memory.InMemoryEventRollupRepository;
+import com.streaming.analytics.repository.memory.InMemoryUserProfileRepository;
+import com.streaming.analytics.repository.memory.InMemoryVideoRepository;
+import com.streaming.analytics.repository.memory.InMemoryVideoStatsRepository;
+import com.streaming.analytics.repository.memory.InMemoryWatchHistoryRepository;
+import com.streaming.analytics.state.EventCubeService;
+import com.streaming.analytics.state.GlobalCounters;
+import com.streaming.analytics.state.HeavyHitterService;
+import com.streaming.analytics.state.TrendingService;
+import com.streaming.analytics.state.UniqueViewerService;
+import com.streaming.analytics.state.VideoCounterService;
+import com.streaming.analytics.state.WatchTimeService;
+import com.streaming.analytics.state.WindowedTopService;
+
+import java.lang.reflect.Field;
+
+/**
+ * Wires EventProcessorService and AnalyticsService on the in-memory repositories, without a CDI container
+ */
+class InMemoryServices {
+
+    final InMemoryEventRepository events = new InMemoryEventRepository();
+    final InMemoryEventRollupRepository rollups = new InMemoryEventRollupRepository();
+    final InMemoryVideoRepository videos = new InMemoryVideoRepository();
+    final InMemoryVideoStatsRepository stats = new InMemoryVideoStatsRepository();
+    final InMemoryUserProfileRepository profiles = new InMemoryUserProfileRepository();
+    final InMemoryWatchHistoryRepository watchHistory = new InMemoryWatchHistoryRepository();
+
+    final EventProcessorService processor = new EventProcessorService();
+    final AnalyticsService analytics = new AnalyticsService();
+
+    // Not initialized (disabled) unless a test calls init()
+    final UniqueViewerService uniqueViewers = new UniqueViewerService();
+    final WatchTimeService watchTime = new WatchTimeService();
+    final HeavyHitterService heavyHitters = new HeavyHitterService();
+    final WindowedTopService windowedTop = new WindowedTopService();
+
+    InMemoryServices() {
+        inject(videos, "statsRepository", stats);
+        inject(events, "videoRepository", videos);
+
+        // Not initialized, so the optional mapped counters stay disabled
+        // and totals, trending and breakdowns are counted from the repositories
+        VideoCounterService videoCounters = new VideoCounterService();
+        GlobalCounters globalCounters = new GlobalCounters();
+        TrendingService trending = new TrendingService();
+        EventCubeService eventCube = new EventCubeService();
+        inject(uniqueViewers, "statsRepository", stats);
+        inject(uniqueViewers, "videoRepository", videos);
+        inject(watchTime, "statsRepository", stats);
+        inject(watchTime, "videoRepository", videos);
+
+        inject(processor, "eventRepository", events);
+        inject(processor, "rollupRepository", rollups);
+        inject(processor, "statsRepository", stats);
+        inject(processor, "userProfileRepository", profiles);
+        inject(processor, "videoRepository", videos);
+        inject(processor, "watchHistoryRepository", watchHistory);
+        inject(processor, "videoCounters", videoCounters);
+        inject(processor, "globalCounters", globalCounters);
+        inject(processor, "trendingService", trending);
+        inject(processor, "eventCube", eventCube);
+        inject(processor, "uniqueViewers", uniqueViewers);
+        inject(processor, "watchTime", watchTime);
+        inject(processor, "heavyHitters", heavyHitters);
+        inject(processor, "windowedTop", windowedTop);
+        inject(processor, "statsRebuild", new StatsRebuildService());
+
+        inject(analytics, "eventRepository", events);
+        inject(analytics, "rollupRepository", rollups);
+        inject(analytics, "videoRepository", videos);
+        inject(analytics, "statsRepository", stats);
+        inject(analytics, "videoCounters", videoCounters);
+        inject(analytics, "globalCounters", globalCounters);
+        inject(analytics, "trendingService", trending);
+        inject(analytics, "eventCube", eventCube);
+        inject(analytics, "watchTime", watchTime);
+    }
+
+    private static void inject(Object target, String name, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot inject " + name + " into " + target.getClass(), e);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.streaming.analytics.service;
+
+import com.mongodb.client.model.Filters;
+import com.streaming.analytics.repository.EventWatermarks;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the materialized view pipelines and watermarks
+ */
+class MaterializedViewTest {
+
+    private static BsonDocument stage(List<Bson> pipeline, int index) {
+        return pipeline.get(index).toBsonDocument();
+    }
+
+    @Test
+    @DisplayName("Upper bound should cover every id of its second and none of the next")
+    void testUpperBound() {
+        Instant second = Instant.parse("2024-03-01T12:00:00Z");
+        ObjectId bound = EventWatermarks.upperBound(second);
+
+        assertTrue(new ObjectId(Date.from(second)).compareTo(bound) < 0);
+        assertTrue(new ObjectId(Date.from(second.plusSeconds(1))).compareTo(bound) > 0);
+        assertEquals(second, bound.getDate().toInstant());
+    }
+
+    @Test
+    @DisplayName("Refresh should group the batch and merge it at most once per view document")
+    void testRefreshPipeline() {
+        MaterializedView view = MaterializedView.hourly("events_by_hour");
+        ObjectId batch = EventWatermarks.upperBound(Instant.parse("2024-03-01T12:00:00Z"));
+        List<Bson> pipeline = view.refreshPipeline(Filters.gt("_id", new ObjectId(new Date(0))), batch);
+
+        assertEquals(4, pipeline.size());
+        assertTrue(stage(pipeline, 0).containsKey("$match"));
+        BsonDocument group = stage(pipeline, 1).getDocument("$group");
+        assertEquals("$duration", group.getDocument("totalDuration").getString("$sum").getValue());
+        assertEquals(batch, stage(pipeline, 2).getDocument("$set").getObjectId("w").getValue());
+
+        BsonDocument merge = stage(pipeline, 3).getDocument("$merge");
+        assertEquals("events_by_hour", merge.getString("into").getValue());
+        assertEquals("insert", merge.getString("whenNotMatched").getValue());
+        BsonDocument set = merge.getArray("whenMatched").get(0).asDocument().getDocument("$set");
+        assertEquals(List.of("count", "totalDuration", "w"), List.copyOf(set.keySet()),
+                "Every sum and the batch id are guarded by the same applied check");
+    }
+
+    @Test
+    @DisplayName("Build should union the compacted sessions and regroup them with the raw events")
+    void testBuildPipeline() {
+        MaterializedView view = MaterializedView.hourly("events_by_hour");
+        List<Bson> pipeline = view.buildPipeline(Filters.exists("_id"), Filters.lt("start", new Date()),
+                EventWatermarks.SESSIONS_COLLECTION, new ObjectId());
+
+        BsonDocument union = stage(pipeline, 2).getDocument("$unionWith");
+        assertEquals(EventWatermarks.SESSIONS_COLLECTION, union.getString("coll").getValue());
+        assertEquals("$hours",
+                union.getArray("pipeline").get(1).asDocument().getString("$unwind").getValue());
+        assertEquals("$count",
+                stage(pipeline, 3).getDocument("$group").getDocument("count").getString("$sum").getValue());
+    }
+
+    @Test
+    @DisplayName("Refresh should fold in late events before the baseline that the build did not read from sessions")
+    void testRefreshFilter() {
+        ObjectId watermark = EventWatermarks.upperBound(Instant.parse("2024-03-01T12:00:00Z"));
+        ObjectId batch = EventWatermarks.upperBound(Instant.parse("2024-03-01T12:01:00Z"));
+        ObjectId compactedUpTo = EventWatermarks.upperBound(Instant.parse("2024-03-01T11:00:00Z"));
+        Date baseline = Date.from(Instant.parse("2024-03-01T00:00:00Z"));
+
+        BsonDocument unbounded = MaterializedViewJob.refreshFilter(new Document("watermark", watermark)
+                .append("baseline", null), batch).toBsonDocument();
+        assertEquals(2, unbounded.getArray("$and").size(), "Without a baseline only the _id range applies");
+
+        BsonDocument filter = MaterializedViewJob.refreshFilter(new Document("watermark", watermark)
+                .append("baseline", baseline)
+                .append("compactedUpTo", compactedUpTo), batch).toBsonDocument();
+        BsonDocument notCompacted = filter.getArray("$and").get(1).asDocument();
+        assertEquals(Filters.or(Filters.gte("timestamp", baseline), Filters.gt("_id", compactedUpTo)).toBsonDocument(),
+                notCompacted, "A late event is counted whatever its timestamp");
+    }
+}
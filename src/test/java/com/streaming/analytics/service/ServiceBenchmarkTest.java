@@ -0,0 +1,85 @@
+package com.streaming.analytics.service;
+
+import com.streaming.analytics.model.Video;
+import com.streaming.analytics.model.ViewEvent;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Throughput of EventProcessorService and AnalyticsService on the in-memory repositories,
+ * i.e. the application's own overhead without a database
+ * Run with: mvn test -Dbenchmarks=true -Dtest=ServiceBenchmarkTest
+ */
+@EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+class ServiceBenchmarkTest {
+
+    private static final String[] ACTIONS = { "WATCH", "PAUSE", "STOP", "RESUME", "SEEK" };
+    private static final String[] QUALITIES = { "360p", "480p", "720p", "1080p", "4K" };
+    private static final String[] DEVICES = { "mobile", "desktop", "tablet", "tv", "console" };
+    private static final String[] CATEGORIES = { "Action", "Comedy", "Drama", "Horror", "Sci-Fi" };
+
+    private static final int VIDEOS = 1_000;
+    private static final int USERS = 10_000;
+    private static final int EVENTS = 500_000;
+    private static final int BATCH_SIZE = 1_000;
+
+    @Test
+    @DisplayName("Ingest and analytics throughput at memory speed")
+    void benchmarkInMemory() {
+        InMemoryServices services = new InMemoryServices();
+        List<Video> videos = new ArrayList<>();
+        for (int v = 0; v < VIDEOS; v++) {
+            Video video = new Video();
+            video.setVideoId("video_" + v);
+            video.setCategory(CATEGORIES[v % CATEGORIES.length]);
+            video.setViews(v);
+            videos.add(video);
+        }
+        services.videos.saveBatch(videos);
+
+        Instant now = Instant.now();
+        long start = System.nanoTime();
+        List<ViewEvent> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < EVENTS; i++) {
+            batch.add(new ViewEvent("e" + i, "user_" + (i % USERS), "video_" + (i * 31 % VIDEOS),
+                    now.minusSeconds(i % 86_400), ACTIONS[i % ACTIONS.length], i % 3_600,
+                    QUALITIES[i % QUALITIES.length], DEVICES[i % DEVICES.length]));
+            if (batch.size() == BATCH_SIZE) {
+                services.processor.processBatch(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+        report("processBatch (events)", EVENTS, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        int runs = 20;
+        for (int i = 0; i < runs; i++) {
+            services.analytics.aggregateByDevice();
+            services.analytics.aggregateByAction();
+            services.analytics.getHourlyStats();
+        }
+        report("device+action+hourly", runs, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            services.analytics.getDashboardSummary();
+        }
+        report("dashboard summary", runs, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < USERS; i++) {
+            services.processor.getRecommendations("user_" + i, 10);
+        }
+        report("recommendations", USERS, System.nanoTime() - start);
+    }
+
+    private static void report(String name, int operations, long nanos) {
+        System.out.printf("%-24s %,10d ops in %,8d ms = %,12.0f ops/sec%n",
+                name, operations, nanos / 1_000_000, operations / (nanos / 1e9));
+    }
+}
@@ -0,0 +1,82 @@
+package com.streaming.analytics.service;
+
+import com.streaming.analytics.model.Video;
+import com.streaming.analytics.model.VideoStats;
+import com.streaming.analytics.model.ViewEvent;
+import com.streaming.analytics.state.UniqueViewerService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unique viewer sketches on the in-memory ingest path
+ */
+class UniqueViewersTest {
+
+    @Test
+    @DisplayName("Unique viewers should be estimated per video, category and globally from merged sketches")
+    void testUniqueViewers() {
+        InMemoryServices services = new InMemoryServices();
+        services.uniqueViewers.init();
+        try {
+            Instant now = Instant.now();
+            services.videos.save(new Video("video_1", "One", "Music", 300, now));
+            services.videos.save(new Video("video_2", "Two", "Music", 300, now));
+            services.videos.save(new Video("video_3", "Three", "Drama", 300, now));
+
+            List<ViewEvent> events = new ArrayList<>();
+            watches(events, "video_1", 0, 1_000, now);
+            watches(events, "video_2", 500, 1_500, now);
+            watches(events, "video_3", 0, 2_000, now);
+            // Repeat views and other actions add no viewers
+            watches(events, "video_1", 0, 1_000, now);
+            events.add(new ViewEvent("pause", "user_9999", "video_1", now, "PAUSE", 0, "4K", "tv"));
+            services.processor.processBatch(events);
+
+            // Unflushed viewers are already counted
+            assertWithinError(1_000, services.processor.getVideoStats("video_1"));
+
+            assertEquals(3, services.uniqueViewers.flush());
+            assertEquals(0, services.uniqueViewers.flush());
+            VideoStats video1 = services.processor.getVideoStats("video_1");
+            assertWithinError(1_000, video1);
+            assertEquals(video1.getUniqueViewers(), services.stats.getStats("video_1").getUniqueViewers(),
+                    "The flush stores the estimate with the sketch");
+            assertWithinError(1_000, services.processor.getVideoStats("video_2"));
+
+            // Merged, not summed: video_1 and video_2 share 500 viewers, video_3 covers everyone
+            UniqueViewerService.ViewerCount music = services.uniqueViewers.countCategory("Music");
+            assertEquals(1_500, music.getEstimate(), 3 * music.getStandardError());
+            UniqueViewerService.ViewerCount all = services.uniqueViewers.countAll();
+            assertEquals(2_000, all.getEstimate(), 3 * all.getStandardError());
+            assertEquals(0, services.uniqueViewers.countCategory("Comedy").getEstimate());
+
+            // Later viewers merge into the stored sketch
+            List<ViewEvent> later = new ArrayList<>();
+            watches(later, "video_1", 1_000, 1_500, now);
+            services.processor.processBatch(later);
+            services.uniqueViewers.flush();
+            assertWithinError(1_500, services.processor.getVideoStats("video_1"));
+        } finally {
+            services.uniqueViewers.shutdown();
+        }
+    }
+
+    private static void watches(List<ViewEvent> events, String videoId, int fromUser, int toUser, Instant now) {
+        for (int user = fromUser; user < toUser; user++) {
+            events.add(new ViewEvent(videoId + "_" + user + "_" + events.size(), "user_" + user, videoId,
+                    now, "WATCH", 60, "1080p", "desktop"));
+        }
+    }
+
+    private static void assertWithinError(long expected, VideoStats stats) {
+        assertTrue(stats.getUniqueViewersError() > 0, "No standard error for " + stats.getVideoId());
+        assertEquals(expected, stats.getUniqueViewers(), 3 * stats.getUniqueViewersError(),
+                stats.getVideoId() + " unique viewers");
+    }
+}
@@ -0,0 +1,81 @@
+package com.streaming.analytics.service;
+
+import com.streaming.analytics.model.Video;
+import com.streaming.analytics.model.VideoStats;
+import com.streaming.analytics.model.ViewEvent;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Watch duration percentiles on the in-memory ingest path
+ */
+class WatchTimePercentilesTest {
+
+    @Test
+    @DisplayName("Video and category percentiles should follow the watch durations")
+    void testPercentiles() {
+        InMemoryServices services = new InMemoryServices();
+        services.watchTime.init();
+        try {
+            Instant now = Instant.now();
+            services.videos.save(new Video("video_1", "One", "Music", 300, now));
+            services.videos.save(new Video("video_2", "Two", "Music", 300, now));
+            services.videos.save(new Video("video_3", "Three", "Drama", 300, now));
+
+            // video_1 watched 1..1000 seconds, video_2 1001..2000; PAUSE durations are not watch time
+            List<ViewEvent> events = new ArrayList<>();
+            for (int i = 1; i <= 1_000; i++) {
+                events.add(watch(events.size(), "video_1", i, now));
+                events.add(watch(events.size(), "video_2", 1_000 + i, now));
+            }
+            events.add(new ViewEvent("pause", "user_1", "video_1", now, "PAUSE", 50_000, "4K", "tv"));
+            services.processor.processBatch(events);
+
+            // Unflushed durations are already counted
+            assertPercentiles(Map.of("p50", 500L, "p90", 900L, "p99", 990L),
+                    services.processor.getVideoStats("video_1").getDurationPercentiles());
+
+            assertEquals(2, services.watchTime.flush());
+            assertPercentiles(Map.of("p50", 1_500L, "p90", 1_900L, "p99", 1_990L),
+                    services.processor.getVideoStats("video_2").getDurationPercentiles());
+
+            Map<String, AnalyticsService.CategoryStats> categories = services.analytics.aggregateByCategory(true);
+            assertPercentiles(Map.of("p50", 1_000L, "p90", 1_800L, "p99", 1_980L),
+                    categories.get("Music").getDurationPercentiles());
+            assertNull(services.analytics.aggregateByCategory().get("Music").getDurationPercentiles());
+
+            // Later durations merge into the stored histogram
+            List<ViewEvent> later = new ArrayList<>();
+            for (int i = 0; i < 1_000; i++) {
+                later.add(watch(i, "video_1", 5_000, now));
+            }
+            services.processor.processBatch(later);
+            services.watchTime.flush();
+            VideoStats video1 = services.processor.getVideoStats("video_1");
+            assertPercentiles(Map.of("p50", 1_000L, "p90", 5_000L, "p99", 5_000L), video1.getDurationPercentiles());
+        } finally {
+            services.watchTime.shutdown();
+        }
+    }
+
+    private static ViewEvent watch(int id, String videoId, int duration, Instant now) {
+        return new ViewEvent(videoId + "_" + id + "_" + duration, "user_" + id, videoId, now, "WATCH",
+                duration, "1080p", "desktop");
+    }
+
+    private static void assertPercentiles(Map<String, Long> expected, Map<String, Long> actual) {
+        assertNotNull(actual);
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), actual.get(entry.getKey()), entry.getValue() / 64.0 + 1,
+                    entry.getKey() + " of " + actual);
+        }
+    }
+}
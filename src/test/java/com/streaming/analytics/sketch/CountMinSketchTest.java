@@ -0,0 +1,68 @@
+package com.streaming.analytics.sketch;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the Count-Min sketch
+ */
+class CountMinSketchTest {
+
+    @Test
+    @DisplayName("Estimates should never undercount and stay within the error bound")
+    void testErrorBound() {
+        CountMinSketch sketch = CountMinSketch.forError(0.001, 0.01);
+        assertEquals(2719, sketch.getWidth());
+        assertEquals(5, sketch.getDepth());
+
+        Random random = new Random(3);
+        Map<String, Long> exact = new HashMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            // Skewed: a few items take most of the stream, 50,000 share the rest
+            String item = random.nextInt(4) == 0 ? "hot_" + random.nextInt(10) : "item_" + random.nextInt(50_000);
+            sketch.add(item, 1);
+            exact.merge(item, 1L, Long::sum);
+        }
+
+        assertEquals(200_000, sketch.getTotal());
+        long bound = sketch.errorBound();
+        assertEquals(200, bound, 1);
+        int outside = 0;
+        for (Map.Entry<String, Long> entry : exact.entrySet()) {
+            long estimate = sketch.estimate(entry.getKey());
+            assertTrue(estimate >= entry.getValue(), "Undercount of " + entry.getKey());
+            if (estimate - entry.getValue() > bound) {
+                outside++;
+            }
+        }
+        assertTrue(outside <= exact.size() * (1 - sketch.getConfidence()),
+                outside + " of " + exact.size() + " estimates beyond the bound");
+        assertEquals(0, new CountMinSketch(16, 2).estimate("absent"));
+    }
+
+    @Test
+    @DisplayName("Merged sketches should estimate like one sketch of both streams")
+    void testMerge() {
+        CountMinSketch a = new CountMinSketch(512, 4);
+        CountMinSketch b = new CountMinSketch(512, 4);
+        CountMinSketch both = new CountMinSketch(512, 4);
+        for (int i = 0; i < 5_000; i++) {
+            a.add("item_" + (i % 700), 1);
+            b.add("item_" + (i % 300), 2);
+            both.add("item_" + (i % 700), 1);
+            both.add("item_" + (i % 300), 2);
+        }
+        a.merge(b);
+        assertEquals(both.getTotal(), a.getTotal());
+        for (int i = 0; i < 700; i++) {
+            assertEquals(both.estimate("item_" + i), a.estimate("item_" + i));
+        }
+        assertThrows(IllegalArgumentException.class, () -> a.merge(new CountMinSketch(256, 4)));
+    }
+}
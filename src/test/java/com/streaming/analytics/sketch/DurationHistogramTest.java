@@ -0,0 +1,97 @@
+package com.streaming.analytics.sketch;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the log-linear duration histogram
+ */
+class DurationHistogramTest {
+
+    private static final double[] QUANTILES = { 0.01, 0.25, 0.5, 0.9, 0.99, 0.999 };
+
+    @Test
+    @DisplayName("Quantiles should stay within 1/64 of the exact quantiles")
+    void testAccuracy() {
+        Random random = new Random(7);
+        int size = 200_000;
+        long[] skewed = new long[size];
+        long[] uniform = new long[size];
+        long[] bimodal = new long[size];
+        for (int i = 0; i < size; i++) {
+            // Log-normal watch times (median ~3 minutes), uniform up to 2 hours, quick exits + full watches
+            skewed[i] = Math.round(Math.exp(5.2 + 1.1 * random.nextGaussian()));
+            uniform[i] = random.nextInt(7_200);
+            bimodal[i] = random.nextInt(10) < 7 ? random.nextInt(30) : 2_400 + random.nextInt(600);
+        }
+
+        for (long[] values : Arrays.asList(skewed, uniform, bimodal)) {
+            DurationHistogram histogram = new DurationHistogram();
+            for (long value : values) {
+                histogram.add(value);
+            }
+            long[] sorted = values.clone();
+            Arrays.sort(sorted);
+            for (double q : QUANTILES) {
+                long exact = sorted[(int) Math.max(0, Math.ceil(q * size) - 1)];
+                assertEquals(exact, histogram.quantile(q), exact / 64.0,
+                        "q" + q + " of " + Arrays.toString(Arrays.copyOf(values, 5)));
+            }
+            assertEquals(sorted[0], histogram.quantile(0));
+            assertEquals(sorted[size - 1], histogram.quantile(1));
+            assertTrue(histogram.toBytes().length < 2_000, "Serialized size " + histogram.toBytes().length);
+        }
+    }
+
+    @Test
+    @DisplayName("Merged histograms should equal one histogram of all values")
+    void testMerge() {
+        Random random = new Random(11);
+        DurationHistogram all = new DurationHistogram();
+        DurationHistogram merged = new DurationHistogram();
+        for (int part = 0; part < 8; part++) {
+            DurationHistogram histogram = new DurationHistogram();
+            for (int i = 0; i < 10_000; i++) {
+                long value = random.nextInt(1 << (part * 3 + 4));
+                histogram.add(value);
+                all.add(value);
+            }
+            merged.merge(DurationHistogram.fromBytes(histogram.toBytes()));
+        }
+
+        assertEquals(all.getCount(), merged.getCount());
+        assertEquals(all.getMin(), merged.getMin());
+        assertEquals(all.getMax(), merged.getMax());
+        assertArrayEquals(all.toBytes(), merged.toBytes());
+        for (double q : QUANTILES) {
+            assertEquals(all.quantile(q), merged.quantile(q));
+        }
+    }
+
+    @Test
+    @DisplayName("The number of buckets should be bounded whatever the values")
+    void testBoundedSize() {
+        DurationHistogram histogram = new DurationHistogram();
+        for (long value = 0; value >= 0 && value < Long.MAX_VALUE / 2; value = value * 2 + 1) {
+            for (int step = 0; step < 64; step++) {
+                histogram.add(value + step * (value / 64 + 1));
+            }
+        }
+        histogram.add(Long.MAX_VALUE);
+        assertTrue(histogram.getBucketCount() <= DurationHistogram.MAX_BUCKETS);
+        assertEquals(Long.MAX_VALUE, histogram.quantile(1));
+        assertEquals(0, new DurationHistogram().quantile(0.5));
+
+        DurationHistogram restored = DurationHistogram.fromBytes(histogram.toBytes());
+        assertArrayEquals(histogram.toBytes(), restored.toBytes());
+        assertThrows(IllegalArgumentException.class, () -> histogram.add(-1));
+        assertThrows(IllegalArgumentException.class, () -> histogram.quantile(1.5));
+        assertThrows(IllegalArgumentException.class,
+                () -> DurationHistogram.fromBytes(Arrays.copyOf(histogram.toBytes(), 10)));
+    }
+}
@@ -0,0 +1,70 @@
+package com.streaming.analytics.sketch;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for sample-based count estimates
+ */
+class EstimateTest {
+
+    private static final int POPULATION = 100_000;
+    private static final int SAMPLE = 2_000;
+    private static final int TRIALS = 1_000;
+
+    @Test
+    @DisplayName("95% intervals should contain the true count in about 95% of samples")
+    void testCoverage() {
+        Random random = new Random(42);
+        // Expected hits from 600 down to 20; with only a few expected hits the coverage of any
+        // interval depends on the discrete sample counts
+        for (int count : new int[] { 30_000, 5_000, 1_000 }) {
+            int covered = 0;
+            for (int trial = 0; trial < TRIALS; trial++) {
+                // Items below 'count' have the value; draw SAMPLE distinct items (Floyd's algorithm)
+                Set<Integer> drawn = new HashSet<>();
+                int hits = 0;
+                for (int j = POPULATION - SAMPLE; j < POPULATION; j++) {
+                    int item = random.nextInt(j + 1);
+                    if (!drawn.add(item)) {
+                        item = j;
+                        drawn.add(item);
+                    }
+                    if (item < count) {
+                        hits++;
+                    }
+                }
+                Estimate estimate = Estimate.fromSample(hits, SAMPLE, POPULATION, 0, Estimate.Z95);
+                assertTrue(estimate.getLow() <= estimate.getValue() && estimate.getValue() <= estimate.getHigh());
+                if (estimate.contains(count)) {
+                    covered++;
+                }
+            }
+            assertTrue(covered >= TRIALS * 0.92, count + " covered in only " + covered + " of " + TRIALS + " samples");
+        }
+    }
+
+    @Test
+    @DisplayName("Full samples and exact parts should narrow the interval")
+    void testExactParts() {
+        Estimate full = Estimate.fromSample(40, 100, 100, 5, Estimate.Z95);
+        assertEquals(45, full.getValue());
+        assertEquals(45, full.getLow());
+        assertEquals(45, full.getHigh());
+
+        Estimate absent = Estimate.fromSample(0, 1_000, 1_000_000, 7, Estimate.Z95);
+        assertEquals(7, absent.getValue());
+        assertEquals(7, absent.getLow());
+        assertTrue(absent.getHigh() > 7, "A value absent from the sample may still exist");
+
+        Estimate seen = Estimate.fromSample(3, 1_000, 1_000_000, 0, Estimate.Z95);
+        assertTrue(seen.getLow() >= 3, "The sampled items exist");
+        assertThrows(IllegalArgumentException.class, () -> Estimate.fromSample(5, 4, 10, 0, Estimate.Z95));
+    }
+}
@@ -0,0 +1,82 @@
+package com.streaming.analytics.sketch;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the HyperLogLog sketch
+ */
+class HyperLogLogTest {
+
+    @Test
+    @DisplayName("Estimate should stay within 3 standard errors of the true cardinality")
+    void testEstimateAccuracy() {
+        for (int cardinality : new int[] { 10, 1_000, 100_000 }) {
+            HyperLogLog sketch = new HyperLogLog();
+            for (int i = 0; i < cardinality; i++) {
+                sketch.add("user_" + i);
+            }
+
+            double error = Math.abs(sketch.estimate() - cardinality) / (double) cardinality;
+            assertTrue(error <= 3 * sketch.standardError(),
+                    "Relative error " + error + " too large for cardinality " + cardinality);
+        }
+    }
+
+    @Test
+    @DisplayName("Duplicates should not change the estimate")
+    void testDuplicates() {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 500; i++) {
+                sketch.add("user_" + i);
+            }
+        }
+
+        assertEquals(500, sketch.estimate(), 500 * 3 * sketch.standardError());
+    }
+
+    @Test
+    @DisplayName("Merging sketches should estimate the cardinality of the union")
+    void testMerge() {
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        HyperLogLog union = new HyperLogLog();
+        for (int i = 0; i < 20_000; i++) {
+            a.add("user_" + i);
+            union.add("user_" + i);
+        }
+        for (int i = 10_000; i < 30_000; i++) {
+            b.add("user_" + i);
+            union.add("user_" + i);
+        }
+
+        assertEquals(union.estimate(), a.copy().merge(b).estimate());
+        assertEquals(30_000, a.merge(b).estimate(), 30_000 * 3 * a.standardError());
+    }
+
+    @Test
+    @DisplayName("Serialized sketch should restore to the same estimate")
+    void testSerialization() {
+        HyperLogLog sketch = new HyperLogLog(10);
+        for (int i = 0; i < 5_000; i++) {
+            sketch.add("video_" + i);
+        }
+
+        byte[] bytes = sketch.toBytes();
+        assertEquals((1 << 10) + 2, bytes.length);
+
+        HyperLogLog restored = HyperLogLog.fromBytes(bytes);
+        assertEquals(10, restored.getPrecision());
+        assertEquals(sketch.estimate(), restored.estimate());
+    }
+
+    @Test
+    @DisplayName("Sketches with different precisions should not merge")
+    void testPrecisionMismatch() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new HyperLogLog(10).merge(new HyperLogLog(12)));
+    }
+}
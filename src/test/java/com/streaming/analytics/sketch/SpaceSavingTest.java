@@ -0,0 +1,93 @@
+package com.streaming.analytics.sketch;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the Space-Saving top-k
+ */
+class SpaceSavingTest {
+
+    @Test
+    @DisplayName("Counters should bound the true counts and find the exact top items of a skewed stream")
+    void testZipfStream() {
+        Random random = new Random(5);
+        double[] cumulative = zipf(20_000, 1.1);
+        SpaceSaving topK = new SpaceSaving(500);
+        Map<String, Long> exact = new HashMap<>();
+        for (int i = 0; i < 300_000; i++) {
+            String item = "video_" + draw(cumulative, random);
+            topK.add(item, 1);
+            exact.merge(item, 1L, Long::sum);
+        }
+
+        long minCount = topK.getMinCount();
+        assertTrue(minCount > 0, "All counters should be taken");
+        List<SpaceSaving.Counter> counters = topK.top(500);
+        assertEquals(500, counters.size());
+        for (SpaceSaving.Counter counter : counters) {
+            long count = exact.get(counter.getItem());
+            assertTrue(counter.getLowerBound() <= count && count <= counter.getCount(), counter.getItem());
+        }
+        // Every item counted more often than the smallest counter has a counter
+        for (Map.Entry<String, Long> entry : exact.entrySet()) {
+            if (entry.getValue() > minCount) {
+                assertTrue(counters.stream().anyMatch(c -> c.getItem().equals(entry.getKey())), entry.getKey());
+            }
+        }
+
+        List<String> exactTop = exact.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+                .limit(20)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        assertEquals(exactTop, topK.top(20).stream().map(SpaceSaving.Counter::getItem).collect(Collectors.toList()));
+    }
+
+    @Test
+    @DisplayName("An evicted counter's count should pass to the new item as its error")
+    void testEviction() {
+        SpaceSaving topK = new SpaceSaving(2);
+        topK.add("a", 5);
+        topK.add("b", 2);
+        assertEquals(2, topK.getMinCount());
+        topK.add("c", 1);
+
+        List<SpaceSaving.Counter> top = topK.top(5);
+        assertEquals(2, top.size());
+        assertEquals("a", top.get(0).getItem());
+        assertEquals("c", top.get(1).getItem());
+        assertEquals(3, top.get(1).getCount());
+        assertEquals(2, top.get(1).getError());
+        assertEquals(1, top.get(1).getLowerBound());
+        assertThrows(IllegalArgumentException.class, () -> topK.add("d", 0));
+    }
+
+    static double[] zipf(int items, double exponent) {
+        double[] cumulative = new double[items];
+        double sum = 0;
+        for (int i = 0; i < items; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < items; i++) {
+            cumulative[i] /= sum;
+        }
+        return cumulative;
+    }
+
+    static int draw(double[] cumulative, Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return index >= 0 ? index : Math.min(-index - 1, cumulative.length - 1);
+    }
+}
@@ -0,0 +1,128 @@
+package com.streaming.analytics.state;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the decayed trending rates
+ */
+class DecayedTrendingTest {
+
+    private static final Instant NOW = Instant.parse("2024-03-01T12:00:00Z");
+    private static final Duration SHORT = Duration.ofHours(12);
+    private static final Duration LONG = Duration.ofHours(84);
+
+    @Test
+    @DisplayName("A steady view rate should not trend, a recent burst should")
+    void testSteadyVersusBurst() {
+        DecayedTrending trending = new DecayedTrending(SHORT, LONG, 2, 100);
+        for (int hour = 24 * 14; hour > 0; hour--) {
+            trending.record("steady", NOW.minus(hour, ChronoUnit.HOURS), 10);
+            trending.record("burst", NOW.minus(hour, ChronoUnit.HOURS), 1);
+        }
+        for (int hour = 6; hour > 0; hour--) {
+            trending.record("burst", NOW.minus(hour, ChronoUnit.HOURS), 20);
+        }
+
+        List<DecayedTrending.Entry> top = trending.top(NOW, 1.5, 10);
+        assertEquals(1, top.size());
+        assertEquals("burst", top.get(0).getVideoId());
+        assertTrue(top.get(0).getRatio() > 1.5);
+
+        DecayedTrending.Entry steady = trending.top(NOW, 0, 10).stream()
+                .filter(entry -> entry.getVideoId().equals("steady")).findFirst().orElseThrow();
+        assertEquals(1.0, steady.getRatio(), 0.1, "A steady rate has a ratio of about 1");
+    }
+
+    @Test
+    @DisplayName("Videos below the minimum recent views should not trend")
+    void testMinViews() {
+        DecayedTrending trending = new DecayedTrending(SHORT, LONG, 2, 100);
+        trending.record("single", NOW, 1);
+        assertTrue(trending.top(NOW, 1.5, 10).isEmpty());
+
+        trending.record("single", NOW, 1);
+        assertEquals(1, trending.top(NOW, 1.5, 10).size());
+        assertTrue(trending.top(NOW.plusSeconds(60), 1.5, 10).isEmpty(), "Recent views decay below the minimum");
+    }
+
+    @Test
+    @DisplayName("Candidates should be ordered by ratio and admit videos that overtake them")
+    void testCandidates() {
+        DecayedTrending trending = new DecayedTrending(SHORT, LONG, 1, 2);
+        Instant start = NOW.minus(7, ChronoUnit.DAYS);
+        trending.record("a", start, 10);
+        trending.record("a", NOW, 10);
+        trending.record("b", start, 10);
+        trending.record("b", NOW, 20);
+        trending.record("c", start, 10);
+        trending.record("c", NOW, 5);
+
+        List<DecayedTrending.Entry> top = trending.top(NOW, 0, 10);
+        assertEquals(List.of("b", "a"), ids(top));
+
+        trending.record("c", NOW, 100);
+        top = trending.top(NOW, 0, 10);
+        assertEquals(List.of("c", "b"), ids(top));
+        assertEquals(1, trending.top(NOW, 0, 1).size());
+    }
+
+    @Test
+    @DisplayName("Rates should stay exact across origin rebases")
+    void testRebase() {
+        DecayedTrending trending = new DecayedTrending(Duration.ofHours(1), Duration.ofHours(10), 0, 10);
+        Instant at = NOW;
+        double shortRate = Math.log(2) / 3600;
+        double longRate = Math.log(2) / 36000;
+        double shortSum = 0;
+        double longSum = 0;
+        // 30 days at one view per hour: many rebases with a one hour half-life
+        for (int hour = 0; hour < 24 * 30; hour++) {
+            at = NOW.plus(hour, ChronoUnit.HOURS);
+            trending.record("video", at, 1);
+            shortSum = shortSum * Math.exp(-shortRate * 3600) + 1;
+            longSum = longSum * Math.exp(-longRate * 3600) + 1;
+        }
+
+        DecayedTrending.Entry entry = trending.top(at, 0, 1).get(0);
+        assertEquals(shortSum, entry.getViews(), 1e-6);
+        assertEquals(shortRate * shortSum / (longRate * longSum), entry.getRatio(), 1e-6);
+    }
+
+    @Test
+    @DisplayName("Concurrent updates should not lose views")
+    void testConcurrentUpdates() throws Exception {
+        DecayedTrending trending = new DecayedTrending(SHORT, LONG, 0, 100);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int thread = 0; thread < 8; thread++) {
+            executor.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    trending.record("video_" + (i % 10), NOW, 1);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        List<DecayedTrending.Entry> top = trending.top(NOW, 0, 100);
+        assertEquals(10, top.size());
+        for (DecayedTrending.Entry entry : top) {
+            assertEquals(8_000, entry.getViews(), 1e-6);
+        }
+    }
+
+    private static List<String> ids(List<DecayedTrending.Entry> entries) {
+        return entries.stream().map(DecayedTrending.Entry::getVideoId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,141 @@
+package com.streaming.analytics.state;
+
+import com.streaming.analytics.model.Video;
+import com.streaming.analytics.model.ViewEvent;
+import com.streaming.analytics.repository.CatalogSyncResult;
+import com.streaming.analytics.repository.memory.InMemoryVideoRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the in-memory event cube
+ */
+class EventCubeTest {
+
+    private static final Instant NOW = Instant.parse("2024-03-01T12:30:00Z");
+
+    @Test
+    @DisplayName("Queries should group, filter and sum counts and durations")
+    void testSliceAndDice() {
+        EventCube cube = new EventCube(24, 8);
+        cube.record(NOW, "WATCH", "mobile", "720p", "Drama", 3, 300);
+        cube.record(NOW, "WATCH", "tv", "4K", "Drama", 2, 500);
+        cube.record(NOW, "PAUSE", "tv", "4K", "Comedy", 1, 0);
+        cube.record(NOW, "WATCH", "tv", "8K", null, 1, 60);
+
+        assertEquals(Map.of("tv", 4L, "mobile", 3L), cube.countByValue("deviceType"));
+        assertEquals(Map.of("720p", 3L, "4K", 3L, "other", 1L), cube.countByValue("quality"));
+
+        List<EventCube.Row> rows = cube.query(List.of("category", "deviceType"),
+                Map.of("action", Set.of("WATCH")), null);
+        assertEquals(3, rows.size());
+        assertEquals(Map.of("category", "Drama", "deviceType", "mobile"), rows.get(0).getValues());
+        assertEquals(3, rows.get(0).getCount());
+        assertEquals(300, rows.get(0).getDuration());
+
+        List<EventCube.Row> total = cube.query(List.of(), Map.of("category", Set.of("Drama", "Comedy")), null);
+        assertEquals(1, total.size());
+        assertEquals(6, total.get(0).getCount());
+        assertEquals(800, total.get(0).getDuration());
+
+        assertTrue(cube.query(List.of(), Map.of("category", Set.of("Horror")), null).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> cube.query(List.of("videoId"), Map.of(), null));
+    }
+
+    @Test
+    @DisplayName("Hours leaving the ring should fold into the earlier bucket")
+    void testHourRing() {
+        EventCube cube = new EventCube(24, 4);
+        cube.record(NOW.minus(30, ChronoUnit.HOURS), "WATCH", "mobile", "720p", "Drama", 1, 10);
+        cube.record(NOW.minus(2, ChronoUnit.HOURS), "WATCH", "mobile", "720p", "Drama", 2, 20);
+        cube.record(NOW, "WATCH", "mobile", "720p", "Drama", 4, 40);
+        cube.record(NOW.minus(40, ChronoUnit.HOURS), "WATCH", "mobile", "720p", "Drama", 8, 80);
+
+        List<EventCube.Row> byHour = cube.query(List.of("hour"), Map.of(), null);
+        assertEquals(3, byHour.size());
+        assertEquals("earlier", byHour.get(0).getValues().get("hour"));
+        assertEquals(9, byHour.get(0).getCount());
+        assertEquals("2024-03-01T12:00:00Z", byHour.get(1).getValues().get("hour"));
+
+        // Moving 23 hours on pushes the 10:00 hour out of the ring
+        cube.record(NOW.plus(23, ChronoUnit.HOURS), "STOP", "tv", "4K", "Comedy", 1, 0);
+        assertEquals(16, cube.query(List.of(), Map.of(), null).get(0).getCount(), "Totals cover all events");
+        Map<String, Long> recent = Map.of(
+                "2024-03-01T12:00:00Z", 4L,
+                "2024-03-02T11:00:00Z", 1L);
+        List<EventCube.Row> since = cube.query(List.of("hour"), Map.of(), NOW.minus(1, ChronoUnit.HOURS));
+        assertEquals(2, since.size());
+        for (EventCube.Row row : since) {
+            assertEquals(recent.get(row.getValues().get("hour")), row.getCount());
+        }
+    }
+
+    @Test
+    @DisplayName("Categories beyond the capacity should share the other slot")
+    void testCategoryCapacity() {
+        EventCube cube = new EventCube(24, 3);
+        cube.record(NOW, "WATCH", "mobile", "720p", "Drama", 1, 0);
+        cube.record(NOW, "WATCH", "mobile", "720p", "Comedy", 1, 0);
+        cube.record(NOW, "WATCH", "mobile", "720p", "Horror", 1, 0);
+        cube.record(NOW, "WATCH", "mobile", "720p", "SciFi", 1, 0);
+
+        assertEquals(Map.of("Drama", 1L, "Comedy", 1L, "other", 2L), cube.countByValue("category"));
+    }
+
+    @Test
+    @DisplayName("A video's category should be looked up again until it is in the catalog and after a sync")
+    void testCategoryRefresh() throws Exception {
+        InMemoryVideoRepository videos = new InMemoryVideoRepository();
+        EventCubeService service = new EventCubeService();
+        Field field = EventCubeService.class.getDeclaredField("videoRepository");
+        field.setAccessible(true);
+        field.set(service, videos);
+        service.init();
+        ViewEvent event = new ViewEvent("e1", "u1", "v1", NOW, "WATCH", 60, "720p", "tv");
+
+        service.record(List.of(event));
+        videos.syncCatalog(List.of(new Video("v1", "One", "Drama", 5400, NOW)).iterator());
+        service.record(List.of(event));
+        assertEquals(Map.of("Unknown", 1L, "Drama", 1L), service.countByValue("category"));
+
+        CatalogSyncResult result =
+                videos.syncCatalog(List.of(new Video("v1", "One", "Comedy", 5400, NOW)).iterator());
+        service.record(List.of(event));
+        assertEquals(2L, service.countByValue("category").get("Drama"), "Cached until the sync is reported");
+        service.forgetCategories(result.getChangedVideoIds());
+        service.record(List.of(event));
+        assertEquals(1L, service.countByValue("category").get("Comedy"));
+    }
+
+    @Test
+    @DisplayName("Concurrent updates across hour changes should not lose events")
+    void testConcurrentUpdates() throws Exception {
+        EventCube cube = new EventCube(24, 4);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int thread = 0; thread < 8; thread++) {
+            executor.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    cube.record(NOW.plus(i / 100, ChronoUnit.HOURS), "WATCH", "tv", "4K", "Drama", 1, 2);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        EventCube.Row total = cube.query(List.of(), Map.of(), null).get(0);
+        assertEquals(80_000, total.getCount());
+        assertEquals(160_000, total.getDuration());
+    }
+}
@@ -0,0 +1,59 @@
+package com.streaming.analytics.state;
+
+import com.streaming.analytics.model.ViewEvent;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ingest-side counting of the global totals (not seeded, so no database is needed)
+ */
+class GlobalCountersTest {
+
+    private static ViewEvent event(String action) {
+        return new ViewEvent("e", "user_1", "video_1", Instant.now(), action, 10, "720p", "mobile");
+    }
+
+    @Test
+    @DisplayName("Should count events in total and per action")
+    void testRecord() {
+        GlobalCounters counters = new GlobalCounters();
+        assertFalse(counters.isReady(), "Not seeded without init()");
+
+        counters.record(List.of(event("WATCH"), event("PAUSE"), event("WATCH"), event(null)));
+
+        assertEquals(4, counters.getTotalEvents());
+        assertEquals(2L, counters.getActionCounts().get("WATCH"));
+        assertEquals(1L, counters.getActionCounts().get("PAUSE"));
+        assertEquals(2, counters.getActionCounts().size());
+    }
+
+    @Test
+    @DisplayName("Concurrent ingest threads should not lose increments")
+    void testConcurrentRecord() throws Exception {
+        GlobalCounters counters = new GlobalCounters();
+        List<ViewEvent> batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            batch.add(event(i % 2 == 0 ? "WATCH" : "SEEK"));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 1_000; i++) {
+            pool.execute(() -> counters.record(batch));
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(10_000, counters.getTotalEvents());
+        assertEquals(5_000L, counters.getActionCounts().get("WATCH"));
+        assertEquals(5_000L, counters.getActionCounts().get("SEEK"));
+    }
+}
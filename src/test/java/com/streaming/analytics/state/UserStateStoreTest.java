@@ -0,0 +1,97 @@
+package com.streaming.analytics.state;
+
+import com.streaming.analytics.model.UserProfile;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the RocksDB-backed user state store
+ */
+class UserStateStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Watches should build on the checkpointed profile loaded for a new local user")
+    void testApplyWatchUsesLoader() throws Exception {
+        try (UserStateStore store = new UserStateStore(directory, false)) {
+            store.applyWatch("user_1", "video_2", "Drama", 60, userId -> {
+                UserProfile stored = new UserProfile(userId);
+                stored.addToHistory("video_1", "Action", 100);
+                return stored;
+            });
+            store.applyWatch("user_1", "video_3", "Drama", 40, userId -> fail("Loader called twice"));
+
+            UserProfile profile = store.get("user_1");
+            assertEquals(List.of("video_3", "video_2", "video_1"), profile.getWatchHistory());
+            assertEquals(2, profile.getPreferences().get("Drama"));
+            assertEquals(1, profile.getPreferences().get("Action"));
+            assertEquals(200, profile.getTotalWatchTime());
+            assertNotNull(profile.getLastActive());
+        }
+    }
+
+    @Test
+    @DisplayName("State and dirty markers should survive closing and reopening the store")
+    void testRecovery() throws Exception {
+        try (UserStateStore store = new UserStateStore(directory, true)) {
+            store.applyWatch("user_1", "video_1", "Action", 30, userId -> null);
+            store.applyWatch("user_2", "video_1", "Action", 45, userId -> null);
+        }
+
+        try (UserStateStore reopened = new UserStateStore(directory, false)) {
+            assertEquals(30, reopened.get("user_1").getTotalWatchTime());
+            assertEquals(2, reopened.dirty(10).size(), "Unchecked profiles must still be checkpointed");
+            assertNull(reopened.get("user_3"));
+        }
+    }
+
+    @Test
+    @DisplayName("A profile changed after it was read for a checkpoint should stay dirty")
+    void testMarkCleanKeepsNewerChanges() throws Exception {
+        try (UserStateStore store = new UserStateStore(directory, false)) {
+            store.applyWatch("user_1", "video_1", "Action", 30, userId -> null);
+            store.applyWatch("user_2", "video_1", "Action", 30, userId -> null);
+
+            List<UserStateStore.DirtyProfile> checkpoint = store.dirty(10);
+            store.applyWatch("user_2", "video_2", "Comedy", 10, userId -> null);
+            store.markClean(checkpoint);
+
+            List<UserStateStore.DirtyProfile> remaining = store.dirty(10);
+            assertEquals(1, remaining.size());
+            assertEquals("user_2", remaining.get(0).getProfile().getUserId());
+            assertEquals(40, remaining.get(0).getProfile().getTotalWatchTime());
+        }
+    }
+
+    @Test
+    @DisplayName("After a rebuild drops the local state, reads and watches should use the rebuilt profile")
+    void testClearAfterRebuild() throws Exception {
+        try (UserStateStore store = new UserStateStore(directory, false)) {
+            store.applyWatch("user_1", "video_1", "Action", 30, userId -> null);
+            store.applyWatch("user_2", "video_1", "Action", 30, userId -> null);
+            store.markClean(store.dirty(10));
+
+            store.clear();
+            assertNull(store.get("user_1"), "Reads fall back to the rebuilt user_profiles");
+            assertTrue(store.dirty(10).isEmpty(), "Nothing is written back over the rebuilt profiles");
+
+            UserProfile rebuilt = new UserProfile("user_1");
+            rebuilt.addToHistory("video_9", "Drama", 500);
+            store.applyWatch("user_1", "video_2", "Comedy", 20, userId -> rebuilt);
+
+            UserProfile profile = store.get("user_1");
+            assertEquals(List.of("video_2", "video_9"), profile.getWatchHistory());
+            assertEquals(520, profile.getTotalWatchTime());
+            assertNull(profile.getPreferences().get("Action"), "The replaced local profile is gone");
+            assertNull(store.get("user_2"));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.streaming.analytics.state;
+
+import com.streaming.analytics.model.VideoStats;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the memory-mapped video counter table
+ */
+class VideoCounterTableTest {
+
+    private static final Instant NOW = Instant.parse("2024-03-01T12:00:00Z");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Counters should track views, watch seconds and per-dimension counts")
+    void testRecord() throws Exception {
+        try (VideoCounterTable table = new VideoCounterTable(directory, 16)) {
+            table.record("video_1", "WATCH", 100, "mobile", "720p", NOW);
+            table.record("video_1", "WATCH", 50, "tv", "4K", NOW.plusSeconds(10));
+            table.record("video_1", "PAUSE", 0, "tv", "8K", NOW);
+
+            VideoCounterTable.Counters counters = table.get("video_1");
+            assertEquals(2, counters.getViews());
+            assertEquals(150, counters.getWatchSeconds());
+            assertEquals(3, counters.getEvents());
+            assertEquals(NOW.plusSeconds(10), counters.getLastUpdated());
+            assertEquals(2L, counters.getActions().get("WATCH"));
+            assertEquals(2L, counters.getDevices().get("tv"));
+            assertEquals(1L, counters.getQualities().get("other"), "Unknown values share the other bucket");
+
+            VideoStats stats = counters.toVideoStats();
+            assertEquals(75.0, stats.getAvgDuration(), 0.001);
+            assertNull(table.get("video_2"));
+        }
+    }
+
+    @Test
+    @DisplayName("Counters and ordinals should be available again after reopening the file")
+    void testSurvivesRestart() throws Exception {
+        try (VideoCounterTable table = new VideoCounterTable(directory, 16)) {
+            assertTrue(table.isCreated());
+            table.seed("video_1", 10, 1000, 4, NOW);
+            table.record("video_2", "WATCH", 30, "desktop", "1080p", NOW);
+            table.record("video_1", "WATCH", 20, "desktop", "1080p", NOW);
+        }
+
+        try (VideoCounterTable reopened = new VideoCounterTable(directory, 16)) {
+            assertFalse(reopened.isCreated());
+            assertEquals(2, reopened.size());
+            assertEquals(11, reopened.get("video_1").getViews());
+            assertEquals(1020, reopened.get("video_1").getWatchSeconds());
+            assertEquals(4, reopened.get("video_1").getUniqueViewers());
+            assertEquals(1, reopened.get("video_2").getViews());
+        }
+
+        assertThrows(IllegalStateException.class, () -> new VideoCounterTable(directory, 32),
+                "A file with another capacity must not be reinterpreted");
+    }
+
+    @Test
+    @DisplayName("Concurrent updates should not lose increments")
+    void testConcurrentUpdates() throws Exception {
+        try (VideoCounterTable table = new VideoCounterTable(directory, 16)) {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            for (int t = 0; t < 8; t++) {
+                executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        table.record("video_" + (i % 4), "WATCH", 1, "mobile", "720p", NOW);
+                    }
+                    return null;
+                });
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+            assertEquals(4, table.size());
+            for (int v = 0; v < 4; v++) {
+                assertEquals(20_000, table.get("video_" + v).getViews());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Reseeding should replace the base values without making the counters dirty")
+    void testReseed() throws Exception {
+        try (VideoCounterTable table = new VideoCounterTable(directory, 16)) {
+            table.record("video_1", "WATCH", 100, "tv", "720p", NOW.plusSeconds(60));
+            table.record("video_2", "WATCH", 10, "tv", "720p", NOW);
+            table.markCheckpointed(table.dirty(100));
+
+            table.seed("video_1", 5, 250, 2, NOW);
+            table.seed("video_3", 1, 10, 1, NOW);
+            assertEquals(List.of("video_1", "video_2", "video_3"), table.videoIds());
+
+            VideoCounterTable.Counters counters = table.get("video_1");
+            assertEquals(5, counters.getViews());
+            assertEquals(250, counters.getWatchSeconds());
+            assertEquals(2, counters.getUniqueViewers());
+            assertEquals(NOW, counters.getLastUpdated(), "A rebuilt value replaces a later one");
+            assertTrue(table.dirty(100).isEmpty(), "Seeded values are already in the checkpoint");
+        }
+    }
+
+    @Test
+    @DisplayName("Top videos and dirty tracking should follow the counters")
+    void testTopAndDirty() throws Exception {
+        try (VideoCounterTable table = new VideoCounterTable(directory, 16)) {
+            for (int v = 1; v <= 5; v++) {
+                for (int i = 0; i < v; i++) {
+                    table.record("video_" + v, "WATCH", 10, "tv", "720p", NOW);
+                }
+            }
+
+            List<VideoCounterTable.Counters> top = table.top(3);
+            assertEquals(List.of("video_5", "video_4", "video_3"),
+                    List.of(top.get(0).getVideoId(), top.get(1).getVideoId(), top.get(2).getVideoId()));
+
+            List<VideoCounterTable.Counters> dirty = table.dirty(100);
+            assertEquals(5, dirty.size());
+            table.record("video_1", "SEEK", 0, "tv", "720p", NOW);
+            table.markCheckpointed(dirty);
+
+            List<VideoCounterTable.Counters> remaining = table.dirty(100);
+            assertEquals(1, remaining.size(), "A video updated during the checkpoint stays dirty");
+            assertEquals("video_1", remaining.get(0).getVideoId());
+        }
+    }
+}